@@ -0,0 +1,105 @@
+package org.odk.collect.android.instrumented.external;
+
+import android.Manifest;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.rule.GrantPermissionRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.external.ExternalDataReader;
+import org.odk.collect.android.external.ExternalDataReaderImpl;
+import org.odk.collect.android.external.ExternalDataUtil;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import timber.log.Timber;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Measures the rate at which rows from a CSV file are imported into an external data database.
+ * Results are written to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CsvImportBenchmarkTest {
+
+    private static final String DATA_SET = "benchmark";
+    private static final int[] ROW_COUNTS = {10000, 100000, 1000000};
+
+    @Rule
+    public GrantPermissionRule permissionRule = GrantPermissionRule.grant(
+            Manifest.permission.READ_EXTERNAL_STORAGE,
+            Manifest.permission.WRITE_EXTERNAL_STORAGE);
+
+    private File dir;
+    private File csvFile;
+    private File dbFile;
+
+    @Before
+    public void setUp() {
+        dir = new File(Collect.getInstance().getCacheDir(), "csv_benchmark");
+        dir.mkdirs();
+        csvFile = new File(dir, DATA_SET + ".csv");
+        dbFile = new File(dir, DATA_SET + ".db");
+    }
+
+    @After
+    public void cleanUp() {
+        csvFile.delete();
+        dbFile.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void importRateByRowCount() throws IOException {
+        for (int count : ROW_COUNTS) {
+            writeCsv(count);
+            dbFile.delete();
+
+            Map<String, File> externalDataMap = new HashMap<>();
+            externalDataMap.put(DATA_SET, csvFile);
+            ExternalDataReader reader = new ExternalDataReaderImpl(null);
+
+            long t0 = System.currentTimeMillis();
+            reader.doImport(externalDataMap);
+            long elapsed = Math.max(System.currentTimeMillis() - t0, 1);
+
+            assertThat(getRowCount(), is(count));
+            Timber.i("CSV import benchmark: %d rows, %d ms, %d rows/sec, %d KB",
+                    count, elapsed, count * 1000L / elapsed, csvFile.length() / 1024);
+        }
+    }
+
+    private void writeCsv(int count) throws IOException {
+        try (Writer out = new BufferedWriter(new FileWriter(csvFile))) {
+            out.write("name,label,district_key,population,description\n");
+            for (int i = 0; i < count; i++) {
+                out.write("name" + i + ",\"Label " + i + "\",d" + (i % 500) + "," + (i * 7 % 100000)
+                        + ",\"A description of item " + i + ", with a comma\"\n");
+            }
+        }
+    }
+
+    private int getRowCount() {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            return (int) DatabaseUtils.queryNumEntries(db, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME);
+        } finally {
+            db.close();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.odk.collect.android.instrumented.external;
+
+import android.Manifest;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.rule.GrantPermissionRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.external.ExternalDataFts;
+import org.odk.collect.android.external.ExternalDataReader;
+import org.odk.collect.android.external.ExternalDataReaderImpl;
+import org.odk.collect.android.external.ExternalDataUtil;
+import org.odk.collect.android.preferences.GeneralKeys;
+import org.odk.collect.android.preferences.GeneralSharedPreferences;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import timber.log.Timber;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+/**
+ * Compares the time taken by a startsWith search of a large external data set with a like expression
+ * and with the full text index.  Results are written to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ExternalSearchBenchmarkTest {
+
+    private static final String DATA_SET = "search_benchmark";
+    private static final int ROW_COUNT = 500000;
+    private static final String[] SEARCHES = {"Label 1234", "Label 99", "item 4999"};
+
+    @Rule
+    public GrantPermissionRule permissionRule = GrantPermissionRule.grant(
+            Manifest.permission.READ_EXTERNAL_STORAGE,
+            Manifest.permission.WRITE_EXTERNAL_STORAGE);
+
+    private File dir;
+    private File csvFile;
+    private File dbFile;
+
+    @Before
+    public void setUp() throws IOException {
+        GeneralSharedPreferences.getInstance().save(GeneralKeys.KEY_SMAP_EXTERNAL_FTS, true);
+
+        dir = new File(Collect.getInstance().getCacheDir(), "search_benchmark");
+        dir.mkdirs();
+        csvFile = new File(dir, DATA_SET + ".csv");
+        dbFile = new File(dir, DATA_SET + ".db");
+        writeCsv();
+
+        Map<String, File> externalDataMap = new HashMap<>();
+        externalDataMap.put(DATA_SET, csvFile);
+        ExternalDataReader reader = new ExternalDataReaderImpl(null);
+        reader.doImport(externalDataMap);
+    }
+
+    @After
+    public void cleanUp() {
+        GeneralSharedPreferences.getInstance().reset(GeneralKeys.KEY_SMAP_EXTERNAL_FTS);
+        csvFile.delete();
+        dbFile.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void startsWithSearch_likeAndFullTextIndex() {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        try {
+            int version = ExternalDataFts.getVersion(db);
+            assertThat(version, is(not(ExternalDataFts.NONE)));
+
+            for (String column : new String[] {"label", "description"}) {
+                for (String value : SEARCHES) {
+                    String likeArg = value + "%";
+
+                    long t0 = System.nanoTime();
+                    int likeCount = count(db, column + " LIKE ?", likeArg);
+                    long likeMs = (System.nanoTime() - t0) / 1000000;
+
+                    String ftsSelection;
+                    String ftsArg;
+                    if (version == ExternalDataFts.FTS5) {
+                        ftsSelection = "rowid IN (SELECT rowid FROM " + ExternalDataFts.FTS_TABLE_NAME + " WHERE "
+                                + column + " LIKE ?) AND " + column + " LIKE ?";
+                        ftsArg = likeArg;
+                    } else {
+                        ftsSelection = "rowid IN (SELECT docid FROM " + ExternalDataFts.FTS_TABLE_NAME + " WHERE "
+                                + ExternalDataFts.FTS_TABLE_NAME + " MATCH ?) AND " + column + " LIKE ?";
+                        ftsArg = column + ":" + value.toLowerCase().replace(" ", " " + column + ":") + "*";
+                    }
+
+                    t0 = System.nanoTime();
+                    int ftsCount = count(db, ftsSelection, ftsArg, likeArg);
+                    long ftsMs = (System.nanoTime() - t0) / 1000000;
+
+                    assertThat(ftsCount, is(likeCount));
+                    Timber.i("External search benchmark: %d rows, fts%d, %s startsWith '%s', %d matches, like %d ms, index %d ms",
+                            ROW_COUNT, version, column, value, likeCount, likeMs, ftsMs);
+                }
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    private int count(SQLiteDatabase db, String selection, String... args) {
+        try (Cursor c = db.query(ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, new String[] {"name"}, selection,
+                args, null, null, ExternalDataUtil.SORT_COLUMN_NAME)) {
+            return c.getCount();
+        }
+    }
+
+    private void writeCsv() throws IOException {
+        try (Writer out = new BufferedWriter(new FileWriter(csvFile))) {
+            out.write("name,label,district_key,description\n");
+            for (int i = 0; i < ROW_COUNT; i++) {
+                out.write("name" + i + ",\"Label " + i + "\",d" + (i % 500)
+                        + ",\"item " + i + " of the benchmark data\"\n");
+            }
+        }
+    }
+}
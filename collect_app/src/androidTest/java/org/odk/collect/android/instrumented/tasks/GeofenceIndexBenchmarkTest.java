@@ -0,0 +1,84 @@
+package org.odk.collect.android.instrumented.tasks;
+
+import android.location.Location;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.loaders.GeofenceEntry;
+import org.odk.collect.android.loaders.GeofenceIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import timber.log.Timber;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Compares the time taken to check a location against every geofence with the time taken to check
+ * it using the geofence index. Results are written to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GeofenceIndexBenchmarkTest {
+
+    private static final int[] GEOFENCE_COUNTS = {10000, 100000};
+    private static final int LOCATIONS = 200;
+
+    @Test
+    public void compareLocationCheckTimeByGeofenceCount() {
+        Random random = new Random(1);
+        for (int count : GEOFENCE_COUNTS) {
+            // Tasks spread over an area of about 50km x 50km
+            List<GeofenceEntry> geofences = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                GeofenceEntry gfe = new GeofenceEntry(50 + random.nextInt(500),
+                        location(-34.0 + random.nextDouble() * 0.5, 151.0 + random.nextDouble() * 0.5));
+                gfe.in = random.nextInt(100) == 0;
+                geofences.add(gfe);
+            }
+            List<Location> locations = new ArrayList<>(LOCATIONS);
+            for (int i = 0; i < LOCATIONS; i++) {
+                locations.add(location(-34.0 + random.nextDouble() * 0.5, 151.0 + random.nextDouble() * 0.5));
+            }
+
+            long t0 = System.currentTimeMillis();
+            int linearChanges = 0;
+            for (Location location : locations) {
+                for (GeofenceEntry gfe : geofences) {
+                    float distance = location.distanceTo(gfe.location);
+                    if ((gfe.in && distance > gfe.showDist) || (!gfe.in && distance < gfe.showDist)) {
+                        linearChanges++;
+                    }
+                }
+            }
+            long linear = System.currentTimeMillis() - t0;
+
+            t0 = System.currentTimeMillis();
+            GeofenceIndex index = new GeofenceIndex(geofences);
+            long build = System.currentTimeMillis() - t0;
+
+            t0 = System.currentTimeMillis();
+            int indexedChanges = 0;
+            for (Location location : locations) {
+                GeofenceIndex.Changes changes = index.getChanges(location.getLatitude(), location.getLongitude());
+                indexedChanges += changes.entered.size() + changes.exited.size();
+            }
+            long indexed = System.currentTimeMillis() - t0;
+
+            assertThat(indexedChanges, is(linearChanges));
+            Timber.i("Geofence benchmark: %d geofences, %d locations, linear %d ms, index build %d ms, indexed %d ms",
+                    count, LOCATIONS, linear, build, indexed);
+        }
+    }
+
+    private Location location(double lat, double lon) {
+        Location location = new Location("");
+        location.setLatitude(lat);
+        location.setLongitude(lon);
+        return location;
+    }
+}
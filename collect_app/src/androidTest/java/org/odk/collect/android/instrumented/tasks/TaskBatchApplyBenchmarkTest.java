@@ -0,0 +1,97 @@
+package org.odk.collect.android.instrumented.tasks;
+
+import android.Manifest;
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.rule.GrantPermissionRule;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.instances.Instance;
+import org.odk.collect.android.provider.InstanceProviderAPI;
+import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
+
+import java.util.ArrayList;
+
+import timber.log.Timber;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Compares the time taken to apply task changes from a sync one row at a time with the time taken
+ * to apply them as a single batch. Results are written to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TaskBatchApplyBenchmarkTest {
+
+    private static final String SOURCE = "benchmark.source";
+    private static final int[] TASK_COUNTS = {100, 500, 2000};
+
+    @Rule
+    public GrantPermissionRule permissionRule = GrantPermissionRule.grant(
+            Manifest.permission.READ_EXTERNAL_STORAGE,
+            Manifest.permission.WRITE_EXTERNAL_STORAGE);
+
+    private final ContentResolver resolver = Collect.getInstance().getContentResolver();
+
+    @After
+    public void cleanUp() {
+        resolver.delete(InstanceColumns.CONTENT_URI, InstanceColumns.SOURCE + " = ?", new String[] {SOURCE});
+    }
+
+    @Test
+    public void compareSyncTimeByTaskCount() throws Exception {
+        for (int count : TASK_COUNTS) {
+            long t0 = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                resolver.insert(InstanceColumns.CONTENT_URI, getTaskValues(i));
+            }
+            long perRow = System.currentTimeMillis() - t0;
+            assertThat(getTaskCount(), is(count));
+            cleanUp();
+
+            t0 = System.currentTimeMillis();
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                operations.add(ContentProviderOperation.newInsert(InstanceColumns.CONTENT_URI)
+                        .withValues(getTaskValues(i))
+                        .build());
+            }
+            resolver.applyBatch(InstanceProviderAPI.AUTHORITY, operations);
+            long batched = System.currentTimeMillis() - t0;
+            assertThat(getTaskCount(), is(count));
+            cleanUp();
+
+            Timber.i("Task sync benchmark: %d tasks, per row %d ms, batched %d ms", count, perRow, batched);
+        }
+    }
+
+    private ContentValues getTaskValues(int i) {
+        ContentValues values = new ContentValues();
+        values.put(InstanceColumns.JR_FORM_ID, "benchmark");
+        values.put(InstanceColumns.SOURCE, SOURCE);
+        values.put(InstanceColumns.DISPLAY_NAME, "Benchmark");
+        values.put(InstanceColumns.INSTANCE_FILE_PATH, "benchmark_" + i + "/instance.xml");
+        values.put(InstanceColumns.STATUS, Instance.STATUS_INCOMPLETE);
+        values.put(InstanceColumns.T_TITLE, "Task " + i);
+        values.put(InstanceColumns.T_ASS_ID, i);
+        values.put(InstanceColumns.T_TASK_STATUS, "accepted");
+        values.put(InstanceColumns.T_IS_SYNC, Instance.STATUS_SYNC_YES);
+        return values;
+    }
+
+    private int getTaskCount() {
+        try (Cursor c = resolver.query(InstanceColumns.CONTENT_URI, new String[] {InstanceColumns._ID},
+                InstanceColumns.SOURCE + " = ?", new String[] {SOURCE}, null)) {
+            return c == null ? 0 : c.getCount();
+        }
+    }
+}
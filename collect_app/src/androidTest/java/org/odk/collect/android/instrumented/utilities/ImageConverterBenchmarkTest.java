@@ -0,0 +1,144 @@
+package org.odk.collect.android.instrumented.utilities;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+
+import androidx.exifinterface.media.ExifInterface;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.javarosa.core.model.instance.TreeElement;
+import org.javarosa.core.model.data.StringData;
+import org.javarosa.form.api.FormEntryPrompt;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.utilities.FileUtils;
+import org.odk.collect.android.utilities.ImageConverter;
+import org.odk.collect.android.widgets.QuestionWidget;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+
+import timber.log.Timber;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.odk.collect.android.utilities.ApplicationConstants.Namespaces.XML_OPENROSA_NAMESPACE;
+
+/**
+ * Compares the time and the bitmap memory taken to scale a large camera photo with a full
+ * resolution decode and with ImageConverter, which decodes a sampled bitmap. Also times the
+ * rotated copy made for the draw screen. Results are written to the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImageConverterBenchmarkTest {
+
+    private static final int WIDTH = 4000;
+    private static final int HEIGHT = 3000;
+    private static final int MAX_PIXELS = 1024;
+    private static final int DISPLAY_LONG_EDGE = 1920;
+
+    private File dir;
+    private File source;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = new File(Collect.getInstance().getCacheDir(), "image_benchmark");
+        dir.mkdirs();
+        source = new File(dir, "source.jpg");
+        writeJpeg(source);
+    }
+
+    @After
+    public void cleanUp() {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void scaleDown_fullDecodeAndSampledDecode() throws IOException {
+        File fullDecodeImage = copy(source, "full.jpg");
+        long t0 = System.nanoTime();
+        Bitmap full = BitmapFactory.decodeFile(fullDecodeImage.getAbsolutePath());
+        int fullKb = full.getByteCount() / 1024;
+        Bitmap scaled = Bitmap.createScaledBitmap(full, MAX_PIXELS, MAX_PIXELS * HEIGHT / WIDTH, false);
+        full.recycle();
+        FileUtils.saveBitmapToFile(scaled, fullDecodeImage.getAbsolutePath());
+        scaled.recycle();
+        long fullMs = (System.nanoTime() - t0) / 1000000;
+
+        File sampledImage = copy(source, "sampled.jpg");
+        t0 = System.nanoTime();
+        ImageConverter.execute(sampledImage.getAbsolutePath(), widgetWithMaxPixels(MAX_PIXELS), Collect.getInstance());
+        long sampledMs = (System.nanoTime() - t0) / 1000000;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(sampledImage.getAbsolutePath(), options);
+        assertThat(options.outWidth, is(MAX_PIXELS));
+        assertThat(new ExifInterface(sampledImage.getAbsolutePath()).getAttributeInt(ExifInterface.TAG_ORIENTATION, 0),
+                is(ExifInterface.ORIENTATION_ROTATE_90));
+
+        int sampledKb = (MAX_PIXELS * 2) * (MAX_PIXELS * 2 * HEIGHT / WIDTH) * 4 / 1024;
+        Timber.i("Image scale benchmark: %dx%d to %d, full decode %d ms using %d KB, sampled decode %d ms using at most %d KB",
+                WIDTH, HEIGHT, MAX_PIXELS, fullMs, fullKb, sampledMs, sampledKb);
+    }
+
+    @Test
+    public void copyImageAndApplyExifRotation_boundedByTheDisplay() {
+        File copy = new File(dir, "copy.jpg");
+
+        long t0 = System.nanoTime();
+        FileUtils.copyImageAndApplyExifRotation(source, copy, DISPLAY_LONG_EDGE);
+        long copyMs = (System.nanoTime() - t0) / 1000000;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(copy.getAbsolutePath(), options);
+        assertThat(options.outWidth, is(HEIGHT / 2));
+        assertThat(options.outHeight, is(WIDTH / 2));
+
+        Timber.i("Image rotate benchmark: %dx%d for a %d display, rotated copy %dx%d in %d ms",
+                WIDTH, HEIGHT, DISPLAY_LONG_EDGE, options.outWidth, options.outHeight, copyMs);
+    }
+
+    private void writeJpeg(File file) throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.GREEN);
+        try (OutputStream out = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        }
+        bitmap.recycle();
+
+        ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+        exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(ExifInterface.ORIENTATION_ROTATE_90));
+        exif.saveAttributes();
+    }
+
+    private File copy(File file, String name) {
+        File copy = new File(dir, name);
+        FileUtils.copyFile(file, copy);
+        return copy;
+    }
+
+    private static QuestionWidget widgetWithMaxPixels(int maxPixels) {
+        TreeElement maxPixelsAttribute = TreeElement.constructAttributeElement(XML_OPENROSA_NAMESPACE, "max-pixels", String.valueOf(maxPixels));
+        maxPixelsAttribute.setValue(new StringData(String.valueOf(maxPixels)));
+
+        FormEntryPrompt prompt = mock(FormEntryPrompt.class);
+        when(prompt.getBindAttributes()).thenReturn(Collections.singletonList(maxPixelsAttribute));
+        QuestionWidget widget = mock(QuestionWidget.class);
+        when(widget.getFormEntryPrompt()).thenReturn(prompt);
+        return widget;
+    }
+}
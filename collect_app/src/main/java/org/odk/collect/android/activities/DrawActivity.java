@@ -21,6 +21,7 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.net.Uri;
 import android.os.Bundle;
+import android.util.DisplayMetrics;     // smap
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import androidx.appcompat.app.AlertDialog;
 import androidx.cardview.widget.CardView;
@@ -173,13 +174,13 @@ public class DrawActivity extends CollectAbstractActivity {
                 savepointImage = new File(savepoint);
                 if (!savepointImage.exists() && refImage != null
                         && refImage.exists()) {
-                    FileUtils.copyImageAndApplyExifRotation(refImage, savepointImage);
+                    FileUtils.copyImageAndApplyExifRotation(refImage, savepointImage, getDisplayLongEdge());   // smap
                 }
             } else {
                 savepointImage = new File(storagePathProvider.getTmpImageFilePath());
                 savepointImage.delete();
                 if (refImage != null && refImage.exists()) {
-                    FileUtils.copyImageAndApplyExifRotation(refImage, savepointImage);
+                    FileUtils.copyImageAndApplyExifRotation(refImage, savepointImage, getDisplayLongEdge());   // smap
                 }
             }
             uri = (Uri) extras.get(EXTRA_OUTPUT);
@@ -245,11 +246,21 @@ public class DrawActivity extends CollectAbstractActivity {
         }
     }
 
+    /*
+     * smap
+     * The draw view scales its background to fit the screen so the copy of the reference image
+     * does not need more pixels than the long edge of the display
+     */
+    private int getDisplayLongEdge() {
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        return Math.max(metrics.widthPixels, metrics.heightPixels);
+    }
+
     private void reset() {
         savepointImage.delete();
         if (!OPTION_SIGNATURE.equals(loadOption) && refImage != null
                 && refImage.exists()) {
-            FileUtils.copyImageAndApplyExifRotation(refImage, savepointImage);
+            FileUtils.copyImageAndApplyExifRotation(refImage, savepointImage, getDisplayLongEdge());   // smap
         }
         drawView.reset();
         drawView.invalidate();
@@ -88,6 +88,8 @@ import org.odk.collect.android.exception.JavaRosaException;
 import org.odk.collect.android.external.handler.SmapRemoteDataItem;    // smap
 import org.odk.collect.android.formentry.BackgroundAudioPermissionDialogFragment;
 import org.odk.collect.android.formentry.BackgroundAudioViewModel;
+import org.odk.collect.android.formentry.FieldListRefreshScheduler;
+import org.odk.collect.android.formentry.FieldListSnapshot;
 import org.odk.collect.android.formentry.FormEndView;
 import org.odk.collect.android.formentry.FormEntryMenuDelegate;
 import org.odk.collect.android.formentry.FormEntryViewModel;
@@ -133,7 +135,6 @@ import org.odk.collect.android.listeners.SmapRemoteListener;    // smap
 import org.odk.collect.android.listeners.SwipeHandler;
 import org.odk.collect.android.listeners.WidgetValueChangedListener;
 import org.odk.collect.android.logic.FormInfo;
-import org.odk.collect.android.logic.ImmutableDisplayableQuestion;
 import org.odk.collect.android.logic.PropertyManager;
 import org.odk.collect.android.permissions.PermissionsChecker;
 import org.odk.collect.android.preferences.AdminKeys;
@@ -164,6 +165,7 @@ import org.odk.collect.android.widgets.DateTimeWidget;
 import org.odk.collect.android.widgets.QuestionWidget;
 import org.odk.collect.android.widgets.RangePickerDecimalWidget;
 import org.odk.collect.android.widgets.RangePickerIntegerWidget;
+import org.odk.collect.android.widgets.StringWidget;
 import org.odk.collect.android.widgets.interfaces.WidgetDataReceiver;
 import org.odk.collect.android.widgets.utilities.ExternalAppRecordingRequester;
 import org.odk.collect.android.widgets.utilities.FormControllerWaitingForDataRegistry;
@@ -178,10 +180,13 @@ import java.io.BufferedWriter;  // smap
 import java.io.File;
 import java.io.FileWriter;      // smap
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Set;
 
 import javax.inject.Inject;
 
@@ -302,6 +307,11 @@ public class FormEntryActivity extends CollectAbstractActivity implements Animat
     private ODKView odkView;
     private final DestroyableLifecyleOwner odkViewLifecycle = new DestroyableLifecyleOwner();
 
+    // smap incremental refresh of field lists
+    private final FieldListRefreshScheduler fieldListRefreshScheduler = new FieldListRefreshScheduler(this::refreshFieldList);
+    private ODKView fieldListSnapshotView;
+    private FieldListSnapshot fieldListSnapshot;
+
     private String instancePath;
     private String startingXPath;
     private String waitingXPath;
@@ -398,7 +408,7 @@ public class FormEntryActivity extends CollectAbstractActivity implements Animat
         super.onCreate(savedInstanceState);
 
         Collect.getInstance().setFormEntryActivity(this);   // smap
-        Collect.getInstance().initRemoteServiceCaches();   // smap
+        Collect.getInstance().initRemoteServiceCaches(savedInstanceState != null);   // smap
         Collect.getInstance().getComponent().inject(this);
         propertyManager.reload();
         setContentView(R.layout.form_entry);
@@ -724,6 +734,7 @@ public class FormEntryActivity extends CollectAbstractActivity implements Animat
                         formPath.lastIndexOf('.'))
                         + "_";
                 final String fileSuffix = ".xml.save";
+                SavePointTask.recoverSavepoints(filePrefix);     // smap
                 File cacheDir = new File(storagePathProvider.getDirPath(StorageSubdirectory.CACHE));
                 File[] files = cacheDir.listFiles(pathname -> {
                     String name = pathname.getName();
@@ -1103,6 +1114,7 @@ public class FormEntryActivity extends CollectAbstractActivity implements Animat
      * etc...), true otherwise.
      */
     private boolean saveAnswersForCurrentScreen(boolean evaluateConstraints) {
+        fieldListRefreshScheduler.flush();    // smap
         FormController formController = getFormController();
         // only try to save if the current event is a question or a field-list group
         // and current view is an ODKView (occasionally we show blank views that do not have any
@@ -1136,28 +1148,6 @@ public class FormEntryActivity extends CollectAbstractActivity implements Animat
         return true;
     }
 
-    // The method saves questions one by one in order to support calculations in field-list groups
-    private void saveAnswersForCurrentScreen(FormEntryPrompt[] mutableQuestionsBeforeSave, List<ImmutableDisplayableQuestion> immutableQuestionsBeforeSave) {
-        FormController formController = getFormController();
-        ODKView currentView = getCurrentViewIfODKView();
-        if (formController == null || currentView == null) {
-            return;
-        }
-
-        int index = 0;
-        for (Map.Entry<FormIndex, IAnswerData> answer : currentView.getAnswers().entrySet()) {
-            // Questions with calculates will have their answers updated as the questions they depend on are saved
-            if (!isQuestionRecalculated(mutableQuestionsBeforeSave[index], immutableQuestionsBeforeSave.get(index))) {
-                try {
-                    formController.saveOneScreenAnswer(answer.getKey(), answer.getValue(), false);
-                } catch (JavaRosaException e) {
-                    Timber.e(e);
-                }
-            }
-            index++;
-        }
-    }
-
     /**
      * Clears the answer on the screen.
      */
@@ -2264,6 +2254,7 @@ public class FormEntryActivity extends CollectAbstractActivity implements Animat
 
     @Override
     protected void onDestroy() {
+        fieldListRefreshScheduler.cancel();  // smap
         if (formLoaderTask != null) {
             formLoaderTask.setFormLoaderListener(null);
             // We have to call cancel to terminate the thread, otherwise it
@@ -2816,24 +2807,34 @@ public class FormEntryActivity extends CollectAbstractActivity implements Animat
             runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
-                    try {
-                        updateFieldListQuestions(changedWidget.getFormEntryPrompt().getIndex());
+                    fieldListRefreshScheduler.schedule(changedWidget, changedWidget instanceof StringWidget);  // smap
+                }
+            });
+        }
+    }
 
-                        odkView.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
-                            @Override
-                            public void onLayoutChange(View v, int left, int top, int right, int bottom, int oldLeft, int oldTop, int oldRight, int oldBottom) {
-                                if (!odkView.isDisplayed(changedWidget)) {
-                                    odkView.scrollTo(changedWidget);
-                                }
-                                odkView.removeOnLayoutChangeListener(this);
-                            }
-                        });
-                    } catch (FormDesignException e) {
-                        Timber.e(e);
-                        createErrorDialog(e.getMessage(), false);
+    private void refreshFieldList(QuestionWidget changedWidget) {
+        FormController formController = getFormController();
+        if (formController == null || odkView == null
+                || !odkView.getWidgets().contains(changedWidget) || !formController.indexIsInFieldList()) {
+            return;     // The screen has changed since the refresh was requested
+        }
+
+        try {
+            updateFieldListQuestions(changedWidget.getFormEntryPrompt().getIndex());
+
+            odkView.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+                @Override
+                public void onLayoutChange(View v, int left, int top, int right, int bottom, int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                    if (!odkView.isDisplayed(changedWidget)) {
+                        odkView.scrollTo(changedWidget);
                     }
+                    odkView.removeOnLayoutChangeListener(this);
                 }
             });
+        } catch (FormDesignException e) {
+            Timber.e(e);
+            createErrorDialog(e.getMessage(), false);
         }
     }
 
@@ -2845,65 +2846,78 @@ public class FormEntryActivity extends CollectAbstractActivity implements Animat
      * example, the question text or hint may have updated due to a value they refer to changing.
      * <p>
      * The widget corresponding to the {@param lastChangedIndex} is never changed.
+     * <p>
+     * smap: The user-visible state of the displayed questions is kept between refreshes so that
+     * only answers that differ from the model are saved and only the snapshots of rebuilt questions
+     * need to be recreated.
      */
     private void updateFieldListQuestions(FormIndex lastChangedIndex) throws FormDesignException {
-        // Save the user-visible state for all questions in this field-list
-        FormEntryPrompt[] questionsBeforeSave = getFormController().getQuestionPrompts();
-        List<ImmutableDisplayableQuestion> immutableQuestionsBeforeSave = new ArrayList<>();
-        for (FormEntryPrompt questionBeforeSave : questionsBeforeSave) {
-            immutableQuestionsBeforeSave.add(new ImmutableDisplayableQuestion(questionBeforeSave));
+        long start = System.nanoTime();
+
+        if (fieldListSnapshotView != odkView) {
+            // Save the user-visible state for all questions in this field-list
+            fieldListSnapshotView = odkView;
+            fieldListSnapshot = new FieldListSnapshot(getFormController(), getFormController().getQuestionPrompts());
         }
 
-        saveAnswersForCurrentScreen(questionsBeforeSave, immutableQuestionsBeforeSave);
+        Map<FormIndex, IAnswerData> widgetAnswers = new LinkedHashMap<>();
+        for (QuestionWidget widget : odkView.getWidgets()) {
+            widgetAnswers.put(widget.getFormEntryPrompt().getIndex(), widget.getAnswer());
+        }
+        int saved = fieldListSnapshot.saveChangedAnswers(widgetAnswers, lastChangedIndex);
 
         FormEntryPrompt[] questionsAfterSave = getFormController().getQuestionPrompts();
 
-        Map<FormIndex, FormEntryPrompt> questionsAfterSaveByIndex = new HashMap<>();
-        for (FormEntryPrompt question : questionsAfterSave) {
-            questionsAfterSaveByIndex.put(question.getIndex(), question);
+        // Identify widgets to remove or rebuild (by removing and re-adding)
+        Set<FormIndex> formIndexesThatHaveNotChanged = fieldListSnapshot.update(questionsAfterSave);
+        Set<FormIndex> indexesAfterSave = new HashSet<>();
+        for (FormEntryPrompt questionAfterSave : questionsAfterSave) {
+            indexesAfterSave.add(questionAfterSave.getIndex());
         }
 
-        // Identify widgets to remove or rebuild (by removing and re-adding). We'd like to do the
-        // identification and removal in the same pass but removal has to be done in a loop that
-        // starts from the end and itemset-based select choices will only be correctly recomputed
-        // if accessed from beginning to end because the call on sameAs is what calls
-        // populateDynamicChoices. See https://github.com/getodk/javarosa/issues/436
-        List<FormEntryPrompt> questionsThatHaveNotChanged = new ArrayList<>();
-        List<FormIndex> formIndexesToRemove = new ArrayList<>();
-        for (ImmutableDisplayableQuestion questionBeforeSave : immutableQuestionsBeforeSave) {
-            FormEntryPrompt questionAtSameFormIndex = questionsAfterSaveByIndex.get(questionBeforeSave.getFormIndex());
-
-            // Always rebuild questions that use database-driven external data features since they
-            // bypass SelectChoices stored in ImmutableDisplayableQuestion
-            if (questionBeforeSave.sameAs(questionAtSameFormIndex)
-                    && !getFormController().usesDatabaseExternalDataFeature(questionBeforeSave.getFormIndex())) {
-                questionsThatHaveNotChanged.add(questionAtSameFormIndex);
-            } else if (!lastChangedIndex.equals(questionBeforeSave.getFormIndex())) {
-                formIndexesToRemove.add(questionBeforeSave.getFormIndex());
+        List<QuestionWidget> widgets = odkView.getWidgets();
+        for (int i = widgets.size() - 1; i >= 0; i--) {
+            FormIndex index = widgets.get(i).getFormEntryPrompt().getIndex();
+            if (!formIndexesThatHaveNotChanged.contains(index)
+                    && (!index.equals(lastChangedIndex) || !indexesAfterSave.contains(index))) {
+                odkView.removeWidgetAt(i);
             }
         }
 
-        for (int i = immutableQuestionsBeforeSave.size() - 1; i >= 0; i--) {
-            ImmutableDisplayableQuestion questionBeforeSave = immutableQuestionsBeforeSave.get(i);
-
-            if (formIndexesToRemove.contains(questionBeforeSave.getFormIndex())) {
-                odkView.removeWidgetAt(i);
+        // If the view binds its widgets lazily then only the questions up to the last one that
+        // still has a widget are bound now, the rest are bound as they are scrolled to
+        int boundCount = questionsAfterSave.length;
+        boolean lazyBinding = odkView.hasPendingQuestions();
+        if (lazyBinding) {
+            Set<FormIndex> boundIndexes = new HashSet<>();
+            for (QuestionWidget widget : widgets) {
+                boundIndexes.add(widget.getFormEntryPrompt().getIndex());
+            }
+            boundCount = 0;
+            for (int i = 0; i < questionsAfterSave.length; i++) {
+                if (boundIndexes.contains(questionsAfterSave[i].getIndex())) {
+                    boundCount = i + 1;
+                }
             }
         }
 
-        for (int i = 0; i < questionsAfterSave.length; i++) {
-            if (!questionsThatHaveNotChanged.contains(questionsAfterSave[i])
-                    && !questionsAfterSave[i].getIndex().equals(lastChangedIndex)) {
+        int rebuilt = 0;
+        for (int i = 0; i < boundCount; i++) {
+            FormIndex index = questionsAfterSave[i].getIndex();
+            if (!formIndexesThatHaveNotChanged.contains(index) && !index.equals(lastChangedIndex)) {
                 // The values of widgets in intent groups are set by the view so widgetValueChanged
                 // is never called. This means readOnlyOverride can always be set to false.
                 odkView.addWidgetForQuestion(questionsAfterSave[i], i);
+                rebuilt++;
             }
         }
-    }
 
-    // If an answer has changed after saving one of previous answers that means it has been recalculated automatically
-    private boolean isQuestionRecalculated(FormEntryPrompt mutableQuestionBeforeSave, ImmutableDisplayableQuestion immutableQuestionBeforeSave) {
-        return !Objects.equals(mutableQuestionBeforeSave.getAnswerText(), immutableQuestionBeforeSave.getAnswerText());
+        if (lazyBinding) {
+            odkView.setPendingQuestions(Arrays.asList(questionsAfterSave).subList(boundCount, questionsAfterSave.length));
+        }
+
+        Timber.i("Field list refresh: saved %d, rebuilt %d of %d questions in %d ms",
+                saved, rebuilt, questionsAfterSave.length, (System.nanoTime() - start) / 1000000);
     }
 
     private HashMap<FormIndex, IAnswerData> getAnswers() {
@@ -30,12 +30,16 @@ import org.odk.collect.android.R;
 import org.odk.collect.android.activities.FormEntryActivity;
 import org.odk.collect.android.amazonaws.mobile.AWSMobileClient;  // smap
 import org.odk.collect.android.dao.FormsDao;
+import org.odk.collect.android.dao.SmapRemoteCacheDao;
 import org.odk.collect.android.external.ExternalDataManager;
+import org.odk.collect.android.external.handler.SmapRemoteDataCache;
 import org.odk.collect.android.external.handler.SmapRemoteDataItem;
 import org.odk.collect.android.injection.config.AppDependencyComponent;
 import org.odk.collect.android.injection.config.DaggerAppDependencyComponent;
 import org.odk.collect.android.javarosawrapper.FormController;
 import org.odk.collect.android.loaders.GeofenceEntry;
+import org.odk.collect.android.loaders.GeofenceIndex;
+import org.odk.collect.android.network.ConnectivityProvider;
 import org.odk.collect.android.taskModel.FormLaunchDetail;
 import org.odk.collect.android.taskModel.FormRestartDetails;
 import org.odk.collect.android.application.initialization.ApplicationInitializer;
@@ -80,11 +84,11 @@ public class Collect extends Application implements
     private AudioRecorderDependencyComponent audioRecorderDependencyComponent;
     private Location location = null;                   // smap
     private Location savedLocation = null;              // Location saved to trail database
-    private ArrayList<GeofenceEntry> geofences = new ArrayList<GeofenceEntry>();    // smap
+    private GeofenceIndex geofenceIndex = new GeofenceIndex(new ArrayList<>());    // smap
     private boolean tasksDownloading = false;           // smap
     // Keep a reference to form entry activity to allow cancel dialogs to be shown during remote calls
     private FormEntryActivity formEntryActivity = null; // smap
-    private HashMap<String, SmapRemoteDataItem> remoteCache = null;         // smap
+    private SmapRemoteDataCache remoteCache = null;                         // smap
     private int remoteCalls;                                                // smap
     private Stack<FormLaunchDetail> formStack = new Stack<>();              // smap
     private HashMap<String, String> compoundAddresses = new HashMap<>();
@@ -238,10 +242,10 @@ public class Collect extends Application implements
     }
 
     public void setGeofences(ArrayList<GeofenceEntry> geofences) {
-        this.geofences = geofences;
+        this.geofenceIndex = new GeofenceIndex(geofences);
     }
-    public ArrayList<GeofenceEntry> getGeofences() {
-        return geofences;
+    public GeofenceIndex getGeofenceIndex() {
+        return geofenceIndex;
     }
 
     public void setDownloading(boolean v) {
@@ -264,30 +268,31 @@ public class Collect extends Application implements
         return formEntryActivity;
     }
     public void clearRemoteServiceCaches() {
-        remoteCache = new HashMap<String, SmapRemoteDataItem>();
+        getRemoteCache().clear();
     }
-    public void initRemoteServiceCaches() {
-        if(remoteCache == null) {
-            remoteCache = new HashMap<String, SmapRemoteDataItem>();
-        } else {
-            ArrayList<String> expired = new ArrayList<String>();
-            for(String key : remoteCache.keySet()) {
-                SmapRemoteDataItem item = remoteCache.get(key);
-                if(item.perSubmission) {
-                    expired.add(key);
-
-                }
-            }
-            if(expired.size() > 0) {
-                for(String key : expired) {
-                    remoteCache.remove(key);
-                }
-            }
+    /*
+     * Responses that are only valid for a single submission are kept if the form is being restored,
+     *  for example after the process was killed, otherwise they are requested again
+     */
+    public void initRemoteServiceCaches(boolean restoring) {
+        SmapRemoteDataCache cache = getRemoteCache();
+        cache.removeExpired();
+        if(!restoring) {
+            cache.removePerSubmission();
         }
         remoteCalls = 0;
     }
+    public SmapRemoteDataCache getRemoteCache() {
+        if(remoteCache == null) {
+            remoteCache = new SmapRemoteDataCache(new SmapRemoteCacheDao());
+        }
+        return remoteCache;
+    }
+    public SmapRemoteDataItem getRemoteItem(String key) {
+        return getRemoteCache().get(key, new ConnectivityProvider());   // Use a prefetched response if offline
+    }
     public String getRemoteData(String key) {
-        SmapRemoteDataItem item = remoteCache.get(key);
+        SmapRemoteDataItem item = getRemoteItem(key);
         if(item != null) {
             return item.data;
         } else {
@@ -295,12 +300,7 @@ public class Collect extends Application implements
         }
     }
     public void setRemoteItem(SmapRemoteDataItem item) {
-        if(item.data == null) {
-            // There was a network error
-            remoteCache.remove(item.key);
-        } else {
-            remoteCache.put(item.key, item);
-        }
+        getRemoteCache().put(item);
     }
     public void startRemoteCall() {
         remoteCalls++;
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2021 Smap Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.dao;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import org.odk.collect.android.database.SmapFileHashDatabaseHelper;
+import org.odk.collect.android.utilities.FileUtils;
+
+import java.io.File;
+
+import timber.log.Timber;
+
+/**
+ * This class is used to encapsulate all access to the file hash database
+ * The md5 of a file is only calculated if the file is new or its size or modified time has changed
+ * since the hash was last recorded.
+ */
+public class SmapFileHashDao {
+
+    private final SQLiteOpenHelper dbHelper;
+
+    public SmapFileHashDao() {
+        this(new SmapFileHashDatabaseHelper());
+    }
+
+    public SmapFileHashDao(SQLiteOpenHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    /*
+     * Get the md5 hash of a file using the stored value if the file has not changed
+     * Returns null if the file does not exist or cannot be read
+     */
+    public String getMd5Hash(File file) {
+
+        if (!file.exists()) {
+            return null;
+        }
+
+        String path = file.getAbsolutePath();
+        long size = file.length();
+        long modified = file.lastModified();
+
+        String md5 = getStoredHash(path, size, modified);
+        if (md5 == null) {
+            md5 = FileUtils.getMd5Hash(file);
+            if (md5 != null) {
+                storeHash(path, size, modified, md5);
+            }
+        }
+        return md5;
+    }
+
+    /*
+     * Remove the hash for a file that has been deleted or replaced
+     */
+    public void remove(File file) {
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            db.delete(SmapFileHashDatabaseHelper.TABLE_NAME,
+                    SmapFileHashDatabaseHelper.FH_PATH + " = ?",
+                    new String[] {file.getAbsolutePath()});
+        } catch (SQLException e) {
+            Timber.e(e);
+        }
+    }
+
+    private String getStoredHash(String path, long size, long modified) {
+
+        String md5 = null;
+        String[] projection = {SmapFileHashDatabaseHelper.FH_MD5};
+        String selection = SmapFileHashDatabaseHelper.FH_PATH + " = ? and "
+                + SmapFileHashDatabaseHelper.FH_SIZE + " = ? and "
+                + SmapFileHashDatabaseHelper.FH_MODIFIED + " = ?";
+        String[] selectionArgs = {path, String.valueOf(size), String.valueOf(modified)};
+
+        try (Cursor cursor = dbHelper.getReadableDatabase().query(SmapFileHashDatabaseHelper.TABLE_NAME,
+                projection, selection, selectionArgs, null, null, null)) {
+            if (cursor.moveToFirst()) {
+                md5 = cursor.getString(0);
+            }
+        } catch (SQLException e) {
+            Timber.e(e);        // The hash will be recalculated
+        }
+        return md5;
+    }
+
+    private void storeHash(String path, long size, long modified, String md5) {
+        ContentValues values = new ContentValues();
+        values.put(SmapFileHashDatabaseHelper.FH_PATH, path);
+        values.put(SmapFileHashDatabaseHelper.FH_SIZE, size);
+        values.put(SmapFileHashDatabaseHelper.FH_MODIFIED, modified);
+        values.put(SmapFileHashDatabaseHelper.FH_MD5, md5);
+
+        try {
+            dbHelper.getWritableDatabase().insertWithOnConflict(SmapFileHashDatabaseHelper.TABLE_NAME,
+                    null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        } catch (SQLException e) {
+            Timber.e(e);
+        }
+    }
+}
@@ -119,4 +119,43 @@ public class SmapReferencesDao {
 
         return surveys;
     }
+
+    /*
+     * Get the surveys that reference the data of a survey keyed by the referencing survey
+     */
+    public HashMap<String, LinkedSurvey> getReferencingSurveys(String referenceSurvey) {
+
+        HashMap<String, LinkedSurvey> surveys = new HashMap<> ();
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        String source = Utilities.getSource();
+
+        String[] projection = {
+                BaseColumns._ID,
+                SmapReferenceDatabaseHelper.REF_SURVEY,
+                SmapReferenceDatabaseHelper.REF_DATA_TABLE_NAME,
+                SmapReferenceDatabaseHelper.REF_COLUMN_NAMES
+        };
+
+        String selection = SmapReferenceDatabaseHelper.REF_SOURCE + " = ? and " + SmapReferenceDatabaseHelper.REF_REFERENCE_SURVEY + " = ?";
+        String[] selectionArgs = { source, referenceSurvey };
+
+        try (Cursor cursor = db.query(SmapReferenceDatabaseHelper.TABLE_NAME, projection, selection, selectionArgs,
+                null, null, null)) {
+
+            while (cursor.moveToNext()) {
+                LinkedSurvey rs = new LinkedSurvey();
+                rs.itemId = cursor.getLong(cursor.getColumnIndexOrThrow(BaseColumns._ID));
+                rs.referenceSurvey = referenceSurvey;
+                rs.tableName = cursor.getString(cursor.getColumnIndexOrThrow(SmapReferenceDatabaseHelper.REF_DATA_TABLE_NAME));
+
+                String colString = cursor.getString(cursor.getColumnIndexOrThrow(SmapReferenceDatabaseHelper.REF_COLUMN_NAMES));
+                rs.columns = new Gson().fromJson(colString, new TypeToken<List<String>>() {}.getType());
+
+                surveys.put(cursor.getString(cursor.getColumnIndexOrThrow(SmapReferenceDatabaseHelper.REF_SURVEY)), rs);
+            }
+        }
+
+        return surveys;
+    }
 }
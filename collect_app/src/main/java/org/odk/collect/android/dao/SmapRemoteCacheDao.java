@@ -0,0 +1,123 @@
+/*
+ * Copyright 2021 Smap Consulting
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.odk.collect.android.dao;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import org.odk.collect.android.database.SmapRemoteCacheDatabaseHelper;
+import org.odk.collect.android.external.handler.SmapRemoteDataItem;
+
+import timber.log.Timber;
+
+/**
+ * This class is used to encapsulate all access to the remote cache database
+ * Responses to remote lookups are stored so that they survive the application being restarted
+ */
+public class SmapRemoteCacheDao {
+
+    private final SQLiteOpenHelper dbHelper;
+
+    public SmapRemoteCacheDao() {
+        this(new SmapRemoteCacheDatabaseHelper());
+    }
+
+    public SmapRemoteCacheDao(SQLiteOpenHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    /*
+     * Get a stored response that was stored at or after the minimum time
+     * Returns null if there is no such response
+     */
+    public SmapRemoteDataItem get(String key, long minStoredTime) {
+
+        SmapRemoteDataItem item = null;
+        String[] projection = {
+                SmapRemoteCacheDatabaseHelper.RC_DATA,
+                SmapRemoteCacheDatabaseHelper.RC_PER_SUBMISSION,
+                SmapRemoteCacheDatabaseHelper.RC_CHOICES,
+                SmapRemoteCacheDatabaseHelper.RC_STORED_TIME};
+        String selection = SmapRemoteCacheDatabaseHelper.RC_KEY + " = ? and "
+                + SmapRemoteCacheDatabaseHelper.RC_STORED_TIME + " >= ?";
+        String[] selectionArgs = {key, String.valueOf(minStoredTime)};
+
+        try (Cursor cursor = dbHelper.getReadableDatabase().query(SmapRemoteCacheDatabaseHelper.TABLE_NAME,
+                projection, selection, selectionArgs, null, null, null)) {
+            if (cursor.moveToFirst()) {
+                item = new SmapRemoteDataItem();
+                item.key = key;
+                item.data = cursor.getString(0);
+                item.perSubmission = cursor.getInt(1) == 1;
+                item.choices = cursor.getInt(2) == 1;
+                item.storedTime = cursor.getLong(3);
+            }
+        } catch (SQLException e) {
+            Timber.e(e);        // The response will be requested again
+        }
+        return item;
+    }
+
+    public void put(SmapRemoteDataItem item) {
+        ContentValues values = new ContentValues();
+        values.put(SmapRemoteCacheDatabaseHelper.RC_KEY, item.key);
+        values.put(SmapRemoteCacheDatabaseHelper.RC_DATA, item.data);
+        values.put(SmapRemoteCacheDatabaseHelper.RC_PER_SUBMISSION, item.perSubmission ? 1 : 0);
+        values.put(SmapRemoteCacheDatabaseHelper.RC_CHOICES, item.choices ? 1 : 0);
+        values.put(SmapRemoteCacheDatabaseHelper.RC_STORED_TIME, item.storedTime);
+
+        try {
+            dbHelper.getWritableDatabase().insertWithOnConflict(SmapRemoteCacheDatabaseHelper.TABLE_NAME,
+                    null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        } catch (SQLException e) {
+            Timber.e(e);
+        }
+    }
+
+    public void remove(String key) {
+        delete(SmapRemoteCacheDatabaseHelper.RC_KEY + " = ?", new String[] {key});
+    }
+
+    /*
+     * Remove responses that are only valid for a single submission
+     */
+    public void removePerSubmission() {
+        delete(SmapRemoteCacheDatabaseHelper.RC_PER_SUBMISSION + " = 1", null);
+    }
+
+    /*
+     * Remove responses that were stored before the minimum time
+     */
+    public void removeExpired(long minStoredTime) {
+        delete(SmapRemoteCacheDatabaseHelper.RC_STORED_TIME + " < ?", new String[] {String.valueOf(minStoredTime)});
+    }
+
+    public void removeAll() {
+        delete(null, null);
+    }
+
+    private void delete(String selection, String[] selectionArgs) {
+        try {
+            dbHelper.getWritableDatabase().delete(SmapRemoteCacheDatabaseHelper.TABLE_NAME, selection, selectionArgs);
+        } catch (SQLException e) {
+            Timber.e(e);
+        }
+    }
+}
@@ -17,13 +17,20 @@
 package org.odk.collect.android.database;
 
 import android.content.ContextWrapper;
+import android.database.Cursor;
 import android.database.DatabaseErrorHandler;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
 
 import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.preferences.GeneralKeys;
+import org.odk.collect.android.preferences.GeneralSharedPreferences;
 
 import java.io.File;
 
+import timber.log.Timber;
+
 public class DatabaseContext extends ContextWrapper {
 
     private final String path;
@@ -40,6 +47,10 @@ public class DatabaseContext extends ContextWrapper {
 
     @Override
     public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory, DatabaseErrorHandler errorHandler) {
+        if ((mode & MODE_ENABLE_WRITE_AHEAD_LOGGING) != 0) {     // smap
+            return SQLiteDatabase.openDatabase(getDatabasePath(name).getPath(), factory,
+                    SQLiteDatabase.CREATE_IF_NECESSARY | SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING, errorHandler);
+        }
         return openOrCreateDatabase(name, mode, factory);
     }
 
@@ -47,4 +58,42 @@ public class DatabaseContext extends ContextWrapper {
     public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory) {
         return SQLiteDatabase.openOrCreateDatabase(getDatabasePath(name), null);
     }
-}
\ No newline at end of file
+
+    /*
+     * smap
+     * Use write ahead logging if it has been enabled in the settings
+     * This allows the task list to be read while the sync or the user trail are writing to the database
+     * Existing databases are switched between journal modes by Android when they are next opened
+     */
+    public static void setWriteAheadLogging(SQLiteOpenHelper helper) {
+        helper.setWriteAheadLoggingEnabled(isWriteAheadLoggingEnabled());
+    }
+
+    public static boolean isWriteAheadLoggingEnabled() {
+        return GeneralSharedPreferences.getInstance().getBoolean(GeneralKeys.KEY_SMAP_DB_WAL, false);
+    }
+
+    /*
+     * smap
+     * Copy the changes in the write ahead log back into the database
+     * A passive checkpoint does not wait for readers or writers so it can be called at the end of a sync
+     */
+    public static void checkpoint(SQLiteOpenHelper helper) {
+        if (helper == null) {
+            return;
+        }
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            if (db.isWriteAheadLoggingEnabled()) {
+                try (Cursor c = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null)) {
+                    if (c.moveToFirst()) {
+                        Timber.i("Checkpoint %s: busy %d, log %d, checkpointed %d", helper.getDatabaseName(),
+                                c.getInt(0), c.getInt(1), c.getInt(2));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            Timber.e(e);
+        }
+    }
+}
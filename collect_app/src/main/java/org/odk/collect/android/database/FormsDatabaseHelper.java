@@ -38,6 +38,7 @@ public class FormsDatabaseHelper extends SQLiteOpenHelper {
     public FormsDatabaseHelper(DatabaseMigrator databaseMigrator, StoragePathProvider storagePathProvider) {
         super(new DatabaseContext(storagePathProvider.getDirPath(StorageSubdirectory.METADATA)), FORMS_DATABASE_NAME, null, FORMS_DATABASE_VERSION);
         this.databaseMigrator = databaseMigrator;
+        DatabaseContext.setWriteAheadLogging(this);    // smap
     }
 
     public static String getDatabasePath() {
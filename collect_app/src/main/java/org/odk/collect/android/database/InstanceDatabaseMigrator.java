@@ -51,6 +51,11 @@ import static org.odk.collect.android.provider.InstanceProviderAPI.InstanceColum
 
 public class InstanceDatabaseMigrator implements DatabaseMigrator {
 
+    public static final String INDEX_SOURCE_TASK_STATUS = "instances_source_task_status";  // smap
+    public static final String INDEX_SOURCE_STATUS = "instances_source_status";            // smap
+    public static final String INDEX_ASS_ID = "instances_ass_id";                          // smap
+    public static final String INDEX_UPDATE_ID = "instances_update_id";                    // smap
+
     public void onCreate(SQLiteDatabase db) {
         createLatestVersion(db);        // smap
     }
@@ -93,6 +98,11 @@ public class InstanceDatabaseMigrator implements DatabaseMigrator {
         SQLiteUtils.addColumn(db, INSTANCES_TABLE_NAME, T_ACT_FINISH, "long");
         SQLiteUtils.addColumn(db, INSTANCES_TABLE_NAME, T_ADDRESS, "text");
         SQLiteUtils.addColumn(db, INSTANCES_TABLE_NAME, T_TASK_TYPE, "text");
+
+        // Store the source in lower case so that it can be matched using an index
+        db.execSQL("UPDATE " + INSTANCES_TABLE_NAME + " SET " + SOURCE + " = lower(" + SOURCE + ")"
+                + " WHERE " + SOURCE + " != lower(" + SOURCE + ")");
+        createIndexes(db);
     }
 
 
@@ -140,6 +150,24 @@ public class InstanceDatabaseMigrator implements DatabaseMigrator {
 
                 + "displaySubtext text "   // Smap keep for downgrading
                 + ");");
+
+        createIndexes(db);
+    }
+
+    /*
+     * smap
+     * Indexes for the task list and the task synchronisation
+     * The source is always stored in lower case so these can be used instead of scanning the table
+     */
+    private static void createIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_SOURCE_TASK_STATUS + " ON " + INSTANCES_TABLE_NAME
+                + " (" + SOURCE + ", " + T_TASK_STATUS + ", " + T_IS_SYNC + ", " + DELETED_DATE + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_SOURCE_STATUS + " ON " + INSTANCES_TABLE_NAME
+                + " (" + SOURCE + ", " + STATUS + ", " + DELETED_DATE + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_ASS_ID + " ON " + INSTANCES_TABLE_NAME
+                + " (" + T_ASS_ID + ", " + SOURCE + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_UPDATE_ID + " ON " + INSTANCES_TABLE_NAME
+                + " (" + T_UPDATEID + ", " + SOURCE + ")");
     }
 
     // smap
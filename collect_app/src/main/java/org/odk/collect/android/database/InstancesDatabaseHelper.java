@@ -41,6 +41,7 @@ public class InstancesDatabaseHelper extends SQLiteOpenHelper {
     public InstancesDatabaseHelper(DatabaseMigrator databaseMigrator, StoragePathProvider storagePathProvider) {
         super(new DatabaseContext(storagePathProvider.getDirPath(StorageSubdirectory.METADATA)), INSTANCES_DATABASE_NAME, null, INSTANCES_DATABASE_VERSION);
         this.databaseMigrator = databaseMigrator;
+        DatabaseContext.setWriteAheadLogging(this);    // smap
     }
 
     @Override
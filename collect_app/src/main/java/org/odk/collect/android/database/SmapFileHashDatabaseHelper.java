@@ -0,0 +1,76 @@
+package org.odk.collect.android.database;
+
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import org.odk.collect.android.storage.StoragePathProvider;
+import org.odk.collect.android.storage.StorageSubdirectory;
+import org.odk.collect.android.utilities.SQLiteUtils;
+
+import java.io.File;
+
+import timber.log.Timber;
+
+/**
+ * This class helps open, create, and upgrade the database of file hashes.
+ * The hash of a file is only valid while the size and modified time of the file are unchanged.
+ */
+public class SmapFileHashDatabaseHelper extends SQLiteOpenHelper {
+    private static final String DATABASE_NAME = "filehash.db";
+    public static final String TABLE_NAME = "file_hash";
+
+    static final int DATABASE_VERSION = 1;
+
+    public static final String FH_PATH = "path";
+    public static final String FH_SIZE = "size";
+    public static final String FH_MODIFIED = "modified";
+    public static final String FH_MD5 = "md5";
+
+    public SmapFileHashDatabaseHelper() {
+        super(new DatabaseContext(new StoragePathProvider().getDirPath(StorageSubdirectory.METADATA)), DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    public static String getDatabasePath() {
+        return new StoragePathProvider().getDirPath(StorageSubdirectory.METADATA) + File.separator + DATABASE_NAME;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        createLatestVersion(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The hashes can always be recalculated so just start again
+        Timber.i("Upgrading file hash database from version %d to %d", oldVersion, newVersion);
+        SQLiteUtils.dropTable(db, TABLE_NAME);
+        createLatestVersion(db);
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        onUpgrade(db, oldVersion, newVersion);
+    }
+
+    public static void createLatestVersion(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " ("
+                + FH_PATH + " text primary key, "
+                + FH_SIZE + " long not null, "
+                + FH_MODIFIED + " long not null, "
+                + FH_MD5 + " text not null "
+                + ");");
+    }
+
+    public static void recreateDatabase() {
+
+        try {
+            SQLiteDatabase db = SQLiteDatabase.openDatabase(SmapFileHashDatabaseHelper.getDatabasePath(), null, SQLiteDatabase.OPEN_READWRITE);
+            SQLiteUtils.dropTable(db, TABLE_NAME);
+            createLatestVersion(db);
+            db.close();
+        } catch (SQLException e) {
+            Timber.i(e);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.odk.collect.android.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import org.odk.collect.android.storage.StoragePathProvider;
+import org.odk.collect.android.storage.StorageSubdirectory;
+import org.odk.collect.android.utilities.SQLiteUtils;
+
+import java.io.File;
+
+import timber.log.Timber;
+
+/**
+ * This class helps open, create, and upgrade the database of responses from remote lookups.
+ * The responses can always be requested again so the database is recreated if its version changes.
+ */
+public class SmapRemoteCacheDatabaseHelper extends SQLiteOpenHelper {
+    private static final String DATABASE_NAME = "remotecache.db";
+    public static final String TABLE_NAME = "remote_cache";
+
+    static final int DATABASE_VERSION = 1;
+
+    public static final String RC_KEY = "key";
+    public static final String RC_DATA = "data";
+    public static final String RC_PER_SUBMISSION = "per_submission";
+    public static final String RC_CHOICES = "choices";
+    public static final String RC_STORED_TIME = "stored_time";
+
+    public SmapRemoteCacheDatabaseHelper() {
+        super(new DatabaseContext(new StoragePathProvider().getDirPath(StorageSubdirectory.METADATA)), DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    public static String getDatabasePath() {
+        return new StoragePathProvider().getDirPath(StorageSubdirectory.METADATA) + File.separator + DATABASE_NAME;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        createLatestVersion(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        Timber.i("Upgrading remote cache database from version %d to %d", oldVersion, newVersion);
+        SQLiteUtils.dropTable(db, TABLE_NAME);
+        createLatestVersion(db);
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        onUpgrade(db, oldVersion, newVersion);
+    }
+
+    public static void createLatestVersion(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " ("
+                + RC_KEY + " text primary key, "
+                + RC_DATA + " text not null, "
+                + RC_PER_SUBMISSION + " integer not null, "
+                + RC_CHOICES + " integer not null, "
+                + RC_STORED_TIME + " long not null "
+                + ");");
+    }
+}
@@ -53,6 +53,7 @@ public class SmapTraceDatabaseHelper extends SQLiteOpenHelper {
 
     public SmapTraceDatabaseHelper() {
         super(new DatabaseContext(new StoragePathProvider().getDirPath(StorageSubdirectory.METADATA)), DATABASE_NAME, null, DATABASE_VERSION);
+        DatabaseContext.setWriteAheadLogging(this);    // smap
     }
 
     public static String getDatabasePath() {
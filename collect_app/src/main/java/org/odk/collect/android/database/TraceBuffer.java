@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2014 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.database;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import timber.log.Timber;
+
+/*
+ * Hold user trail points in memory and write them to the trace database in batches
+ * Each point is also appended to a journal file when it is added so that points which have not
+ *  been written to the database are recovered if the app is stopped before the buffer is flushed.
+ *  The journal is cleared after each successful flush.
+ */
+public class TraceBuffer {
+
+    public static class TracePoint {
+        public final String source;
+        public final double lat;
+        public final double lon;
+        public final long time;
+
+        public TracePoint(String source, double lat, double lon, long time) {
+            this.source = source;
+            this.lat = lat;
+            this.lon = lon;
+            this.time = time;
+        }
+    }
+
+    public interface Sink {
+        void write(List<TracePoint> points) throws Exception;
+    }
+
+    private static final String SEPARATOR = "\t";
+
+    private final File journal;
+    private final Sink sink;
+    private final int flushSize;
+    private final long flushInterval;
+
+    private final TracePoint[] ring;
+    private int head;           // Index of the oldest point
+    private int count;
+    private Writer journalWriter;
+
+    public TraceBuffer(File journal, Sink sink, int capacity, int flushSize, long flushInterval) {
+        this.journal = journal;
+        this.sink = sink;
+        this.flushSize = flushSize;
+        this.flushInterval = flushInterval;
+        ring = new TracePoint[capacity];
+        recover();
+    }
+
+    /*
+     * Add a point, the buffer is flushed if it has reached the batch size or the oldest point
+     *  has been waiting longer than the flush interval
+     */
+    public synchronized void add(TracePoint point) {
+        if (count == ring.length) {
+            // Only happens if the database cannot be written, keep the most recent points
+            Timber.e("Trace buffer full, discarding point at %d", ring[head].time);
+            head = (head + 1) % ring.length;
+            count--;
+        }
+        ring[(head + count) % ring.length] = point;
+        count++;
+        appendToJournal(point);
+
+        if (count >= flushSize || point.time - ring[head].time >= flushInterval) {
+            flush();
+        }
+    }
+
+    /*
+     * Write any buffered points to the database
+     * The points are retained if the write fails
+     */
+    public synchronized boolean flush() {
+        if (count == 0) {
+            return true;
+        }
+
+        List<TracePoint> points = getBufferedPoints();
+        try {
+            sink.write(points);
+        } catch (Exception e) {
+            Timber.e(e, "Failed to write %d trace points", points.size());
+            return false;
+        }
+
+        head = 0;
+        count = 0;
+        clearJournal();
+        return true;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized List<TracePoint> getBufferedPoints() {
+        List<TracePoint> points = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            points.add(ring[(head + i) % ring.length]);
+        }
+        return points;
+    }
+
+    /*
+     * Reload points that were journaled but not written to the database before the app stopped
+     */
+    private void recover() {
+        if (!journal.exists()) {
+            return;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                TracePoint point = parse(line);
+                if (point != null) {
+                    if (count == ring.length) {
+                        head = (head + 1) % ring.length;
+                        count--;
+                    }
+                    ring[(head + count) % ring.length] = point;
+                    count++;
+                }
+            }
+        } catch (IOException e) {
+            Timber.e(e);
+        }
+
+        if (count > 0) {
+            Timber.i("Recovered %d trace points from the journal", count);
+            flush();
+        }
+    }
+
+    private void appendToJournal(TracePoint point) {
+        try {
+            if (journalWriter == null) {
+                journalWriter = new OutputStreamWriter(new FileOutputStream(journal, true), StandardCharsets.UTF_8);
+            }
+            journalWriter.write(point.source + SEPARATOR + point.lat + SEPARATOR + point.lon + SEPARATOR + point.time + "\n");
+            journalWriter.flush();
+        } catch (IOException e) {
+            Timber.e(e);
+        }
+    }
+
+    private void clearJournal() {
+        try {
+            if (journalWriter != null) {
+                journalWriter.close();
+                journalWriter = null;
+            }
+        } catch (IOException e) {
+            Timber.e(e);
+        }
+        if (journal.exists() && !journal.delete()) {
+            Timber.e("Failed to delete trace journal %s", journal.getAbsolutePath());
+        }
+    }
+
+    private TracePoint parse(String line) {
+        String[] parts = line.split(SEPARATOR);
+        if (parts.length != 4) {
+            return null;        // Partly written line
+        }
+        try {
+            return new TracePoint(parts[0], Double.parseDouble(parts[1]), Double.parseDouble(parts[2]), Long.parseLong(parts[3]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -18,6 +18,7 @@ import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.location.Location;
 import android.net.Uri;
 import android.preference.PreferenceManager;
@@ -26,39 +27,93 @@ import org.odk.collect.android.database.TraceProviderAPI.TraceColumns;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.loaders.PointEntry;
 import org.odk.collect.android.preferences.GeneralKeys;
+import org.odk.collect.android.storage.StoragePathProvider;
+import org.odk.collect.android.storage.StorageSubdirectory;
 import org.odk.collect.android.utilities.STFileUtils;
 import org.odk.collect.android.utilities.Utilities;
 
+import java.io.File;
 import java.util.List;
 
 import timber.log.Timber;
 
 public class TraceUtilities {
 
+    private static final String JOURNAL_NAME = "trace_journal.txt";
+    private static final int BUFFER_CAPACITY = 1000;
+    private static final int FLUSH_SIZE = 20;
+    private static final long FLUSH_INTERVAL = 120000;     // Milli seconds
 
-    public static void insertPoint(Location location) {
+    private static TraceBuffer buffer;
+    private static String source;
 
-        Uri dbUri =  TraceColumns.CONTENT_URI;
+    // Held here as shared preferences only keep a weak reference to listeners
+    private static final SharedPreferences.OnSharedPreferenceChangeListener serverListener = (sharedPreferences, key) -> {
+        if (GeneralKeys.KEY_SERVER_URL.equals(key)) {
+            clearSource();
+        }
+    };
 
+    /*
+     * Record a point in the user trail
+     * Points are buffered and written to the database in batches
+     */
+    public static void insertPoint(Location location) {
+        getBuffer().add(new TraceBuffer.TracePoint(getSource(),
+                location.getLatitude(), location.getLongitude(), System.currentTimeMillis()));
+    }
 
-        ContentValues values = new ContentValues();
-        values.put(TraceColumns.LAT, location.getLatitude());
-        values.put(TraceColumns.LON, location.getLongitude());
-        values.put(TraceColumns.TIME, System.currentTimeMillis());
+    /*
+     * Write any buffered points to the database
+     * Called when location recording stops and before the trail is read
+     */
+    public static void flushPoints() {
+        getBuffer().flush();
+    }
 
-        values.put(TraceColumns.SOURCE, getSource());
+    private static synchronized TraceBuffer getBuffer() {
+        if (buffer == null) {
+            File journal = new File(new StoragePathProvider().getDirPath(StorageSubdirectory.METADATA), JOURNAL_NAME);
+            buffer = new TraceBuffer(journal, TraceUtilities::writePoints, BUFFER_CAPACITY, FLUSH_SIZE, FLUSH_INTERVAL);
+        }
+        return buffer;
+    }
 
-        Collect.getInstance().getContentResolver().insert(dbUri, values);
+    private static void writePoints(List<TraceBuffer.TracePoint> points) {
+        ContentValues[] values = new ContentValues[points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            TraceBuffer.TracePoint point = points.get(i);
+            values[i] = new ContentValues();
+            values[i].put(TraceColumns.LAT, point.lat);
+            values[i].put(TraceColumns.LON, point.lon);
+            values[i].put(TraceColumns.TIME, point.time);
+            values[i].put(TraceColumns.SOURCE, point.source);
+        }
+        int count = Collect.getInstance().getContentResolver().bulkInsert(TraceColumns.CONTENT_URI, values);
+        if (count != values.length) {
+            // Keep the points in the journal so they are written on the next flush
+            throw new SQLException("Only " + count + " of " + values.length + " trail points were written");
+        }
+    }
 
+    /*
+     * Get the source, this is cached until the server is changed
+     */
+    private static synchronized String getSource() {
+        if (source == null) {
+            SharedPreferences settings = PreferenceManager
+                    .getDefaultSharedPreferences(Collect.getInstance()
+                            .getBaseContext());
+            String serverUrl = settings.getString(
+                    GeneralKeys.KEY_SERVER_URL, null);
+            source = STFileUtils.getSource(serverUrl);
+            settings.registerOnSharedPreferenceChangeListener(serverListener);
+        }
+        return source;
     }
 
-    private static String getSource() {
-        SharedPreferences settings = PreferenceManager
-                .getDefaultSharedPreferences(Collect.getInstance()
-                        .getBaseContext());
-        String serverUrl = settings.getString(
-                GeneralKeys.KEY_SERVER_URL, null);
-        return STFileUtils.getSource(serverUrl);
+    private static synchronized void clearSource() {
+        source = null;
     }
 
     /*
@@ -73,6 +128,8 @@ public class TraceUtilities {
                 org.odk.collect.android.provider.TraceProviderAPI.TraceColumns.TIME,
         };
 
+        flushPoints();      // Include points that are still buffered
+
         long id = 0;
         String [] selectArgs = {""};
         selectArgs[0] = Utilities.getSource();
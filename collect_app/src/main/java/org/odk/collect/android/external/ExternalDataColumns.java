@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2017 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.external;
+
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.exception.ExternalDataException;
+import org.odk.collect.android.utilities.CsvBulkLoader;
+import org.odk.collect.android.utilities.TranslationHandler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The mapping from the columns of an external data CSV file to the columns of its database table
+ * The mapping is resolved once from the header row and then used to bind the values of each row.
+ *  A hash of the values of each row is stored with the row so that a changed CSV file can be applied
+ *  to the table by only writing the rows that have changed.
+ */
+final class ExternalDataColumns {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final List<String> insertColumns = new ArrayList<>();
+    private final int[] columnIndexes;          // Table column for each CSV column, -1 if the column is not imported
+    private final boolean sortColumnInCsv;
+    private final int sortColumnIndex;
+    private final int rowHashIndex;
+    private final int keyIndex;                 // CSV column of the key, -1 if there is no key column
+
+    ExternalDataColumns(String[] headerRow, Map<String, String> columnNamesCache) {
+        columnIndexes = new int[headerRow.length];
+        int sortIndex = -1;
+        int key = -1;
+        for (int i = 0; i < headerRow.length; i++) {
+            String columnName = headerRow[i].trim();
+            if (columnName.length() == 0) {
+                columnIndexes[i] = -1;
+                continue;
+            }
+            String safeColumnName = ExternalDataUtil.toSafeColumnName(columnName, columnNamesCache);
+            if (safeColumnName.equals(ExternalDataUtil.SORT_COLUMN_NAME)) {
+                sortIndex = insertColumns.size();
+            }
+            if (key < 0 && headerRow[i].endsWith("_key")) {
+                key = i;
+            }
+            columnIndexes[i] = insertColumns.size();
+            insertColumns.add(safeColumnName);
+        }
+
+        sortColumnInCsv = sortIndex >= 0;
+        if (!sortColumnInCsv) {
+            sortIndex = insertColumns.size();
+            insertColumns.add(ExternalDataUtil.SORT_COLUMN_NAME);
+        }
+        sortColumnIndex = sortIndex;
+        rowHashIndex = insertColumns.size();
+        insertColumns.add(ExternalDataUtil.ROW_HASH_COLUMN_NAME);
+        keyIndex = key;
+    }
+
+    /*
+     * The table columns in the order that values are bound
+     */
+    List<String> getInsertColumns() {
+        return Collections.unmodifiableList(insertColumns);
+    }
+
+    String getKeyColumn() {
+        return keyIndex < 0 ? null : insertColumns.get(columnIndexes[keyIndex]);
+    }
+
+    /*
+     * Get the value of the key column in a row, null if there is no key column
+     */
+    String getKey(String[] row) {
+        if (keyIndex < 0) {
+            return null;
+        }
+        String key = keyIndex < row.length ? row[keyIndex] : "";
+        return key == null ? "" : key.trim();
+    }
+
+    /*
+     * Get the sort value of a row, rows are sorted by their position in the file unless the file has a sort column
+     */
+    double getSortValue(String[] row, int rowNumber) {
+        if (!sortColumnInCsv) {
+            return rowNumber;
+        }
+        for (int i = 0; i < columnIndexes.length; i++) {
+            if (columnIndexes[i] == sortColumnIndex) {
+                return parseSortValue(i < row.length ? row[i] : "");
+            }
+        }
+        return rowNumber;
+    }
+
+    /*
+     * Bind the values of a row and return the hash of the values
+     * SCTO-894 - if the row contains less values than the header we should not ignore the existing values
+     *  in the row, we will just fill up the rest with empty strings
+     */
+    long bindRow(CsvBulkLoader loader, String[] row, int rowNumber) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < columnIndexes.length; i++) {
+            int column = columnIndexes[i];
+            if (column < 0) {
+                continue;
+            }
+            String columnValue = i < row.length ? row[i] : "";
+            if (column == sortColumnIndex) {
+                loader.bindDouble(column, parseSortValue(columnValue));
+            } else {
+                if (columnValue != null) {               // smap
+                    columnValue = columnValue.trim();
+                }
+                loader.bindString(column, columnValue);
+            }
+            hash = hash(hash, columnValue);
+        }
+
+        if (!sortColumnInCsv) {
+            loader.bindDouble(sortColumnIndex, rowNumber);
+        }
+        loader.bindLong(rowHashIndex, hash);
+        return hash;
+    }
+
+    private double parseSortValue(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException | NullPointerException e) {
+            throw new ExternalDataException(TranslationHandler.getString(Collect.getInstance(),
+                    org.odk.collect.strings.R.string.ext_sortBy_numeric_error, value));
+        }
+    }
+
+    /*
+     * FNV-1a hash of the value, followed by a separator so that moving text between columns changes the hash
+     */
+    private static long hash(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= FNV_PRIME;
+            }
+        }
+        hash ^= value == null ? 0xfffe : 0xffff;
+        hash *= FNV_PRIME;
+        return hash;
+    }
+}
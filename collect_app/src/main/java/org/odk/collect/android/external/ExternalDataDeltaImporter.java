@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2017 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.external;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.opencsv.CSVReader;
+
+import org.odk.collect.android.utilities.CsvBulkLoader;
+import org.odk.collect.android.utilities.FileUtils;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/*
+ * Apply the changes in an updated CSV file to an existing external data database
+ * Rows are matched on the first column whose name ends in "_key", the same columns that are indexed
+ *  by a full import.  New rows are inserted, changed rows are replaced and rows that are no longer in
+ *  the file are deleted.  Rows added from local data are not changed.
+ * A full import is required if the file has no key column, has duplicate or empty keys, its columns
+ *  have changed or the database was created before row hashes were stored.
+ */
+class ExternalDataDeltaImporter {
+
+    private static final String NOT_LOCAL = ExternalDataUtil.LOCAL_COLUMN_NAME + " IS NOT 1";
+
+    private final File dbFile;
+    private final File dataSetFile;
+    private final ExternalDataImportListener importListener;
+
+    private int inserted;
+    private int replaced;
+    private int moved;
+    private int deleted;
+
+    ExternalDataDeltaImporter(File dbFile, File dataSetFile, ExternalDataImportListener importListener) {
+        this.dbFile = dbFile;
+        this.dataSetFile = dataSetFile;
+        this.importListener = importListener;
+    }
+
+    /*
+     * Returns false if the changes could not be applied and a full import is required
+     * The database is not changed if false is returned or the import is cancelled
+     */
+    boolean doImport() {
+        String tableName = ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME;
+        SQLiteDatabase db = null;
+        try (CSVReader reader = ExternalSQLiteOpenHelper.createCsvReader(dataSetFile)) {
+            String[] headerRow = reader.readNext();
+            if (!ExternalDataUtil.containsAnyData(headerRow)) {
+                return false;
+            }
+            headerRow[0] = ExternalSQLiteOpenHelper.removeByteOrderMark(headerRow[0]);
+
+            ExternalDataColumns columns = new ExternalDataColumns(headerRow, new HashMap<>());
+            String keyColumn = columns.getKeyColumn();
+            if (keyColumn == null) {
+                return false;
+            }
+
+            db = SQLiteDatabase.openDatabase(dbFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE);
+            if (!hasColumns(db, tableName, columns)) {
+                Timber.i("Columns of %s have changed", dataSetFile.getName());
+                return false;
+            }
+
+            Map<String, ExistingRow> existing = getExistingRows(db, tableName, keyColumn);
+            if (existing == null) {
+                return false;
+            }
+
+            db.beginTransaction();
+            try (CsvBulkLoader loader = new CsvBulkLoader(db, tableName, columns.getInsertColumns(), 0);
+                 SQLiteStatement delete = db.compileStatement("DELETE FROM " + tableName
+                         + " WHERE " + keyColumn + " = ? AND " + NOT_LOCAL);
+                 SQLiteStatement updateSort = db.compileStatement("UPDATE " + tableName
+                         + " SET " + ExternalDataUtil.SORT_COLUMN_NAME + " = ? WHERE " + keyColumn + " = ? AND " + NOT_LOCAL)) {
+
+                Set<String> seen = new HashSet<>();
+                String[] row;
+                int rowCount = 0;
+                while ((row = reader.readNext()) != null) {
+                    if (isCancelled()) {
+                        return true;        // Rolled back, the existing data is retained
+                    }
+                    if (!ExternalDataUtil.containsAnyData(row)) {
+                        continue;
+                    }
+                    rowCount++;
+
+                    String key = columns.getKey(row);
+                    String matchKey = toMatchKey(key);
+                    if (key.isEmpty() || !seen.add(matchKey)) {
+                        Timber.i("Empty or duplicate key %s in %s", key, dataSetFile.getName());
+                        return false;
+                    }
+
+                    ExistingRow existingRow = existing.remove(matchKey);
+                    if (existingRow == null) {
+                        columns.bindRow(loader, row, rowCount);
+                        loader.insert();
+                        inserted++;
+                        continue;
+                    }
+
+                    // Bind first to get the hash, the bindings are only used if the row has changed
+                    long hash = columns.bindRow(loader, row, rowCount);
+                    if (hash != existingRow.hash) {
+                        execute(delete, key);
+                        loader.insert();
+                        replaced++;
+                    } else {
+                        double sort = columns.getSortValue(row, rowCount);
+                        if (sort != existingRow.sort) {
+                            updateSort.bindDouble(1, sort);
+                            updateSort.bindString(2, key);
+                            updateSort.executeUpdateDelete();
+                            moved++;
+                        }
+                    }
+                }
+
+                for (ExistingRow removed : existing.values()) {
+                    execute(delete, removed.key);
+                    deleted++;
+                }
+
+                updateMd5Hash(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            Timber.i("Applied changes to %s: %d inserted, %d changed, %d moved, %d deleted",
+                    dataSetFile.getName(), inserted, replaced, moved, deleted);
+            return true;
+
+        } catch (Exception e) {
+            Timber.e(e, "Failed to apply changes to %s", dataSetFile.getName());
+            return false;
+        } finally {
+            if (db != null) {
+                db.close();
+            }
+        }
+    }
+
+    private boolean isCancelled() {
+        return importListener != null && importListener.isCancelled();
+    }
+
+    /*
+     * Check that the table has the columns of the file, the local data and row hash columns and no others
+     * The instance column is ignored as it is added when local data is first loaded
+     */
+    private boolean hasColumns(SQLiteDatabase db, String tableName, ExternalDataColumns columns) {
+        Set<String> expected = new HashSet<>(columns.getInsertColumns());
+        expected.add(ExternalDataUtil.LOCAL_COLUMN_NAME);
+
+        Set<String> actual = new HashSet<>();
+        try (Cursor c = db.rawQuery("PRAGMA table_info(" + tableName + ")", null)) {
+            int nameIndex = c.getColumnIndex("name");
+            while (c.moveToNext()) {
+                actual.add(c.getString(nameIndex));
+            }
+        }
+        actual.remove(ExternalDataUtil.INSTANCE_COLUMN_NAME);
+        return expected.equals(actual);
+    }
+
+    /*
+     * Get the hash and sort value of the rows imported from the previous file
+     * Returns null if the previous file had duplicate keys
+     */
+    private Map<String, ExistingRow> getExistingRows(SQLiteDatabase db, String tableName, String keyColumn) {
+        Map<String, ExistingRow> rows = new HashMap<>();
+        String sql = "SELECT " + keyColumn + ", " + ExternalDataUtil.ROW_HASH_COLUMN_NAME + ", "
+                + ExternalDataUtil.SORT_COLUMN_NAME + " FROM " + tableName + " WHERE " + NOT_LOCAL;
+        try (Cursor c = db.rawQuery(sql, null)) {
+            while (c.moveToNext()) {
+                String key = c.isNull(0) ? "" : c.getString(0);
+                if (c.isNull(1) || rows.put(toMatchKey(key), new ExistingRow(key, c.getLong(1), c.getDouble(2))) != null) {
+                    return null;
+                }
+            }
+        }
+        return rows;
+    }
+
+    private void updateMd5Hash(SQLiteDatabase db) {
+        try (SQLiteStatement update = db.compileStatement("UPDATE " + ExternalDataUtil.EXTERNAL_METADATA_TABLE_NAME
+                + " SET " + ExternalDataUtil.COLUMN_MD5_HASH + " = ? WHERE " + ExternalDataUtil.COLUMN_DATASET_FILENAME + " = ?")) {
+            update.bindString(1, FileUtils.getMd5Hash(dataSetFile));
+            update.bindString(2, dataSetFile.getName());
+            update.executeUpdateDelete();
+        }
+        ExternalSQLiteOpenHelper.updateFileStamp(db, ExternalDataUtil.EXTERNAL_METADATA_TABLE_NAME, dataSetFile);
+    }
+
+    /*
+     * The key column is compared without case by SQLite so keys that only differ by case are treated as duplicates
+     */
+    private static String toMatchKey(String key) {
+        return key.toLowerCase(Locale.ENGLISH);
+    }
+
+    private static void execute(SQLiteStatement statement, String key) {
+        statement.bindString(1, key);
+        statement.executeUpdateDelete();
+    }
+
+    private static class ExistingRow {
+        final String key;
+        final long hash;
+        final double sort;
+
+        ExistingRow(String key, long hash, double sort) {
+            this.key = key;
+            this.hash = hash;
+            this.sort = sort;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2017 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.external;
+
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import org.odk.collect.android.preferences.GeneralKeys;
+import org.odk.collect.android.preferences.GeneralSharedPreferences;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/*
+ * A full text index over the columns of an external data table
+ * The index is an external content table so the data is not duplicated.  Triggers keep it up to date
+ *  when rows are changed by a delta import or when local data is added.
+ * An FTS5 trigram index is used if the version of SQLite supports it, this can be used for any like
+ *  expression of at least three characters.  Otherwise an FTS4 index is used which can only find whole
+ *  words and word prefixes.  If neither is available searches use the data table.
+ */
+public final class ExternalDataFts {
+
+    public static final String FTS_TABLE_NAME = ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME + "_fts";
+
+    public static final int NONE = 0;
+    public static final int FTS4 = 4;
+    public static final int FTS5 = 5;
+
+    private ExternalDataFts() {
+    }
+
+    /*
+     * The index is created by default, searches return the same rows with or without it
+     * The setting allows it to be turned off if a device has problems building the index
+     */
+    public static boolean isEnabled() {
+        return GeneralSharedPreferences.getInstance().getBoolean(GeneralKeys.KEY_SMAP_EXTERNAL_FTS, true);
+    }
+
+    /*
+     * Create and populate the index, called after the data table has been loaded
+     * Returns the type of index created
+     */
+    static int create(SQLiteDatabase db, String tableName, List<String> columns) {
+        String columnList = TextUtils.join(", ", columns);
+        String newValues = prefixed("new.", columns);
+        String oldValues = prefixed("old.", columns);
+
+        try {
+            db.execSQL("CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts5(" + columnList
+                    + ", content='" + tableName + "', content_rowid='rowid', tokenize='trigram')");
+            db.execSQL("INSERT INTO " + FTS_TABLE_NAME + "(" + FTS_TABLE_NAME + ") VALUES('rebuild')");
+
+            String delete = "INSERT INTO " + FTS_TABLE_NAME + "(" + FTS_TABLE_NAME + ", rowid, " + columnList
+                    + ") VALUES('delete', old.rowid, " + oldValues + ");";
+            String insert = "INSERT INTO " + FTS_TABLE_NAME + "(rowid, " + columnList + ") VALUES(new.rowid, " + newValues + ");";
+            createTrigger(db, "ai", "AFTER INSERT ON " + tableName, insert);
+            createTrigger(db, "ad", "AFTER DELETE ON " + tableName, delete);
+            createTrigger(db, "au", "AFTER UPDATE OF " + columnList + " ON " + tableName, delete + " " + insert);
+            return FTS5;
+        } catch (SQLException e) {
+            Timber.i("FTS5 trigram index not available: %s", e.getMessage());
+            db.execSQL("DROP TABLE IF EXISTS " + FTS_TABLE_NAME);
+        }
+
+        try {
+            db.execSQL("CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts4(content=\"" + tableName + "\", "
+                    + columnList + ")");
+            db.execSQL("INSERT INTO " + FTS_TABLE_NAME + "(" + FTS_TABLE_NAME + ") VALUES('rebuild')");
+
+            String delete = "DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old.rowid;";
+            String insert = "INSERT INTO " + FTS_TABLE_NAME + "(docid, " + columnList + ") VALUES(new.rowid, " + newValues + ");";
+            createTrigger(db, "ai", "AFTER INSERT ON " + tableName, insert);
+            createTrigger(db, "bd", "BEFORE DELETE ON " + tableName, delete);
+            createTrigger(db, "bu", "BEFORE UPDATE OF " + columnList + " ON " + tableName, delete);
+            createTrigger(db, "au", "AFTER UPDATE OF " + columnList + " ON " + tableName, insert);
+            return FTS4;
+        } catch (SQLException e) {
+            Timber.w("Full text index not available: %s", e.getMessage());
+            db.execSQL("DROP TABLE IF EXISTS " + FTS_TABLE_NAME);
+        }
+        return NONE;
+    }
+
+    /*
+     * Get the type of index in a database
+     */
+    public static int getVersion(SQLiteDatabase db) {
+        try (Cursor c = db.rawQuery("SELECT sql FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[] {FTS_TABLE_NAME})) {
+            if (c.moveToFirst() && c.getString(0) != null) {
+                String sql = c.getString(0).toLowerCase(Locale.ENGLISH);
+                if (sql.contains("fts5")) {
+                    return FTS5;
+                } else if (sql.contains("fts4")) {
+                    return FTS4;
+                }
+            }
+        } catch (SQLException e) {
+            Timber.e(e);
+        }
+        return NONE;
+    }
+
+    /*
+     * Get the columns that are indexed
+     */
+    public static Set<String> getColumns(SQLiteDatabase db) {
+        Set<String> columns = new HashSet<>();
+        try (Cursor c = db.rawQuery("PRAGMA table_info(" + FTS_TABLE_NAME + ")", null)) {
+            int nameIndex = c.getColumnIndex("name");
+            while (c.moveToNext()) {
+                columns.add(c.getString(nameIndex));
+            }
+        } catch (SQLException e) {
+            Timber.e(e);
+            return Collections.emptySet();
+        }
+        return columns;
+    }
+
+    private static void createTrigger(SQLiteDatabase db, String suffix, String event, String body) {
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_" + suffix + " " + event + " BEGIN " + body + " END");
+    }
+
+    private static String prefixed(String prefix, List<String> columns) {
+        StringBuilder sb = new StringBuilder();
+        for (String column : columns) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(prefix).append(column);
+        }
+        return sb.toString();
+    }
+}
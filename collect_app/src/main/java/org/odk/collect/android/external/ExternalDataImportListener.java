@@ -0,0 +1,26 @@
+/*
+ * Copyright (C) 2017 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.external;
+
+/*
+ * Receives progress from an import of external data and allows the import to be cancelled
+ * Implemented by the form loader and by the form downloader which builds the databases in advance
+ */
+public interface ExternalDataImportListener {
+
+    void publishExternalDataLoadingProgress(String message);
+
+    boolean isCancelled();
+}
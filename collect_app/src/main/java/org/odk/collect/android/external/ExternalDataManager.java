@@ -39,5 +39,11 @@ public interface ExternalDataManager {
      */
     ExternalSQLiteOpenHelper getDatabase(String dataSetName, boolean required);
 
+    /**
+     * smap
+     * Returns the cache of search() and pulldata() results for the form session
+     */
+    ExternalDataResultCache getResultCache();
+
     void close();
 }
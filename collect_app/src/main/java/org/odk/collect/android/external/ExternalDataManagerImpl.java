@@ -39,9 +39,11 @@ public class ExternalDataManagerImpl implements ExternalDataManager {
     private final Map<String, ExternalSQLiteOpenHelper> dbMap = new HashMap<>();
 
     private final File mediaFolder;
+    private final ExternalDataResultCache resultCache;     // smap
 
     public ExternalDataManagerImpl(File mediaFolder) {
         this.mediaFolder = mediaFolder;
+        resultCache = new ExternalDataResultCache(mediaFolder);     // smap
     }
 
     @Override
@@ -64,8 +66,17 @@ public class ExternalDataManagerImpl implements ExternalDataManager {
         return sqLiteOpenHelper;
     }
 
+    @Override
+    public ExternalDataResultCache getResultCache() {     // smap
+        return resultCache;
+    }
+
     @Override
     public void close() {
+        // smap
+        Timber.i("External data result cache: %d hits, %d misses", resultCache.getHitCount(), resultCache.getMissCount());
+        resultCache.clear();
+
         if (dbMap != null) {
             for (ExternalSQLiteOpenHelper externalSQLiteOpenHelper : dbMap.values()) {
                 Timber.w("Closing database handler:%s", externalSQLiteOpenHelper.toString());
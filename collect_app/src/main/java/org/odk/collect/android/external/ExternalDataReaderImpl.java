@@ -21,11 +21,11 @@ package org.odk.collect.android.external;
 import android.database.sqlite.SQLiteDatabase;
 
 import org.apache.commons.io.FileUtils;
-import org.odk.collect.android.tasks.FormLoaderTask;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import timber.log.Timber;
 
@@ -36,10 +36,14 @@ import timber.log.Timber;
  */
 public class ExternalDataReaderImpl implements ExternalDataReader {
 
-    private final FormLoaderTask formLoaderTask;
+    private final ExternalDataImportListener importListener;     // smap generalise from FormLoaderTask
 
-    public ExternalDataReaderImpl(FormLoaderTask formLoaderTask) {
-        this.formLoaderTask = formLoaderTask;
+    // smap a database can be imported when its form is downloaded and when the form is opened
+    // only one import of each database runs at a time
+    private static final ConcurrentHashMap<String, Object> IMPORT_LOCKS = new ConcurrentHashMap<>();
+
+    public ExternalDataReaderImpl(ExternalDataImportListener importListener) {
+        this.importListener = importListener;
     }
 
     @Override
@@ -59,9 +63,28 @@ public class ExternalDataReaderImpl implements ExternalDataReader {
     private boolean doImportDataSetAndContinue(String dataSetName, File dataSetFile) {
         File dbFile = new File(dataSetFile.getParentFile().getAbsolutePath(),
                 dataSetName + ".db");
+        synchronized (getImportLock(dbFile)) {     // smap
+            return doImportDataSetAndContinue(dbFile, dataSetFile);
+        }
+    }
+
+    private static Object getImportLock(File dbFile) {
+        Object lock = new Object();
+        Object existing = IMPORT_LOCKS.putIfAbsent(dbFile.getAbsolutePath(), lock);
+        return existing != null ? existing : lock;
+    }
+
+    private boolean doImportDataSetAndContinue(File dbFile, File dataSetFile) {
         if (dbFile.exists()) {
             // Determine if we need to reimport
             if (ExternalSQLiteOpenHelper.shouldUpdateDBforDataSet(dbFile, dataSetFile)) {
+
+                // smap apply only the changed rows if possible
+                if (new ExternalDataDeltaImporter(dbFile, dataSetFile, importListener).doImport()) {
+                    ExternalDataResultCache.invalidate(dbFile);
+                    return importListener == null || !importListener.isCancelled();
+                }
+
                 boolean deleted = dbFile.delete();
                 if (!deleted) {
                     Timber.e("%s has changed but we could not delete the previous DB at %s",
@@ -74,9 +97,10 @@ public class ExternalDataReaderImpl implements ExternalDataReader {
         }
         ExternalSQLiteOpenHelper externalSQLiteOpenHelper = new ExternalSQLiteOpenHelper(
                 dbFile);
-        externalSQLiteOpenHelper.importFromCSV(dataSetFile, this, formLoaderTask);
+        externalSQLiteOpenHelper.importFromCSV(dataSetFile, this, importListener);
+        ExternalDataResultCache.invalidate(dbFile);     // smap
 
-        if (formLoaderTask != null && formLoaderTask.isCancelled()) {
+        if (importListener != null && importListener.isCancelled()) {
             Timber.w(
                     "The import was cancelled, so we need to rollback.");
 
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2017 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.external;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The results of search() and pulldata() calls made while a form is open
+ * JavaRosa evaluates these functions again each time the screen is refreshed or a calculation that
+ *  uses them is recomputed.  The results are kept for the life of the form session and the least
+ *  recently used results are discarded when the cache is full.
+ * A result is discarded if the database it was read from has been changed since it was cached, either
+ *  by importing a new CSV file or by loading local data.
+ */
+public class ExternalDataResultCache {
+
+    private static final int MAX_ENTRIES = 200;
+    private static final int MAX_CACHED_CHOICES = 5000;     // Larger search results are not kept
+    private static final char KEY_SEPARATOR = '\u001f';
+
+    private static final Map<String, Long> generations = new HashMap<>();   // Database path to generation
+    private static long lastGeneration;
+
+    private final File mediaFolder;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private int hitCount;
+    private int missCount;
+
+    public ExternalDataResultCache(File mediaFolder) {
+        this.mediaFolder = mediaFolder;
+    }
+
+    /*
+     * Record that a database has changed so that results read from it are no longer used
+     */
+    public static synchronized void invalidate(File dbFile) {
+        generations.put(dbFile.getAbsolutePath(), ++lastGeneration);
+    }
+
+    private static synchronized long getGeneration(File dbFile) {
+        Long generation = generations.get(dbFile.getAbsolutePath());
+        return generation == null ? 0 : generation;
+    }
+
+    /*
+     * Create a key from the function name and the evaluated arguments of a call
+     */
+    public static String createKey(String... parts) {
+        StringBuilder sb = new StringBuilder();
+        for (String part : parts) {
+            if (part == null) {
+                sb.append('\u0000');
+            } else {
+                sb.append(part);
+            }
+            sb.append(KEY_SEPARATOR);
+        }
+        return sb.toString();
+    }
+
+    /*
+     * Returns null if there is no current result for the call
+     */
+    public synchronized Object get(String dataSetName, String key) {
+        String entryKey = dataSetName + KEY_SEPARATOR + key;
+        Entry entry = entries.get(entryKey);
+        if (entry != null && entry.generation != getGeneration(getDbFile(dataSetName))) {
+            entries.remove(entryKey);
+            entry = null;
+        }
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return copy(entry.result);
+    }
+
+    public synchronized void put(String dataSetName, String key, Object result) {
+        if (result == null || (result instanceof List && ((List<?>) result).size() > MAX_CACHED_CHOICES)) {
+            return;
+        }
+        entries.put(dataSetName + KEY_SEPARATOR + key,
+                new Entry(copy(result), getGeneration(getDbFile(dataSetName))));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return missCount;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private File getDbFile(String dataSetName) {
+        return new File(mediaFolder, dataSetName + ".db");
+    }
+
+    /*
+     * Lists of choices are copied so that callers cannot change the cached list
+     */
+    private static Object copy(Object result) {
+        return result instanceof List ? new ArrayList<>((List<?>) result) : result;
+    }
+
+    private static class Entry {
+        final Object result;
+        final long generation;
+
+        Entry(Object result, long generation) {
+            this.result = result;
+            this.generation = generation;
+        }
+    }
+}
@@ -31,7 +31,9 @@ import org.javarosa.xpath.XPathNodeset;
 import org.javarosa.xpath.XPathParseTool;
 import org.javarosa.xpath.expr.XPathExpression;
 import org.javarosa.xpath.expr.XPathFuncExpr;
+import org.javarosa.xpath.expr.XPathNumericLiteral;
 import org.javarosa.xpath.expr.XPathPathExpr;
+import org.javarosa.xpath.expr.XPathStringLiteral;
 import org.javarosa.xpath.parser.XPathSyntaxException;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
@@ -42,6 +44,7 @@ import org.odk.collect.android.external.handler.SmapRemoteDataHandlerSearch;
 import org.odk.collect.android.logic.FormInfo;
 import org.odk.collect.android.javarosawrapper.FormController;
 import org.odk.collect.android.utilities.TranslationHandler;
+import org.odk.collect.android.utilities.ZipUtils;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -72,8 +75,13 @@ public final class ExternalDataUtil {
     public static final String EXTERNAL_METADATA_TABLE_NAME = "externalMetadata";
     public static final String SORT_COLUMN_NAME = "c_sortby";
     public static final String LOCAL_COLUMN_NAME = "_local";
+    public static final String ROW_HASH_COLUMN_NAME = "_row_hash";     // smap
+    public static final String INSTANCE_COLUMN_NAME = "_instance";     // smap the instance that local data was read from
     public static final String COLUMN_DATASET_FILENAME = "dataSetFilename";
     public static final String COLUMN_MD5_HASH = "md5Hash";
+    public static final String COLUMN_FILE_SIZE = "fileSize";            // smap
+    public static final String COLUMN_LAST_MODIFIED = "lastModified";    // smap
+    public static final String ITEMSETS_CSV = "itemsets.csv";      // smap
 
     public static final Pattern REMOTE_SEARCH_FUNCTION_REGEX = Pattern.compile("lookup_choices\\(.+\\)");     // smap
     public static final Pattern SEARCH_FUNCTION_REGEX = Pattern.compile("search\\(.+\\)");
@@ -189,6 +197,28 @@ public final class ExternalDataUtil {
         }
     }
 
+    /*
+     * smap
+     * Returns true if the search() function only has literal arguments so the choices it returns
+     * cannot change as other questions are answered. Arguments that refer to questions, either as
+     * paths or as /main tokens in a filter string, make the search dynamic.
+     */
+    public static boolean isStaticSearch(XPathFuncExpr xpathFuncExpr) {
+        if (xpathFuncExpr == null) {
+            return false;
+        }
+        for (XPathExpression arg : xpathFuncExpr.args) {
+            if (arg instanceof XPathStringLiteral) {
+                if (((XPathStringLiteral) arg).s.contains("/main")) {
+                    return false;
+                }
+            } else if (!(arg instanceof XPathNumericLiteral)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static ArrayList<SelectChoice> populateExternalChoices(FormEntryPrompt formEntryPrompt,
             XPathFuncExpr xpathfuncexpr) throws FileNotFoundException, InvalidSyntaxException {     // Smap add InvalidSyntax Exception
         ArrayList<SelectChoice> returnedChoices = new ArrayList<>();        // smap
@@ -428,6 +458,71 @@ public final class ExternalDataUtil {
         }
     }
 
+    /*
+     * smap
+     * Unzip any zip files in the media folder and return the CSV files that should be imported into
+     * a database keyed on the data set name
+     */
+    public static Map<String, File> getExternalDataMap(File mediaFolder) {
+        // SCTO-594
+        File[] zipFiles = mediaFolder.listFiles(file -> file.getName().toLowerCase(Locale.US).endsWith(".zip"));
+
+        if (zipFiles != null) {
+            ZipUtils.unzip(zipFiles);
+            for (File zipFile : zipFiles) {
+                boolean deleted = zipFile.delete();
+                if (!deleted) {
+                    Timber.w("Cannot delete %s. It will be re-unzipped next time. :(", zipFile.toString());
+                }
+            }
+        }
+
+        File[] csvFiles = mediaFolder.listFiles(file -> {
+            String lowerCaseName = file.getName().toLowerCase(Locale.US);
+            return lowerCaseName.endsWith(".csv") && !lowerCaseName.equalsIgnoreCase(ITEMSETS_CSV);
+        });
+
+        Map<String, File> externalDataMap = new HashMap<>();
+        if (csvFiles != null) {
+            for (File csvFile : csvFiles) {
+                String dataSetName = csvFile.getName().substring(0,
+                        csvFile.getName().lastIndexOf("."));
+                externalDataMap.put(dataSetName, csvFile);
+            }
+        }
+        return externalDataMap;
+    }
+
+    /*
+     * smap
+     * Return true if a data set has not yet been imported
+     * Data sets are normally imported when the form is downloaded, changed CSV files are still
+     *  checked and re-imported by the import itself
+     */
+    public static boolean isImportRequired(Map<String, File> externalDataMap) {
+        for (Map.Entry<String, File> entry : externalDataMap.entrySet()) {
+            File dbFile = new File(entry.getValue().getParentFile(), entry.getKey() + ".db");
+            if (!dbFile.exists()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * smap
+     * Create or update the databases for the CSV files in a form's media folder
+     * Called after the media files for a form have been downloaded so that opening the form does not
+     *  have to wait for large CSV files to be imported
+     */
+    public static void importExternalData(File mediaFolder, ExternalDataImportListener importListener) {
+        Map<String, File> externalDataMap = getExternalDataMap(mediaFolder);
+        if (!externalDataMap.isEmpty()) {
+            ExternalDataReader externalDataReader = new ExternalDataReaderImpl(importListener);
+            externalDataReader.doImport(externalDataMap);
+        }
+    }
+
     /*
      * Convert placeholders for questions into the answers of those questions
      * Otherwise leave tokens unchanged
@@ -435,12 +530,15 @@ public final class ExternalDataUtil {
     public static String evaluateExpressionNodes(String in, EvaluationContext ec) {
         StringBuilder expression = new StringBuilder("");
         if(in != null) {
-            FormDef formDef = Collect.getInstance().getFormController().getFormDef();
-            FormInstance formInstance = formDef.getInstance();
+            FormInstance formInstance = null;       // Only needed if the expression refers to a question
 
             String [] eList = in.split("\\s+");
             for(String s : eList) {
                 if(s.startsWith("/main")) {
+                    if(formInstance == null) {
+                        FormDef formDef = Collect.getInstance().getFormController().getFormDef();
+                        formInstance = formDef.getInstance();
+                    }
                     XPathPathExpr pathExpr = XPathReference.getPathExpr(s);
                     XPathNodeset xpathNodeset = pathExpr.eval(formInstance, ec);
                     Object o = XPathFuncExpr.unpack(xpathNodeset);
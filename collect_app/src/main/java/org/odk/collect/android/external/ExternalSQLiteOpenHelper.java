@@ -20,6 +20,7 @@ package org.odk.collect.android.external;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
@@ -31,7 +32,7 @@ import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.database.DatabaseContext;
 import org.odk.collect.android.exception.ExternalDataException;
-import org.odk.collect.android.tasks.FormLoaderTask;
+import org.odk.collect.android.utilities.CsvBulkLoader;
 import org.odk.collect.android.utilities.CustomSQLiteQueryBuilder;
 import org.odk.collect.android.utilities.CustomSQLiteQueryExecutor;
 import org.odk.collect.android.utilities.FileUtils;
@@ -44,9 +45,11 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import timber.log.Timber;
 
@@ -61,20 +64,24 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
     private static final char DELIMITING_CHAR = ",".charAt(0);
     private static final char QUOTE_CHAR = "\"".charAt(0);
     private static final char ESCAPE_CHAR = "\0".charAt(0);
+    private static final long READ_AHEAD_MIN_BYTES = 1024 * 1024;   // smap parse on a separate thread for larger files
+    private static final int PROGRESS_INTERVAL = 1000;              // smap
 
     private File dataSetFile;
     private ExternalDataReader externalDataReader;
-    private FormLoaderTask formLoaderTask;
+    private ExternalDataImportListener importListener;     // smap generalise from FormLoaderTask
+    private Integer ftsVersion;                             // smap
+    private Set<String> ftsColumns;                         // smap
 
     ExternalSQLiteOpenHelper(File dbFile) {
         super(new DatabaseContext(dbFile.getParentFile().getAbsolutePath()), dbFile.getName(), null, VERSION);
     }
 
     void importFromCSV(File dataSetFile, ExternalDataReader externalDataReader,
-                       FormLoaderTask formLoaderTask) {
+                       ExternalDataImportListener importListener) {
         this.dataSetFile = dataSetFile;
         this.externalDataReader = externalDataReader;
-        this.formLoaderTask = formLoaderTask;
+        this.importListener = importListener;
 
         SQLiteDatabase writableDatabase = null;
         try {
@@ -115,14 +122,9 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
                 dataSetFile.getName(), ""));
 
         CSVReader reader = null;
+        CsvBulkLoader.RowReader rowReader = null;     // smap
         try {
-            reader = new CSVReaderBuilder(new FileReader(dataSetFile))
-                    .withCSVParser(new CSVParserBuilder()
-                            .withSeparator(DELIMITING_CHAR)
-                            .withQuoteChar(QUOTE_CHAR)
-                            .withEscapeChar(ESCAPE_CHAR)
-                            .build())
-                    .build();
+            reader = createCsvReader(dataSetFile);
 
             String[] headerRow = reader.readNext();
 
@@ -185,6 +187,10 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
             // begin smap - add local column
             sb.append(", ");
             sb.append(ExternalDataUtil.LOCAL_COLUMN_NAME).append(" integer default 0 ");
+
+            // add the hash of each row which is used to apply changes to the CSV file
+            sb.append(", ");
+            sb.append(ExternalDataUtil.ROW_HASH_COLUMN_NAME).append(" integer ");
             // end smap
 
             sb.append(" );");
@@ -211,57 +217,35 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
                     + ExternalDataUtil.LOCAL_COLUMN_NAME + ");";
             createIndexesCommands.add(indexSQL);
 
-            // populate the database
-            String[] row = reader.readNext();
-            int rowCount = 0;
-            while (row != null && !isCancelled()) {
-                // SCTO-894 - first we should make sure that this is not an empty line
-                if (!ExternalDataUtil.containsAnyData(row)) {
-                    // yes, that is an empty row, ignore it
-                    row = reader.readNext();
-                    continue;
-                }
-
-                // SCTO-894 - then check if the row contains less values than the header
-                // we should not ignore the existing values in the row,
-                // we will just fill up the rest with empty strings
-                if (row.length < headerRow.length) {
-                    row = ExternalDataUtil.fillUpNullValues(row, headerRow);
-                }
-
-                ContentValues values = new ContentValues();
-                if (!sortColumnAlreadyPresent) {
-                    values.put(ExternalDataUtil.SORT_COLUMN_NAME, rowCount + 1);
-                }
-
-                for (int i = 0; i < row.length && i < headerRow.length; i++) {
-                    String columnName = headerRow[i].trim();
-                    String columnValue = row[i];
-                    if (columnName.length() == 0) {
+            /*
+             * smap
+             * Populate the database using a compiled insert statement
+             * The table column for each CSV column is resolved once rather than for every row
+             * onCreate() is already called within a transaction so the loader does not start its own
+             */
+            ExternalDataColumns columns = new ExternalDataColumns(headerRow, columnNamesCache);
+
+            rowReader = new CsvBulkLoader.RowReader(reader, dataSetFile.length() > READ_AHEAD_MIN_BYTES);
+            try (CsvBulkLoader loader = new CsvBulkLoader(db, tableName, columns.getInsertColumns(), 0)) {
+                String[] row = rowReader.readNext();
+                int rowCount = 0;
+                while (row != null && !isCancelled()) {
+                    // SCTO-894 - first we should make sure that this is not an empty line
+                    if (!ExternalDataUtil.containsAnyData(row)) {
+                        // yes, that is an empty row, ignore it
+                        row = rowReader.readNext();
                         continue;
                     }
-                    String safeColumnName = ExternalDataUtil.toSafeColumnName(columnName,
-                            columnNamesCache);
-                    if (safeColumnName.equals(ExternalDataUtil.SORT_COLUMN_NAME)) {
-                        try {
-                            values.put(safeColumnName, Double.parseDouble(columnValue));
-                        } catch (NumberFormatException e) {
-                            throw new ExternalDataException(TranslationHandler.getString(Collect.getInstance(), org.odk.collect.strings.R.string.ext_sortBy_numeric_error, columnValue));
-                        }
-                    } else {
-                        if(columnValue != null) {               // smap
-                            columnValue = columnValue.trim();
-                        }
-                        values.put(safeColumnName, columnValue);
+
+                    columns.bindRow(loader, row, rowCount + 1);
+                    loader.insert();
+                    row = rowReader.readNext();
+                    rowCount++;
+                    if (rowCount % PROGRESS_INTERVAL == 0) {
+                        onProgress(TranslationHandler.getString(Collect.getInstance(), org.odk.collect.strings.R.string.ext_import_progress_message,
+                                dataSetFile.getName(), " (" + rowCount + " records so far)"));
                     }
                 }
-                db.insertOrThrow(tableName, null, values);
-                row = reader.readNext();
-                rowCount++;
-                if (rowCount % 100 == 0) {
-                    onProgress(TranslationHandler.getString(Collect.getInstance(), org.odk.collect.strings.R.string.ext_import_progress_message,
-                            dataSetFile.getName(), " (" + rowCount + " records so far)"));
-                }
             }
 
             if (isCancelled()) {
@@ -277,11 +261,26 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
                     db.execSQL(createIndexCommand);
                 }
 
+                // smap full text index of the columns in the CSV file
+                if (ExternalDataFts.isEnabled()) {
+                    List<String> textColumns = new ArrayList<>(columns.getInsertColumns());
+                    textColumns.remove(ExternalDataUtil.SORT_COLUMN_NAME);
+                    textColumns.remove(ExternalDataUtil.ROW_HASH_COLUMN_NAME);
+                    int version = ExternalDataFts.create(db, tableName, textColumns);
+                    Timber.i("Created full text index version %d for %s", version, dataSetFile.getName());
+                }
+
                 Timber.w("Read all data from %s", dataSetFile.toString());
                 onProgress(TranslationHandler.getString(Collect.getInstance(), org.odk.collect.strings.R.string.ext_import_completed_message));
             }
         } finally {
-            if (reader != null) {
+            if (rowReader != null) {                    // smap closes the CSV reader
+                try {
+                    rowReader.close();
+                } catch (IOException e) {
+                    Timber.e(e);
+                }
+            } else if (reader != null) {
                 try {
                     reader.close();
                 } catch (IOException e) {
@@ -291,8 +290,45 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
         }
     }
 
+    /*
+     * smap
+     * Open a CSV file with the settings used for external data
+     */
+    static CSVReader createCsvReader(File dataSetFile) throws IOException {
+        return new CSVReaderBuilder(new FileReader(dataSetFile))
+                .withCSVParser(new CSVParserBuilder()
+                        .withSeparator(DELIMITING_CHAR)
+                        .withQuoteChar(QUOTE_CHAR)
+                        .withEscapeChar(ESCAPE_CHAR)
+                        .build())
+                .build();
+    }
+
+    /*
+     * smap
+     * The type of full text index in the database, read when first needed
+     */
+    public synchronized int getFtsVersion() {
+        if (ftsVersion == null) {
+            ftsVersion = ExternalDataFts.getVersion(getReadableDatabase());
+        }
+        return ftsVersion;
+    }
+
+    /*
+     * smap
+     * The columns in the full text index, empty if there is no index
+     */
+    public synchronized Set<String> getFtsColumns() {
+        if (ftsColumns == null) {
+            ftsColumns = getFtsVersion() == ExternalDataFts.NONE
+                    ? Collections.emptySet() : ExternalDataFts.getColumns(getReadableDatabase());
+        }
+        return ftsColumns;
+    }
+
     protected boolean isCancelled() {
-        return formLoaderTask != null && formLoaderTask.isCancelled();
+        return importListener != null && importListener.isCancelled();
     }
 
     // Create a metadata table with a single column that keeps track of the date of the last import
@@ -304,15 +340,63 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
         List<String> columnDefinitions = new ArrayList<>();
         columnDefinitions.add(CustomSQLiteQueryBuilder.formatColumnDefinition(dataSetFilenameColumn, "TEXT"));
         columnDefinitions.add(CustomSQLiteQueryBuilder.formatColumnDefinition(md5HashColumn, "TEXT NOT NULL"));
+        columnDefinitions.add(CustomSQLiteQueryBuilder.formatColumnDefinition(ExternalDataUtil.COLUMN_FILE_SIZE, "INTEGER"));       // smap
+        columnDefinitions.add(CustomSQLiteQueryBuilder.formatColumnDefinition(ExternalDataUtil.COLUMN_LAST_MODIFIED, "INTEGER"));   // smap
 
         CustomSQLiteQueryExecutor.begin(db).createTable(metadataTableName).columnsForCreate(columnDefinitions).end();
 
         ContentValues metadata = new ContentValues();
         metadata.put(ExternalDataUtil.COLUMN_DATASET_FILENAME, dataSetFile.getName());
         metadata.put(ExternalDataUtil.COLUMN_MD5_HASH, FileUtils.getMd5Hash(dataSetFile));
+        metadata.put(ExternalDataUtil.COLUMN_FILE_SIZE, dataSetFile.length());                // smap
+        metadata.put(ExternalDataUtil.COLUMN_LAST_MODIFIED, dataSetFile.lastModified());      // smap
         db.insertOrThrow(metadataTableName, null, metadata);
     }
 
+    /*
+     * smap
+     * Record the size and modification time of the imported file
+     * While these are unchanged the file does not need to be hashed to check if it has been updated
+     * The columns are added to databases that were created before they were recorded
+     */
+    static void updateFileStamp(SQLiteDatabase db, String metadataTableName, File dataSetFile) {
+        if (!hasFileStamp(db, metadataTableName)) {
+            db.execSQL("ALTER TABLE " + metadataTableName + " ADD COLUMN " + ExternalDataUtil.COLUMN_FILE_SIZE + " INTEGER");
+            db.execSQL("ALTER TABLE " + metadataTableName + " ADD COLUMN " + ExternalDataUtil.COLUMN_LAST_MODIFIED + " INTEGER");
+        }
+        ContentValues values = new ContentValues();
+        values.put(ExternalDataUtil.COLUMN_FILE_SIZE, dataSetFile.length());
+        values.put(ExternalDataUtil.COLUMN_LAST_MODIFIED, dataSetFile.lastModified());
+        db.update(metadataTableName, values,
+                CustomSQLiteQueryBuilder.quoteIdentifier(ExternalDataUtil.COLUMN_DATASET_FILENAME) + " = ?",
+                new String[] {dataSetFile.getName()});
+    }
+
+    static boolean isFileStampUnchanged(SQLiteDatabase db, String metadataTableName, File dataSetFile) {
+        if (!hasFileStamp(db, metadataTableName)) {
+            return false;
+        }
+        String[] columns = {ExternalDataUtil.COLUMN_FILE_SIZE, ExternalDataUtil.COLUMN_LAST_MODIFIED};
+        try (Cursor c = db.query(metadataTableName, columns,
+                CustomSQLiteQueryBuilder.quoteIdentifier(ExternalDataUtil.COLUMN_DATASET_FILENAME) + " = ?",
+                new String[] {dataSetFile.getName()}, null, null, null)) {
+            return c.getCount() == 1 && c.moveToFirst() && !c.isNull(0) && !c.isNull(1)
+                    && c.getLong(0) == dataSetFile.length() && c.getLong(1) == dataSetFile.lastModified();
+        }
+    }
+
+    private static boolean hasFileStamp(SQLiteDatabase db, String metadataTableName) {
+        try (Cursor c = db.rawQuery("PRAGMA table_info(" + metadataTableName + ")", null)) {
+            int nameIndex = c.getColumnIndex("name");
+            while (c.moveToNext()) {
+                if (ExternalDataUtil.COLUMN_LAST_MODIFIED.equals(c.getString(nameIndex))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     static String getLastMd5Hash(SQLiteDatabase db, String metadataTableName, File dataSetFile) {
         final String dataSetFilenameColumn = CustomSQLiteQueryBuilder.quoteIdentifier(ExternalDataUtil.COLUMN_DATASET_FILENAME);
         final String md5HashColumn = CustomSQLiteQueryBuilder.quoteIdentifier(ExternalDataUtil.COLUMN_MD5_HASH);
@@ -332,8 +416,23 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
     }
 
     static boolean shouldUpdateDBforDataSet(File dbFile, File dataSetFile) {
-        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getPath(), null, SQLiteDatabase.OPEN_READONLY);
-        return shouldUpdateDBforDataSet(db, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, ExternalDataUtil.EXTERNAL_METADATA_TABLE_NAME, dataSetFile);
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE);   // smap
+        try {
+            String metadataTableName = ExternalDataUtil.EXTERNAL_METADATA_TABLE_NAME;
+            boolean update = shouldUpdateDBforDataSet(db, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, metadataTableName, dataSetFile);
+
+            // smap the file has the same content but was rewritten, record it so it is not hashed again
+            if (!update && !isFileStampUnchanged(db, metadataTableName, dataSetFile)) {
+                try {
+                    updateFileStamp(db, metadataTableName, dataSetFile);
+                } catch (SQLException e) {
+                    Timber.w(e);
+                }
+            }
+            return update;
+        } finally {
+            db.close();     // smap the database may be updated in place
+        }
     }
 
     static boolean shouldUpdateDBforDataSet(SQLiteDatabase db, String dataTableName, String metadataTableName, File dataSetFile) {
@@ -343,6 +442,10 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
         if (!SQLiteUtils.doesTableExist(db, metadataTableName)) {
             return true;
         }
+        // smap the file has not changed since it was imported
+        if (isFileStampUnchanged(db, metadataTableName, dataSetFile)) {
+            return false;
+        }
         // Import if the CSV file has been updated
         String priorImportMd5 = getLastMd5Hash(db, metadataTableName, dataSetFile);
         String newFileMd5 = FileUtils.getMd5Hash(dataSetFile);
@@ -354,8 +457,8 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
     }
 
     private void onProgress(String message) {
-        if (formLoaderTask != null) {
-            formLoaderTask.publishExternalDataLoadingProgress(message);
+        if (importListener != null) {
+            importListener.publishExternalDataLoadingProgress(message);
         }
     }
 
@@ -365,7 +468,7 @@ public class ExternalSQLiteOpenHelper extends SQLiteOpenHelper {
      * @param bomCheckString is checked to see if it starts with a Byte Order Mark.
      * @return bomCheckString without a Byte Order Mark.
      */
-    private String removeByteOrderMark(String bomCheckString) {
+    static String removeByteOrderMark(String bomCheckString) {      // smap static
         return bomCheckString.startsWith("\uFEFF") ? bomCheckString.substring(1) : bomCheckString;
     }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2017 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.external.handler;
+
+import org.odk.collect.android.external.ExternalDataFts;
+import org.odk.collect.android.external.ExternalSQLiteOpenHelper;
+
+import java.util.List;
+
+import static org.odk.collect.android.external.handler.ExternalDataSearchType.CONTAINS;
+import static org.odk.collect.android.external.handler.ExternalDataSearchType.ENDS;
+import static org.odk.collect.android.external.handler.ExternalDataSearchType.MATCHES;
+import static org.odk.collect.android.external.handler.ExternalDataSearchType.STARTS;
+
+/*
+ * A selection for contains, startswith, endswith and matches searches that uses the full text index
+ * The index is used to find the candidate rows and the original like expression is kept so the
+ *  results are the same as searching the data table.
+ */
+final class ExternalDataFtsSelection {
+
+    private static final int MIN_TRIGRAM_LENGTH = 3;
+
+    final String selection;
+    final String[] selectionArgs;
+
+    private ExternalDataFtsSelection(String selection, String[] selectionArgs) {
+        this.selection = selection;
+        this.selectionArgs = selectionArgs;
+    }
+
+    /*
+     * Returns null if the search cannot use the index
+     * Only a single column and value are supported as that is the only search the like expression handles
+     */
+    static ExternalDataFtsSelection create(ExternalSQLiteOpenHelper helper, List<String> columns,
+                                           List<String> values, ExternalDataSearchType type) {
+        if (values == null || values.size() != 1 || columns == null || columns.size() != 1) {
+            return null;
+        }
+        String column = columns.get(0);
+        String value = values.get(0);
+        if (value == null || value.indexOf('%') >= 0 || value.indexOf('_') >= 0) {
+            return null;        // The value would be used as a like pattern
+        }
+        if (!helper.getFtsColumns().contains(column)) {
+            return null;
+        }
+
+        String likeArg = type.getSingleLikeArgument(value);
+        int version = helper.getFtsVersion();
+        if (version == ExternalDataFts.FTS5
+                && (type == CONTAINS || type == STARTS || type == ENDS || type == MATCHES)
+                && value.length() >= MIN_TRIGRAM_LENGTH) {
+            return new ExternalDataFtsSelection("rowid IN (SELECT rowid FROM " + ExternalDataFts.FTS_TABLE_NAME
+                    + " WHERE " + column + " LIKE ?) AND " + column + " LIKE ?", new String[] {likeArg, likeArg});
+
+        } else if (version == ExternalDataFts.FTS4 && (type == STARTS || type == MATCHES)) {
+            String match = getMatchExpression(column, value, type == STARTS);
+            if (match == null) {
+                return null;
+            }
+            return new ExternalDataFtsSelection("rowid IN (SELECT docid FROM " + ExternalDataFts.FTS_TABLE_NAME
+                    + " WHERE " + ExternalDataFts.FTS_TABLE_NAME + " MATCH ?) AND " + column + " LIKE ?",
+                    new String[] {match, likeArg});
+        }
+        return null;
+    }
+
+    /*
+     * Get an FTS4 expression that matches rows where every word of the value is in the column
+     * Words are split in the same way as the simple tokenizer and are lower case so that they are not
+     *  treated as operators.
+     */
+    static String getMatchExpression(String column, String value, boolean prefix) {
+        StringBuilder sb = new StringBuilder();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= value.length(); i++) {
+            char c = i < value.length() ? value.charAt(i) : ' ';
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c >= 128) {
+                token.append(c);
+            } else if (c >= 'A' && c <= 'Z') {
+                token.append((char) (c + ('a' - 'A')));
+            } else if (token.length() > 0) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(column).append(':').append(token);
+                token.setLength(0);
+            }
+        }
+        if (sb.length() == 0) {
+            return null;
+        }
+        if (prefix) {
+            sb.append('*');
+        }
+        return sb.toString();
+    }
+}
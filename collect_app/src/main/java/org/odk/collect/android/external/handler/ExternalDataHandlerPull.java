@@ -27,6 +27,7 @@ import org.javarosa.xpath.expr.XPathFuncExpr;
 import org.odk.collect.android.database.SqlFrag;
 import org.odk.collect.android.database.SqlFragParam;
 import org.odk.collect.android.external.ExternalDataManager;
+import org.odk.collect.android.external.ExternalDataResultCache;
 import org.odk.collect.android.external.ExternalDataUtil;
 import org.odk.collect.android.external.ExternalSQLiteOpenHelper;
 
@@ -172,6 +173,27 @@ public class ExternalDataHandlerPull extends ExternalDataHandlerBase {
         // SCTO-545
         dataSetName = normalize(dataSetName);
 
+        // smap serve repeated calls from the results cached for the form session
+        ExternalDataResultCache resultCache = getExternalDataManager().getResultCache();
+        String cacheKey = ExternalDataResultCache.createKey(HANDLER_NAME, queriedColumn, filter,
+                referenceColumn, referenceValue, fn, String.valueOf(index), searchType);
+        Object cached = resultCache.get(dataSetName, cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        String result = pull(dataSetName, queriedColumn, filterFrag, referenceColumn, referenceValue,
+                multiSelect, index, fn, searchType);
+        resultCache.put(dataSetName, cacheKey, result);
+        return result;
+    }
+
+    /*
+     * smap
+     * Query the data set, separated from eval() so that the result can be cached
+     */
+    private String pull(String dataSetName, String queriedColumn, SqlFrag filterFrag, String referenceColumn,
+                        String referenceValue, boolean multiSelect, int index, String fn, String searchType) {
         Cursor c = null;
         try {
             ExternalSQLiteOpenHelper sqLiteOpenHelper = getExternalDataManager().getDatabase(
@@ -207,8 +229,15 @@ public class ExternalDataHandlerPull extends ExternalDataHandlerBase {
                         searchType, ExternalDataSearchType.CONTAINS);
                 List<String> referenceValues = ExternalDataUtil.createListOfValues(referenceValue, externalDataSearchType.getKeyword().trim());
                 List<String> referenceColumns = ExternalDataUtil.createListOfColumns(referenceColumn);
-                selection = createMultiSelectExpression(referenceColumns, referenceValues, externalDataSearchType);
-                selectionArgs = externalDataSearchType.constructLikeArguments(referenceValues);
+                ExternalDataFtsSelection fts = ExternalDataFtsSelection.create(sqLiteOpenHelper, referenceColumns,
+                        referenceValues, externalDataSearchType);     // use the full text index if there is one
+                if (fts != null) {
+                    selection = fts.selection;
+                    selectionArgs = fts.selectionArgs;
+                } else {
+                    selection = createMultiSelectExpression(referenceColumns, referenceValues, externalDataSearchType);
+                    selectionArgs = externalDataSearchType.constructLikeArguments(referenceValues);
+                }
             }
             // smap end
 
@@ -30,6 +30,7 @@ import org.odk.collect.android.database.SqlFrag;
 import org.odk.collect.android.database.SqlFragParam;
 import org.odk.collect.android.exception.ExternalDataException;
 import org.odk.collect.android.external.ExternalDataManager;
+import org.odk.collect.android.external.ExternalDataResultCache;
 import org.odk.collect.android.external.ExternalDataUtil;
 import org.odk.collect.android.external.ExternalSQLiteOpenHelper;
 import org.odk.collect.android.external.ExternalSelectChoice;
@@ -145,6 +146,20 @@ public class ExternalDataHandlerSearch extends ExternalDataHandlerBase {
         // SCTO-545
         String dataSetName = normalize(XPathFuncExpr.toString(args[0]));
 
+        // smap serve repeated searches from the results cached for the form session
+        String filter = null;
+        if (externalDataSearchType.equals(EVAL)) {
+            filter = ExternalDataUtil.evaluateExpressionNodes(XPathFuncExpr.toString(args[2]), ec);
+        }
+        ExternalDataResultCache resultCache = getExternalDataManager().getResultCache();
+        String cacheKey = ExternalDataResultCache.createKey(HANDLER_NAME, externalDataSearchType.getKeyword(),
+                queriedColumnsParam, queriedValue, filter, filterColumn, filterValue,
+                getValueColumn(), getDisplayColumns(), getImageColumn());
+        Object cached = resultCache.get(dataSetName, cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
         Cursor c = null;
         try {
             ExternalSQLiteOpenHelper sqLiteOpenHelper = getExternalDataManager().getDatabase(
@@ -172,10 +187,8 @@ public class ExternalDataHandlerSearch extends ExternalDataHandlerBase {
             String selection;
             String[] selectionArgs;
 
-            String filter= null;
             SqlFrag filterFrag = null;
             if(externalDataSearchType.equals(EVAL)) {
-                filter = ExternalDataUtil.evaluateExpressionNodes(XPathFuncExpr.toString(args[2]), ec);
                 if(filter != null && filter.length() > 0) {
                     filterFrag = new SqlFrag();
                     try {
@@ -204,15 +217,27 @@ public class ExternalDataHandlerSearch extends ExternalDataHandlerBase {
                 }
             } else if (searchRows && useFilter) {
                 // smap modify arguments for createLikeExpression
-                selection = "( " + createLikeExpression(queriedColumns, queriedValues, externalDataSearchType) + " ) AND "
+                ExternalDataFtsSelection fts = ExternalDataFtsSelection.create(sqLiteOpenHelper, queriedColumns,
+                        queriedValues, externalDataSearchType);     // smap use the full text index if there is one
+                String likeExpression = fts != null ? fts.selection
+                        : createLikeExpression(queriedColumns, queriedValues, externalDataSearchType);
+                selection = "( " + likeExpression + " ) AND "
                         + ExternalDataUtil.toSafeColumnName(filterColumn) + "=? ";
-                String[] likeArgs = externalDataSearchType.constructLikeArguments(queriedValues);    // smap queriedValues - remove column size
+                String[] likeArgs = fts != null ? fts.selectionArgs
+                        : externalDataSearchType.constructLikeArguments(queriedValues);    // smap queriedValues - remove column size
                 selectionArgs = new String[likeArgs.length + 1];
                 System.arraycopy(likeArgs, 0, selectionArgs, 0, likeArgs.length);
                 selectionArgs[selectionArgs.length - 1] = filterValue;
             } else if (searchRows) {
-                selection = createLikeExpression(queriedColumns, queriedValues, externalDataSearchType);    // smap
-                selectionArgs = externalDataSearchType.constructLikeArguments(queriedValues);        // smap queriedValues - remove column size
+                ExternalDataFtsSelection fts = ExternalDataFtsSelection.create(sqLiteOpenHelper, queriedColumns,
+                        queriedValues, externalDataSearchType);     // smap use the full text index if there is one
+                if (fts != null) {
+                    selection = fts.selection;
+                    selectionArgs = fts.selectionArgs;
+                } else {
+                    selection = createLikeExpression(queriedColumns, queriedValues, externalDataSearchType);    // smap
+                    selectionArgs = externalDataSearchType.constructLikeArguments(queriedValues);        // smap queriedValues - remove column size
+                }
             } else if (useFilter) {
                 selection = ExternalDataUtil.toSafeColumnName(filterColumn) + "=? ";
                 selectionArgs = new String[]{filterValue};
@@ -234,7 +259,9 @@ public class ExternalDataHandlerSearch extends ExternalDataHandlerBase {
                 }
             }
 
-            return createDynamicSelectChoices(c, selectColumnMap, safeImageColumn);
+            ArrayList<SelectChoice> choices = createDynamicSelectChoices(c, selectColumnMap, safeImageColumn);
+            resultCache.put(dataSetName, cacheKey, choices);     // smap
+            return choices;
         } finally {
             if (c != null) {
                 c.close();
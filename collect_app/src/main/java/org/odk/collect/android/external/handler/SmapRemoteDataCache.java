@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2017 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.external.handler;
+
+import org.odk.collect.android.dao.SmapRemoteCacheDao;
+import org.odk.collect.android.network.NetworkStateProvider;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Responses from remote calls are held in memory for recently used keys and stored in a database
+ * so that they are still available if the app is restarted or the device goes offline.
+ * Stored responses are used until they are older than the time to live.
+ * Responses downloaded in advance by the prefetcher are only used when the device is offline.
+ */
+public class SmapRemoteDataCache {
+
+    static final int MAX_MEMORY_ITEMS = 500;
+    public static final long TTL = 24 * 60 * 60 * 1000L;     // One day
+    static final String OFFLINE_PREFIX = "offline:";        // Key prefix of responses downloaded in advance
+
+    private final SmapRemoteCacheDao dao;
+    private final Set<String> pending = new HashSet<>();
+    private final LinkedHashMap<String, SmapRemoteDataItem> items =
+            new LinkedHashMap<String, SmapRemoteDataItem>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SmapRemoteDataItem> eldest) {
+                    return size() > MAX_MEMORY_ITEMS;
+                }
+            };
+
+    public SmapRemoteDataCache(SmapRemoteCacheDao dao) {
+        this.dao = dao;
+    }
+
+    /*
+     * Get the response for a key, from memory if it has been used recently otherwise from the database
+     */
+    public synchronized SmapRemoteDataItem get(String key) {
+        long minStoredTime = System.currentTimeMillis() - TTL;
+        SmapRemoteDataItem item = items.get(key);
+        if (item != null && item.storedTime < minStoredTime) {
+            items.remove(key);
+            item = null;
+        }
+        if (item == null && dao != null) {
+            item = dao.get(key, minStoredTime);
+            if (item != null) {
+                items.put(key, item);
+            }
+        }
+        return item;
+    }
+
+    /*
+     * Get the response for a key
+     * If the device is offline and there is no response, or the request failed, then a response that was
+     *  downloaded in advance is used
+     */
+    public SmapRemoteDataItem get(String key, NetworkStateProvider networkStateProvider) {
+        SmapRemoteDataItem item = get(key);
+        if ((item == null || item.error) && !networkStateProvider.isDeviceOnline()) {
+            SmapRemoteDataItem offlineItem = get(OFFLINE_PREFIX + key);
+            if (offlineItem != null) {
+                return offlineItem;
+            }
+        }
+        return item;
+    }
+
+    /*
+     * Add a response that has been downloaded in advance
+     * These are kept apart from the responses requested by forms so that a form that is online still
+     *  makes its requests for each submission
+     */
+    public void putOffline(SmapRemoteDataItem item) {
+        item.key = OFFLINE_PREFIX + item.key;
+        item.perSubmission = false;
+        put(item);
+    }
+
+    /*
+     * Return true if a response downloaded in advance was stored after the minimum time
+     */
+    public synchronized boolean hasOffline(String key, long minStoredTime) {
+        SmapRemoteDataItem item = get(OFFLINE_PREFIX + key);
+        return item != null && item.storedTime >= minStoredTime;
+    }
+
+    /*
+     * Add the response to a remote call
+     * A response without data is a network error and is removed so that the call can be made again
+     * Error messages are only kept in memory so that the call is made again in the next session
+     */
+    public synchronized void put(SmapRemoteDataItem item) {
+        pending.remove(item.key);
+        if (item.data == null) {
+            items.remove(item.key);
+            if (dao != null) {
+                dao.remove(item.key);
+            }
+        } else {
+            if (item.storedTime == 0) {
+                item.storedTime = System.currentTimeMillis();
+            }
+            items.put(item.key, item);
+            if (dao != null && !item.error) {
+                dao.put(item);
+            }
+        }
+    }
+
+    /*
+     * Record that a call for the key has been started
+     * Returns false if a call for the key is already pending and does not need to be made again
+     */
+    public synchronized boolean startRequest(String key) {
+        return pending.add(key);
+    }
+
+    /*
+     * Remove responses that are only valid for one submission, called when a new form is started
+     */
+    public synchronized void removePerSubmission() {
+        items.values().removeIf(item -> item.perSubmission);
+        pending.clear();
+        if (dao != null) {
+            dao.removePerSubmission();
+        }
+    }
+
+    /*
+     * Remove responses that are older than the time to live
+     */
+    public synchronized void removeExpired() {
+        long minStoredTime = System.currentTimeMillis() - TTL;
+        items.values().removeIf(item -> item.storedTime < minStoredTime);
+        pending.clear();
+        if (dao != null) {
+            dao.removeExpired(minStoredTime);
+        }
+    }
+
+    public synchronized void clear() {
+        items.clear();
+        pending.clear();
+        if (dao != null) {
+            dao.removeAll();
+        }
+    }
+
+    synchronized int getMemorySize() {
+        return items.size();
+    }
+}
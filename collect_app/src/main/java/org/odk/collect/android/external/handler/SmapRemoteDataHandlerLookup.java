@@ -21,9 +21,6 @@ package org.odk.collect.android.external.handler;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-
 import org.javarosa.core.model.condition.EvaluationContext;
 import org.javarosa.core.model.condition.IFunctionHandler;
 import org.javarosa.xpath.expr.XPathFuncExpr;
@@ -91,6 +88,51 @@ public class SmapRemoteDataHandlerLookup implements IFunctionHandler {
         }
 
         Collect app = Collect.getInstance();
+        Request request = getRequest(args, ec);
+        String url = request.url;
+
+        // Get the cache results if they exist, the record is only parsed the first time it is used
+        SmapRemoteDataItem item = app.getRemoteItem(url);
+        HashMap<String, String> record = null;
+        if(item != null) {
+            record = item.getRecord();
+            if(record == null) {
+                return item.data;            // Assume the data contains the error message
+            }
+        }
+        if (record == null) {
+            // Call a webservice to get the remote record unless a call for the same url is already pending
+            if(app.getRemoteCache().startRequest(url)) {
+                app.startRemoteCall();
+                SmapRemoteWebServiceTask task = new SmapRemoteWebServiceTask();
+                task.setSmapRemoteListener(app.getFormEntryActivity());
+                task.execute(url, "0", "false", null, null, "true");
+            }
+            return "";
+        } else {
+            if(request.index == -1 || (request.fn != null && request.fn.equals(ExternalDataHandlerPull.FN_COUNT))) {
+                return ExternalDataUtil.nullSafe(record.get("_count"));
+            } else {
+                return ExternalDataUtil.nullSafe(record.get(request.queriedColumn));
+            }
+        }
+    }
+
+    /*
+     * The details of a lookup needed to request it and to get the result from the response
+     */
+    static class Request {
+        String url;             // Doubles as the cache key
+        String queriedColumn;
+        String fn;
+        int index;
+    }
+
+    /*
+     * Get the request for the arguments of a lookup
+     * The evaluation context is only used if the arguments include a filter that refers to questions
+     */
+    Request getRequest(Object[] args, EvaluationContext ec) {
 
         // smap common parameters
         String dataSetName = XPathFuncExpr.toString(args[0]);
@@ -186,32 +228,11 @@ public class SmapRemoteDataHandlerLookup implements IFunctionHandler {
         // The first # in an expression will not have been encoded
         url = url.replace("#", "%23");
 
-        // Get the cache results if they exist
-        String data = app.getRemoteData(url);
-        HashMap<String, String> record = null;
-        if(data != null) {
-            try {
-                record =
-                        new Gson().fromJson(data, new TypeToken<HashMap<String, String>>() {
-                        }.getType());
-            } catch (Exception e) {
-                return data;            // Assume the data contains the error message
-            }
-        }
-        Timber.i("@@@@@@@@@@@@@@@@: " + url + " : " + data);
-        if (record == null) {
-            // Call a webservice to get the remote record
-            app.startRemoteCall();
-            SmapRemoteWebServiceTask task = new SmapRemoteWebServiceTask();
-            task.setSmapRemoteListener(app.getFormEntryActivity());
-            task.execute(url, "0", "false", null, null, "true");
-            return "";
-        } else {
-            if(index == -1 || (fn != null && fn.equals(ExternalDataHandlerPull.FN_COUNT))) {
-                return ExternalDataUtil.nullSafe(record.get("_count"));
-            } else {
-                return ExternalDataUtil.nullSafe(record.get(queriedColumn));
-            }
-        }
+        Request request = new Request();
+        request.url = url;
+        request.queriedColumn = queriedColumn;
+        request.fn = fn;
+        request.index = index;
+        return request;
     }
 }
@@ -37,6 +37,7 @@ import org.odk.collect.android.preferences.GeneralKeys;
 import org.odk.collect.android.tasks.SmapRemoteWebServiceTask;
 import org.odk.collect.android.utilities.ToastUtils;
 
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.List;
 import java.net.URLEncoder;
@@ -126,80 +127,20 @@ public class SmapRemoteDataHandlerSearch implements IFunctionHandler {
                     Collect.getInstance().getString(org.odk.collect.strings.R.string.ext_search_wrong_arguments_error));
         }
 
-        String searchType = null;
-        String queriedColumnsParam = null;
-        String queriedValue = null;
-        String expression = null;
-        if (args.length == 3) {
-            searchType = XPathFuncExpr.toString(args[1]);
-            if(!searchType.equals("eval")) {
-                throw new ExternalDataException(
-                        Collect.getInstance().getString(R.string.smap_eval_required, searchType));
-            }
-            expression = ExternalDataUtil.evaluateExpressionNodes(XPathFuncExpr.toString(args[2]), ec);
-        }
-        if (args.length >= 4) {
-            searchType = XPathFuncExpr.toString(args[1]);
-            queriedColumnsParam = XPathFuncExpr.toString(args[2]);
-            queriedValue = XPathFuncExpr.toString(args[3]);
-        }
-
-        String filterColumn = null;
-        String filterValue = null;
-        if (args.length == 6) {
-            filterColumn = XPathFuncExpr.toString(args[4]);
-            filterValue = XPathFuncExpr.toString(args[5]);
-        }
-
         String timeoutValue = "0";
         Collect app = Collect.getInstance();
-        String dataSetName = XPathFuncExpr.toString(args[0]);
         ArrayList<SelectChoice> choices = new ArrayList<>();
 
+        String urlString;
         try {
-            // Get the url which doubles as the cache key
-            StringBuffer url = new StringBuffer(mServerUrlBase)
-                    .append(dataSetName).append("/")
-                    .append(valueColumn).append("/")
-                    .append(URLEncoder.encode(displayColumns, "UTF-8"));
-
-            // Add the parameters
-
-            if (expression != null && expression.trim().length() > 0) {
-                expression = expression.replace("##", "'");
-                url.append("?expression=").append(URLEncoder.encode(expression, "UTF-8"));
-            } else {
-                boolean hasParam = false;
-                if (searchType != null && searchType.trim().length() > 0) {
-                    url.append(hasParam ? "&" : "?");
-                    url.append("search_type=").append(searchType);
-                    hasParam = true;
-                }
-                if (queriedColumnsParam != null && queriedColumnsParam.trim().length() > 0) {
-                    url.append(hasParam ? "&" : "?");
-                    url.append("q_column=").append(URLEncoder.encode(queriedColumnsParam, "UTF-8"));
-                    hasParam = true;
-                }
-                if (queriedValue != null && queriedValue.trim().length() > 0) {
-                    url.append(hasParam ? "&" : "?");
-                    url.append("q_value=").append(URLEncoder.encode(queriedValue, "UTF-8"));
-                    hasParam = true;
-                }
-                if (filterColumn != null && filterColumn.trim().length() > 0) {
-                    url.append(hasParam ? "&" : "?");
-                    url.append("f_column=").append(URLEncoder.encode(filterColumn, "UTF-8"));
-                    hasParam = true;
-                }
-                if (filterValue != null && filterValue.trim().length() > 0) {
-                    url.append(hasParam ? "&" : "?");
-                    url.append("f_value=").append(URLEncoder.encode(filterValue, "UTF-8"));
-                    hasParam = true;
-                }
-            }
+            urlString = getUrl(args, ec);
+        } catch (UnsupportedEncodingException e) {
+            Timber.e(e);
+            return choices;
+        }
 
-            Timber.i("++++ Remote Search: %s", url.toString());
+        try {
             // Get the cache results if they exist
-            String urlString = url.toString();
             String data = app.getRemoteData(urlString);
             if(data != null) {
                 try {
@@ -219,12 +160,13 @@ public class SmapRemoteDataHandlerSearch implements IFunctionHandler {
                     ToastUtils.showLongToast(data);
                 }
             } else {
-                // Call a webservice to get the remote record
-                Timber.i("++++ Make the call");
-                app.startRemoteCall();
-                SmapRemoteWebServiceTask task = new SmapRemoteWebServiceTask();
-                task.setSmapRemoteListener(app.getFormEntryActivity());
-                task.execute(urlString, timeoutValue, "true", null, null, "true");
+                // Call a webservice to get the remote record unless a call for the same url is already pending
+                if(app.getRemoteCache().startRequest(urlString)) {
+                    app.startRemoteCall();
+                    SmapRemoteWebServiceTask task = new SmapRemoteWebServiceTask();
+                    task.setSmapRemoteListener(app.getFormEntryActivity());
+                    task.execute(urlString, timeoutValue, "true", null, null, "true");
+                }
             }
         } catch (Exception e) {
             Timber.e(e);
@@ -234,4 +176,80 @@ public class SmapRemoteDataHandlerSearch implements IFunctionHandler {
 
     }
 
+    /*
+     * Get the url for the arguments of a search, the url doubles as the cache key
+     * The evaluation context is only used if the arguments include an expression that refers to questions
+     */
+    String getUrl(Object[] args, EvaluationContext ec) throws UnsupportedEncodingException {
+
+        String searchType = null;
+        String queriedColumnsParam = null;
+        String queriedValue = null;
+        String expression = null;
+        if (args.length == 3) {
+            searchType = XPathFuncExpr.toString(args[1]);
+            if(!searchType.equals("eval")) {
+                throw new ExternalDataException(
+                        Collect.getInstance().getString(R.string.smap_eval_required, searchType));
+            }
+            expression = ExternalDataUtil.evaluateExpressionNodes(XPathFuncExpr.toString(args[2]), ec);
+        }
+        if (args.length >= 4) {
+            searchType = XPathFuncExpr.toString(args[1]);
+            queriedColumnsParam = XPathFuncExpr.toString(args[2]);
+            queriedValue = XPathFuncExpr.toString(args[3]);
+        }
+
+        String filterColumn = null;
+        String filterValue = null;
+        if (args.length == 6) {
+            filterColumn = XPathFuncExpr.toString(args[4]);
+            filterValue = XPathFuncExpr.toString(args[5]);
+        }
+
+        String dataSetName = XPathFuncExpr.toString(args[0]);
+
+        // Get the url which doubles as the cache key
+        StringBuffer url = new StringBuffer(mServerUrlBase)
+                .append(dataSetName).append("/")
+                .append(valueColumn).append("/")
+                .append(URLEncoder.encode(displayColumns, "UTF-8"));
+
+        // Add the parameters
+
+        if (expression != null && expression.trim().length() > 0) {
+            expression = expression.replace("##", "'");
+            url.append("?expression=").append(URLEncoder.encode(expression, "UTF-8"));
+        } else {
+            boolean hasParam = false;
+            if (searchType != null && searchType.trim().length() > 0) {
+                url.append(hasParam ? "&" : "?");
+                url.append("search_type=").append(searchType);
+                hasParam = true;
+            }
+            if (queriedColumnsParam != null && queriedColumnsParam.trim().length() > 0) {
+                url.append(hasParam ? "&" : "?");
+                url.append("q_column=").append(URLEncoder.encode(queriedColumnsParam, "UTF-8"));
+                hasParam = true;
+            }
+            if (queriedValue != null && queriedValue.trim().length() > 0) {
+                url.append(hasParam ? "&" : "?");
+                url.append("q_value=").append(URLEncoder.encode(queriedValue, "UTF-8"));
+                hasParam = true;
+            }
+            if (filterColumn != null && filterColumn.trim().length() > 0) {
+                url.append(hasParam ? "&" : "?");
+                url.append("f_column=").append(URLEncoder.encode(filterColumn, "UTF-8"));
+                hasParam = true;
+            }
+            if (filterValue != null && filterValue.trim().length() > 0) {
+                url.append(hasParam ? "&" : "?");
+                url.append("f_value=").append(URLEncoder.encode(filterValue, "UTF-8"));
+                hasParam = true;
+            }
+        }
+
+        return url.toString();
+    }
+
 }
@@ -1,17 +1,48 @@
 package org.odk.collect.android.external.handler;
 
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
 import java.util.Date;
+import java.util.HashMap;
 
 /**
  * Created by neilpenman on 19/05/2018.
  */
 
 public class SmapRemoteDataItem {
+    private static final Gson GSON = new Gson();
+    private static final Type RECORD_TYPE = new TypeToken<HashMap<String, String>>() {}.getType();
+
     public String key;
     public String data;
     public boolean expires;
     public boolean perSubmission;
     public Date expiryDate;
     public boolean choices;
+    public boolean error;           // The data is an error message rather than the response
+    public long storedTime;
+
+    private HashMap<String, String> record;
+    private boolean parsed;
+
+    /*
+     * Get the data as a lookup record, the data is only parsed the first time
+     * Returns null if the data is not a record
+     */
+    public synchronized HashMap<String, String> getRecord() {
+        if (!parsed) {
+            parsed = true;
+            if (data != null && !error) {
+                try {
+                    record = GSON.fromJson(data, RECORD_TYPE);
+                } catch (Exception e) {
+                    record = null;
+                }
+            }
+        }
+        return record;
+    }
 
 }
@@ -0,0 +1,539 @@
+/*
+ * Copyright (C) 2017 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.external.handler;
+
+import android.database.Cursor;
+import android.util.Xml;
+
+import org.javarosa.xpath.XPathParseTool;
+import org.javarosa.xpath.expr.XPathExpression;
+import org.javarosa.xpath.expr.XPathFuncExpr;
+import org.javarosa.xpath.expr.XPathNumericLiteral;
+import org.javarosa.xpath.expr.XPathPathExpr;
+import org.javarosa.xpath.expr.XPathStep;
+import org.javarosa.xpath.expr.XPathStringLiteral;
+import org.javarosa.xpath.parser.XPathSyntaxException;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.dao.FormsDao;
+import org.odk.collect.android.dao.InstancesDao;
+import org.odk.collect.android.openrosa.OpenRosaHttpInterface;
+import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
+import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
+import org.odk.collect.android.storage.StoragePathProvider;
+import org.odk.collect.android.storage.StorageSubdirectory;
+import org.odk.collect.android.utilities.Utilities;
+import org.odk.collect.android.utilities.WebCredentialsUtils;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import timber.log.Timber;
+
+import static org.odk.collect.utilities.PathUtils.getAbsoluteFilePath;
+
+/*
+ * Download the responses to lookup() and lookup_choices() calls in the forms on the device so that they
+ *  are available when a form is filled in without a connection.
+ * Only calls whose arguments are literals, or refer to questions that have a value in the initial data of
+ *  an open task, can be requested in advance.  Other calls are made when the form is filled in.
+ */
+public class SmapRemoteDataPrefetcher {
+
+    static final int MAX_REQUESTS = 200;           // Maximum number of responses downloaded in one refresh
+    static final long REFRESH_AGE = 60 * 60 * 1000L;    // Responses downloaded more recently than this are not downloaded again
+
+    private static final String ITEM = "item";
+    private static final String LABEL = "label";
+    private static final String VALUE = "value";
+
+    private final OpenRosaHttpInterface httpInterface;
+    private final WebCredentialsUtils webCredentialsUtils;
+    private final int parallelism;
+
+    /*
+     * A call found in a form
+     * The display and value columns are only set for lookup_choices()
+     */
+    static class RemoteCall {
+        final XPathFuncExpr expr;
+        String displayColumns;
+        String valueColumn;
+
+        RemoteCall(XPathFuncExpr expr) {
+            this.expr = expr;
+        }
+    }
+
+    public SmapRemoteDataPrefetcher(OpenRosaHttpInterface httpInterface, WebCredentialsUtils webCredentialsUtils,
+                                    int parallelism) {
+        this.httpInterface = httpInterface;
+        this.webCredentialsUtils = webCredentialsUtils;
+        this.parallelism = parallelism;
+    }
+
+    /*
+     * Download the responses for the forms and open tasks of a server
+     * Returns the number of responses added to the remote data cache
+     */
+    public int prefetch(String source) throws InterruptedException {
+
+        Map<String, List<File>> taskInstances = getTaskInstances(source);
+        Map<String, Boolean> requests = new LinkedHashMap<>();      // url : is a lookup_choices() response
+
+        String formsDir = new StoragePathProvider().getDirPath(StorageSubdirectory.FORMS);
+        String[] projection = {FormsColumns.JR_FORM_ID, FormsColumns.JR_VERSION, FormsColumns.FORM_FILE_PATH};
+        try (Cursor c = new FormsDao().getFormsCursor(projection, FormsColumns.SOURCE + " = ?",
+                new String[] {source}, null)) {
+            while (c != null && c.moveToNext() && requests.size() < MAX_REQUESTS) {
+                String formId = c.getString(0);
+                File formFile = new File(getAbsoluteFilePath(formsDir, c.getString(2)));
+                List<RemoteCall> calls = findCalls(formFile);
+                if (calls.isEmpty()) {
+                    continue;
+                }
+
+                addRequests(formId, calls, Collections.emptyMap(), requests);
+                List<File> instances = taskInstances.get(getFormKey(formId, c.getString(1)));
+                if (instances != null) {
+                    for (File instance : instances) {
+                        addRequests(formId, calls, getInstanceValues(instance), requests);
+                    }
+                }
+            }
+        }
+
+        if (requests.isEmpty()) {
+            return 0;
+        }
+        return download(requests);
+    }
+
+    /*
+     * Get the instance files of open tasks for each form
+     */
+    private Map<String, List<File>> getTaskInstances(String source) {
+        Map<String, List<File>> instances = new HashMap<>();
+
+        String instancesDir = new StoragePathProvider().getDirPath(StorageSubdirectory.INSTANCES);
+        String[] projection = {InstanceColumns.JR_FORM_ID, InstanceColumns.JR_VERSION, InstanceColumns.INSTANCE_FILE_PATH};
+        String selection = InstanceColumns.SOURCE + " = ? and "
+                + InstanceColumns.T_TASK_STATUS + " in (?, ?) and "
+                + InstanceColumns.INSTANCE_FILE_PATH + " is not null";
+        String[] selectionArgs = {source, Utilities.STATUS_T_ACCEPTED, Utilities.STATUS_T_NEW};
+        try (Cursor c = new InstancesDao().getInstancesCursor(projection, selection, selectionArgs, null)) {
+            while (c != null && c.moveToNext()) {
+                String key = getFormKey(c.getString(0), c.getString(1));
+                List<File> files = instances.get(key);
+                if (files == null) {
+                    files = new ArrayList<>();
+                    instances.put(key, files);
+                }
+                files.add(new File(getAbsoluteFilePath(instancesDir, c.getString(2))));
+            }
+        }
+        return instances;
+    }
+
+    private static String getFormKey(String formId, String version) {
+        return formId + ":" + version;
+    }
+
+    /*
+     * Get the requests for the calls whose arguments can all be resolved from the values
+     */
+    static void addRequests(String formId, List<RemoteCall> calls, Map<String, String> values,
+                            Map<String, Boolean> requests) {
+
+        SmapRemoteDataHandlerLookup lookup = new SmapRemoteDataHandlerLookup(formId);
+        for (RemoteCall call : calls) {
+            if (requests.size() >= MAX_REQUESTS) {
+                return;
+            }
+
+            Object[] args = resolveArguments(call.expr, values);
+            if (args == null) {
+                continue;
+            }
+            try {
+                if (call.valueColumn == null) {
+                    if (args.length >= 3 && args.length <= 6) {
+                        requests.put(lookup.getRequest(args, null).url, false);
+                    }
+                } else if (args.length == 1 || args.length == 3 || args.length == 4 || args.length == 6) {
+                    SmapRemoteDataHandlerSearch search = new SmapRemoteDataHandlerSearch(formId,
+                            call.displayColumns, call.valueColumn, null);
+                    requests.put(search.getUrl(args, null), true);
+                }
+            } catch (Exception e) {
+                Timber.i(e, "Unable to prefetch %s", call.expr);
+            }
+        }
+    }
+
+    /*
+     * Get the value of each argument, returns null if any argument cannot be resolved
+     * Filter expressions that refer to other questions can only be evaluated when the form is loaded
+     */
+    private static Object[] resolveArguments(XPathFuncExpr expr, Map<String, String> values) {
+        Object[] args = new Object[expr.args.length];
+        for (int i = 0; i < args.length; i++) {
+            String value = resolve(expr.args[i], values);
+            if (value == null || hasQuestionReference(value)) {
+                return null;
+            }
+            args[i] = value;
+        }
+        return args;
+    }
+
+    private static String resolve(XPathExpression arg, Map<String, String> values) {
+        if (arg instanceof XPathStringLiteral) {
+            return ((XPathStringLiteral) arg).s;
+        } else if (arg instanceof XPathNumericLiteral) {
+            return XPathFuncExpr.toString(((XPathNumericLiteral) arg).d);
+        } else if (arg instanceof XPathPathExpr) {
+            String path = getAbsolutePath((XPathPathExpr) arg);
+            return path == null ? null : values.get(path);
+        }
+        return null;
+    }
+
+    /*
+     * Get a path such as /main/group/question, returns null for relative paths or paths with predicates
+     */
+    private static String getAbsolutePath(XPathPathExpr expr) {
+        if (expr.init_context != XPathPathExpr.INIT_CONTEXT_ROOT) {
+            return null;
+        }
+        StringBuilder path = new StringBuilder();
+        for (XPathStep step : expr.steps) {
+            if (step.axis != XPathStep.AXIS_CHILD || step.test != XPathStep.TEST_NAME
+                    || (step.predicates != null && step.predicates.length > 0)) {
+                return null;
+            }
+            path.append('/').append(step.name.toString());
+        }
+        return path.toString();
+    }
+
+    private static boolean hasQuestionReference(String value) {
+        for (String token : value.split("\\s+")) {
+            if (token.startsWith("/main")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Find the lookup() calls in the attributes of a form and the lookup_choices() calls in the appearance
+     *  of select questions
+     */
+    static List<RemoteCall> findCalls(File formFile) {
+        try (InputStream is = new FileInputStream(formFile)) {
+            return findCalls(is);
+        } catch (Exception e) {
+            Timber.i(e, "Unable to find lookups in %s", formFile.getName());
+            return Collections.emptyList();
+        }
+    }
+
+    static List<RemoteCall> findCalls(InputStream is) throws XmlPullParserException, IOException {
+        List<RemoteCall> calls = new ArrayList<>();
+        List<RemoteCall> choiceCalls = new ArrayList<>();
+        Map<RemoteCall, String> labelRefs = new HashMap<>();
+        Map<String, Map<String, String>> translations = new LinkedHashMap<>();
+        String defaultLanguage = null;
+
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        parser.setInput(is, null);
+
+        Map<String, String> texts = null;       // Texts of the current translation
+        String textId = null;
+        XPathFuncExpr select = null;            // The lookup_choices() call of the current select question
+        boolean inItem = false;
+        String itemLabel = null;
+        String itemLabelRef = null;
+        String itemValue = null;
+
+        int eventType = parser.getEventType();
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.START_TAG) {
+                String name = parser.getName();
+                if (name.equals("translation")) {
+                    String lang = String.valueOf(parser.getAttributeValue(null, "lang"));
+                    texts = new HashMap<>();
+                    translations.put(lang, texts);
+                    if (parser.getAttributeValue(null, "default") != null) {
+                        defaultLanguage = lang;
+                    }
+                } else if (name.equals("text") && texts != null) {
+                    textId = parser.getAttributeValue(null, "id");
+                } else if (name.equals(VALUE) && textId != null && parser.getAttributeValue(null, "form") == null) {
+                    texts.put(textId, parser.nextText());
+                } else if (name.equals(ITEM) && select != null) {
+                    inItem = true;
+                    itemLabel = null;
+                    itemLabelRef = null;
+                    itemValue = null;
+                } else if (name.equals(LABEL) && inItem) {
+                    itemLabelRef = getItextId(parser.getAttributeValue(null, "ref"));
+                    if (itemLabelRef == null) {
+                        itemLabel = parser.nextText();
+                    }
+                } else if (name.equals(VALUE) && inItem) {
+                    itemValue = parser.nextText();
+                }
+
+                for (int i = 0; i < parser.getAttributeCount(); i++) {
+                    String attribute = parser.getAttributeValue(i);
+                    for (XPathFuncExpr expr : findFunctions(attribute, SmapRemoteDataHandlerLookup.HANDLER_NAME)) {
+                        calls.add(new RemoteCall(expr));
+                    }
+                    if ((name.equals("select1") || name.equals("select")) && parser.getAttributeName(i).equals("appearance")) {
+                        List<XPathFuncExpr> searches = findFunctions(attribute, SmapRemoteDataHandlerSearch.HANDLER_NAME);
+                        select = searches.isEmpty() ? null : searches.get(0);
+                    }
+                }
+            } else if (eventType == XmlPullParser.END_TAG) {
+                String name = parser.getName();
+                if (name.equals("translation")) {
+                    texts = null;
+                } else if (name.equals("text")) {
+                    textId = null;
+                } else if (name.equals(ITEM) && inItem) {
+                    inItem = false;
+                    if (itemValue != null && !isAnInteger(itemValue)) {     // Integer values are static choices
+                        RemoteCall call = new RemoteCall(select);
+                        call.valueColumn = itemValue.trim();
+                        call.displayColumns = itemLabel;
+                        if (itemLabelRef != null) {
+                            labelRefs.put(call, itemLabelRef);
+                        }
+                        choiceCalls.add(call);
+                    }
+                } else if (name.equals("select1") || name.equals("select")) {
+                    select = null;
+                }
+            }
+            eventType = parser.next();
+        }
+
+        // Labels that are translated use the default language
+        Map<String, String> defaultTexts = translations.get(defaultLanguage);
+        if (defaultTexts == null && !translations.isEmpty()) {
+            defaultTexts = translations.values().iterator().next();
+        }
+        for (RemoteCall call : choiceCalls) {
+            String ref = labelRefs.get(call);
+            if (ref != null && defaultTexts != null) {
+                call.displayColumns = defaultTexts.get(ref);
+            }
+            if (call.displayColumns != null && call.displayColumns.trim().length() > 0) {
+                calls.add(call);
+            }
+        }
+        return calls;
+    }
+
+    /*
+     * Find the calls to a function in an expression
+     */
+    static List<XPathFuncExpr> findFunctions(String text, String function) {
+        List<XPathFuncExpr> functions = new ArrayList<>();
+        String start = function + "(";
+        int idx = text.indexOf(start);
+        while (idx >= 0) {
+            if (idx == 0 || !isNameChar(text.charAt(idx - 1))) {
+                int end = findClosingBracket(text, idx + function.length());
+                if (end > 0) {
+                    try {
+                        XPathExpression expr = XPathParseTool.parseXPath(text.substring(idx, end + 1));
+                        if (expr instanceof XPathFuncExpr) {
+                            functions.add((XPathFuncExpr) expr);
+                        }
+                    } catch (XPathSyntaxException e) {
+                        Timber.i(e);
+                    }
+                }
+            }
+            idx = text.indexOf(start, idx + 1);
+        }
+        return functions;
+    }
+
+    private static int findClosingBracket(String text, int open) {
+        int depth = 0;
+        char quote = 0;
+        for (int i = open; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                if (--depth == 0) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' || c == ':';
+    }
+
+    private static boolean isAnInteger(String value) {
+        try {
+            Integer.parseInt(value.trim());
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /*
+     * Get the id from a reference such as jr:itext('id')
+     */
+    private static String getItextId(String ref) {
+        if (ref == null || !ref.startsWith("jr:itext(")) {
+            return null;
+        }
+        return ref.substring("jr:itext(".length(), ref.length() - 1).replace("'", "").replace("\"", "").trim();
+    }
+
+    /*
+     * Get the value of each question in an instance, only the first value of a repeating question is used
+     */
+    static Map<String, String> getInstanceValues(File instanceFile) {
+        try (InputStream is = new FileInputStream(instanceFile)) {
+            return getInstanceValues(is);
+        } catch (Exception e) {
+            Timber.i(e, "Unable to read initial data %s", instanceFile.getName());
+            return Collections.emptyMap();
+        }
+    }
+
+    static Map<String, String> getInstanceValues(InputStream is) throws XmlPullParserException, IOException {
+        Map<String, String> values = new HashMap<>();
+        Deque<String> paths = new ArrayDeque<>();
+
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        parser.setInput(is, null);
+
+        String capture = null;
+        int eventType = parser.getEventType();
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.START_TAG) {
+                String path = (paths.isEmpty() ? "" : paths.peek()) + "/" + parser.getName();
+                paths.push(path);
+                capture = values.containsKey(path) ? null : path;
+                if (capture != null) {
+                    values.put(path, "");
+                }
+            } else if (eventType == XmlPullParser.TEXT && capture != null) {
+                values.put(capture, values.get(capture) + parser.getText());
+            } else if (eventType == XmlPullParser.END_TAG) {
+                paths.pop();
+                capture = null;
+            }
+            eventType = parser.next();
+        }
+        return values;
+    }
+
+    /*
+     * Download the responses in parallel and add them to the remote data cache
+     * The responses are only used if the device is offline when the form is filled in
+     * Responses that fail are left for the form to request
+     */
+    private int download(Map<String, Boolean> requests) throws InterruptedException {
+        SmapRemoteDataCache cache = Collect.getInstance().getRemoteCache();
+        long minStoredTime = System.currentTimeMillis() - REFRESH_AGE;
+        List<Callable<Boolean>> downloads = new ArrayList<>();
+        for (Map.Entry<String, Boolean> request : requests.entrySet()) {
+            if (cache.hasOffline(request.getKey(), minStoredTime)) {
+                continue;       // Downloaded recently
+            }
+            downloads.add(() -> {
+                try {
+                    URI uri = URI.create(request.getKey());
+                    String data = httpInterface.getRequest(uri, "application/json",
+                            webCredentialsUtils.getCredentials(uri), new HashMap<>());
+                    if (data == null) {
+                        return false;
+                    }
+                    SmapRemoteDataItem item = new SmapRemoteDataItem();
+                    item.key = request.getKey();
+                    item.data = data;
+                    item.choices = request.getValue();
+                    cache.putOffline(item);
+                    return true;
+                } catch (Exception e) {
+                    Timber.i("Unable to prefetch %s: %s", request.getKey(), e.getMessage());
+                    return false;
+                }
+            });
+        }
+
+        Timber.i("Prefetching %d remote responses, %d are recent", downloads.size(), requests.size() - downloads.size());
+        if (downloads.isEmpty()) {
+            return 0;
+        }
+
+        int count = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            for (Future<Boolean> f : executor.invokeAll(downloads)) {
+                try {
+                    if (f.get()) {
+                        count++;
+                    }
+                } catch (Exception e) {
+                    Timber.e(e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return count;
+    }
+}
@@ -9,10 +9,13 @@ import android.database.sqlite.SQLiteOpenHelper;
 import org.odk.collect.android.database.DatabaseContext;
 import org.odk.collect.android.storage.StoragePathProvider;
 import org.odk.collect.android.storage.StorageSubdirectory;
+import org.odk.collect.android.utilities.CsvBulkLoader;
 
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 
 import timber.log.Timber;
 
@@ -126,18 +129,20 @@ public class ItemsetDbAdapter {
         return true;
     }
 
-    public boolean addRow(String tableName, String[] columns, String[] newRow) {
-        ContentValues cv = new ContentValues();
-
-        // rows don't necessarily use all the columns
-        // but a column is guaranteed to exist for a row (or else blow up)
-        for (int i = 0; i < newRow.length; i++) {
-            if (!columns[i].isEmpty()) {
-                cv.put("\"" + columns[i] + "\"", newRow[i]);
+    /*
+     * smap
+     * Get a loader that inserts rows into an itemset table using a compiled statement
+     * Values are bound by the position of the column in the CSV file, columns with an empty header are
+     *  not included in the table and should not be bound
+     */
+    public CsvBulkLoader getBulkLoader(String tableName, String[] columns, int chunkSize) {
+        List<String> insertColumns = new ArrayList<>();
+        for (String column : columns) {
+            if (!column.isEmpty()) {
+                insertColumns.add("\"" + column + "\"");
             }
         }
-        db.insert(DATABASE_TABLE + tableName, null, cv);
-        return true;
+        return new CsvBulkLoader(db, DATABASE_TABLE + tableName, insertColumns, chunkSize);
     }
 
     public void beginTransaction() {
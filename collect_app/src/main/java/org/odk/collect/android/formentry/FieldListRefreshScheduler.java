@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2017 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.formentry;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.odk.collect.android.widgets.QuestionWidget;
+
+/**
+ * Decides when a field-list is refreshed after one of its widgets changes. Text widgets report
+ * every keystroke so their refresh is delayed until typing pauses. Other widgets are refreshed
+ * straight away. A pending refresh for a different widget is run first so that no change is lost.
+ */
+public class FieldListRefreshScheduler {
+
+    public static final long TEXT_REFRESH_DELAY_MS = 300;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable refresh = this::refresh;
+    private final Listener listener;
+    private QuestionWidget pendingWidget;
+
+    public FieldListRefreshScheduler(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Must be called on the main thread.
+     *
+     * @param delayed true if the refresh should wait until the widget has not changed for
+     *                {@link #TEXT_REFRESH_DELAY_MS}
+     */
+    public void schedule(QuestionWidget changedWidget, boolean delayed) {
+        if (pendingWidget != null && pendingWidget != changedWidget) {
+            flush();
+        }
+
+        pendingWidget = changedWidget;
+        handler.removeCallbacks(refresh);
+        if (delayed) {
+            handler.postDelayed(refresh, TEXT_REFRESH_DELAY_MS);
+        } else {
+            refresh();
+        }
+    }
+
+    /**
+     * Runs any pending refresh now so the widgets and the model agree before answers are saved.
+     * Does nothing when called off the main thread.
+     */
+    public void flush() {
+        if (pendingWidget != null && Looper.getMainLooper().getThread() == Thread.currentThread()) {
+            refresh();
+        }
+    }
+
+    /**
+     * Drops any pending refresh.
+     */
+    public void cancel() {
+        pendingWidget = null;
+        handler.removeCallbacks(refresh);
+    }
+
+    private void refresh() {
+        QuestionWidget changedWidget = pendingWidget;
+        cancel();
+        if (changedWidget != null) {
+            listener.onRefresh(changedWidget);
+        }
+    }
+
+    public interface Listener {
+        void onRefresh(QuestionWidget changedWidget);
+    }
+}
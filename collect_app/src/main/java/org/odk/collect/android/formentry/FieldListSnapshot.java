@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2017 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.formentry;
+
+import org.javarosa.core.model.FormIndex;
+import org.javarosa.core.model.data.IAnswerData;
+import org.javarosa.form.api.FormEntryPrompt;
+import org.odk.collect.android.exception.JavaRosaException;
+import org.odk.collect.android.external.ExternalDataUtil;
+import org.odk.collect.android.javarosawrapper.FormController;
+import org.odk.collect.android.logic.ImmutableDisplayableQuestion;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/**
+ * The user-visible state of the questions in a field-list. It is kept between refreshes of the
+ * screen so that only answers that differ from the model are saved and only the questions that
+ * changed need to be rebuilt.
+ */
+public class FieldListSnapshot {
+
+    private final FormController formController;
+    private Map<FormIndex, ImmutableDisplayableQuestion> snapshots = new HashMap<>();    // What the user currently sees
+    private final Map<FormIndex, Boolean> staticQuestions = new HashMap<>();
+
+    public FieldListSnapshot(FormController formController, FormEntryPrompt[] questions) {
+        this.formController = formController;
+        for (FormEntryPrompt question : questions) {
+            snapshots.put(question.getIndex(), new ImmutableDisplayableQuestion(question));
+        }
+    }
+
+    /**
+     * Saves the answers in the given widget answers, in order, that belong to the last changed
+     * question or that no longer match the model. This means the form's triggerables are only
+     * evaluated for answers that changed.
+     *
+     * @return the number of answers saved
+     */
+    public int saveChangedAnswers(Map<FormIndex, IAnswerData> widgetAnswers, FormIndex lastChangedIndex) {
+        int saved = 0;
+        for (Map.Entry<FormIndex, IAnswerData> widgetAnswer : widgetAnswers.entrySet()) {
+            FormIndex index = widgetAnswer.getKey();
+            FormEntryPrompt question = formController.getQuestionPrompt(index);
+            ImmutableDisplayableQuestion displayedQuestion = snapshots.get(index);
+
+            // Questions with calculates will have their answers updated as the questions they depend on are saved
+            if (displayedQuestion != null && isQuestionRecalculated(question, displayedQuestion)) {
+                continue;
+            }
+
+            IAnswerData answer = widgetAnswer.getValue();
+            if (index.equals(lastChangedIndex) || !isSameAnswer(answer, question.getAnswerValue())) {
+                try {
+                    formController.saveOneScreenAnswer(index, answer, false);
+                    saved++;
+                } catch (JavaRosaException e) {
+                    Timber.e(e);
+                }
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * Compares the questions after a save with what the user currently sees and keeps the new
+     * state of the questions that changed.
+     *
+     * @return the indexes of the questions that have not changed in any user-visible way, their
+     * widgets do not need to be rebuilt
+     */
+    public Set<FormIndex> update(FormEntryPrompt[] questionsAfterSave) {
+        // The questions must be compared from beginning to end because itemset-based select
+        // choices will only be correctly recomputed if accessed in that order as the call on
+        // sameAs is what calls populateDynamicChoices. See https://github.com/getodk/javarosa/issues/436
+        Map<FormIndex, ImmutableDisplayableQuestion> snapshotsAfterSave = new HashMap<>();
+        Set<FormIndex> formIndexesThatHaveNotChanged = new HashSet<>();
+        for (FormEntryPrompt questionAfterSave : questionsAfterSave) {
+            FormIndex index = questionAfterSave.getIndex();
+            ImmutableDisplayableQuestion questionBeforeSave = snapshots.get(index);
+
+            // Always rebuild questions that use database-driven external data features since they
+            // bypass SelectChoices stored in ImmutableDisplayableQuestion, unless their choices
+            // cannot depend on other answers
+            if (questionBeforeSave != null && questionBeforeSave.sameAs(questionAfterSave) && !needsExternalDataRebuild(index)) {
+                formIndexesThatHaveNotChanged.add(index);
+                snapshotsAfterSave.put(index, questionBeforeSave);
+            } else {
+                snapshotsAfterSave.put(index, new ImmutableDisplayableQuestion(questionAfterSave));
+            }
+        }
+
+        snapshots = snapshotsAfterSave;
+        return formIndexesThatHaveNotChanged;
+    }
+
+    /**
+     * Questions whose choices come from search() with only literal arguments do not need to be
+     * rebuilt when other answers change. The result is kept for the lifetime of the snapshot.
+     */
+    private boolean needsExternalDataRebuild(FormIndex index) {
+        Boolean isStatic = staticQuestions.get(index);
+        if (isStatic == null) {
+            if (!formController.usesDatabaseExternalDataFeature(index)) {
+                isStatic = true;
+            } else {
+                String query = formController.getFormDef().getChild(index).getAdditionalAttribute(null, "query");
+                isStatic = (query == null || query.length() == 0)
+                        && ExternalDataUtil.isStaticSearch(ExternalDataUtil.getSearchXPathExpression(formController.getAppearanceAttr(index)));
+            }
+            staticQuestions.put(index, isStatic);
+        }
+        return !isStatic;
+    }
+
+    // If an answer has changed after saving one of previous answers that means it has been recalculated automatically
+    private static boolean isQuestionRecalculated(FormEntryPrompt mutableQuestionBeforeSave, ImmutableDisplayableQuestion immutableQuestionBeforeSave) {
+        return !Objects.equals(mutableQuestionBeforeSave.getAnswerText(), immutableQuestionBeforeSave.getAnswerText());
+    }
+
+    private static boolean isSameAnswer(IAnswerData answer1, IAnswerData answer2) {
+        return Objects.equals(answer1 == null ? null : answer1.getDisplayText(),
+                answer2 == null ? null : answer2.getDisplayText());
+    }
+}
@@ -34,6 +34,7 @@ import android.util.TypedValue;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.View.OnLongClickListener;
+import android.view.ViewTreeObserver;
 import android.widget.Button;
 import android.widget.FrameLayout;
 import android.widget.LinearLayout;
@@ -43,6 +44,7 @@ import android.widget.Toast;
 import androidx.activity.ComponentActivity;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.core.widget.NestedScrollView;
 import androidx.lifecycle.LifecycleOwner;
 
 import com.google.android.material.button.MaterialButton;
@@ -103,6 +105,7 @@ import org.odk.collect.audiorecorder.recording.AudioRecorder;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -129,6 +132,20 @@ public class ODKView extends FrameLayout implements OnLongClickListener, WidgetV
     private final LinearLayout widgetsList;
     private final LinearLayout.LayoutParams layout;
     private final ArrayList<QuestionWidget> widgets;
+
+    /*
+     * smap
+     * Screens with many questions only bind the first widgets when the view is created. The rest of
+     * the questions are kept here, with their answers in the form model, and their widgets are
+     * created as the user scrolls towards them.
+     */
+    private static final int LAZY_BINDING_THRESHOLD = 20;
+    private static final int INITIAL_WIDGET_COUNT = 10;
+    private static final int WIDGETS_PER_FRAME = 4;
+    private final ArrayDeque<FormEntryPrompt> pendingQuestions = new ArrayDeque<>();
+    private final NestedScrollView scrollView;
+    private final ViewTreeObserver.OnGlobalLayoutListener bindPendingWidgetsListener = this::bindPendingWidgetsNearView;
+    private OnFocusChangeListener widgetFocusChangeListener;
     private final AudioHelper audioHelper;
 
     private WidgetValueChangedListener widgetValueChangedListener;
@@ -225,14 +242,26 @@ public class ODKView extends FrameLayout implements OnLongClickListener, WidgetV
 
         widgets = new ArrayList<>();
         widgetsList = findViewById(R.id.widgets);
+        scrollView = findViewById(R.id.odk_view_container);
 
         layout = new LinearLayout.LayoutParams(LinearLayout.LayoutParams.MATCH_PARENT,
                 LinearLayout.LayoutParams.WRAP_CONTENT);
         // display which group you are in as well as the question
         setGroupText(groups);
 
-        for (FormEntryPrompt question : questionPrompts) {
-            addWidgetForQuestion(question);
+        // smap bind the widgets of large screens lazily
+        long start = System.nanoTime();
+        int initialCount = questionPrompts.length > LAZY_BINDING_THRESHOLD ? INITIAL_WIDGET_COUNT : questionPrompts.length;
+        for (int i = 0; i < questionPrompts.length; i++) {
+            if (i < initialCount) {
+                addWidgetForQuestion(questionPrompts[i]);
+            } else {
+                pendingQuestions.add(questionPrompts[i]);
+            }
+        }
+        Timber.i("Bound %d of %d widgets in %d ms", widgets.size(), questionPrompts.length, (System.nanoTime() - start) / 1000000);
+        if (!pendingQuestions.isEmpty()) {
+            startLazyBinding();
         }
 
         setupAudioErrors();
@@ -463,6 +492,114 @@ public class ODKView extends FrameLayout implements OnLongClickListener, WidgetV
         widgetsList.addView(qw, indexAccountingForDividers, layout);
     }
 
+    /*
+     * smap
+     * Replace the questions that do not have a widget yet. Used when a refresh of the screen has
+     * changed which questions are relevant.
+     */
+    public void setPendingQuestions(List<FormEntryPrompt> questions) {
+        pendingQuestions.clear();
+        pendingQuestions.addAll(questions);
+        if (!pendingQuestions.isEmpty()) {
+            startLazyBinding();
+        }
+    }
+
+    public boolean hasPendingQuestions() {
+        return !pendingQuestions.isEmpty();
+    }
+
+    private void startLazyBinding() {
+        scrollView.setOnScrollChangeListener((NestedScrollView.OnScrollChangeListener) (v, scrollX, scrollY, oldScrollX, oldScrollY) -> bindPendingWidgetsNearView());
+        getViewTreeObserver().removeOnGlobalLayoutListener(bindPendingWidgetsListener);
+        getViewTreeObserver().addOnGlobalLayoutListener(bindPendingWidgetsListener);
+    }
+
+    /*
+     * Bind a few more widgets if the bound widgets end less than a screen below the visible area.
+     * Each layout pass binds at most WIDGETS_PER_FRAME widgets so scrolling stays smooth, the new
+     * widgets trigger another layout pass which checks again.
+     */
+    private void bindPendingWidgetsNearView() {
+        if (pendingQuestions.isEmpty()) {
+            return;
+        }
+
+        int visibleBottom = scrollView.getScrollY() + 2 * scrollView.getHeight();
+        if (scrollView.getHeight() == 0 || widgetsList.getBottom() > visibleBottom) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        int count = 0;
+        while (!pendingQuestions.isEmpty() && count < WIDGETS_PER_FRAME) {
+            bindWidget(pendingQuestions.removeFirst());
+            count++;
+        }
+        Timber.i("Bound %d widgets in %d ms, %d remaining", count, (System.nanoTime() - start) / 1000000, pendingQuestions.size());
+
+        if (pendingQuestions.isEmpty()) {
+            stopLazyBinding();
+        }
+    }
+
+    private void bindWidget(FormEntryPrompt question) {
+        addWidgetForQuestion(question);
+        QuestionWidget qw = widgets.get(widgets.size() - 1);
+        if (widgetFocusChangeListener != null) {
+            qw.setOnFocusChangeListener(widgetFocusChangeListener);
+        }
+        logAnalyticsForWidget(qw);
+    }
+
+    /*
+     * Bind the widgets of pending questions up to and including the question at the given index,
+     * or all of them if the index is null
+     */
+    private void bindPendingWidgetsUntil(@Nullable FormIndex formIndex) {
+        if (pendingQuestions.isEmpty() || formIndex != null && getQuestionWidget(formIndex) != null) {
+            return;
+        }
+
+        boolean pending = false;
+        for (FormEntryPrompt question : pendingQuestions) {
+            if (formIndex == null || formIndex.equals(question.getIndex())) {
+                pending = true;
+                break;
+            }
+        }
+        if (pending) {
+            FormEntryPrompt question;
+            do {
+                question = pendingQuestions.removeFirst();
+                bindWidget(question);
+            } while (!pendingQuestions.isEmpty() && (formIndex == null || !formIndex.equals(question.getIndex())));
+
+            if (pendingQuestions.isEmpty()) {
+                stopLazyBinding();
+            }
+        }
+    }
+
+    private void stopLazyBinding() {
+        scrollView.setOnScrollChangeListener((NestedScrollView.OnScrollChangeListener) null);
+        getViewTreeObserver().removeOnGlobalLayoutListener(bindPendingWidgetsListener);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (!pendingQuestions.isEmpty()) {
+            startLazyBinding();     // smap
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        stopLazyBinding();      // smap
+        super.onDetachedFromWindow();
+    }
+
     /**
      * Creates and configures a {@link QuestionWidget} for the given {@link FormEntryPrompt}.
      * <p>
@@ -498,6 +635,11 @@ public class ODKView extends FrameLayout implements OnLongClickListener, WidgetV
             answers.put(p.getIndex(), q.getAnswer());
         }
 
+        // smap questions without a widget have not been changed so their answer is the one in the model
+        for (FormEntryPrompt p : pendingQuestions) {
+            answers.put(p.getIndex(), p.getAnswerValue());
+        }
+
         return answers;
     }
 
@@ -661,6 +803,8 @@ public class ODKView extends FrameLayout implements OnLongClickListener, WidgetV
             return;
         }
 
+        bindPendingWidgetsUntil(null);  // smap
+
         if (bundle != null) {
             Set<String> keys = bundle.keySet();
             for (String key : keys) {
@@ -751,12 +895,16 @@ public class ODKView extends FrameLayout implements OnLongClickListener, WidgetV
         }
     }
 
+    /*
+     * smap: Only returns the widgets that have been bound, see hasPendingQuestions()
+     */
     public ArrayList<QuestionWidget> getWidgets() {
         return widgets;
     }
 
     @Override
     public void setOnFocusChangeListener(OnFocusChangeListener l) {
+        widgetFocusChangeListener = l;  // smap
         for (int i = 0; i < widgets.size(); i++) {
             QuestionWidget qw = widgets.get(i);
             qw.setOnFocusChangeListener(l);
@@ -781,6 +929,7 @@ public class ODKView extends FrameLayout implements OnLongClickListener, WidgetV
      * view to display that question at the top and gives it focus.
      */
     public void highlightWidget(FormIndex formIndex) {
+        bindPendingWidgetsUntil(formIndex);     // smap
         QuestionWidget qw = getQuestionWidget(formIndex);
 
         if (qw != null) {
@@ -845,9 +994,13 @@ public class ODKView extends FrameLayout implements OnLongClickListener, WidgetV
 
     private void logAnalyticsForWidgets() {
         for (QuestionWidget widget : widgets) {
-            if (widget instanceof UrlWidget) {
-                formEntryViewModel.logFormEvent(AnalyticsEvents.URL_QUESTION);
-            }
+            logAnalyticsForWidget(widget);
+        }
+    }
+
+    private void logAnalyticsForWidget(QuestionWidget widget) {
+        if (widget instanceof UrlWidget) {
+            formEntryViewModel.logFormEvent(AnalyticsEvents.URL_QUESTION);
         }
     }
 }
@@ -2,6 +2,10 @@ package org.odk.collect.android.geo;
 
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.ParcelFileDescriptor;
+import android.util.LruCache;
 
 import androidx.annotation.NonNull;
 
@@ -9,9 +13,11 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
@@ -30,18 +36,27 @@ import static android.database.sqlite.SQLiteDatabase.OPEN_READONLY;
 class MbtilesFile implements Closeable, TileSource {
     public enum LayerType { RASTER, VECTOR }
 
-    private final File file;
+    private static final int MAX_CACHE_BYTES = 8 * 1024 * 1024;
+    private static final byte[] NO_TILE = new byte[0];  // cached for coordinates with no tile
+
     private final LayerType layerType;
     private final String contentType;
     private final String contentEncoding;
-    private SQLiteDatabase db;  // see getTileBlob for why this is not final
+    private final SQLiteDatabase db;
+    private final LruCache<Long, byte[]> cache = new LruCache<Long, byte[]>(getCacheSize()) {
+        @Override
+        protected int sizeOf(Long key, byte[] value) {
+            return value.length + 32;  // allow for the entry itself so missing tiles count too
+        }
+    };
+    private SQLiteStatement tileQuery;  // guarded by this
+    private boolean closed;  // guarded by this
 
     MbtilesFile(File file) throws MbtilesException {
         this(file, detectContentType(file));
     }
 
     private MbtilesFile(File file, String contentType) throws MbtilesException {
-        this.file = file;
         this.db = openSqliteReadOnly(file);
         this.contentType = contentType;
         switch (contentType) {
@@ -76,46 +91,98 @@ class MbtilesFile implements Closeable, TileSource {
     }
 
     public void close() {
-        db.close();
+        synchronized (this) {
+            closed = true;
+            if (tileQuery != null) {
+                tileQuery.close();
+            }
+            db.close();
+        }
+        cache.evictAll();
     }
 
-    /** Fetches a tile out of the .mbtiles SQLite database. */
+    /**
+     * Fetches a tile, from the cache if it has been read recently, otherwise
+     * out of the .mbtiles SQLite database.
+     */
     // PMD complains about returning null for an array return type, but we
     // really do want to return null when there is no tile available.
     @SuppressWarnings("PMD.ReturnEmptyArrayRatherThanNull")
     public byte[] getTileBlob(int zoom, int x, int y) {
-        // TMS coordinates are used in .mbtiles files, so Y needs to be flipped.
-        y = (1 << zoom) - 1 - y;
-
-        // We have to use String.format because the templating mechanism in
-        // SQLiteDatabase.query is written for a strange alternate universe
-        // in which numbers don't exist -- it only supports strings!
-        String selection = String.format(
-            Locale.US,
-            "zoom_level = %d and tile_column = %d and tile_row = %d",
-            zoom, x, y
-        );
+        long key = getTileKey(zoom, x, y);
+        byte[] data = cache.get(key);
+        if (data == null) {
+            data = readTile(zoom, x, y);
+            if (data == null) {
+                return null;  // the read failed, so try again next time
+            }
+            cache.put(key, data);
+        }
+        return data == NO_TILE ? null : data;
+    }
 
-        try (Cursor results = db.query("tiles", new String[] {"tile_data"},
-            selection, null, null, null, null)) {
-            if (results.moveToFirst()) {
-                try {
-                    return results.getBlob(0);
-                } catch (IllegalStateException e) {
-                    Timber.w(e, "Could not select tile data at zoom=%d, x=%d, y=%d", zoom, x, y);
-                    // In Android, the SQLite cursor can handle at most 2 MB in one row;
-                    // exceeding 2 MB in an .mbtiles file is rare, but it can happen.
-                    // When an attempt to fetch a large row fails, the database ends up
-                    // in an unusable state, so we need to close it and reopen it.
-                    // See https://stackoverflow.com/questions/20094421/cursor-window-window-is-full
-                    db.close();
-                    db = openSqliteReadOnly(file);
-                }
+    /**
+     * Reads a tile with a compiled statement.  The blob is returned through a
+     * file descriptor rather than a cursor, so tiles larger than the 2 MB
+     * limit of a CursorWindow can be read.  Returns NO_TILE if there is no
+     * tile at these coordinates or null if the read failed.
+     */
+    private synchronized byte[] readTile(int zoom, int x, int y) {
+        if (closed) {
+            return null;
+        }
+        try {
+            if (tileQuery == null) {
+                tileQuery = db.compileStatement(
+                    "SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?");
+            }
+            tileQuery.bindLong(1, zoom);
+            tileQuery.bindLong(2, x);
+            // TMS coordinates are used in .mbtiles files, so Y needs to be flipped.
+            tileQuery.bindLong(3, (1 << zoom) - 1 - y);
+            ParcelFileDescriptor blob = tileQuery.simpleQueryForBlobFileDescriptor();
+            if (blob == null) {
+                // A descriptor is only returned for BLOB values, so read any other value with a cursor
+                return readTileWithCursor(zoom, x, y);
+            }
+            try (InputStream input = new ParcelFileDescriptor.AutoCloseInputStream(blob)) {
+                return readFully(input);
             }
+        } catch (SQLiteDoneException e) {
+            return NO_TILE;
         } catch (Throwable e) {
-            Timber.w(e);
+            Timber.w(e, "Could not select tile data at zoom=%d, x=%d, y=%d", zoom, x, y);
+            return null;
         }
-        return null;
+    }
+
+    private byte[] readTileWithCursor(int zoom, int x, int y) {
+        try (Cursor results = db.query("tiles", new String[] {"tile_data"},
+            "zoom_level = ? AND tile_column = ? AND tile_row = ?",
+            new String[] {Integer.toString(zoom), Integer.toString(x), Integer.toString((1 << zoom) - 1 - y)},
+            null, null, null, "1")) {
+            byte[] data = results.moveToFirst() ? results.getBlob(0) : null;
+            return data != null ? data : NO_TILE;
+        }
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(16 * 1024);
+        byte[] buffer = new byte[16 * 1024];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            output.write(buffer, 0, count);
+        }
+        return output.toByteArray();
+    }
+
+    /** Packs tile coordinates into a cache key; x and y are less than 2^zoom. */
+    private static long getTileKey(int zoom, int x, int y) {
+        return ((long) zoom << 56) | ((long) x << 28) | y;
+    }
+
+    private static int getCacheSize() {
+        return (int) Math.min(MAX_CACHE_BYTES, Runtime.getRuntime().maxMemory() / 32);
     }
 
     /** Returns information about the vector layers available in the tiles. */
@@ -1,36 +1,88 @@
 package org.odk.collect.android.geo;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.BindException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URLDecoder;
-import java.util.HashMap;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import timber.log.Timber;
 
-/** A minimal HTTP server that serves tiles from a set of TileSources. */
+/**
+ * A minimal HTTP/1.1 server that serves tiles from a set of TileSources.
+ * Connections are kept alive, so a map that requests many tiles at once reuses
+ * a few connections rather than starting a thread and a TCP handshake for every
+ * tile.  A selector thread waits on all the idle connections and hands a
+ * connection to a small pool of worker threads only when a request arrives on
+ * it; the worker hands the connection back once it has answered the requests
+ * received so far.  Requests that are pipelined on a connection are answered
+ * in order.
+ */
 class TileHttpServer {
     private static final int PORT_MIN = 8000;
     private static final int PORT_MAX = 8999;
 
-    private final Map<String, TileSource> sources = new HashMap<>();
+    private static final int MAX_WORKERS = 8;  // requests served at once
+    private static final int IDLE_TIMEOUT_MS = 30000;  // idle keep-alive connections are closed after this
+    private static final int READ_TIMEOUT_MS = 5000;  // for the rest of a request that has started to arrive
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int METRICS_LOG_INTERVAL = 500;  // tiles
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] NOT_FOUND = bytes("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n");
+    private static final byte[] BAD_REQUEST = bytes(
+        "HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\nConnection: close\r\n\r\n");
+    private static final byte[] CONNECTION_CLOSE = bytes("Connection: close\r\n");
+
+    private final Map<String, TileSource> sources = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> headerPrefixes = new ConcurrentHashMap<>();
+    private final Set<Connection> connections = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final Queue<Connection> returned = new ConcurrentLinkedQueue<>();  // for the selector to wait on again
+    private final ThreadPoolExecutor workers;
+    private final Metrics metrics = new Metrics();
     private final ServerThread server;
-    private final ServerSocket socket;
+    private final ServerSocketChannel channel;
+    private final Selector selector;
 
     TileHttpServer() throws IOException {
-        socket = createBoundSocket(PORT_MIN, PORT_MAX);
-        if (socket == null) {
+        channel = createBoundChannel(PORT_MIN, PORT_MAX);
+        if (channel == null) {
             throw new IOException("Could not find an available port");
         }
-        server = new ServerThread(socket);
+        selector = Selector.open();
+        // The queue holds connections with a request ready to read, which are each served quickly
+        workers = new ThreadPoolExecutor(MAX_WORKERS, MAX_WORKERS, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>());
+        workers.allowCoreThreadTimeOut(true);
+        server = new ServerThread();
     }
 
     public void start() {
@@ -43,7 +95,7 @@ class TileHttpServer {
      */
     public String getUrlTemplate(String key) {
         return String.format(
-            Locale.US, "http://localhost:%d/%s/{z}/{x}/{y}", socket.getLocalPort(), key);
+            Locale.US, "http://localhost:%d/%s/{z}/{x}/{y}", channel.socket().getLocalPort(), key);
     }
 
     /**
@@ -53,146 +105,421 @@ class TileHttpServer {
      */
     public void addSource(String key, TileSource source) {
         sources.put(key, source);
+        headerPrefixes.put(key, bytes(
+            "HTTP/1.1 200 OK\r\n" +
+                "Content-Type: " + source.getContentType() + "\r\n" +
+                "Content-Encoding: " + source.getContentEncoding() + "\r\n" +
+                "Content-Length: "
+        ));
+    }
+
+    /** Returns the throughput and latency of the tiles served so far. */
+    public Metrics getMetrics() {
+        return metrics;
     }
 
     /** Permanently closes all sockets and closeable TileSources. */
     public void destroy() {
-        try {
-            socket.close();
-        } catch (IOException e) { /* ignore */ }
+        closeQuietly(channel);
         server.interrupt();
+        closeQuietly(selector);
+        workers.shutdownNow();
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        if (metrics.getCount() > 0) {
+            Timber.i("Tile server finished: %s", metrics);
+        }
         for (TileSource source : sources.values()) {
             if (source instanceof Closeable) {
-                try {
-                    ((Closeable) source).close();
-                } catch (IOException e) { /* ignore */ }
+                closeQuietly((Closeable) source);
             }
         }
     }
 
-    /** Finds an available port and binds a ServerSocket to it. */
-    protected static ServerSocket createBoundSocket(int portMin, int portMax) throws IOException {
+    /** Finds an available port and binds a ServerSocketChannel to it. */
+    protected static ServerSocketChannel createBoundChannel(int portMin, int portMax) throws IOException {
         for (int port = portMin; port <= portMax; port++) {
+            ServerSocketChannel channel = ServerSocketChannel.open();
             try {
-                return new ServerSocket(port);
+                channel.socket().bind(new InetSocketAddress(port));
+                return channel;
             } catch (BindException e) {
-                continue;  // this port is in use; try another one
+                channel.close();  // this port is in use; try another one
             }
         }
         Timber.e("No ports available from %d to %d", portMin, portMax);
         return null;
     }
 
+    /**
+     * Accepts connections and waits for requests on the connections that are
+     * not being served, handing each one to a worker when a request arrives.
+     */
     class ServerThread extends Thread {
-        final ServerSocket socket;
-
-        ServerThread(ServerSocket socket) {
-            this.socket = socket;
-        }
-
         public void run() {
             try {
-                socket.setReuseAddress(true);
-                Timber.i("Ready for requests on port %d", socket.getLocalPort());
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_ACCEPT);
+                Timber.i("Ready for requests on port %d", channel.socket().getLocalPort());
+                List<Connection> ready = new ArrayList<>();
                 while (!isInterrupted()) {
-                    Socket connection = socket.accept();
-                    Timber.i("Accepted a client connection");
-                    new ResponseThread(connection).start();
+                    selector.select(IDLE_TIMEOUT_MS / 4);
+                    registerReturned();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.isReadable()) {
+                            key.cancel();
+                            ready.add((Connection) key.attachment());
+                        }
+                    }
+
+                    if (!ready.isEmpty()) {
+                        // Deregisters the cancelled keys so that the connections can block in the workers
+                        selector.selectNow();
+                        for (Connection connection : ready) {
+                            dispatch(connection);
+                        }
+                        ready.clear();
+                    }
+                    closeIdle();
                 }
                 Timber.i("Server thread interrupted");
-            } catch (IOException e) {
+            } catch (IOException | ClosedSelectorException e) {
                 Timber.i("Server thread stopped: %s", e.getMessage());
             }
         }
+
+        private void accept() throws IOException {
+            SocketChannel accepted;
+            while ((accepted = channel.accept()) != null) {
+                Connection connection = new Connection(accepted);
+                connections.add(connection);
+                try {
+                    accepted.socket().setTcpNoDelay(true);
+                    register(connection);
+                } catch (IOException e) {
+                    connection.close();
+                }
+            }
+        }
+
+        private void registerReturned() {
+            Connection connection;
+            while ((connection = returned.poll()) != null) {
+                try {
+                    register(connection);
+                } catch (IOException e) {
+                    connection.close();  // the connection was closed while it was being served
+                }
+            }
+        }
+
+        private void register(Connection connection) throws IOException {
+            connection.channel.configureBlocking(false);
+            connection.channel.register(selector, SelectionKey.OP_READ, connection);
+            connection.idleSince = System.currentTimeMillis();
+        }
+
+        private void dispatch(Connection connection) {
+            try {
+                connection.channel.configureBlocking(true);
+                workers.execute(connection);
+            } catch (IOException | RejectedExecutionException e) {
+                connection.close();
+            }
+        }
+
+        private void closeIdle() {
+            long minIdleSince = System.currentTimeMillis() - IDLE_TIMEOUT_MS;
+            for (SelectionKey key : selector.keys()) {
+                Object attachment = key.attachment();
+                if (attachment instanceof Connection && ((Connection) attachment).idleSince < minIdleSince) {
+                    key.cancel();
+                    ((Connection) attachment).close();
+                }
+            }
+        }
     }
 
-    class ResponseThread extends Thread {
-        final Socket connection;
+    /**
+     * A client connection.  When run by a worker, it answers the requests that
+     * have arrived and then returns to the selector to wait for more.
+     */
+    class Connection implements Runnable {
+        final SocketChannel channel;
+        volatile long idleSince;
+        private InputStream input;
+        private OutputStream output;
 
-        ResponseThread(Socket connection) {
-            this.connection = connection;
+        Connection(SocketChannel channel) {
+            this.channel = channel;
         }
 
         public void run() {
-            try (Socket connection = this.connection) {
-                InputStreamReader reader = new InputStreamReader(connection.getInputStream());
-                String request = new BufferedReader(reader).readLine();
-                Timber.i("Received request: %s", request);
-                if (request == null) {
-                    return;
+            try {
+                if (input == null) {
+                    Socket socket = channel.socket();
+                    socket.setSoTimeout(READ_TIMEOUT_MS);
+                    input = new BufferedInputStream(socket.getInputStream());
+                    output = new BufferedOutputStream(socket.getOutputStream());
                 }
-                long start = System.currentTimeMillis();
-                Response response = getResponse(request);
-                if (response == null) {
-                    Timber.i("%s: No tile at these coordinates", request);
-                    return;
+
+                boolean keepAlive;
+                do {
+                    Request request = readRequest(input);
+                    if (request == null) {
+                        close();  // the client closed the connection
+                        return;
+                    }
+                    keepAlive = request.keepAlive;
+                    long start = System.nanoTime();
+                    int status = serve(request, output);
+                    if (status == 400) {
+                        keepAlive = false;
+                    } else if (status == 200
+                        && metrics.record(System.nanoTime() - start) % METRICS_LOG_INTERVAL == 0) {
+                        Timber.i("Tile server: %s", metrics);
+                    }
+                    // Pipelined requests that are already buffered are answered before the responses are sent
+                } while (keepAlive && input.available() > 0 && !Thread.currentThread().isInterrupted());
+                output.flush();
+
+                if (keepAlive) {
+                    returned.add(this);
+                    selector.wakeup();
+                } else {
+                    close();
                 }
-                sendResponse(connection, response);
-                long finish = System.currentTimeMillis();
-                Timber.i("%s: Served %d bytes in %d ms", request, response.data.length, finish - start);
+            } catch (SocketTimeoutException e) {
+                close();  // a request that did not finish arriving
             } catch (IOException e) {
-                Timber.e(e, "Unable to read request from socket");
-            }
-        }
-
-        protected Response getResponse(String request) {
-            if (request.startsWith("GET /")) {
-                String path = request.substring(5).split(" ", 2)[0];
-                String[] parts = path.split("/");
-                if (parts.length == 4) {
-                    try {
-                        String key = URLDecoder.decode(parts[0], "utf-8");
-                        int zoom = Integer.parseInt(parts[1]);
-                        int x = Integer.parseInt(parts[2]);
-                        int y = Integer.parseInt(parts[3]);
-                        TileSource source = sources.get(key);
-                        if (source != null) {
-                            byte[] data = source.getTileBlob(zoom, x, y);
-                            if (data != null) {
-                                return new Response(data, source.getContentType(), source.getContentEncoding());
-                            }
-                        }
-                    } catch (NumberFormatException e) {
-                        Timber.w(e, "Bad request %s", request);
-                    } catch (UnsupportedEncodingException e) { /* cannot happen because UTF-8 is built in */ }
+                Timber.i("Tile connection closed: %s", e.getMessage());
+                close();
+            }
+        }
+
+        /** Writes the response to a request and returns its status code. */
+        int serve(Request request, OutputStream output) throws IOException {
+            if (request.path == null) {
+                Timber.w("Ignoring request: %s", request.line);
+                output.write(BAD_REQUEST);
+                return 400;
+            }
+
+            TileSource source = null;
+            byte[] data = null;
+            byte[] prefix = null;
+            String key = parseTilePath(request.path, request.coordinates);
+            if (key != null) {
+                source = sources.get(key);
+                prefix = headerPrefixes.get(key);
+            }
+            if (source != null && prefix != null) {
+                data = source.getTileBlob(request.coordinates[0], request.coordinates[1], request.coordinates[2]);
+            }
+            if (data == null) {
+                output.write(NOT_FOUND);
+                return 404;
+            }
+
+            output.write(prefix);
+            output.write(bytes(Integer.toString(data.length)));
+            output.write(CRLF);
+            if (!request.keepAlive) {
+                output.write(CONNECTION_CLOSE);
+            }
+            output.write(CRLF);
+            output.write(data);
+            return 200;
+        }
+
+        void close() {
+            connections.remove(this);
+            closeQuietly(channel);
+        }
+    }
+
+    /** The parts of a request that the server uses. */
+    static class Request {
+        String line;
+        String path;  // null unless this is a GET request
+        boolean keepAlive;
+        final int[] coordinates = new int[3];  // zoom, x, y
+    }
+
+    /**
+     * Reads the request line and headers of the next request on a connection,
+     * returning null if the connection was closed before a request started.
+     */
+    static Request readRequest(InputStream input) throws IOException {
+        String line = readLine(input);
+        while (line != null && line.isEmpty()) {
+            line = readLine(input);  // tolerate blank lines between requests
+        }
+        if (line == null) {
+            return null;
+        }
+
+        Request request = new Request();
+        request.line = line;
+        int pathEnd = line.indexOf(' ', 4);
+        if (line.startsWith("GET /") && pathEnd > 0) {
+            request.path = line.substring(4, pathEnd);
+            request.keepAlive = line.startsWith("HTTP/1.1", pathEnd + 1);
+        }
+
+        String header;
+        while ((header = readLine(input)) != null && !header.isEmpty()) {
+            if (header.regionMatches(true, 0, "Connection:", 0, 11)) {
+                String value = header.substring(11).trim();
+                if (value.equalsIgnoreCase("close")) {
+                    request.keepAlive = false;
+                } else if (value.equalsIgnoreCase("keep-alive")) {
+                    request.keepAlive = true;
+                }
+            }
+        }
+        if (header == null) {
+            request.keepAlive = false;  // the client closed its side after sending the request
+        }
+        return request;
+    }
+
+    /** Reads an ASCII line ending with LF or CRLF, returning null at the end of the stream. */
+    static String readLine(InputStream input) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = input.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
                 }
+                return line.toString();
+            }
+            if (line.length() >= MAX_LINE_LENGTH) {
+                throw new IOException("Request line too long");
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    /**
+     * Parses a path of the form /{key}/{zoom}/{x}/{y} into the coordinates,
+     * returning the key or null if the path does not have this form.
+     */
+    static String parseTilePath(String path, int[] coordinates) {
+        int end = path.length();
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            end = query;
+        }
+        int slash = end;
+        for (int i = 2; i >= 0; i--) {
+            int previous = path.lastIndexOf('/', slash - 1);
+            if (previous <= 0) {
+                return null;
             }
-            Timber.w("Ignoring request: %s", request);
+            coordinates[i] = parseInt(path, previous + 1, slash);
+            if (coordinates[i] == Integer.MIN_VALUE) {
+                return null;
+            }
+            slash = previous;
+        }
+        if (path.lastIndexOf('/', slash - 1) != 0) {
             return null;
         }
 
-        protected void sendResponse(Socket connection, Response response) {
-            String headers = String.format(
-                Locale.US,
-                "HTTP/1.0 200\r\n" +
-                    "Content-Type: %s\r\n" +
-                    "Content-Encoding: %s\r\n" +
-                    "Content-Length: %d\r\n" +
-                    "\r\n",
-                response.contentType,
-                response.contentEncoding,
-                response.data.length
-            );
-
-            try (OutputStream output = connection.getOutputStream()) {
-                output.write(headers.getBytes());
-                output.write(response.data);
-                output.flush();
-            } catch (IOException e) {
-                Timber.e(e, "Unable to write response to socket");
+        String key = path.substring(1, slash);
+        if (key.indexOf('%') >= 0 || key.indexOf('+') >= 0) {
+            try {
+                key = URLDecoder.decode(key, "utf-8");
+            } catch (UnsupportedEncodingException e) { /* cannot happen because UTF-8 is built in */ }
+        }
+        return key;
+    }
+
+    /** Parses a non-negative decimal integer, returning Integer.MIN_VALUE if it is not valid. */
+    private static int parseInt(String s, int start, int end) {
+        if (start >= end || end - start > 9) {
+            return Integer.MIN_VALUE;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return Integer.MIN_VALUE;
             }
+            value = value * 10 + (c - '0');
         }
+        return value;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) { /* ignore */ }
     }
 
-    public static class Response {
-        byte[] data;
-        String contentType;
-        String contentEncoding;
+    /** Tiles served per second and the 95th percentile of the time taken to serve a tile. */
+    static class Metrics {
+        private static final int SAMPLE_SIZE = 1024;  // latencies of the most recent tiles
+
+        private final long[] latencies = new long[SAMPLE_SIZE];
+        private long count;
+        private long firstTime;
+        private long lastTime;
+
+        /** Records the time taken to serve a tile and returns the number of tiles served. */
+        synchronized long record(long latencyNanos) {
+            long now = System.nanoTime();
+            if (count == 0) {
+                firstTime = now - latencyNanos;
+            }
+            lastTime = now;
+            latencies[(int) (count % SAMPLE_SIZE)] = latencyNanos;
+            return ++count;
+        }
+
+        synchronized long getCount() {
+            return count;
+        }
+
+        /** Returns the average rate from the first tile to the most recent one. */
+        synchronized double getTilesPerSecond() {
+            long elapsed = lastTime - firstTime;
+            return elapsed > 0 ? count * 1e9 / elapsed : 0;
+        }
+
+        /** Returns the 95th percentile latency in milliseconds of the most recent tiles. */
+        synchronized double getP95LatencyMs() {
+            int n = (int) Math.min(count, SAMPLE_SIZE);
+            if (n == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(latencies, n);
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(n * 0.95) - 1] / 1e6;
+        }
 
-        Response(byte[] data, String contentType, String contentEncoding) {
-            this.data = data;
-            this.contentType = contentType;
-            this.contentEncoding = contentEncoding;
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d tiles, %.1f tiles/s, p95 %.2f ms",
+                getCount(), getTilesPerSecond(), getP95LatencyMs());
         }
     }
 }
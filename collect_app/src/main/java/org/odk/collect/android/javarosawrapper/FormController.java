@@ -25,6 +25,8 @@ import org.javarosa.core.model.IFormElement;
 import org.javarosa.core.model.QuestionDef;
 import org.javarosa.core.model.SubmissionProfile;
 import org.javarosa.core.model.ValidateOutcome;
+import org.javarosa.core.model.actions.SetValueAction;
+import org.javarosa.core.model.actions.recordaudio.RecordAudioActionHandler;
 import org.javarosa.core.model.actions.setgeopoint.SetGeopointActionHandler;
 import org.javarosa.core.model.condition.EvaluationContext;
 import org.javarosa.core.model.data.IAnswerData;
@@ -57,8 +59,10 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 import timber.log.Timber;
 
@@ -131,6 +135,11 @@ public class FormController {
     private final FormEntryController formEntryController;
     private FormIndex indexWaitingForData;
 
+    // smap answers changed since the last savepoint, see takeSavepointChanges()
+    private final Set<FormIndex> savepointChanges = new LinkedHashSet<>();
+    private boolean fullSavepointRequired = true;
+    private Boolean savepointJournalSupported;
+
     public FormController(File mediaFolder, FormEntryController fec, File instanceFile) {
         this.mediaFolder = mediaFolder;
         formEntryController = fec;
@@ -486,7 +495,9 @@ public class FormController {
      */
     public int answerQuestion(FormIndex index, IAnswerData data) throws JavaRosaException {
         try {
-            return formEntryController.answerQuestion(index, data, true);
+            int result = formEntryController.answerQuestion(index, data, true);
+            recordSavepointChange(index);   // smap
+            return result;
         } catch (Exception e) {
             throw new JavaRosaException(e);
         }
@@ -522,7 +533,9 @@ public class FormController {
      */
     public boolean saveAnswer(FormIndex index, IAnswerData data) throws JavaRosaException {
         try {
-            return formEntryController.saveAnswer(index, data, true);
+            boolean saved = formEntryController.saveAnswer(index, data, true);
+            recordSavepointChange(index);   // smap
+            return saved;
         } catch (Exception e) {
             String dataType = data != null ? data.getClass().toString() : null;
             String ref = index != null ? index.getReference().toString() : null;
@@ -884,6 +897,7 @@ public class FormController {
      */
     public void newRepeat() {
         formEntryController.newRepeat();
+        requireFullSavepoint();     // smap
     }
 
     /**
@@ -893,6 +907,7 @@ public class FormController {
      * (2) > group2 (3) and you call deleteRepeat, it will delete the 3rd instance of group2.
      */
     public void deleteRepeat() {
+        requireFullSavepoint();     // smap
         FormIndex fi = formEntryController.deleteRepeat();
         formEntryController.jumpToIndex(fi);
     }
@@ -1378,6 +1393,38 @@ public class FormController {
         return currentFormAuditsLocation() || getFormDef().hasAction(SetGeopointActionHandler.ELEMENT_NAME);
     }
 
+    /*
+     * smap
+     * Returns the questions whose answers have changed since the last call, or null if the whole
+     * instance needs to be written to the savepoint. That is the case for the first savepoint, after
+     * repeats have been added or removed and for forms with actions that change the instance
+     * without answering a question.
+     */
+    public synchronized List<FormIndex> takeSavepointChanges() {
+        if (savepointJournalSupported == null) {
+            FormDef formDef = getFormDef();
+            savepointJournalSupported = !formDef.hasAction(SetValueAction.ELEMENT_NAME)
+                    && !formDef.hasAction(SetGeopointActionHandler.ELEMENT_NAME)
+                    && !formDef.hasAction(RecordAudioActionHandler.ELEMENT_NAME);
+        }
+
+        List<FormIndex> changes = null;
+        if (!fullSavepointRequired && savepointJournalSupported) {
+            changes = new ArrayList<>(savepointChanges);
+        }
+        savepointChanges.clear();
+        fullSavepointRequired = false;
+        return changes;
+    }
+
+    public synchronized void requireFullSavepoint() {
+        fullSavepointRequired = true;
+    }
+
+    private synchronized void recordSavepointChange(FormIndex index) {
+        savepointChanges.add(index);
+    }
+
     public IAnswerData getAnswer(TreeReference treeReference) {
         return getFormDef().getMainInstance().resolveReference(treeReference).getValue();
     }
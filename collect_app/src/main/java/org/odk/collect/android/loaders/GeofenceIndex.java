@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.loaders;
+
+import android.location.Location;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A grid index over the geofences of the current tasks
+ * Each geofence is added to every grid cell that its bounding box overlaps so a location only needs to
+ * be compared with the geofences in its own cell.  Geofences that are too large to be added to a
+ * reasonable number of cells are checked for every location.
+ */
+public class GeofenceIndex {
+
+    private static final double CELL_SIZE = 0.01;           // Degrees, about 1km of latitude
+    private static final int MAX_CELLS = 64;                // Maximum number of cells for a single geofence
+    private static final double METERS_PER_DEGREE = 111111.1;
+
+    private final HashMap<Long, ArrayList<GeofenceEntry>> cells = new HashMap<>();
+    private final ArrayList<GeofenceEntry> largeGeofences = new ArrayList<>();
+    private final ArrayList<GeofenceEntry> inside = new ArrayList<>();
+    private final int size;
+
+    public static class Changes {
+        public final List<GeofenceEntry> entered = new ArrayList<>();
+        public final List<GeofenceEntry> exited = new ArrayList<>();
+
+        public boolean isEmpty() {
+            return entered.isEmpty() && exited.isEmpty();
+        }
+    }
+
+    public GeofenceIndex(List<GeofenceEntry> geofences) {
+        size = geofences.size();
+        for (GeofenceEntry gfe : geofences) {
+            add(gfe);
+            if (gfe.in) {
+                inside.add(gfe);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /*
+     * Get the geofences that the location has moved into or out of
+     * The state of the geofences is not changed, it is recalculated when the task list is refreshed
+     */
+    public Changes getChanges(double lat, double lon) {
+        Changes changes = new Changes();
+        float[] distance = new float[1];
+
+        for (GeofenceEntry gfe : inside) {
+            Location.distanceBetween(lat, lon, gfe.location.getLatitude(), gfe.location.getLongitude(), distance);
+            if (distance[0] > gfe.showDist) {
+                changes.exited.add(gfe);
+            }
+        }
+
+        ArrayList<GeofenceEntry> candidates = cells.get(getKey(getCell(lat), getCell(lon)));
+        if (candidates != null) {
+            addEntered(candidates, lat, lon, distance, changes);
+        }
+        addEntered(largeGeofences, lat, lon, distance, changes);
+
+        return changes;
+    }
+
+    private void addEntered(List<GeofenceEntry> candidates, double lat, double lon, float[] distance, Changes changes) {
+        for (GeofenceEntry gfe : candidates) {
+            if (!gfe.in) {
+                Location.distanceBetween(lat, lon, gfe.location.getLatitude(), gfe.location.getLongitude(), distance);
+                if (distance[0] < gfe.showDist) {
+                    changes.entered.add(gfe);
+                }
+            }
+        }
+    }
+
+    private void add(GeofenceEntry gfe) {
+        double lat = gfe.location.getLatitude();
+        double lon = gfe.location.getLongitude();
+
+        double latDelta = gfe.showDist / METERS_PER_DEGREE;
+        double lonDelta = gfe.showDist / (METERS_PER_DEGREE * Math.max(Math.cos(Math.toRadians(lat)), 0.01));
+
+        long minLat = getCell(lat - latDelta);
+        long maxLat = getCell(lat + latDelta);
+        long minLon = getCell(lon - lonDelta);
+        long maxLon = getCell(lon + lonDelta);
+
+        if ((maxLat - minLat + 1) * (maxLon - minLon + 1) > MAX_CELLS) {
+            largeGeofences.add(gfe);
+            return;
+        }
+
+        for (long y = minLat; y <= maxLat; y++) {
+            for (long x = minLon; x <= maxLon; x++) {
+                Long key = getKey(y, x);
+                ArrayList<GeofenceEntry> cell = cells.get(key);
+                if (cell == null) {
+                    cell = new ArrayList<>();
+                    cells.put(key, cell);
+                }
+                cell.add(gfe);
+            }
+        }
+    }
+
+    private static long getCell(double degrees) {
+        return (long) Math.floor(degrees / CELL_SIZE);
+    }
+
+    private static long getKey(long y, long x) {
+        return (y << 32) | (x & 0xffffffffL);
+    }
+}
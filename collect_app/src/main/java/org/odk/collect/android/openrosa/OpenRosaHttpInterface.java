@@ -23,6 +23,7 @@ import org.odk.collect.android.taskModel.TaskResponse;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.HashMap;
@@ -137,6 +138,22 @@ public interface OpenRosaHttpInterface {
                       @Nullable HttpCredentialsInterface credentials,
                       HashMap<String, String> headers) throws Exception;
 
+    /**
+     * smap
+     * Issues a get request and returns the response body as a stream so that large responses can
+     * be parsed incrementally rather than being held in memory as a single string.
+     * The caller is responsible for closing the returned stream.
+     *
+     * @param uri of the stream
+     * @param contentType check the returned Mime Type to ensure it matches
+     * @return InputStream - The body of the response
+     * @throws Exception a multitude of Exceptions such as IOException can be thrown
+     */
+    @NonNull
+    InputStream getRequestStream(@NonNull URI uri, @Nullable String contentType,
+                      @Nullable HttpCredentialsInterface credentials,
+                      HashMap<String, String> headers) throws Exception;
+
     // smap
     @NonNull
     String loginRequest(@NonNull URI uri, @Nullable String contentType, @Nullable HttpCredentialsInterface credentials) throws Exception;
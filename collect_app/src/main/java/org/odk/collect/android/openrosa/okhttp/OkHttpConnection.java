@@ -290,7 +290,10 @@ public class OkHttpConnection implements OpenRosaHttpInterface {
         URI physicalUri = getPhysicalUri(uri, credentials);
         Gson gson = new GsonBuilder().disableHtmlEscaping().setDateFormat("yyyy-MM-dd HH:mm").create();
         String resp = gson.toJson(updateResponse);
-        Timber.i("########################################### %s", resp);
+        Timber.i("Uploading task status: %d tasks, %d trail points, %d characters",
+                updateResponse.taskAssignments == null ? 0 : updateResponse.taskAssignments.size(),
+                updateResponse.userTrail == null ? 0 : updateResponse.userTrail.size(),
+                resp.length());
 
         RequestBody formBody = new FormBody.Builder()
                 .add("assignInput", resp)
@@ -402,6 +405,26 @@ public class OkHttpConnection implements OpenRosaHttpInterface {
                       @Nullable HttpCredentialsInterface credentials,
                       HashMap<String, String> headers) throws Exception {
 
+        return getResponseBody(uri, contentType, credentials, headers).string();
+    }
+
+    @Override
+    public @NonNull
+    InputStream getRequestStream(@NonNull URI uri, @Nullable final String contentType,
+                      @Nullable HttpCredentialsInterface credentials,
+                      HashMap<String, String> headers) throws Exception {
+
+        return getResponseBody(uri, contentType, credentials, headers).byteStream();
+    }
+
+    /*
+     * Issue a get request and return the body of a successful response without reading it
+     */
+    private @NonNull
+    ResponseBody getResponseBody(@NonNull URI uri, @Nullable final String contentType,
+                      @Nullable HttpCredentialsInterface credentials,
+                      HashMap<String, String> headers) throws Exception {
+
         URI physicalUri = getPhysicalUri(uri, credentials);
         OpenRosaServerClient httpClient = clientFactory.get(physicalUri.getScheme(), userAgent, credentials, physicalUri.getHost()); // smap add host
 
@@ -453,7 +476,7 @@ public class OkHttpConnection implements OpenRosaHttpInterface {
             }
         }
 
-        return body.string();
+        return body;
     }
 
     @Override
@@ -61,7 +61,7 @@ public class OkHttpOpenRosaServerClientProvider implements OpenRosaServerClientP
     }
 
     @Override
-    public OpenRosaServerClient get(String scheme, String userAgent, @Nullable HttpCredentialsInterface credentials, String host) { // smap add host
+    public synchronized OpenRosaServerClient get(String scheme, String userAgent, @Nullable HttpCredentialsInterface credentials, String host) { // smap add host, synchronized for parallel downloads
         if (client == null || credentialsHaveChanged(credentials) || hostHasChanged(host)) {  // smap add hostHasChanged
             lastCredentials = credentials;
             lastHost = host;                      // smap
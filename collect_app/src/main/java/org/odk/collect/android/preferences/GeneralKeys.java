@@ -134,6 +134,11 @@ public final class GeneralKeys {
     public static final String KEY_SMAP_IM_RI = "smap_im_ri";
     public static final String KEY_SMAP_IM_ACC = "smap_im_acc";
     public static final String KEY_SMAP_REQUEST_LOCATION_DONE = "smap_request_location_done";
+    public static final String KEY_SMAP_DB_WAL = "smap_db_wal";  // Use write ahead logging for the metadata databases
+    public static final String KEY_SMAP_LAST_TRAIL_ID_SENT = "smap_last_trail_id_sent";  // Last user trail point accepted by the server
+    public static final String KEY_SMAP_EXTERNAL_FTS = "smap_external_fts";  // Create a full text index for searches of external data
+    public static final String KEY_SMAP_INITIAL_DATA_PARALLELISM = "smap_initial_data_parallelism";  // Initial data downloads in progress at once
+    public static final String KEY_SMAP_REMOTE_DATA_PARALLELISM = "smap_remote_data_parallelism";  // Lookup downloads in progress at once
     // end smap
 
     // experimental
@@ -222,6 +227,10 @@ public final class GeneralKeys {
         hashMap.put(KEY_SMAP_IM_RI, GeoPolyActivity.DEFAULT_INTERVAL_INDEX);
         hashMap.put(KEY_SMAP_IM_ACC, GeoPolyActivity.DEFAULT_ACCURACY_THRESHOLD_INDEX);
         hashMap.put(KEY_SMAP_REQUEST_LOCATION_DONE , "no");
+        hashMap.put(KEY_SMAP_DB_WAL, false);
+        hashMap.put(KEY_SMAP_EXTERNAL_FTS, true);
+        hashMap.put(KEY_SMAP_INITIAL_DATA_PARALLELISM, "4");
+        hashMap.put(KEY_SMAP_REMOTE_DATA_PARALLELISM, "4");
         // end smap
 
         // map_preferences.xml
@@ -27,6 +27,7 @@ import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
 
+import org.odk.collect.android.database.DatabaseContext;
 import org.odk.collect.android.database.FormDatabaseMigrator;
 import org.odk.collect.android.database.FormsDatabaseHelper;
 import org.odk.collect.android.fastexternalitemset.ItemsetDbAdapter;
@@ -87,6 +88,11 @@ public class FormsProvider extends ContentProvider {
         dbHelper = new FormsDatabaseHelper(new FormDatabaseMigrator(), new StoragePathProvider());
     }
 
+    // smap
+    public static void checkpoint() {
+        DatabaseContext.checkpoint(dbHelper);
+    }
+
     @SuppressWarnings("PMD.NonThreadSafeSingleton") // PMD thinks the `= null` is setting a singleton here
     public static void releaseDatabaseHelper() {
         if (dbHelper != null) {
@@ -15,9 +15,12 @@
 package org.odk.collect.android.provider;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
@@ -30,6 +33,7 @@ import androidx.annotation.NonNull;
 
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.database.DatabaseContext;
 import org.odk.collect.android.database.InstanceDatabaseMigrator;
 import org.odk.collect.android.database.InstancesDatabaseHelper;
 import org.odk.collect.android.injection.DaggerUtils;
@@ -43,6 +47,7 @@ import org.odk.collect.android.utilities.Utilities;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Locale;
@@ -65,6 +70,9 @@ public class InstanceProvider extends ContentProvider {
     @Inject
     PermissionsProvider permissionsProvider;
 
+    // smap Set while a batch is being applied so that observers are notified once at the end of the batch
+    private final ThreadLocal<Boolean> applyingBatch = new ThreadLocal<>();
+
     private synchronized InstancesDatabaseHelper getDbHelper() {
         // wrapper to test and reset/set the dbHelper based upon the attachment state of the device.
         try {
@@ -85,6 +93,11 @@ public class InstanceProvider extends ContentProvider {
         dbHelper = new InstancesDatabaseHelper(new InstanceDatabaseMigrator(), new StoragePathProvider());
     }
 
+    // smap
+    public static void checkpoint() {
+        DatabaseContext.checkpoint(dbHelper);
+    }
+
     @SuppressWarnings("PMD.NonThreadSafeSingleton") // PMD thinks the `= null` is setting a singleton here
     public static void releaseDatabaseHelper() {
         if (dbHelper != null) {
@@ -188,11 +201,12 @@ public class InstanceProvider extends ContentProvider {
             if (!values.containsKey(InstanceColumns.STATUS)) {
                 values.put(InstanceColumns.STATUS, Instance.STATUS_INCOMPLETE);
             }
+            normaliseSource(values);    // smap
 
             long rowId = instancesDatabaseHelper.getWritableDatabase().insert(INSTANCES_TABLE_NAME, null, values);
         if (rowId > 0) {
             Uri instanceUri = ContentUris.withAppendedId(InstanceColumns.CONTENT_URI, rowId);
-            getContext().getContentResolver().notifyChange(instanceUri, null);
+            notifyChange(instanceUri);
             return instanceUri;
         }
         }
@@ -334,7 +348,7 @@ public class InstanceProvider extends ContentProvider {
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         }
 
         return count;
@@ -363,6 +377,7 @@ public class InstanceProvider extends ContentProvider {
             if (values.containsKey(InstanceColumns.DELETED_DATE)) {
                 values.remove(InstanceColumns.LAST_STATUS_CHANGE_DATE);
             }
+            normaliseSource(values);    // smap
 
             switch (URI_MATCHER.match(uri)) {
                 case INSTANCES:
@@ -394,12 +409,60 @@ public class InstanceProvider extends ContentProvider {
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         }
 
         return count;
     }
 
+    /*
+     * smap
+     * The source is matched against an index so it is always stored in lower case, as returned by Utilities.getSource()
+     */
+    private void normaliseSource(ContentValues values) {
+        String source = values.getAsString(InstanceColumns.SOURCE);
+        if (source != null) {
+            values.put(InstanceColumns.SOURCE, source.toLowerCase(Locale.getDefault()));
+        }
+    }
+
+    /*
+     * smap
+     * Apply all of the operations in a single transaction
+     * Used by the task synchronisation to avoid a separate transaction for every task
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+
+        InstancesDatabaseHelper instancesDatabaseHelper = getDbHelper();
+        if (instancesDatabaseHelper == null) {
+            throw new OperationApplicationException("Failed to open the instances database.");
+        }
+
+        SQLiteDatabase db = instancesDatabaseHelper.getWritableDatabase();
+        ContentProviderResult[] results;
+        applyingBatch.set(true);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            applyingBatch.remove();
+        }
+
+        getContext().getContentResolver().notifyChange(InstanceColumns.CONTENT_URI, null);
+        return results;
+    }
+
+    private void notifyChange(Uri uri) {
+        if (applyingBatch.get() == null) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     static {
         URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
         URI_MATCHER.addURI(InstanceProviderAPI.AUTHORITY, "instances", INSTANCES);
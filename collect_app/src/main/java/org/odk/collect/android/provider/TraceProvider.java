@@ -12,6 +12,7 @@ import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.text.TextUtils;
 
+import org.odk.collect.android.database.DatabaseContext;
 import org.odk.collect.android.database.SmapTraceDatabaseHelper;
 import org.odk.collect.android.injection.DaggerUtils;
 import org.odk.collect.android.permissions.PermissionsProvider;
@@ -67,6 +68,11 @@ public class TraceProvider extends ContentProvider {
         dbHelper = new SmapTraceDatabaseHelper();
     }
 
+    // smap
+    public static void checkpoint() {
+        DatabaseContext.checkpoint(dbHelper);
+    }
+
     @Override
     public boolean onCreate() {
         // must be at the beginning of any activity that can be called from an external intent
@@ -154,6 +160,37 @@ public class TraceProvider extends ContentProvider {
     }
 
 
+    /*
+     * smap
+     * Insert a batch of trace points in a single transaction
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        deferDaggerInit();
+        if (!permissionsProvider.areStoragePermissionsGranted()) {
+            return 0;
+        }
+        if (sUriMatcher.match(uri) != TRACES) {
+            throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+
+        SQLiteDatabase db = getDbHelper().getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (ContentValues v : values) {
+                if (db.insert(TABLE_NAME, null, v) < 0) {
+                    throw new SQLException("Failed to insert row into " + uri);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        getContext().getContentResolver().notifyChange(uri, null);
+        return values.length;
+    }
+
     /**
      * This method removes the entry from the content provider, and also removes any associated files.
      * files:  form.xml, [formmd5].formdef, formname-media {directory}
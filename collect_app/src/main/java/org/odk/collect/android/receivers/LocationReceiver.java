@@ -13,21 +13,17 @@ import org.odk.collect.android.activities.NotificationActivity;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.database.TraceUtilities;
 import org.odk.collect.android.injection.DaggerUtils;
-import org.odk.collect.android.loaders.GeofenceEntry;
+import org.odk.collect.android.loaders.GeofenceIndex;
 import org.odk.collect.android.notifications.Notifier;
 import org.odk.collect.android.preferences.GeneralKeys;
 import org.odk.collect.android.smap.utilities.LocationRegister;
 import org.odk.collect.android.utilities.Constants;
 
-import java.util.ArrayList;
-
 import javax.inject.Inject;
 
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import timber.log.Timber;
 
-import static java.lang.StrictMath.abs;
-
 /*
  * Accept broadcast locations from a pending intent
  */
@@ -77,26 +73,11 @@ public class LocationReceiver  extends BroadcastReceiver {
                 /*
                  * Test for geofence change if the user has moved more than the minimum distance
                  */
-                ArrayList<GeofenceEntry> geofences = Collect.getInstance().getGeofences();
-                if (geofences.size() > 0) {
-                    boolean refresh = false;
-                    boolean notify = false;
-                    for (GeofenceEntry gfe : geofences) {
-                        double yDistance = abs(location.getLatitude() - gfe.location.getLatitude()) * 111111.1;     // lattitude difference in meters
-                        if (gfe.in) {                                                        // Currently inside
-                            if (location.distanceTo(gfe.location) > gfe.showDist) {         // detailed check only
-                                refresh = true;
-                            }
-                        } else {
-                            if (yDistance < gfe.showDist) {                                      // Currently outside do rough check first
-                                if (location.distanceTo(gfe.location) < gfe.showDist) {
-                                    refresh = true;
-                                    notify = true;
-                                    break;      // No need to check more we have a notify and a refresh
-                                }
-                            }
-                        }
-                    }
+                GeofenceIndex geofenceIndex = Collect.getInstance().getGeofenceIndex();
+                if (geofenceIndex.size() > 0) {
+                    GeofenceIndex.Changes changes = geofenceIndex.getChanges(location.getLatitude(), location.getLongitude());
+                    boolean refresh = !changes.isEmpty();
+                    boolean notify = !changes.entered.isEmpty();
                     if (refresh) {
                         Intent intent = new Intent("org.smap.smapTask.refresh");
                         LocalBroadcastManager.getInstance(Collect.getInstance()).sendBroadcast(intent);
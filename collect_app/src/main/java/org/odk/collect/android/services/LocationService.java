@@ -38,6 +38,7 @@ import com.google.android.gms.location.Priority;
 
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.database.TraceUtilities;
 import org.odk.collect.android.preferences.GeneralKeys;
 import org.odk.collect.android.receivers.LocationReceiver;
 import org.odk.collect.android.utilities.Constants;
@@ -121,6 +122,7 @@ public class LocationService extends Service implements GoogleApiClient.Connecti
     @Override
     public void onDestroy() {
         stopLocationUpdates();
+        TraceUtilities.flushPoints();       // Write any buffered user trail points
         super.onDestroy();
     }
 
@@ -6,9 +6,12 @@ import android.database.Cursor;
 import com.google.firebase.crashlytics.FirebaseCrashlytics;
 
 import org.kxml2.io.KXmlParser;
+import org.odk.collect.android.dao.FormsDao;
 import org.odk.collect.android.dao.InstancesDao;
 import org.odk.collect.android.dao.SmapReferencesDao;
 import org.odk.collect.android.external.ExternalDataUtil;
+import org.odk.collect.android.instances.Instance;
+import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
 import org.odk.collect.android.provider.InstanceProviderAPI;
 import org.odk.collect.android.smap.local.LocalSQLiteOpenHelperSmap;
 import org.odk.collect.android.storage.StoragePathProvider;
@@ -23,7 +26,9 @@ import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
@@ -31,6 +36,11 @@ import timber.log.Timber;
 
 import static org.odk.collect.utilities.PathUtils.getAbsoluteFilePath;
 
+/*
+ * Add the data of finalised instances to the external data of the forms that search them
+ * Each data set records the instances that have been added so only new or changed instances are read
+ *  when a form is opened.  Instances are also added when they are saved.
+ */
 public class LocalDataManagerSmap {
 
     FormLoaderTask formLoaderTask;
@@ -45,11 +55,12 @@ public class LocalDataManagerSmap {
         ArrayList<FormData> subForms = new ArrayList<> ();
     }
 
+    /*
+     * Bring the local data of a form up to date before it is opened
+     */
     public void loadLocalData(String surveyIdent, File formMediaDir) {
 
-        StoragePathProvider storagePathProvider = new StoragePathProvider();
         SmapReferencesDao refDao = new SmapReferencesDao();
-        Map<String, String> columnNamesCache = new HashMap<>();
 
         try {
             // 1. Get the hashmap of surveys referenced by the loading survey
@@ -57,116 +68,177 @@ public class LocalDataManagerSmap {
 
             // 2. Get the links to surveys whose data is referenced - from the references table
             if(surveys != null && surveys.size() > 0) {
-                HashMap<String, ArrayList<ContentValues>> dataSets = new HashMap<> ();
-                ArrayList<LinkedInstance> instances = getLinkedInstances(surveys);
+                Map<String, List<LinkedInstance>> instancesByTable = getLinkedInstances(surveys);
 
-                // 2.5 Delete existing local data
-                for (String ref : surveys.keySet()) {
-                    LinkedSurvey ls = surveys.get(ref);
+                // 3. Update the data for the instances of each survey that have changed
+                for (LinkedSurvey ls : surveys.values()) {
                     File dbFile = new File(formMediaDir.getAbsolutePath(), ls.tableName + ".db");
                     if (!dbFile.exists()) {
                         FirebaseCrashlytics.getInstance().log("LocalCSV: csv table does not exist: " + dbFile.getAbsolutePath());
+                        continue;
                     }
-                    LocalSQLiteOpenHelperSmap localSQLiteOpenHelper = new LocalSQLiteOpenHelperSmap(dbFile);
-                    localSQLiteOpenHelper.deleteLocal(formLoaderTask);
-                }
-
-                // 3. Process each instance
-                if(instances.size() > 0) {
-                    for (LinkedInstance li : instances) {
-
-                        // 3. Convert contents of instance into a record
-                        ArrayList<ContentValues> data = dataSets.get(li.survey.tableName);
-                        if (data == null) {
-                            data = new ArrayList<>();
-                            dataSets.put(li.survey.tableName, data);
-                        }
 
-                        // Accumulate data in a FormData structure
-                        FormData fd = new FormData();
-                        FormData currentForm = fd;
-                        currentForm.name = "main";
-                        Stack<FormData> formDataStack = new Stack<>();
-
-                        String absPath = getAbsoluteFilePath(storagePathProvider.getDirPath(StorageSubdirectory.INSTANCES), li.instanceFilePath);
-                        XmlPullParser parser = new KXmlParser();
-                        parser.setInput(new InputStreamReader(new FileInputStream(absPath), StandardCharsets.UTF_8));
-
-                        String tag;
-                        parser.nextTag();
-                        while (parser.getEventType() != XmlPullParser.END_DOCUMENT) {
-                            tag = parser.getName();
-                            String value = parser.getText();
-
-                            Timber.i("@@@@@@@@: " + tag + " : " + parser.getEventType() + " : " + value);
-                            switch (parser.getEventType()) {
-                                case XmlPullParser.START_TAG:
-                                    parser.next();
-                                    value = parser.getText();
-
-                                    if(parser.getEventType() == XmlPullParser.TEXT) {
-                                        if (li.survey.columns.contains(tag)) {
-                                            String safeColumnName = ExternalDataUtil.toSafeColumnName(tag, columnNamesCache);
-                                            currentForm.values.put(safeColumnName, value);
-                                        }
-                                    } else if(parser.getEventType() == XmlPullParser.START_TAG) {
-                                        if (!tag.equals("main")) {   // Top level form main already has a form definition which is an entry point to the graph
-                                            FormData subFormData = new FormData();
-                                            formDataStack.push(currentForm);
-                                            currentForm = subFormData;
-                                            currentForm.name = tag;
-                                        }
-                                    }
-                                    break;
-
-                                case XmlPullParser.END_TAG:
-                                    if(tag.equals(currentForm.name) && !formDataStack.empty()) {
-                                        FormData completedForm = currentForm;
-                                        currentForm = formDataStack.pop();
-                                        if(completedForm.values.size() > 0 || completedForm.subForms.size() > 0) {  // Add if not empty
-                                            currentForm.subForms.add(completedForm);
-                                        }
-                                    }
-                                    parser.next();
-                                    break;
-                                default:
-                                    parser.next();
-                                    break;
-                            }
+                    List<LinkedInstance> instances = instancesByTable.get(ls.tableName);
+                    updateLocalData(dbFile, instances == null ? new ArrayList<>() : instances);
+                }
+            }
+        } catch (Exception e) {
+            Timber.e(e);
+            FirebaseCrashlytics.getInstance().recordException(e);
+        }
+    }
 
-                        }
+    /*
+     * Update the local data of the forms that search the data of a saved instance
+     */
+    public void updateInstance(String instancePath) {
 
-                        // Convert FormData structure into records
-                        addNode(data, fd, new ContentValues());
+        try {
+            LinkedInstance li = null;
+            String jrFormId = null;
+            boolean searchable = false;
+            try (Cursor cursor = new InstancesDao().getInstancesCursorForFilePath(instancePath)) {
+                if (cursor != null && cursor.moveToFirst()) {
+                    jrFormId = cursor.getString(cursor.getColumnIndex(InstanceProviderAPI.InstanceColumns.JR_FORM_ID));
+                    li = getLinkedInstance(cursor);
+                    searchable = isSearchable(li.status)
+                            && cursor.isNull(cursor.getColumnIndex(InstanceProviderAPI.InstanceColumns.DELETED_DATE));
+                }
+            }
+            if (li == null) {
+                return;
+            }
 
+            HashMap<String, LinkedSurvey> referencingSurveys = new SmapReferencesDao().getReferencingSurveys(jrFormId);
+            for (Map.Entry<String, LinkedSurvey> entry : referencingSurveys.entrySet()) {
+                li.survey = entry.getValue();
+                for (File formMediaDir : getLocalDataMediaDirs(entry.getKey())) {
+                    File dbFile = new File(formMediaDir, li.survey.tableName + ".db");
+                    if (!dbFile.exists()) {
+                        continue;       // The data will be added when the CSV file is imported and the form opened
                     }
 
-                    // 4. Write instance records to the database table
-                    for (String tableName: dataSets.keySet()) {
-
-                        File dbFile = new File(formMediaDir.getAbsolutePath(), tableName + ".db");
-                        if (!dbFile.exists()) {
-                            FirebaseCrashlytics.getInstance().log("LocalCSV: csv table does not exist: " + dbFile.getAbsolutePath());
-                        }
-                        LocalSQLiteOpenHelperSmap localSQLiteOpenHelper = new LocalSQLiteOpenHelperSmap(dbFile);
-                        localSQLiteOpenHelper.append(dataSets.get(tableName), formLoaderTask);
+                    LocalSQLiteOpenHelperSmap localSQLiteOpenHelper = new LocalSQLiteOpenHelperSmap(dbFile);
+                    if (searchable) {
+                        Map<String, ArrayList<ContentValues>> data = new HashMap<>();
+                        data.put(li.instanceFilePath, parseInstance(li));
+                        localSQLiteOpenHelper.update(Collections.singletonList(li), data,
+                                Collections.emptyList(), null);
+                    } else {
+                        localSQLiteOpenHelper.update(Collections.emptyList(), Collections.emptyMap(),
+                                Collections.singletonList(li.instanceFilePath), null);
                     }
                 }
-
             }
         } catch (Exception e) {
             Timber.e(e);
             FirebaseCrashlytics.getInstance().recordException(e);
         }
+    }
+
+    /*
+     * Read the instances that are new or have changed since they were added and remove those that are no
+     *  longer finalised
+     */
+    private void updateLocalData(File dbFile, List<LinkedInstance> instances) throws Exception {
+        LocalSQLiteOpenHelperSmap localSQLiteOpenHelper = new LocalSQLiteOpenHelperSmap(dbFile);
+        Map<String, String> indexed = localSQLiteOpenHelper.getIndexedInstances();
+
+        List<LinkedInstance> changed = new ArrayList<>();
+        Map<String, ArrayList<ContentValues>> data = new HashMap<>();
+        for (LinkedInstance li : instances) {
+            String version = indexed.remove(li.instanceFilePath);
+            if (li.getVersion().equals(version)) {
+                continue;
+            }
+            try {
+                data.put(li.instanceFilePath, parseInstance(li));
+                changed.add(li);
+            } catch (Exception e) {
+                Timber.e(e, "Failed to read local data from %s", li.instanceFilePath);
+            }
+        }
+
+        if (!changed.isEmpty() || !indexed.isEmpty()) {
+            Timber.i("Local data %s: %d instances added or changed, %d removed", dbFile.getName(), changed.size(), indexed.size());
+            localSQLiteOpenHelper.update(changed, data, indexed.keySet(), formLoaderTask);
+        }
+    }
+
+    /*
+     * Convert the contents of an instance into records
+     */
+    private ArrayList<ContentValues> parseInstance(LinkedInstance li) throws Exception {
+
+        StoragePathProvider storagePathProvider = new StoragePathProvider();
+        Map<String, String> columnNamesCache = new HashMap<>();
+        ArrayList<ContentValues> data = new ArrayList<>();
+
+        // Accumulate data in a FormData structure
+        FormData fd = new FormData();
+        FormData currentForm = fd;
+        currentForm.name = "main";
+        Stack<FormData> formDataStack = new Stack<>();
+
+        String absPath = getAbsoluteFilePath(storagePathProvider.getDirPath(StorageSubdirectory.INSTANCES), li.instanceFilePath);
+        try (InputStreamReader reader = new InputStreamReader(new FileInputStream(absPath), StandardCharsets.UTF_8)) {
+            XmlPullParser parser = new KXmlParser();
+            parser.setInput(reader);
+
+            String tag;
+            parser.nextTag();
+            while (parser.getEventType() != XmlPullParser.END_DOCUMENT) {
+                tag = parser.getName();
+                String value;
+
+                switch (parser.getEventType()) {
+                    case XmlPullParser.START_TAG:
+                        parser.next();
+                        value = parser.getText();
+
+                        if(parser.getEventType() == XmlPullParser.TEXT) {
+                            if (li.survey.columns.contains(tag)) {
+                                String safeColumnName = ExternalDataUtil.toSafeColumnName(tag, columnNamesCache);
+                                currentForm.values.put(safeColumnName, value);
+                            }
+                        } else if(parser.getEventType() == XmlPullParser.START_TAG) {
+                            if (!tag.equals("main")) {   // Top level form main already has a form definition which is an entry point to the graph
+                                FormData subFormData = new FormData();
+                                formDataStack.push(currentForm);
+                                currentForm = subFormData;
+                                currentForm.name = tag;
+                            }
+                        }
+                        break;
+
+                    case XmlPullParser.END_TAG:
+                        if(tag.equals(currentForm.name) && !formDataStack.empty()) {
+                            FormData completedForm = currentForm;
+                            currentForm = formDataStack.pop();
+                            if(completedForm.values.size() > 0 || completedForm.subForms.size() > 0) {  // Add if not empty
+                                currentForm.subForms.add(completedForm);
+                            }
+                        }
+                        parser.next();
+                        break;
+                    default:
+                        parser.next();
+                        break;
+                }
 
+            }
+        }
 
+        // Convert FormData structure into records
+        addNode(data, fd, new ContentValues());
+        return data;
     }
 
     /*
-     * Get the instances of the linked surveys
+     * Get the finalised instances of the linked surveys grouped by the table their data is added to
      */
-    private ArrayList<LinkedInstance> getLinkedInstances(HashMap<String, LinkedSurvey> surveys) {
-        ArrayList<LinkedInstance> instances = new ArrayList<>();
+    private Map<String, List<LinkedInstance>> getLinkedInstances(HashMap<String, LinkedSurvey> surveys) {
+        Map<String, List<LinkedInstance>> instances = new HashMap<>();
 
         InstancesDao instancesDao = new InstancesDao();
         try (Cursor cursor = instancesDao.getFinalizedDateOrderInstancesCursor()) {
@@ -174,15 +246,17 @@ public class LocalDataManagerSmap {
                 cursor.moveToPosition(-1);
                 while (cursor.moveToNext()) {
                     String surveyName =  cursor.getString(cursor.getColumnIndex(InstanceProviderAPI.InstanceColumns.JR_FORM_ID));
-                    LinkedInstance li = new LinkedInstance();
-                    li.survey = surveys.get(surveyName);
-                    if(li.survey != null) {
+                    LinkedSurvey survey = surveys.get(surveyName);
+                    if(survey != null) {
                         // Need to process this survey
-                        li.instanceFilePath = cursor.getString(cursor.getColumnIndex(InstanceProviderAPI.InstanceColumns.INSTANCE_FILE_PATH));
-                        instances.add(li);
-                        Timber.i("xxxxxxxxxxxxxxxxxxx: %s", li.instanceFilePath);
-                    } else {
-                        Timber.i("xxxxxxxxxxxxxxxxxx: Survey " + surveyName + " is not referenced");
+                        LinkedInstance li = getLinkedInstance(cursor);
+                        li.survey = survey;
+                        List<LinkedInstance> tableInstances = instances.get(survey.tableName);
+                        if (tableInstances == null) {
+                            tableInstances = new ArrayList<>();
+                            instances.put(survey.tableName, tableInstances);
+                        }
+                        tableInstances.add(li);
                     }
                 }
             }
@@ -192,6 +266,45 @@ public class LocalDataManagerSmap {
         return instances;
     }
 
+    private LinkedInstance getLinkedInstance(Cursor cursor) {
+        LinkedInstance li = new LinkedInstance();
+        li.instanceFilePath = cursor.getString(cursor.getColumnIndex(InstanceProviderAPI.InstanceColumns.INSTANCE_FILE_PATH));
+        li.status = cursor.getString(cursor.getColumnIndex(InstanceProviderAPI.InstanceColumns.STATUS));
+        int actFinishIndex = cursor.getColumnIndex(InstanceProviderAPI.InstanceColumns.T_ACT_FINISH);
+        li.actFinish = actFinishIndex < 0 || cursor.isNull(actFinishIndex) ? 0 : cursor.getLong(actFinishIndex);
+
+        String absPath = getAbsoluteFilePath(new StoragePathProvider().getDirPath(StorageSubdirectory.INSTANCES), li.instanceFilePath);
+        li.lastModified = new File(absPath).lastModified();
+        return li;
+    }
+
+    /*
+     * The same instances are searched as those returned by getFinalizedDateOrderInstancesCursor()
+     */
+    private boolean isSearchable(String status) {
+        return Instance.STATUS_COMPLETE.equals(status) || Instance.STATUS_SUBMISSION_FAILED.equals(status);
+    }
+
+    /*
+     * Get the media directories of the versions of a form that search local data
+     */
+    private List<File> getLocalDataMediaDirs(String jrFormId) {
+        List<File> dirs = new ArrayList<>();
+        String formsDir = new StoragePathProvider().getDirPath(StorageSubdirectory.FORMS);
+        try (Cursor cursor = new FormsDao().getFormsCursorForFormId(jrFormId)) {
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    String searchLocalData = cursor.getString(cursor.getColumnIndex(FormsColumns.SEARCH_LOCAL_DATA));
+                    String mediaPath = cursor.getString(cursor.getColumnIndex(FormsColumns.FORM_MEDIA_PATH));
+                    if ("yes".equals(searchLocalData) && mediaPath != null) {
+                        dirs.add(new File(getAbsoluteFilePath(formsDir, mediaPath)));
+                    }
+                }
+            }
+        }
+        return dirs;
+    }
+
     /*
      * Recursively convert nodes into records
      */
@@ -8,7 +8,10 @@ import org.javarosa.core.reference.RootTranslator;
 import org.kxml2.kdom.Element;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.dao.SmapFileHashDao;
 import org.odk.collect.android.database.DatabaseFormsRepository;
+import org.odk.collect.android.external.ExternalDataImportListener;
+import org.odk.collect.android.external.ExternalDataUtil;
 import org.odk.collect.android.formmanagement.ServerFormDetails;
 import org.odk.collect.android.forms.Form;
 import org.odk.collect.android.forms.FormsRepository;
@@ -38,9 +41,16 @@ import java.io.OutputStream;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import timber.log.Timber;
 
@@ -55,9 +65,18 @@ public class MultiFormDownloaderSmap {
     private static final String MD5_COLON_PREFIX = "md5:";
     private static final String TEMP_DOWNLOAD_EXTENSION = ".tempDownload";
 
+    private static final int FORM_PARALLELISM = 2;      // smap Number of forms downloaded at once
+    private static final int MEDIA_PARALLELISM = 4;     // smap Number of media files downloaded at once across all forms
+
     private final FormListApiSmap formListApi;
     private final FormsRepositorySmap formsRepository;
 
+    private final Object formLock = new Object();                                               // smap
+    private final ConcurrentHashMap<String, Object> orgFileLocks = new ConcurrentHashMap<>();   // smap
+    private final AtomicInteger tempDirCount = new AtomicInteger();                             // smap
+    private ExecutorService mediaExecutor;                                                      // smap
+    private final SmapFileHashDao fileHashDao = new SmapFileHashDao();                          // smap
+
     public MultiFormDownloaderSmap(OpenRosaXmlFetcher openRosaXmlFetcher) {
         this.formsRepository = new DatabaseFormsRepositorySmap();
         formListApi = new OpenRosaFormListApiSmap(openRosaXmlFetcher);
@@ -84,28 +103,68 @@ public class MultiFormDownloaderSmap {
         }
     }
 
+    /*
+     * smap
+     * Forms are downloaded in parallel and the media files for each form are downloaded in parallel
+     * using a separate pool of workers shared by all of the forms
+     */
     public HashMap<ServerFormDetailsSmap, String> downloadForms(List<ServerFormDetailsSmap> toDownload, FormDownloaderListener stateListener) {
-        int total = toDownload.size();
-        int count = 1;
+        final int total = toDownload.size();
 
         final HashMap<ServerFormDetailsSmap, String> result = new HashMap<>();
+        if (total == 0) {
+            return result;
+        }
 
-        for (ServerFormDetailsSmap fd : toDownload) {
-            boolean downloaded = false;
-            try {
-                downloaded = processOneForm(total, count++, fd, stateListener);
-                if (downloaded) {
-                    result.put(fd, Collect.getInstance().getString(org.odk.collect.strings.R.string.success));
+        ExecutorService formExecutor = Executors.newFixedThreadPool(Math.min(FORM_PARALLELISM, total));
+        mediaExecutor = Executors.newFixedThreadPool(MEDIA_PARALLELISM);
+
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            int count = 1;
+            for (ServerFormDetailsSmap fd : toDownload) {
+                final int formCount = count++;
+                futures.add(formExecutor.submit(() -> {
+                    try {
+                        boolean downloaded = processOneForm(total, formCount, fd, stateListener);
+                        if (downloaded) {
+                            synchronized (result) {
+                                result.put(fd, Collect.getInstance().getString(org.odk.collect.strings.R.string.success));
+                            }
+                        }
+                    } catch (TaskCancelledException cd) {
+                        throw cd;
+                    } catch (Exception e) {
+                        Timber.e(e);
+                        synchronized (result) {
+                            result.put(fd, Collect.getInstance().getString(org.odk.collect.strings.R.string.failure) + ": " + e.getMessage());
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof TaskCancelledException) {
+                        break;      // do not wait for additional forms
+                    }
+                    Timber.e(e);
                 }
-            } catch (TaskCancelledException cd) {
-                break;
-            } catch(Exception e) {
-                Timber.e(e);
-                result.put(fd, Collect.getInstance().getString(org.odk.collect.strings.R.string.failure) + ": " + e.getMessage());
             }
+        } catch (InterruptedException e) {
+            Timber.i(e);
+            Thread.currentThread().interrupt();
+        } finally {
+            formExecutor.shutdownNow();
+            mediaExecutor.shutdownNow();
         }
 
-        return result;
+        synchronized (result) {
+            return new HashMap<>(result);
+        }
     }
 
     /**
@@ -124,7 +183,7 @@ public class MultiFormDownloaderSmap {
         }
 
         String tempMediaPath = new File(new StoragePathProvider().getDirPath(StorageSubdirectory.CACHE),
-                String.valueOf(System.currentTimeMillis())).getAbsolutePath();
+                System.currentTimeMillis() + "_" + tempDirCount.incrementAndGet()).getAbsolutePath();    // smap unique when forms are downloaded in parallel
         String orgTempMediaPath = new File(tempMediaPath + "_org").getAbsolutePath();      // smap
         String orgMediaPath = Utilities.getOrgMediaPath();  ;          // smap
         String finalMediaPath = null;
@@ -144,29 +203,30 @@ public class MultiFormDownloaderSmap {
             if (fileResult == null || !fileResult.file.exists()) {
                 throw new Exception("Downloaded xml file does not exist");
             } else {
-
-                // Add a stub last-saved instance to the tmp media directory so it will be resolved
-                // when parsing a form definition with last-saved reference
-                File tmpLastSaved = new File(tempMediaPath, LAST_SAVED_FILENAME);
-                write(tmpLastSaved, STUB_XML.getBytes(Charset.forName("UTF-8")));
-                ReferenceManager.instance().reset();
-                ReferenceManager.instance().addReferenceFactory(new FileReferenceFactory(tempMediaPath));
-                ReferenceManager.instance().addSessionRootTranslator(new RootTranslator("jr://file-csv/", "jr://file/"));
-
-                Map<String, String> parsedFields = FileUtils.getMetadataFromFormDefinition(fileResult.file);
-
-                ReferenceManager.instance().reset();
-                FileUtils.deleteAndReport(tmpLastSaved);
-
-                /*
-                 * Store result in database
-                 */
-                UriResult uriResult = findExistingOrCreateNewUri(fileResult.file, parsedFields,
-                        STFileUtils.getSource(fd.getDownloadUrl()),
-                        fd.getTasksOnly(),
-                        fd.getReadOnly(),
-                        fd.getSearchLocalData(),
-                        fd.getProject());  // smap add source, tasks_only, searchLocalData,project
+                synchronized (formLock) {    // smap the reference manager is shared so parse one form at a time
+                    // Add a stub last-saved instance to the tmp media directory so it will be resolved
+                    // when parsing a form definition with last-saved reference
+                    File tmpLastSaved = new File(tempMediaPath, LAST_SAVED_FILENAME);
+                    write(tmpLastSaved, STUB_XML.getBytes(Charset.forName("UTF-8")));
+                    ReferenceManager.instance().reset();
+                    ReferenceManager.instance().addReferenceFactory(new FileReferenceFactory(tempMediaPath));
+                    ReferenceManager.instance().addSessionRootTranslator(new RootTranslator("jr://file-csv/", "jr://file/"));
+
+                    Map<String, String> parsedFields = FileUtils.getMetadataFromFormDefinition(fileResult.file);
+
+                    ReferenceManager.instance().reset();
+                    FileUtils.deleteAndReport(tmpLastSaved);
+
+                    /*
+                     * Store result in database
+                     */
+                    UriResult uriResult = findExistingOrCreateNewUri(fileResult.file, parsedFields,
+                            STFileUtils.getSource(fd.getDownloadUrl()),
+                            fd.getTasksOnly(),
+                            fd.getReadOnly(),
+                            fd.getSearchLocalData(),
+                            fd.getProject());  // smap add source, tasks_only, searchLocalData,project
+                }
             }
 
             /*
@@ -184,13 +244,17 @@ public class MultiFormDownloaderSmap {
                 if (error != null && !error.isEmpty()) {
                     throw new Exception("Error: " + error);
                 }
+
+                importExternalData(mediaPath, fd, count, total, stateListener);     // smap
             }
 
             cleanUp(null, null, null, tempMediaPath, orgTempMediaPath);     // clear temp directories only
 
         } catch (TaskCancelledException e) {
             Timber.i(e);
-            ReferenceManager.instance().reset();    // smap ensure reference manager reset after error
+            synchronized (formLock) {
+                ReferenceManager.instance().reset();    // smap ensure reference manager reset after error
+            }
             cleanUp(fileResult, null, finalMediaPath, tempMediaPath, orgTempMediaPath);             // clear all directories
             throw e;        // do not download additional forms.
         }
@@ -460,7 +524,6 @@ public class MultiFormDownloaderSmap {
 
         // OK we now have the full set of files to download...
         Timber.i("Downloading %d media files.", files.size());
-        int mediaCount = 0;
         if (files != null && !files.isEmpty()) {
             File tempMediaDir = new File(tempMediaPath);
             File finalMediaDir = new File(finalMediaPath);
@@ -472,80 +535,158 @@ public class MultiFormDownloaderSmap {
             FileUtils.checkMediaPath(orgTempMediaDir);          // smap
             FileUtils.checkMediaPath(orgMediaDir);              // smap
 
+            final List<MediaFile> mediaFiles = files;
+            AtomicInteger mediaCount = new AtomicInteger();
+            List<Future<Void>> futures = new ArrayList<>();
             for (MediaFile toDownload : files) {
+                futures.add(mediaExecutor.submit(() -> {
+                    if (toDownload.getDownloadUrl().endsWith("organisation")) {
+                        // Organisation files are shared between forms so only one form can update each file at a time
+                        synchronized (orgFileLocks.computeIfAbsent(toDownload.getFilename(), k -> new Object())) {
+                            downloadMediaFile(toDownload, mediaFiles.size(), mediaCount, fd, count, total, stateListener,
+                                    tempMediaDir, finalMediaDir, orgTempMediaDir, orgMediaDir);
+                        }
+                    } else {
+                        downloadMediaFile(toDownload, mediaFiles.size(), mediaCount, fd, count, total, stateListener,
+                                tempMediaDir, finalMediaDir, orgTempMediaDir, orgMediaDir);
+                    }
+                    return null;
+                }));
+            }
 
-                File finalMediaFile = null;
-                File tempMediaFile = null;
-                if(toDownload.getDownloadUrl().endsWith("organisation")) {
-                    finalMediaFile = new File(orgMediaDir, toDownload.getFilename());
-                    tempMediaFile = new File(orgTempMediaDir, toDownload.getFilename());
-                } else {
-                    finalMediaFile = new File(finalMediaDir, toDownload.getFilename());
-                    tempMediaFile = new File(tempMediaDir, toDownload.getFilename());
+            // Wait for all of the files, stop the remaining downloads on the first error
+            try {
+                for (Future<Void> future : futures) {
+                    future.get();
                 }
+            } catch (ExecutionException e) {
+                for (Future<Void> future : futures) {
+                    future.cancel(true);
+                }
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+        }
+        if(downloadMsg.length() > 0) {      // smap
+            return downloadMsg.toString();
+        } else {
+            return null;
+        }
+    }
 
-                /*
-                 * Test to see if we need to re-download this file
-                 */
-                boolean needToDownload;
-                if (!finalMediaFile.exists()) {
-                    needToDownload = true;
-                } else {
-                    String currentFileHash = FileUtils.getMd5Hash(finalMediaFile);
-                    String downloadFileHash = getMd5Hash(toDownload.getHash());
-
-                    if (currentFileHash != null && downloadFileHash != null && !currentFileHash.contentEquals(downloadFileHash)) {
-                        needToDownload = true;
-                    } else {
-                        needToDownload = false;
+    /*
+     * smap
+     * Download a single media file unless the existing copy is up to date
+     */
+    private void downloadMediaFile(MediaFile toDownload, int nFiles, AtomicInteger mediaCount,
+                                   ServerFormDetailsSmap fd, int count, int total, FormDownloaderListener stateListener,
+                                   File tempMediaDir, File finalMediaDir, File orgTempMediaDir, File orgMediaDir) throws Exception {
 
-                        // exists, and the hash is the same no need to download it again
-                        Timber.i("Skipping media file fetch -- file hashes identical: %s",
-                                finalMediaFile.getAbsolutePath());
-                    }
-                }
+        if (stateListener != null && stateListener.isTaskCancelled()) {
+            throw new TaskCancelledException();
+        }
 
-                /*
-                 * Download the media
-                 */
-                if(needToDownload) {
+        File finalMediaFile = null;
+        File tempMediaFile = null;
+        if(toDownload.getDownloadUrl().endsWith("organisation")) {
+            finalMediaFile = new File(orgMediaDir, toDownload.getFilename());
+            tempMediaFile = new File(orgTempMediaDir, toDownload.getFilename());
+        } else {
+            finalMediaFile = new File(finalMediaDir, toDownload.getFilename());
+            tempMediaFile = new File(tempMediaDir, toDownload.getFilename());
+        }
 
-                    // Report progress
-                    ++mediaCount;
-                    if (stateListener != null) {
-                        stateListener.progressUpdate(
-                                Collect.getInstance().getString(org.odk.collect.strings.R.string.form_download_progress,
-                                        fd.getFormName(),
-                                        String.valueOf(mediaCount), String.valueOf(files.size())),
-                                String.valueOf(count), String.valueOf(total));
-                    }
+        /*
+         * Test to see if we need to re-download this file
+         */
+        boolean needToDownload;
+        if (!finalMediaFile.exists()) {
+            needToDownload = true;
+        } else {
+            String currentFileHash = fileHashDao.getMd5Hash(finalMediaFile);     // smap only re-hash changed files
+            String downloadFileHash = getMd5Hash(toDownload.getHash());
 
-                    // Delete existing
-                    if (finalMediaFile.exists()) {
-                        FileUtils.deleteAndReport(finalMediaFile);
-                    }
+            if (currentFileHash != null && downloadFileHash != null && !currentFileHash.contentEquals(downloadFileHash)) {
+                needToDownload = true;
+            } else {
+                needToDownload = false;
 
-                    // Download
-                    InputStream mediaFile = formListApi.fetchMediaFile(toDownload.getDownloadUrl(), true);  // smap add credentials file
-                    writeFile(tempMediaFile, stateListener, mediaFile);
+                // exists, and the hash is the same no need to download it again
+                Timber.i("Skipping media file fetch -- file hashes identical: %s",
+                        finalMediaFile.getAbsolutePath());
+            }
+        }
 
-                    deleteOldFile(tempMediaFile.getName(), finalMediaDir);
-                    if (toDownload.getDownloadUrl().endsWith("organisation")) {
-                        org.apache.commons.io.FileUtils.copyFileToDirectory(tempMediaFile, finalMediaDir, false);
-                        org.apache.commons.io.FileUtils.moveFileToDirectory(tempMediaFile, orgMediaDir, true);  // Save copy in org directory
-                    } else {
-                        org.apache.commons.io.FileUtils.moveFileToDirectory(tempMediaFile, finalMediaDir, true);
+        /*
+         * Download the media
+         */
+        if(needToDownload) {
+
+            // Report progress
+            int mediaNumber = mediaCount.incrementAndGet();
+            if (stateListener != null) {
+                stateListener.progressUpdate(
+                        Collect.getInstance().getString(org.odk.collect.strings.R.string.form_download_progress,
+                                fd.getFormName(),
+                                String.valueOf(mediaNumber), String.valueOf(nFiles)),
+                        String.valueOf(count), String.valueOf(total));
+            }
+
+            // Delete existing
+            if (finalMediaFile.exists()) {
+                FileUtils.deleteAndReport(finalMediaFile);
+                fileHashDao.remove(finalMediaFile);     // smap
+            }
+
+            // Download
+            InputStream mediaFile = formListApi.fetchMediaFile(toDownload.getDownloadUrl(), true);  // smap add credentials file
+            writeFile(tempMediaFile, stateListener, mediaFile);
+
+            deleteOldFile(tempMediaFile.getName(), finalMediaDir);
+            if (toDownload.getDownloadUrl().endsWith("organisation")) {
+                org.apache.commons.io.FileUtils.copyFileToDirectory(tempMediaFile, finalMediaDir, false);
+                org.apache.commons.io.FileUtils.moveFileToDirectory(tempMediaFile, orgMediaDir, true);  // Save copy in org directory
+            } else {
+                org.apache.commons.io.FileUtils.moveFileToDirectory(tempMediaFile, finalMediaDir, true);
+            }
+        } else if (toDownload.getDownloadUrl().endsWith("organisation")) {
+            // Get latest copy of file in organsiation shared directory
+            org.apache.commons.io.FileUtils.copyFileToDirectory(finalMediaFile, finalMediaDir, false);
+        }
+    }
+
+    /*
+     * smap
+     * Create the databases for the form's CSV files now rather than when the form is first opened
+     * A failed import does not fail the download, the import is attempted again when the form is opened
+     *  which will then report the error
+     */
+    private void importExternalData(String mediaPath, ServerFormDetailsSmap fd, int count, int total,
+                                    FormDownloaderListener stateListener) throws TaskCancelledException {
+        try {
+            ExternalDataUtil.importExternalData(new File(mediaPath), new ExternalDataImportListener() {
+                @Override
+                public void publishExternalDataLoadingProgress(String message) {
+                    if (stateListener != null) {
+                        stateListener.progressUpdate(fd.getFormName() + ": " + message,
+                                String.valueOf(count), String.valueOf(total));
                     }
-                } else if (toDownload.getDownloadUrl().endsWith("organisation")) {
-                    // Get latest copy of file in organsiation shared directory
-                    org.apache.commons.io.FileUtils.copyFileToDirectory(finalMediaFile, finalMediaDir, false);
                 }
-            }
+
+                @Override
+                public boolean isCancelled() {
+                    return stateListener != null && stateListener.isTaskCancelled();
+                }
+            });
+        } catch (Exception e) {
+            Timber.e(e, "Failed to import external data for %s", fd.getFormName());
         }
-        if(downloadMsg.length() > 0) {      // smap
-            return downloadMsg.toString();
-        } else {
-            return null;
+
+        if (stateListener != null && stateListener.isTaskCancelled()) {
+            throw new TaskCancelledException();
         }
     }
 
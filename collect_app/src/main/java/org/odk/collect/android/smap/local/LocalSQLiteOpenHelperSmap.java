@@ -1,7 +1,7 @@
-
 package org.odk.collect.android.smap.local;
 
 import android.content.ContentValues;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
@@ -9,65 +9,109 @@ import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.database.DatabaseContext;
 import org.odk.collect.android.exception.ExternalDataException;
+import org.odk.collect.android.external.ExternalDataResultCache;
 import org.odk.collect.android.external.ExternalDataUtil;
+import org.odk.collect.android.taskModel.LinkedInstance;
 import org.odk.collect.android.tasks.FormLoaderTask;
 import org.odk.collect.android.utilities.SQLiteUtils;
 import org.odk.collect.android.utilities.TranslationHandler;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Author: Smap Consulting
  * Date: 22/03/2021
+ *
+ * The local data for each instance is stored with the path of the instance and the instances that have
+ *  been added are recorded in a separate table so that only new or changed instances need to be read.
  */
 public class LocalSQLiteOpenHelperSmap extends SQLiteOpenHelper {
 
     private static final int VERSION = 1;
-    private double sortIdx;
+
+    public static final String INSTANCES_TABLE_NAME = "localInstances";
+    private static final String INSTANCE_PATH = "path";
+    private static final String INSTANCE_VERSION = "version";
+    private static final int ROWS_PER_INSTANCE = 1000;     // Sort values are reserved for the rows of each instance
 
     private FormLoaderTask formLoaderTask;
+    private final File dbFile;
 
     public LocalSQLiteOpenHelperSmap(File dbFile) {
         super(new DatabaseContext(dbFile.getParentFile().getAbsolutePath()), dbFile.getName(), null, VERSION);
-        sortIdx = 0.0;
+        this.dbFile = dbFile;
     }
 
-    // Add local data
-    public void append(ArrayList<ContentValues> data, FormLoaderTask formLoaderTask) throws java.lang.Exception {
-        this.formLoaderTask = formLoaderTask;
+    /*
+     * Get the instances whose data has been added, the value is the version of the instance that was added
+     */
+    public Map<String, String> getIndexedInstances() throws java.lang.Exception {
+        Map<String, String> instances = new HashMap<>();
 
         SQLiteDatabase db = null;
         try {
             db = getWritableDatabase();
+            prepare(db);
 
-            appendLocal(db, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, data);
+            try (Cursor c = db.query(INSTANCES_TABLE_NAME, new String[] {INSTANCE_PATH, INSTANCE_VERSION},
+                    null, null, null, null, null)) {
+                while (c.moveToNext()) {
+                    instances.put(c.getString(0), c.getString(1));
+                }
+            }
         } finally {
             if (db != null) {
                 db.close();
             }
         }
+        return instances;
     }
 
-    // Delete local data
-    public void deleteLocal(FormLoaderTask formLoaderTask) throws java.lang.Exception {
+    /*
+     * Replace the local data of changed instances and remove the data of instances that are no longer searched
+     * The data of each changed instance is in the data map keyed by the instance path
+     */
+    public void update(List<LinkedInstance> changed, Map<String, ArrayList<ContentValues>> data,
+                       Collection<String> removed, FormLoaderTask formLoaderTask) throws java.lang.Exception {
         this.formLoaderTask = formLoaderTask;
 
         SQLiteDatabase db = null;
         try {
             db = getWritableDatabase();
+            prepare(db);
 
-            // make sure the local column exists - it may not if the user has just upgraded from an older version of fieldTask
-            SQLiteUtils.addColumn(db, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, ExternalDataUtil.LOCAL_COLUMN_NAME, "integer");
-
-            // Delete existing local data
-            String selection = ExternalDataUtil.LOCAL_COLUMN_NAME + " = 1";
-            db.delete(ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, selection, null);
+            if (!changed.isEmpty()) {
+                onProgress(TranslationHandler.getString(Collect.getInstance(), R.string.smap_local_data));
+            }
 
+            db.beginTransaction();
+            try {
+                for (String path : removed) {
+                    deleteInstance(db, path);
+                }
+                for (LinkedInstance li : changed) {
+                    deleteInstance(db, li.instanceFilePath);
+                    appendLocal(db, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, li, data.get(li.instanceFilePath));
+
+                    ContentValues values = new ContentValues();
+                    values.put(INSTANCE_PATH, li.instanceFilePath);
+                    values.put(INSTANCE_VERSION, li.getVersion());
+                    db.insertOrThrow(INSTANCES_TABLE_NAME, null, values);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
         } finally {
             if (db != null) {
                 db.close();
             }
+            ExternalDataResultCache.invalidate(dbFile);   // Cached search results may no longer be valid
         }
     }
 
@@ -78,12 +122,44 @@ public class LocalSQLiteOpenHelperSmap extends SQLiteOpenHelper {
                 TranslationHandler.getString(Collect.getInstance(), R.string.smap_local_data));
     }
 
-    private void appendLocal(SQLiteDatabase db, String tableName, ArrayList<ContentValues> data) throws Exception {
+    /*
+     * Make sure the local data columns and the table of instances exist
+     * They may not if the user has just upgraded from an older version of fieldTask or the CSV file has
+     *  been imported again
+     */
+    private void prepare(SQLiteDatabase db) {
+        SQLiteUtils.addColumn(db, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, ExternalDataUtil.LOCAL_COLUMN_NAME, "integer");
+        SQLiteUtils.addColumn(db, ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, ExternalDataUtil.INSTANCE_COLUMN_NAME, "text");
+
+        if (!SQLiteUtils.doesTableExist(db, INSTANCES_TABLE_NAME)) {
+            // Local data added before instances were recorded is deleted and added again
+            db.delete(ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, ExternalDataUtil.LOCAL_COLUMN_NAME + " = 1", null);
+            db.execSQL("CREATE TABLE " + INSTANCES_TABLE_NAME + " ("
+                    + INSTANCE_PATH + " text primary key, "
+                    + INSTANCE_VERSION + " text)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + ExternalDataUtil.INSTANCE_COLUMN_NAME + "_idx ON "
+                    + ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME + " (" + ExternalDataUtil.INSTANCE_COLUMN_NAME + ")");
+        }
+    }
 
-        onProgress(TranslationHandler.getString(Collect.getInstance(), R.string.smap_local_data));
+    private void deleteInstance(SQLiteDatabase db, String path) {
+        String[] args = {path};
+        db.delete(ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, ExternalDataUtil.LOCAL_COLUMN_NAME + " = 1 and "
+                + ExternalDataUtil.INSTANCE_COLUMN_NAME + " = ?", args);
+        db.delete(INSTANCES_TABLE_NAME, INSTANCE_PATH + " = ?", args);
+    }
 
+    /*
+     * Local data is sorted before the CSV data with the most recently finalised instance first
+     */
+    private void appendLocal(SQLiteDatabase db, String tableName, LinkedInstance li, ArrayList<ContentValues> data) {
+        if (data == null) {
+            return;
+        }
+        double sortIdx = -((double) li.actFinish * ROWS_PER_INSTANCE);
         for (ContentValues values : data) {
             values.put(ExternalDataUtil.LOCAL_COLUMN_NAME, 1);    // Set local indicator
+            values.put(ExternalDataUtil.INSTANCE_COLUMN_NAME, li.instanceFilePath);
             values.put(ExternalDataUtil.SORT_COLUMN_NAME, sortIdx--);
             db.insertOrThrow(tableName, null, values);
         }
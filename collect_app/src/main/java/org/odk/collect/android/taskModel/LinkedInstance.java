@@ -3,4 +3,14 @@ package org.odk.collect.android.taskModel;
 public class LinkedInstance {
     public LinkedSurvey survey;
     public String instanceFilePath;
+    public String status;
+    public long lastModified;       // Modification time of the instance file
+    public long actFinish;          // Time the instance was finalised, used to sort the local data
+
+    /*
+     * Identifies the version of the instance that was added to the local data
+     */
+    public String getVersion() {
+        return lastModified + ":" + status;
+    }
 }
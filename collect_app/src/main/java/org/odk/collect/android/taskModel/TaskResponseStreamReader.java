@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2011 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.taskModel;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.odk.collect.android.database.TaskResponseAssignment;
+import org.odk.collect.android.database.TrAssignment;
+import org.odk.collect.android.database.TrTask;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Set;
+
+import timber.log.Timber;
+
+/*
+ * Read the response to a task refresh directly off the http stream
+ * Only one task assignment is held in memory at a time.  Each assignment is written to a spool file
+ *  as it is read so that it can be applied after the forms have been synchronised.  A lightweight
+ *  copy of each assignment, containing just the identifiers, is kept in taskAssignments as these are
+ *  needed to reject obsolete tasks at the end of the synchronisation.
+ */
+public class TaskResponseStreamReader {
+
+    public interface AssignmentHandler {
+        void process(TaskResponseAssignment ta, int index) throws Exception;
+    }
+
+    private final Gson gson;
+    private final File spoolFile;
+    private int assignmentCount;
+
+    public TaskResponseStreamReader(Gson gson, File spoolFile) {
+        this.gson = gson;
+        this.spoolFile = spoolFile;
+    }
+
+    /*
+     * Parse the response
+     * Throws an exception containing the message if the server returned a plain string such as "Unauthorized"
+     */
+    public TaskResponse read(InputStream in) throws Exception {
+
+        TaskResponse tr = new TaskResponse();
+        tr.taskAssignments = new ArrayList<>();
+        assignmentCount = 0;
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        reader.setLenient(true);
+
+        if (reader.peek() == JsonToken.STRING) {
+            throw new Exception(reader.nextString());
+        }
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "data":
+                    readAssignments(reader, tr);
+                    break;
+                case "forms":
+                    tr.forms = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        tr.forms.add(gson.fromJson(reader, FormLocator.class));
+                    }
+                    reader.endArray();
+                    break;
+                case "refSurveys":
+                    tr.refSurveys = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        tr.refSurveys.add(gson.fromJson(reader, ReferenceSurvey.class));
+                    }
+                    reader.endArray();
+                    break;
+                case "settings":
+                    tr.settings = gson.fromJson(reader, FieldTaskSettings.class);
+                    break;
+                case "orgs":
+                    Type setType = new TypeToken<Set<String>>() {}.getType();
+                    tr.orgs = gson.fromJson(reader, setType);
+                    break;
+                case "message":
+                    tr.message = reader.nextString();
+                    break;
+                case "status":
+                    tr.status = reader.nextString();
+                    break;
+                case "version":
+                    tr.version = reader.nextInt();
+                    break;
+                case "deviceId":
+                    tr.deviceId = reader.nextString();
+                    break;
+                case "time_difference":
+                    tr.time_difference = reader.nextLong();
+                    break;
+                case "current_org":
+                    tr.current_org = reader.nextString();
+                    break;
+                default:
+                    reader.skipValue();     // Not used by the device
+            }
+        }
+        reader.endObject();
+
+        Timber.i("Streamed %d task assignments", assignmentCount);
+        return tr;
+    }
+
+    /*
+     * Replay the spooled assignments in the order they were received
+     */
+    public void forEachAssignment(AssignmentHandler handler) throws Exception {
+        if (assignmentCount == 0) {
+            return;
+        }
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(spoolFile), StandardCharsets.UTF_8))) {
+            String line;
+            int index = 0;
+            while ((line = br.readLine()) != null) {
+                TaskResponseAssignment ta = gson.fromJson(line, TaskResponseAssignment.class);
+                handler.process(ta, index++);
+            }
+        }
+    }
+
+    public int getAssignmentCount() {
+        return assignmentCount;
+    }
+
+    /*
+     * Remove the spool file
+     */
+    public void close() {
+        if (spoolFile.exists() && !spoolFile.delete()) {
+            Timber.i("Failed to delete task spool file: %s", spoolFile.getAbsolutePath());
+        }
+    }
+
+    private void readAssignments(JsonReader reader, TaskResponse tr) throws IOException {
+        try (Writer spool = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spoolFile), StandardCharsets.UTF_8))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                JsonElement element = JsonParser.parseReader(reader);
+
+                // Write the raw json so that dates are parsed by the same deserializer when replayed
+                spool.write(element.toString());
+                spool.write('\n');
+
+                TaskResponseAssignment ta = gson.fromJson(element, TaskResponseAssignment.class);
+                if (ta == null || ta.task == null || ta.assignment == null) {
+                    throw new JsonSyntaxException("Invalid task assignment at index " + assignmentCount);
+                }
+                tr.taskAssignments.add(getKey(ta));
+                assignmentCount++;
+            }
+            reader.endArray();
+        }
+    }
+
+    /*
+     * Get a copy of the assignment that only contains the identifying attributes
+     */
+    private TaskResponseAssignment getKey(TaskResponseAssignment ta) {
+        TaskResponseAssignment key = new TaskResponseAssignment();
+        key.assignment = new TrAssignment();
+        key.assignment.assignment_id = ta.assignment.assignment_id;
+        key.task = new TrTask();
+        key.task.id = ta.task.id;
+        key.task.title = ta.task.title;
+        key.task.type = ta.task.type;
+        key.task.update_id = ta.task.update_id;
+        return key;
+    }
+}
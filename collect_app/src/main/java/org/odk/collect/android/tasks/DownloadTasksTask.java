@@ -15,6 +15,7 @@
 package org.odk.collect.android.tasks;
 
 import android.app.PendingIntent;
+import android.content.ContentProviderOperation;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
@@ -44,6 +45,7 @@ import org.odk.collect.android.database.TrAssignment;
 import org.odk.collect.android.database.TaskResponseAssignment;
 import org.odk.collect.android.database.TrTask;
 import org.odk.collect.android.database.TraceUtilities;
+import org.odk.collect.android.external.handler.SmapRemoteDataPrefetcher;
 import org.odk.collect.android.forms.FormsRepository;
 import org.odk.collect.android.instances.Instance;
 import org.odk.collect.android.instances.InstancesRepository;
@@ -57,8 +59,12 @@ import org.odk.collect.android.preferences.AdminSharedPreferences;
 import org.odk.collect.android.preferences.GeneralKeys;
 import org.odk.collect.android.preferences.GeneralSharedPreferences;
 import org.odk.collect.android.preferences.GuidanceHint;
+import org.odk.collect.android.provider.FormsProvider;
 import org.odk.collect.android.provider.FormsProviderAPI;
+import org.odk.collect.android.provider.InstanceProvider;
+import org.odk.collect.android.provider.InstanceProviderAPI;
 import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
+import org.odk.collect.android.provider.TraceProvider;
 import org.odk.collect.android.listeners.TaskDownloaderListener;
 import org.odk.collect.android.loaders.TaskEntry;
 import org.odk.collect.android.smap.formmanagement.MultiFormDownloaderSmap;
@@ -71,7 +77,9 @@ import org.odk.collect.android.storage.StorageSubdirectory;
 import org.odk.collect.android.taskModel.FormLocator;
 import org.odk.collect.android.taskModel.TaskCompletionInfo;
 import org.odk.collect.android.taskModel.TaskResponse;
+import org.odk.collect.android.taskModel.TaskResponseStreamReader;
 import org.odk.collect.android.utilities.ApplicationConstants;
+import org.odk.collect.android.utilities.InitialDataDownloader;
 import org.odk.collect.android.utilities.ManageForm;
 import org.odk.collect.android.utilities.ManageForm.ManageFormDetails;
 import org.odk.collect.android.utilities.ManageFormResponse;
@@ -79,15 +87,18 @@ import org.odk.collect.android.utilities.Utilities;
 import org.odk.collect.android.utilities.WebCredentialsUtils;
 
 import java.io.File;
+import java.io.InputStream;
 import java.lang.reflect.Type;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
@@ -120,6 +131,13 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
     String source = null;                           // Server name
     String taskURL = null;                          // Url to get tasks
     int count;                                      // Record number of deletes
+    TaskResponseStreamReader taskReader = null;     // Streams the response from the server
+    InitialDataDownloader downloader = null;        // Downloads initial data for new tasks in parallel
+
+    private static final String TASK_SPOOL_FILE = "task_assignments.json";
+    private static final int TASK_BATCH_SIZE = 500;        // Maximum number of task changes applied in a single transaction
+    private static final int DEFAULT_PARALLELISM = 4;      // Default maximum number of initial data or lookup downloads in progress at once
+    private static final int TRAIL_CHUNK_SIZE = 1000;      // Maximum number of user trail points sent in one request
 
     @Inject
     OpenRosaHttpInterface httpInterface;
@@ -137,6 +155,20 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
     FormsRepository formsRepository;
     private FormsDao formsDao;
 
+    private static class PendingTask {
+        public final String title;
+        public final String initialData;
+        public final ManageFormResponse mfr;
+        public final int index;
+
+        PendingTask(String title, String initialData, ManageFormResponse mfr, int index) {
+            this.title = title;
+            this.initialData = initialData;
+            this.mfr = mfr;
+            this.index = index;
+        }
+    }
+
     private class TaskStatus {
         public long tid;
         public String status;
@@ -219,6 +251,11 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
                     message.toString().trim(),
                     false);
 
+            // Move the changes made during the sync out of the write ahead logs
+            InstanceProvider.checkpoint();
+            FormsProvider.checkpoint();
+            TraceProvider.checkpoint();
+
             Collect.getInstance().setDownloading(false);
         }
 
@@ -351,14 +388,15 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
                 headers.put("appversion", Collect.getInstance().getString(org.odk.collect.strings.R.string.app_version));
 
                 URI uri = URI.create(taskURL);
-                String resp = httpInterface.getRequest(uri, "application/json", webCredentialsUtils.getCredentials(uri), headers);
                 GsonBuilder gb = new GsonBuilder().registerTypeAdapter(Date.class, new DateDeserializer());
                 gson = gb.create();
 
-                if(resp.equals("Unauthorized")) {
-                    throw new Exception(resp);
+                // Stream the response, task assignments are spooled to disk rather than held in memory
+                taskReader = new TaskResponseStreamReader(gson,
+                        new File(Collect.getInstance().getCacheDir(), TASK_SPOOL_FILE));
+                try (InputStream is = httpInterface.getRequestStream(uri, "application/json", webCredentialsUtils.getCredentials(uri), headers)) {
+                    tr = taskReader.read(is);
                 }
-                tr = gson.fromJson(resp, TaskResponse.class);
                 Timber.i("Message:%s", tr.message);
 
                 // Report time difference
@@ -427,6 +465,13 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
                 SmapReferencesDao refDao = new SmapReferencesDao();
                 refDao.updateReferences(tr.refSurveys);
 
+                if(isCancelled()) { throw new CancelException("cancelled"); }		// Return if the user cancels
+
+                /*
+                 * Download lookup data used by the forms and tasks so that it is available offline
+                 */
+                prefetchRemoteData();
+
 	        } catch(JsonSyntaxException e) {
 
 	        	Timber.e("JSON Syntax Error:" + " for URL " + taskURL);
@@ -446,7 +491,30 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
 	        	publishProgress(msg);
 	        	results.put(Collect.getInstance().getString(R.string.smap_error) + ":", msg );
 
-	        }
+	        } finally {
+                if(taskReader != null) {
+                    taskReader.close();
+                }
+                if(downloader != null) {
+                    downloader.shutdown();
+                }
+            }
+        }
+    }
+
+    /*
+     * Failures are not reported as the lookups will be made again when the form is filled in
+     */
+    private void prefetchRemoteData() {
+        try {
+            long t0 = System.currentTimeMillis();
+            int count = new SmapRemoteDataPrefetcher(httpInterface, webCredentialsUtils, getParallelism(GeneralKeys.KEY_SMAP_REMOTE_DATA_PARALLELISM))
+                    .prefetch(source);
+            Timber.i("Prefetched %d lookup responses in %d ms", count, System.currentTimeMillis() - t0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Timber.e(e);
         }
     }
 
@@ -617,13 +685,14 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
 
         /*
          * Send user trail if enabled
+         * The trail is sent in chunks, each chunk is deleted once the server has accepted it
          */
         boolean sendLocation = (Boolean) GeneralSharedPreferences.getInstance().get(GeneralKeys.KEY_SMAP_USER_LOCATION);
         long lastTraceIdSent = 0;
         if(sendLocation) {
-            // Get Points
+            removeAcknowledgedTrail();      // In case the previous upload was interrupted
             updateResponse.userTrail = new ArrayList<>(100);
-            lastTraceIdSent = TraceUtilities.getPoints(updateResponse.userTrail, 10000, false);
+            lastTraceIdSent = TraceUtilities.getPoints(updateResponse.userTrail, TRAIL_CHUNK_SIZE, false);
         }
 
         Collect.getInstance().setSavedLocation(null);
@@ -635,23 +704,75 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
             publishProgress(Collect.getInstance().getString(R.string.smap_update_task_status));
 
             URI uri = URI.create(taskURL);
-            try {
-                // OOM
-                httpInterface.uploadTaskStatus(updateResponse, uri, webCredentialsUtils.getCredentials(uri));
-            } catch (Exception e) {
-                results.put(Collect.getInstance().getString(R.string.smap_get_tasks),
-                        e.getMessage());
-                throw new Exception(e.getMessage());
-            }
-
+            uploadTaskStatus(updateResponse, uri);
 
             for (TaskResponseAssignment ta : updateResponse.taskAssignments) {
                 Utilities.setTaskSynchronized(ta.assignment.dbId);        // Mark the task status as synchronised
             }
-            TraceUtilities.deleteSource(lastTraceIdSent);
+            acknowledgeTrail(lastTraceIdSent);
+
+            // Send the rest of the trail
+            while (updateResponse.userTrail != null && updateResponse.userTrail.size() == TRAIL_CHUNK_SIZE) {
+                if(isCancelled()) { throw new CancelException("cancelled"); }
+
+                TaskResponse trailResponse = new TaskResponse();
+                trailResponse.deviceId = updateResponse.deviceId;
+                trailResponse.taskAssignments = new ArrayList<>();
+                trailResponse.userTrail = new ArrayList<>(100);
+                lastTraceIdSent = TraceUtilities.getPoints(trailResponse.userTrail, TRAIL_CHUNK_SIZE, false);
+                if (trailResponse.userTrail.size() > 0) {
+                    uploadTaskStatus(trailResponse, uri);
+                    acknowledgeTrail(lastTraceIdSent);
+                }
+                updateResponse = trailResponse;
+            }
         }
 	}
 
+    private void uploadTaskStatus(TaskResponse updateResponse, URI uri) throws Exception {
+        try {
+            httpInterface.uploadTaskStatus(updateResponse, uri, webCredentialsUtils.getCredentials(uri));
+        } catch (Exception e) {
+            results.put(Collect.getInstance().getString(R.string.smap_get_tasks),
+                    e.getMessage());
+            throw new Exception(e.getMessage());
+        }
+    }
+
+    /*
+     * Record the last trail point accepted by the server before deleting the points that were sent
+     * If the app stops before the points are deleted they will be removed at the start of the next upload
+     *  rather than being sent again
+     */
+    private void acknowledgeTrail(long lastId) {
+        if (lastId > 0) {
+            sharedPreferences.edit().putLong(GeneralKeys.KEY_SMAP_LAST_TRAIL_ID_SENT, lastId).commit();
+            removeAcknowledgedTrail();
+        }
+    }
+
+    private void removeAcknowledgedTrail() {
+        long lastId = sharedPreferences.getLong(GeneralKeys.KEY_SMAP_LAST_TRAIL_ID_SENT, 0);
+        if (lastId > 0 && TraceUtilities.deleteSource(lastId)) {
+            sharedPreferences.edit().remove(GeneralKeys.KEY_SMAP_LAST_TRAIL_ID_SENT).commit();
+        }
+    }
+
+    /*
+     * Get the maximum number of downloads in progress at once from a setting
+     */
+    private int getParallelism(String key) {
+        try {
+            int parallelism = Integer.parseInt(sharedPreferences.getString(key, String.valueOf(DEFAULT_PARALLELISM)));
+            if (parallelism > 0) {
+                return parallelism;
+            }
+        } catch (NumberFormatException | ClassCastException e) {
+            Timber.w("Invalid setting %s", key);
+        }
+        return DEFAULT_PARALLELISM;
+    }
+
 	/*
      * Loop through the entries from the source
      *   (1) Add entries that have a status of "new", "accepted" and are not already on the phone
@@ -660,8 +781,13 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
 	private void addAndUpdateEntries() throws Exception {
 
     	if(tr.taskAssignments != null) {
-            int count = 1;
-        	for(TaskResponseAssignment ta : tr.taskAssignments) {
+            final int total = taskReader.getAssignmentCount();
+            final ManageForm mf = new ManageForm();     // Caches form details for the duration of the sync
+            final ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            final HashMap<String, String> pendingResults = new HashMap<>();
+            final ArrayDeque<PendingTask> pendingTasks = new ArrayDeque<>();
+            downloader = new InitialDataDownloader(getParallelism(GeneralKeys.KEY_SMAP_INITIAL_DATA_PARALLELISM));
+            taskReader.forEachAssignment((ta, index) -> {
 
                 if(isCancelled()) { throw new CancelException("cancelled"); };		// Return if the user cancels
 
@@ -708,14 +834,16 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
                         Timber.i("Instance url: %s", ta.task.initial_data);
 
                         // Add instance data
-                        ManageForm mf = new ManageForm();
-                        ManageFormResponse mfr = mf.insertInstance(ta, assignment.assignment_id, source, serverUrl, tr.version);
-                        if(!mfr.isError) {
-                            results.put(ta.task.title, Collect.getInstance().getString(R.string.smap_created));
-                            publishProgress(ta.task.title, Integer.valueOf(count).toString(), Integer.valueOf(tr.taskAssignments.size())
+                        ManageFormResponse mfr = mf.insertInstance(ta, assignment.assignment_id, source, serverUrl, tr.version, operations, downloader);
+                        if(mfr.pendingDownload != null) {
+                            // Results are reported when the download completes
+                            pendingTasks.add(new PendingTask(ta.task.title, ta.task.initial_data, mfr, index));
+                        } else if(!mfr.isError) {
+                            pendingResults.put(ta.task.title, Collect.getInstance().getString(R.string.smap_created));
+                            publishProgress(ta.task.title, Integer.valueOf(index + 1).toString(), Integer.valueOf(total)
                                     .toString());
                         } else {
-                            publishProgress(ta.task.title + " : Failed", Integer.valueOf(count).toString(), Integer.valueOf(tr.taskAssignments.size())
+                            publishProgress(ta.task.title + " : Failed", Integer.valueOf(index + 1).toString(), Integer.valueOf(total)
                                     .toString());
                             results.put(ta.task.title, "Creation failed: " + mfr.statusMsg );
                         }
@@ -727,13 +855,21 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
                     // Update the task if its status is not incomplete and it has not beeen rejected
                     if(assignment.assignment_status.equals(Utilities.STATUS_T_CANCELLED) && !ts.status.equals(Utilities.STATUS_T_CANCELLED)
                             && !ts.status.equals(Utilities.STATUS_T_REJECTED)) {
-                        Utilities.setStatusForAssignment(assignment.assignment_id, assignment.assignment_status);
-                        results.put(ta.task.title, assignment.assignment_status);
+                        operations.add(Utilities.getSetStatusOperation(assignment.assignment_id, assignment.assignment_status, source));
+                        pendingResults.put(ta.task.title, assignment.assignment_status);
                     }
-                    Utilities.updateParametersForAssignment(assignment.assignment_id, ta);
+                    operations.add(Utilities.getUpdateParametersOperation(assignment.assignment_id, ta, source));
+
+                }
 
+                completePendingTasks(pendingTasks, operations, pendingResults, mf, total, false);
+                if(operations.size() >= TASK_BATCH_SIZE) {
+                    applyTaskOperations(operations, pendingResults);
                 }
-            }// end tasks loop
+            });// end tasks loop
+
+            completePendingTasks(pendingTasks, operations, pendingResults, mf, total, true);
+            applyTaskOperations(operations, pendingResults);
     	}
 
         // Remove any tasks that have been deleted from the server
@@ -746,6 +882,56 @@ public class DownloadTasksTask extends AsyncTask<Void, String, HashMap<String, S
     	return;
 	}
 
+    /*
+     * Stage the inserts for new tasks whose initial data has been downloaded
+     * Tasks are completed in the order they were received, if wait is false then this stops at the first
+     *  task whose download is still in progress
+     */
+    private void completePendingTasks(ArrayDeque<PendingTask> pendingTasks,
+                                      ArrayList<ContentProviderOperation> operations,
+                                      HashMap<String, String> pendingResults,
+                                      ManageForm mf, int total, boolean wait) throws Exception {
+
+        while(!pendingTasks.isEmpty() && (wait || pendingTasks.peek().mfr.pendingDownload.isDone())) {
+            if(isCancelled()) { throw new CancelException("cancelled"); }		// Return if the user cancels
+
+            PendingTask pt = pendingTasks.poll();
+            if(pt.mfr.pendingInsert == null) {
+                pt.mfr.pendingDownload.cancel(true);
+                publishProgress(pt.title + " : Failed", Integer.valueOf(pt.index + 1).toString(), Integer.valueOf(total).toString());
+                results.put(pt.title, "Creation failed: " + pt.mfr.statusMsg);
+                continue;
+            }
+            try {
+                pt.mfr.pendingDownload.get();
+                operations.add(pt.mfr.pendingInsert);
+                pendingResults.put(pt.title, Collect.getInstance().getString(R.string.smap_created));
+                publishProgress(pt.title, Integer.valueOf(pt.index + 1).toString(), Integer.valueOf(total).toString());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() == null ? e : e.getCause();
+                Timber.e(cause);
+                publishProgress(pt.title + " : Failed", Integer.valueOf(pt.index + 1).toString(), Integer.valueOf(total).toString());
+                results.put(pt.title, "Creation failed: " + mf.getDownloadErrorMessage(pt.initialData, pt.mfr.instancePath, cause));
+            }
+        }
+    }
+
+    /*
+     * Apply the staged task changes in a single transaction
+     * The results are only reported once the changes have been committed
+     */
+    private void applyTaskOperations(ArrayList<ContentProviderOperation> operations,
+                                     HashMap<String, String> pendingResults) throws Exception {
+        if(operations.size() > 0) {
+            long t0 = System.currentTimeMillis();
+            Collect.getInstance().getContentResolver().applyBatch(InstanceProviderAPI.AUTHORITY, operations);
+            Timber.i("Applied %d task changes in %d ms", operations.size(), System.currentTimeMillis() - t0);
+            operations.clear();
+        }
+        results.putAll(pendingResults);
+        pendingResults.clear();
+    }
+
 	/*
      * Synchronise the forms on the server with those on the phone
      *   (1) Download forms on the server that are not on the phone
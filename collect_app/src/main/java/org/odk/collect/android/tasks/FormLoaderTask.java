@@ -36,10 +36,12 @@ import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.fastexternalitemset.ItemsetDbAdapter;
 import org.odk.collect.android.external.ExternalAnswerResolver;
 import org.odk.collect.android.external.ExternalDataHandler;
+import org.odk.collect.android.external.ExternalDataImportListener;
 import org.odk.collect.android.external.ExternalDataManager;
 import org.odk.collect.android.external.ExternalDataManagerImpl;
 import org.odk.collect.android.external.ExternalDataReader;
 import org.odk.collect.android.external.ExternalDataReaderImpl;
+import org.odk.collect.android.external.ExternalDataUtil;
 import org.odk.collect.android.external.handler.ExternalDataHandlerPull;
 import org.odk.collect.android.external.handler.SmapRemoteDataHandlerGetMedia;
 import org.odk.collect.android.external.handler.SmapRemoteDataHandlerLookup;
@@ -48,17 +50,14 @@ import org.odk.collect.android.external.handler.SmapRemoteDataHandlerSearch;
 import org.odk.collect.android.listeners.FormLoaderListener;
 import org.odk.collect.android.javarosawrapper.FormController;
 import org.odk.collect.android.smap.formmanagement.LocalDataManagerSmap;
+import org.odk.collect.android.utilities.CsvBulkLoader;
 import org.odk.collect.android.utilities.FileUtils;
 import org.odk.collect.android.utilities.FormDefCache;
 import org.odk.collect.android.utilities.TranslationHandler;
-import org.odk.collect.android.utilities.ZipUtils;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Locale;
 import java.util.Map;
 
 import timber.log.Timber;
@@ -74,8 +73,10 @@ import com.opencsv.exceptions.CsvValidationException;
  * @author Carl Hartung (carlhartung@gmail.com)
  * @author Yaw Anokwa (yanokwa@gmail.com)
  */
-public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FECWrapper> {
-    private static final String ITEMSETS_CSV = "itemsets.csv";
+public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FECWrapper>
+        implements ExternalDataImportListener {     // smap
+
+    private static final int ITEMSET_CHUNK_SIZE = 5000;     // smap rows inserted in each transaction
 
     private FormLoaderListener stateListener;
     private String errorMsg;
@@ -215,6 +216,14 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
             Timber.i("Initializing form.");
             final long start = System.currentTimeMillis();
             usedSavepoint = initializeForm(formDef, fec);
+            if (usedSavepoint) {
+                // smap apply the answers changed after the savepoint was written
+                try {
+                    new SavePointJournal(SaveFormToDisk.getSavePointJournalFile(new File(instancePath).getName())).replay(fc);
+                } catch (IOException e) {
+                    Timber.e(e, "Bad savepoint journal");
+                }
+            }
             Timber.i("Form initialized in %.3f seconds.", (System.currentTimeMillis() - start) / 1000F);
         } catch (IOException | RuntimeException e) {
             Timber.e(e);
@@ -289,7 +298,7 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
     private void processItemSets(File formMediaDir) {
         // for itemsets.csv, we only check to see if the itemset file has been
         // updated
-        final File csv = new File(formMediaDir.getAbsolutePath() + "/" + ITEMSETS_CSV);
+        final File csv = new File(formMediaDir.getAbsolutePath() + "/" + ExternalDataUtil.ITEMSETS_CSV);
         String csvmd5 = null;
         if (csv.exists()) {
             csvmd5 = FileUtils.getMd5Hash(csv);
@@ -332,6 +341,8 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
         if (instancePath != null) {
             File instanceXml = new File(instancePath);
 
+            SavePointTask.recoverSavepoint(instanceXml.getName());     // smap
+
             // Use the savepoint file only if it's newer than the last manual save
             final File savepointFile = SaveFormToDisk.getSavepointFile(instanceXml.getName());
             if (savepointFile.exists()
@@ -372,56 +383,23 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
         return usedSavepoint;
     }
 
-    @SuppressWarnings("unchecked")
     public void loadExternalData(File mediaFolder) {    // smap make public
-        // SCTO-594
-        File[] zipFiles = mediaFolder.listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File file) {
-                return file.getName().toLowerCase(Locale.US).endsWith(".zip");
-            }
-        });
-
-        if (zipFiles != null) {
-            ZipUtils.unzip(zipFiles);
-            for (File zipFile : zipFiles) {
-                boolean deleted = zipFile.delete();
-                if (!deleted) {
-                    Timber.w("Cannot delete %s. It will be re-unzipped next time. :(", zipFile.toString());
-                }
-            }
-        }
-
-        File[] csvFiles = mediaFolder.listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File file) {
-                String lowerCaseName = file.getName().toLowerCase(Locale.US);
-                return lowerCaseName.endsWith(".csv") && !lowerCaseName.equalsIgnoreCase(
-                        ITEMSETS_CSV);
-            }
-        });
+        Map<String, File> externalDataMap = ExternalDataUtil.getExternalDataMap(mediaFolder);   // smap moved to ExternalDataUtil
 
-        Map<String, File> externalDataMap = new HashMap<>();
-
-        if (csvFiles != null) {
-
-            for (File csvFile : csvFiles) {
-                String dataSetName = csvFile.getName().substring(0,
-                        csvFile.getName().lastIndexOf("."));
-                externalDataMap.put(dataSetName, csvFile);
-            }
-
-            if (!externalDataMap.isEmpty()) {
+        if (!externalDataMap.isEmpty()) {
 
+            // smap the databases are normally created when the form is downloaded
+            if (ExternalDataUtil.isImportRequired(externalDataMap)) {
                 publishProgress(Collect.getInstance()
                         .getString(org.odk.collect.strings.R.string.survey_loading_reading_csv_message));
-
-                ExternalDataReader externalDataReader = new ExternalDataReaderImpl(this);
-                externalDataReader.doImport(externalDataMap);
             }
+
+            ExternalDataReader externalDataReader = new ExternalDataReaderImpl(this);
+            externalDataReader.doImport(externalDataMap);
         }
     }
 
+    @Override
     public void publishExternalDataLoadingProgress(String message) {
         publishProgress(message);
     }
@@ -557,43 +535,45 @@ public class FormLoaderTask extends AsyncTask<String, String, FormLoaderTask.FEC
 
     private void readCSV(File csv, String formHash, String pathHash) {
 
-        CSVReader reader;
         ItemsetDbAdapter ida = new ItemsetDbAdapter();
         ida.open();
-        boolean withinTransaction = false;
 
-        try {
-            reader = new CSVReader(new FileReader(csv));
-
-            String[] nextLine;
-            String[] columnHeaders = null;
-            int lineNumber = 0;
-            while ((nextLine = reader.readNext()) != null) {
-                lineNumber++;
-                if (lineNumber == 1) {
-                    // first line of csv is column headers
-                    columnHeaders = nextLine;
-                    ida.createTable(formHash, pathHash, columnHeaders,
-                            csv.getAbsolutePath());
-                    continue;
-                }
-                // add the rest of the lines to the specified database
-                // nextLine[] is an array of values from the line
-                // System.out.println(nextLine[4] + "etc...");
-                if (lineNumber == 2) {
-                    // start a transaction for the inserts
-                    withinTransaction = true;
-                    ida.beginTransaction();
-                }
-                ida.addRow(pathHash, columnHeaders, nextLine);
+        // smap insert with a compiled statement, committing in chunks
+        try (CSVReader reader = new CSVReader(new FileReader(csv))) {
 
+            // first line of csv is column headers
+            String[] columnHeaders = reader.readNext();
+            if (columnHeaders == null) {
+                return;
+            }
+            ida.createTable(formHash, pathHash, columnHeaders,
+                    csv.getAbsolutePath());
+
+            // positions of the bound columns, columns with an empty header are not in the table
+            int[] columnIndexes = new int[columnHeaders.length];
+            int nColumns = 0;
+            for (int i = 0; i < columnHeaders.length; i++) {
+                columnIndexes[i] = columnHeaders[i].isEmpty() ? -1 : nColumns++;
+            }
+
+            // add the rest of the lines to the specified database
+            try (CsvBulkLoader loader = ida.getBulkLoader(pathHash, columnHeaders, ITEMSET_CHUNK_SIZE)) {
+                String[] nextLine;
+                while ((nextLine = reader.readNext()) != null) {
+                    // rows don't necessarily use all the columns
+                    // but a column is guaranteed to exist for a row (or else blow up)
+                    for (int i = 0; i < nextLine.length; i++) {
+                        if (columnIndexes[i] >= 0) {
+                            loader.bindString(columnIndexes[i], nextLine[i]);
+                        }
+                    }
+                    loader.insert();
+                }
+                loader.finish();
             }
         } catch (IOException | SQLException | CsvValidationException e) {
             warningMsg = e.getMessage();
         } finally {
-            if (withinTransaction) {
-                ida.commit();
-            }
             ida.close();
         }
     }
@@ -19,6 +19,9 @@ import java.util.Calendar;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
 
 import androidx.annotation.NonNull;
 
@@ -51,6 +54,7 @@ import org.odk.collect.android.instances.InstancesRepository;
 import org.odk.collect.android.javarosawrapper.FormController;
 import org.odk.collect.android.provider.FormsProviderAPI.FormsColumns;
 import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
+import org.odk.collect.android.smap.formmanagement.LocalDataManagerSmap;
 import org.odk.collect.android.storage.StoragePathProvider;
 import org.odk.collect.android.storage.StorageSubdirectory;
 import org.odk.collect.android.utilities.EncryptionUtils;
@@ -64,10 +68,12 @@ import org.odk.collect.android.utilities.MediaUtils;
 import org.odk.collect.android.utilities.TranslationHandler;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import timber.log.Timber;
@@ -158,6 +164,11 @@ public class SaveFormToDisk {
 
             if (formController.getInstanceFile() != null) {
                 removeSavepointFiles(formController.getInstanceFile().getName());
+
+                // smap update the local data of forms that search the submissions of this form
+                if (canUpdate) {
+                    new LocalDataManagerSmap(null).updateInstance(formController.getInstanceFile().getAbsolutePath());
+                }
             }
 
             saveToDiskResult.setSaveResult(saveAndExit ? SAVED_AND_EXIT : SAVED, shouldFinalize);
@@ -416,6 +427,14 @@ public class SaveFormToDisk {
         return new File(tempDir, instanceName + ".save");
     }
 
+    /**
+     * Return the journal of answers changed since the savepoint was written for a given instance.
+     */
+    static File getSavePointJournalFile(String instanceName) {
+        File tempDir = new File(new StoragePathProvider().getDirPath(StorageSubdirectory.CACHE));
+        return new File(tempDir, instanceName + ".journal");
+    }
+
     /**
      * Return the formIndex file for a given instance.
      */
@@ -429,6 +448,7 @@ public class SaveFormToDisk {
         File formIndexFile = getFormIndexFile(instanceName);
         FileUtils.deleteAndReport(savepointFile);
         FileUtils.deleteAndReport(formIndexFile);
+        FileUtils.deleteAndReport(getSavePointJournalFile(instanceName));   // smap
     }
 
     /**
@@ -441,9 +461,9 @@ public class SaveFormToDisk {
 
         progressListener.onProgressUpdate(TranslationHandler.getString(Collect.getInstance(), org.odk.collect.strings.R.string.survey_saving_collecting_message));
 
-        ByteArrayPayload payload = formController.getFilledInFormXml();
+        byte[] data = getPayloadBytes(formController.getFilledInFormXml());   // smap serialize the instance once
         // write out xml
-        String instancePath = formController.getInstanceFile().getAbsolutePath();
+        File instanceXml = formController.getInstanceFile();
 
         for (String fileName : tempFiles) {
             mediaUtils.deleteMediaFile(fileName);
@@ -451,13 +471,9 @@ public class SaveFormToDisk {
 
         progressListener.onProgressUpdate(TranslationHandler.getString(Collect.getInstance(), org.odk.collect.strings.R.string.survey_saving_saving_message));
 
-        if(canUpdate) {      // smap
-            writeFile(payload, instancePath);
-        }
-
-        // Write last-saved instance
+        // smap write the instance and the last-saved instance
         String lastSavedPath = formController.getLastSavedPath();
-        writeFile(payload, lastSavedPath);
+        writeInstanceFiles(data, instanceXml, new File(lastSavedPath), canUpdate);
 
         // update the uri. We have exported the reloadable instance, so update status...
         // Since we saved a reloadable instance, it is flagged as re-openable so that if any error
@@ -471,27 +487,25 @@ public class SaveFormToDisk {
             boolean canEditAfterCompleted = formController.isSubmissionEntireForm();
             boolean isEncrypted = false;
 
+            // see if the form is encrypted and we can encrypt it...
+            // smap skip encryption - we are not using encrypted forms and the encryption utils do not cope with the form version being changed while it is being edited
+            EncryptedFormInformation formInfo = null;   // smap
+            //EncryptedFormInformation formInfo = EncryptionUtils.getEncryptedFormInformation(uri,
+            //        formController.getSubmissionMetadata());
+
             // build a submission.xml to hold the data being submitted
             // and (if appropriate) encrypt the files on the side
 
             // pay attention to the ref attribute of the submission profile...
-            File instanceXml = formController.getInstanceFile();
             File submissionXml = new File(instanceXml.getParentFile(), "submission.xml");
 
-            payload = formController.getSubmissionXml();
-
             // write out submission.xml -- the data to actually submit to aggregate
+            if (!canEditAfterCompleted || formInfo != null) {
+                progressListener.onProgressUpdate(
+                        TranslationHandler.getString(Collect.getInstance(), org.odk.collect.strings.R.string.survey_saving_finalizing_message));
+            }
+            writeSubmissionFile(formController, submissionXml, formInfo != null);     // smap
 
-            progressListener.onProgressUpdate(
-                    TranslationHandler.getString(Collect.getInstance(), org.odk.collect.strings.R.string.survey_saving_finalizing_message));
-
-            writeFile(payload, submissionXml.getAbsolutePath());
-
-            // see if the form is encrypted and we can encrypt it...
-            // smap skip encryption - we are not using encrypted forms and the encryption utils do not cope with the form version being changed while it is being edited
-            EncryptedFormInformation formInfo = null;   // smap
-            //EncryptedFormInformation formInfo = EncryptionUtils.getEncryptedFormInformation(uri,
-            //        formController.getSubmissionMetadata());
             if (formInfo != null) {
                 // if we are encrypting, the form cannot be reopened afterward
                 canEditAfterCompleted = false;
@@ -521,15 +535,6 @@ public class SaveFormToDisk {
 
             if (!canEditAfterCompleted) {
                 manageFilesAfterSavingEncryptedForm(instanceXml, submissionXml);
-            } else {
-                // try to delete the submissionXml file, since it is
-                // identical to the existing instanceXml file
-                // (we don't need to delete and rename anything).
-                if (!submissionXml.delete()) {
-                    String msg = "Error deleting " + submissionXml.getAbsolutePath()
-                            + " (instance is re-openable)";
-                    Timber.w(msg);
-                }
             }
 
             // if encrypted, delete all plaintext files
@@ -580,6 +585,34 @@ public class SaveFormToDisk {
         return null;
     }
 
+    /*
+     * smap
+     * Write the instance and the last-saved instance. The last-saved instance is linked to the
+     * instance that has just been written rather than writing it again. It is written from the
+     * data if the link fails or the instance is not written because the form cannot be updated.
+     */
+    static void writeInstanceFiles(byte[] data, File instanceXml, File lastSaved, boolean canUpdate) throws IOException {
+        if (canUpdate) {
+            writeFile(data, instanceXml);
+        }
+        if (!canUpdate || !linkFile(instanceXml, lastSaved)) {
+            writeFile(data, lastSaved);
+        }
+    }
+
+    /*
+     * smap
+     * The submission is only written if it is not identical to the instance, that is for a partial
+     * submission or an encrypted form. Otherwise a submission.xml left by an earlier save is removed.
+     */
+    static void writeSubmissionFile(FormController formController, File submissionXml, boolean encrypted) throws IOException {
+        if (!formController.isSubmissionEntireForm() || encrypted) {
+            writeFile(getPayloadBytes(formController.getSubmissionXml()), submissionXml);
+        } else if (submissionXml.exists() && !submissionXml.delete()) {
+            Timber.w("Error deleting %s (instance is re-openable)", submissionXml.getAbsolutePath());
+        }
+    }
+
     static void manageFilesAfterSavingEncryptedForm(File instanceXml, File submissionXml) throws IOException {
         // AT THIS POINT, there is no going back.  We are committed
         // to returning "success" (true) whether or not we can
@@ -611,35 +644,93 @@ public class SaveFormToDisk {
      * Writes payload contents to the disk.
      */
     static void writeFile(ByteArrayPayload payload, String path) throws IOException {
-        File file = new File(path);
-        if (file.exists() && !file.delete()) {
-            throw new IOException("Cannot overwrite " + path + ". Perhaps the file is locked?");
-        }
+        writeFile(getPayloadBytes(payload), new File(path));
+    }
 
-        // create data stream
+    /*
+     * smap
+     * Read the serialized payload into a single buffer that can be written more than once
+     */
+    static byte[] getPayloadBytes(ByteArrayPayload payload) throws IOException {
         InputStream is = payload.getPayloadStream();
         int len = (int) payload.getLength();
 
-        // read from data stream
         byte[] data = new byte[len];
-        int read = is.read(data, 0, len);
-        if (read > 0) {
-            // Make sure the directory path to this file exists.
-            file.getParentFile().mkdirs();
-            // write xml file
-            RandomAccessFile randomAccessFile = null;
-            try {
-                randomAccessFile = new RandomAccessFile(file, "rws");
-                randomAccessFile.write(data);
-            } finally {
-                if (randomAccessFile != null) {
-                    try {
-                        randomAccessFile.close();
-                    } catch (IOException e) {
-                        Timber.e(e, "Error closing RandomAccessFile: %s", path);
-                    }
-                }
+        int read = 0;
+        while (read < len) {
+            int count = is.read(data, read, len - read);
+            if (count < 0) {
+                break;
+            }
+            read += count;
+        }
+        return read == len ? data : Arrays.copyOf(data, read);
+    }
+
+    /*
+     * smap
+     * Write the data to a temporary file which then replaces the file so that a failure part way
+     * through never leaves a partly written file
+     * The temporary file is hidden so that one left by a failure is not uploaded with the instance
+     */
+    static void writeFile(byte[] data, File file) throws IOException {
+        if (data.length == 0) {
+            return;
+        }
+        replaceFile(writeTempFile(data, file), file);
+    }
+
+    /*
+     * smap
+     * Write the data to the temporary file for a file and sync it to the disk
+     */
+    static File writeTempFile(byte[] data, File file) throws IOException {
+        // Make sure the directory path to this file exists.
+        file.getParentFile().mkdirs();
+        File temp = getTempFile(file);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(data);
+            out.getFD().sync();
+        }
+        return temp;
+    }
+
+    /*
+     * smap
+     * Replace a file with its temporary file
+     */
+    static void replaceFile(File temp, File file) throws IOException {
+        if (!temp.renameTo(file)) {
+            FileUtils.deleteAndReport(temp);
+            throw new IOException("Cannot overwrite " + file.getAbsolutePath() + ". Perhaps the file is locked?");
+        }
+    }
+
+    static File getTempFile(File file) {
+        return new File(file.getParentFile(), "." + file.getName() + ".tmp");
+    }
+
+    /*
+     * smap
+     * Make the target a hard link to the source so the data does not have to be written twice.
+     * The source is always replaced by renaming a new file over it so the target keeps its contents.
+     * Returns false if the link could not be made
+     */
+    static boolean linkFile(File source, File target) {
+        if (!source.exists() || target.exists() && !target.delete()) {
+            return false;
+        }
+        try {
+            target.getParentFile().mkdirs();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                Files.createLink(target.toPath(), source.toPath());
+            } else {
+                Os.link(source.getAbsolutePath(), target.getAbsolutePath());
             }
+            return true;
+        } catch (ErrnoException | IOException e) {
+            Timber.w("Could not link %s: %s", target.getAbsolutePath(), e.getMessage());
+            return false;
         }
     }
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2017 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.tasks;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import org.javarosa.core.model.FormIndex;
+import org.javarosa.core.model.QuestionDef;
+import org.javarosa.core.model.data.IAnswerData;
+import org.javarosa.core.model.instance.TreeElement;
+import org.javarosa.form.api.FormEntryController;
+import org.javarosa.xform.util.XFormAnswerDataParser;
+import org.odk.collect.android.exception.JavaRosaException;
+import org.odk.collect.android.javarosawrapper.FormController;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * An append only journal of the answers that have changed since the savepoint was last written.
+ * Writing the journal costs as much as the changes rather than the size of the instance. The
+ * journal is replayed over the savepoint when a form is recovered and is removed whenever the
+ * full savepoint is written again.
+ */
+public class SavePointJournal {
+
+    static final long MAX_JOURNAL_SIZE = 256 * 1024;     // Write a full savepoint once the journal is this big
+
+    private static final Gson GSON = new Gson();
+
+    private final File file;
+
+    static class Entry {
+        String xpath;
+        String value;       // null if the answer was cleared
+
+        Entry(String xpath, String value) {
+            this.xpath = xpath;
+            this.value = value;
+        }
+    }
+
+    public SavePointJournal(File file) {
+        this.file = file;
+    }
+
+    public boolean isFull() {
+        return file.length() > MAX_JOURNAL_SIZE;
+    }
+
+    public boolean exists() {
+        return file.exists();
+    }
+
+    /*
+     * Create an empty journal if there is none
+     */
+    void create() throws IOException {
+        if (!file.exists() && !file.createNewFile() && !file.exists()) {
+            throw new IOException("Cannot create " + file.getAbsolutePath());
+        }
+    }
+
+    /*
+     * Returns false if the journal could not be deleted
+     */
+    public boolean delete() {
+        if (file.exists() && !file.delete()) {
+            Timber.w("Failed to delete savepoint journal %s", file.getAbsolutePath());
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     * Get the entries for the current answers of the changed questions
+     */
+    static List<Entry> getEntries(FormController formController, List<FormIndex> changes) {
+        List<Entry> entries = new ArrayList<>();
+        for (FormIndex index : changes) {
+            TreeElement element = formController.getFormDef().getMainInstance().resolveReference(index.getReference());
+            if (element != null) {
+                IAnswerData answer = element.getValue();
+                entries.add(new Entry(formController.getXPath(index), answer == null ? null : answer.uncast().getString()));
+            }
+        }
+        return entries;
+    }
+
+    void append(List<Entry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            for (Entry entry : entries) {
+                writer.write(GSON.toJson(entry));
+                writer.write('\n');
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+    }
+
+    /*
+     * Read the latest value of each question in the order they were last changed
+     * Reading stops at a line that was only partly written
+     */
+    Map<String, String> read() throws IOException {
+        Map<String, String> answers = new LinkedHashMap<>();
+        if (!file.exists()) {
+            return answers;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Entry entry;
+                try {
+                    entry = GSON.fromJson(line, Entry.class);
+                } catch (JsonParseException e) {
+                    Timber.w("Savepoint journal %s is truncated", file.getAbsolutePath());
+                    break;
+                }
+                if (entry != null && entry.xpath != null) {
+                    answers.remove(entry.xpath);
+                    answers.put(entry.xpath, entry.value);
+                }
+            }
+        }
+        return answers;
+    }
+
+    /*
+     * Apply the journal to a form that has been loaded from the savepoint
+     * The form is stepped through in order, more than once if answering a question makes others
+     * relevant or creates repeats, until every entry has been applied or no more can be
+     * Returns the number of answers applied
+     */
+    public int replay(FormController formController) throws IOException {
+        Map<String, String> answers = read();
+        if (answers.isEmpty()) {
+            return 0;
+        }
+
+        int applied = 0;
+        FormIndex saved = formController.getFormIndex();
+        try {
+            boolean progress = true;
+            while (!answers.isEmpty() && progress) {
+                progress = false;
+                formController.jumpToIndex(FormIndex.createBeginningOfFormIndex());
+                int event = formController.stepToNextEvent(true);
+                while (event != FormEntryController.EVENT_END_OF_FORM) {
+                    if (event == FormEntryController.EVENT_QUESTION) {
+                        FormIndex index = formController.getFormIndex();
+                        String xpath = formController.getXPath(index);
+                        if (answers.containsKey(xpath)) {
+                            formController.saveAnswer(index, getAnswer(formController, index, answers.remove(xpath)));
+                            applied++;
+                            progress = true;
+                        }
+                    }
+                    event = formController.stepToNextEvent(true);
+                }
+            }
+        } catch (JavaRosaException e) {
+            Timber.e(e);
+        } finally {
+            formController.jumpToIndex(saved);
+        }
+
+        if (!answers.isEmpty()) {
+            Timber.w("%d savepoint journal entries could not be applied", answers.size());
+        }
+        Timber.i("Applied %d answers from savepoint journal", applied);
+        return applied;
+    }
+
+    private static IAnswerData getAnswer(FormController formController, FormIndex index, String value) {
+        if (value == null) {
+            return null;
+        }
+        TreeElement element = formController.getFormDef().getMainInstance().resolveReference(index.getReference());
+        QuestionDef question = formController.getQuestionPrompt(index).getQuestion();
+        return XFormAnswerDataParser.getAnswerData(value, element.getDataType(), question);
+    }
+}
@@ -20,12 +20,16 @@ package org.odk.collect.android.tasks;
 
 import android.os.AsyncTask;
 
+import org.javarosa.core.model.FormIndex;
 import org.javarosa.core.services.transport.payload.ByteArrayPayload;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.listeners.SavePointListener;
 import org.odk.collect.android.javarosawrapper.FormController;
+import org.odk.collect.android.utilities.FileUtils;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
 
 import timber.log.Timber;
 
@@ -59,22 +63,37 @@ public class SavePointTask extends AsyncTask<Void, Void, String> {
 
             try {
                 FormController formController = Collect.getInstance().getFormController();
-                File temp = SaveFormToDisk.getSavepointFile(formController.getInstanceFile().getName());
+                String instanceName = formController.getInstanceFile().getName();
+                File temp = SaveFormToDisk.getSavepointFile(instanceName);
+                SavePointJournal journal = new SavePointJournal(SaveFormToDisk.getSavePointJournalFile(instanceName));
+
+                // smap append the changed answers to the journal unless the full savepoint is needed
+                if (appendToJournal(formController, temp, journal)) {
+                    long end = System.currentTimeMillis();
+                    Timber.i("Savepoint journal ms: %s", Long.toString(end - start));
+                    return null;
+                }
+
                 ByteArrayPayload payload = formController.getFilledInFormXml();
 
                 if (priority < lastPriorityUsed) {
+                    formController.requireFullSavepoint();      // smap the changes have been taken but not saved
                     Timber.w("Savepoint thread (p=%d) was cancelled (b) because another one is waiting (p=%d)", priority, lastPriorityUsed);
                     return null;
                 }
 
                 // write out xml
-                SaveFormToDisk.writeFile(payload, temp.getAbsolutePath());
+                writeSavepoint(SaveFormToDisk.getPayloadBytes(payload), temp, journal);    // smap
 
                 long end = System.currentTimeMillis();
                 Timber.i("Savepoint ms: %s to %s", Long.toString(end - start), temp.toString());
 
                 return null;
             } catch (Exception e) {
+                FormController formController = Collect.getInstance().getFormController();     // smap
+                if (formController != null) {
+                    formController.requireFullSavepoint();
+                }
                 String msg = e.getMessage();
                 Timber.e(e);
                 return msg;
@@ -82,6 +101,83 @@ public class SavePointTask extends AsyncTask<Void, Void, String> {
         }
     }
 
+    /*
+     * smap
+     * Append the answers that have changed to the journal
+     * Returns false if the full savepoint needs to be written instead, that is for the first
+     * savepoint, after repeats have been added or removed or when the journal is full
+     */
+    static boolean appendToJournal(FormController formController, File savepoint, SavePointJournal journal) throws IOException {
+        List<FormIndex> changes = formController.takeSavepointChanges();
+        if (changes != null && savepoint.exists() && !journal.isFull()) {
+            journal.append(SavePointJournal.getEntries(formController, changes));
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     * smap
+     * Write the full savepoint and remove the journal
+     * The journal is removed before the new savepoint replaces the old one so that it is never applied
+     * to a newer savepoint. An empty journal is created first if there is none so that a new savepoint
+     * without a journal is known to be complete, see recoverSavepoint()
+     */
+    static void writeSavepoint(byte[] data, File savepoint, SavePointJournal journal) throws IOException {
+        journal.create();
+        File temp = SaveFormToDisk.writeTempFile(data, savepoint);
+        if (!journal.delete()) {
+            FileUtils.deleteAndReport(temp);
+            throw new IOException("Cannot remove the savepoint journal for " + savepoint.getAbsolutePath());
+        }
+        SaveFormToDisk.replaceFile(temp, savepoint);
+    }
+
+    /*
+     * smap
+     * Complete a savepoint that was interrupted after it was written but before it replaced the old one
+     * A new savepoint is only complete if the journal has been removed, otherwise it is discarded and
+     * the old savepoint and its journal are used
+     */
+    public static void recoverSavepoint(String instanceName) {
+        recoverSavepoint(SaveFormToDisk.getSavepointFile(instanceName),
+                new SavePointJournal(SaveFormToDisk.getSavePointJournalFile(instanceName)));
+    }
+
+    /*
+     * smap
+     * Recover the interrupted savepoints of the instances whose names start with a prefix
+     * These are found from their temporary files, named as in SaveFormToDisk.getTempFile()
+     */
+    public static void recoverSavepoints(String instancePrefix) {
+        File cacheDir = SaveFormToDisk.getSavepointFile(instancePrefix).getParentFile();
+        String[] names = cacheDir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (name.startsWith("." + instancePrefix) && name.endsWith(".save.tmp")) {
+                recoverSavepoint(name.substring(1, name.length() - ".save.tmp".length()));
+            }
+        }
+    }
+
+    static void recoverSavepoint(File savepoint, SavePointJournal journal) {
+        synchronized (LOCK) {
+            File temp = SaveFormToDisk.getTempFile(savepoint);
+            if (!temp.exists()) {
+                return;
+            }
+            if (journal.exists()) {
+                FileUtils.deleteAndReport(temp);
+            } else if (temp.renameTo(savepoint)) {
+                Timber.i("Recovered savepoint %s", savepoint.getAbsolutePath());
+            } else {
+                Timber.w("Cannot recover savepoint %s", savepoint.getAbsolutePath());
+            }
+        }
+    }
+
     @Override
     protected void onPostExecute(String errorMessage) {
         super.onPostExecute(errorMessage);
@@ -73,6 +73,7 @@ public class SmapRemoteWebServicePostTask extends AsyncTask<String, Void, SmapRe
 
         } catch (Exception e) {
             item.data = e.getLocalizedMessage();
+            item.error = true;
             Timber.e(e.toString());
 
         }
@@ -91,6 +91,7 @@ public class SmapRemoteWebServiceTask extends AsyncTask<String, Void, SmapRemote
 
         } catch (Exception e) {
             item.data = e.getLocalizedMessage();
+            item.error = true;
             Timber.e(e);
 
         } finally {
@@ -109,6 +110,7 @@ public class SmapRemoteWebServiceTask extends AsyncTask<String, Void, SmapRemote
                     remoteListener.remoteComplete(data);
                 } else {
                     Collect app = Collect.getInstance();
+                    app.setRemoteItem(data);    // Keep the response and allow the url to be requested again
                     app.endRemoteCall();
                     throw new Exception("Listener for remote web service task is null");
                 }
@@ -24,6 +24,7 @@ import org.odk.collect.android.database.InstanceDatabaseMigrator;
 import org.odk.collect.android.database.InstancesDatabaseHelper;
 import org.odk.collect.android.database.FormsDatabaseHelper;
 import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.database.SmapFileHashDatabaseHelper;
 import org.odk.collect.android.database.SmapReferenceDatabaseHelper;
 import org.odk.collect.android.database.SmapTraceDatabaseHelper;
 import org.odk.collect.android.database.TraceUtilities;
@@ -152,6 +153,8 @@ public class ApplicationResetter {
     // smap
     private void resetReferences() {
         SmapReferenceDatabaseHelper.recreateDatabase();
+        SmapFileHashDatabaseHelper.recreateDatabase();
+        Collect.getInstance().clearRemoteServiceCaches();
     }
 
     private boolean deleteFolderContents(String path) {
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2017 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.utilities;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/*
+ * Insert rows read from a CSV file into a table using a single compiled insert statement
+ * The caller resolves the mapping from CSV columns to table columns once and then binds the values
+ *  for each row by position.  If a chunk size is set the loader manages its own transactions and
+ *  commits after each chunk, otherwise the caller is responsible for the transaction.
+ */
+public class CsvBulkLoader implements Closeable {
+
+    private final SQLiteDatabase db;
+    private final SQLiteStatement insert;
+    private final int chunkSize;
+
+    private int rowCount;
+    private int rowsInTransaction;
+    private boolean inTransaction;
+
+    /*
+     * @param columns   the table columns in bind order, quoted if necessary
+     * @param chunkSize the number of rows to insert in each transaction, 0 if the caller has started a transaction
+     */
+    public CsvBulkLoader(SQLiteDatabase db, String table, List<String> columns, int chunkSize) {
+        this.db = db;
+        this.chunkSize = chunkSize;
+
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        StringBuilder params = new StringBuilder();
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+                params.append(", ");
+            }
+            sql.append(columns.get(i));
+            params.append('?');
+        }
+        sql.append(") VALUES (").append(params).append(')');
+
+        insert = db.compileStatement(sql.toString());
+    }
+
+    /*
+     * Bind a value to a column, the index is the position of the column in the list passed to the constructor
+     */
+    public void bindString(int column, String value) {
+        if (value == null) {
+            insert.bindNull(column + 1);
+        } else {
+            insert.bindString(column + 1, value);
+        }
+    }
+
+    public void bindDouble(int column, double value) {
+        insert.bindDouble(column + 1, value);
+    }
+
+    public void bindLong(int column, long value) {
+        insert.bindLong(column + 1, value);
+    }
+
+    /*
+     * Insert the bound values as a new row, columns that have not been bound are set to null
+     */
+    public void insert() {
+        if (chunkSize > 0 && !inTransaction) {
+            db.beginTransaction();
+            inTransaction = true;
+        }
+
+        insert.executeInsert();
+        insert.clearBindings();
+        rowCount++;
+
+        if (inTransaction && ++rowsInTransaction >= chunkSize) {
+            commit();
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /*
+     * Commit the rows inserted since the last chunk
+     */
+    public void finish() {
+        if (inTransaction) {
+            commit();
+        }
+    }
+
+    /*
+     * Release the statement, rows that have not been committed by finish() are rolled back
+     */
+    @Override
+    public void close() {
+        if (inTransaction) {
+            db.endTransaction();
+            inTransaction = false;
+        }
+        insert.close();
+    }
+
+    private void commit() {
+        db.setTransactionSuccessful();
+        db.endTransaction();
+        inTransaction = false;
+        rowsInTransaction = 0;
+    }
+
+    /*
+     * Read rows from a CSV file
+     * If read ahead is enabled the file is parsed on a separate thread in batches so that parsing the next
+     *  rows overlaps with inserting the current ones.
+     */
+    public static class RowReader implements Closeable {
+
+        private static final int BATCH_SIZE = 500;
+        private static final int QUEUED_BATCHES = 4;
+
+        private final CSVReader reader;
+        private final BlockingQueue<Object> queue;
+        private final Thread parser;
+
+        private List<String[]> batch;
+        private int next;
+        private boolean finished;
+
+        public RowReader(CSVReader reader, boolean readAhead) {
+            this.reader = reader;
+            if (readAhead) {
+                queue = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+                parser = new Thread(this::parse, "csv-parser");
+                parser.setDaemon(true);
+                parser.start();
+            } else {
+                queue = null;
+                parser = null;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        public String[] readNext() throws IOException, CsvValidationException {
+            if (parser == null) {
+                return reader.readNext();
+            }
+
+            while (!finished && (batch == null || next >= batch.size())) {
+                Object item;
+                try {
+                    item = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading CSV");
+                }
+
+                if (item instanceof List) {
+                    batch = (List<String[]>) item;
+                    next = 0;
+                } else if (item instanceof IOException) {
+                    throw (IOException) item;
+                } else if (item instanceof CsvValidationException) {
+                    throw (CsvValidationException) item;
+                } else if (item instanceof RuntimeException) {
+                    throw (RuntimeException) item;
+                } else {
+                    finished = true;        // End of file
+                }
+            }
+            return finished ? null : batch.get(next++);
+        }
+
+        /*
+         * Stop the parser thread if it is still running and close the underlying reader
+         */
+        @Override
+        public void close() throws IOException {
+            if (parser != null) {
+                parser.interrupt();
+                try {
+                    parser.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            reader.close();
+        }
+
+        private void parse() {
+            try {
+                List<String[]> rows = new ArrayList<>(BATCH_SIZE);
+                String[] row;
+                while ((row = reader.readNext()) != null) {
+                    rows.add(row);
+                    if (rows.size() == BATCH_SIZE) {
+                        queue.put(rows);
+                        rows = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+                if (!rows.isEmpty()) {
+                    queue.put(rows);
+                }
+                queue.put(Boolean.TRUE);
+            } catch (InterruptedException e) {
+                // Stopped by close()
+            } catch (Exception e) {
+                try {
+                    queue.put(e);
+                } catch (InterruptedException ie) {
+                    // Stopped by close()
+                }
+            }
+        }
+    }
+}
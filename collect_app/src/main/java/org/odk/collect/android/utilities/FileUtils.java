@@ -181,8 +181,11 @@ public class FileUtils {
      * so that sourceFile with EXIF has same orientation as destinationFile without EXIF
      *
      * Author: abhishekab (Abhishek Kumar) Who applied this fix for exif rotation to odk collect
+     *
+     * smap: A rotated copy is decoded at the largest power of two reduction that still leaves at
+     * least maxPixels on its long edge, so a full resolution photo is never held in memory
      */
-    public static void copyImageAndApplyExifRotation(File sourceFile, File destFile) {
+    public static void copyImageAndApplyExifRotation(File sourceFile, File destFile, int maxPixels) {
         ExifInterface sourceFileExif = null;
         try {
             sourceFileExif = new ExifInterface(sourceFile);
@@ -195,7 +198,13 @@ public class FileUtils {
             // Source Image doesn't have any EXIF Rotations, so a normal file copy will suffice
             copyFile(sourceFile, destFile);
         } else {
-            Bitmap sourceImage = getBitmap(sourceFile.getAbsolutePath(), new BitmapFactory.Options());
+            BitmapFactory.Options options = new BitmapFactory.Options();     // smap decode a bounded bitmap
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(sourceFile.getAbsolutePath(), options);
+            int inSampleSize = ImageConverter.calculateInSampleSize(options.outWidth, options.outHeight, maxPixels);
+            options = new BitmapFactory.Options();
+            options.inSampleSize = inSampleSize;
+            Bitmap sourceImage = getBitmap(sourceFile.getAbsolutePath(), options);
             int orientation = sourceFileExif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_UNDEFINED);
             switch (orientation) {
                 case ExifInterface.ORIENTATION_ROTATE_90:
@@ -212,14 +221,22 @@ public class FileUtils {
     }
 
     private static void rotateBitmapAndSaveToFile(Bitmap image, int degrees, String filePath) {
+        if (image == null) {
+            return;     // smap
+        }
         try {
             Matrix matrix = new Matrix();
             matrix.postRotate(degrees);
-            image = Bitmap.createBitmap(image, 0, 0, image.getWidth(), image.getHeight(), matrix, true);
+            Bitmap rotatedImage = Bitmap.createBitmap(image, 0, 0, image.getWidth(), image.getHeight(), matrix, true);
+            if (rotatedImage != image) {
+                image.recycle();    // smap release the source before compressing the rotated copy
+                image = rotatedImage;
+            }
         } catch (OutOfMemoryError e) {
             Timber.w(e);
         }
         saveBitmapToFile(image, filePath);
+        image.recycle();    // smap
     }
 
     /**
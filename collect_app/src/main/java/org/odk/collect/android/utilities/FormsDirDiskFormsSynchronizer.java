@@ -9,6 +9,7 @@ import org.javarosa.core.reference.ReferenceManager;
 import org.odk.collect.android.R;
 import org.odk.collect.android.application.Collect;
 import org.odk.collect.android.dao.FormsDao;
+import org.odk.collect.android.dao.SmapFileHashDao;
 import org.odk.collect.android.formmanagement.DiskFormsSynchronizer;
 import org.odk.collect.android.provider.FormsProviderAPI;
 import org.odk.collect.android.storage.StoragePathProvider;
@@ -37,6 +38,7 @@ public class FormsDirDiskFormsSynchronizer implements DiskFormsSynchronizer {
 
     public String synchronizeAndReturnError() {
         FormsDao formsDao = new FormsDao();
+        SmapFileHashDao fileHashDao = new SmapFileHashDao();     // smap
         String statusMessage = "";
 
         int instance = ++counter;
@@ -85,7 +87,7 @@ public class FormsDirDiskFormsSynchronizer implements DiskFormsSynchronizer {
                             // remove it from the list of forms (we only want forms
                             // we haven't added at the end)
                             formsToAdd.remove(sqlFile);
-                            String md5Computed = FileUtils.getMd5Hash(sqlFile);
+                            String md5Computed = fileHashDao.getMd5Hash(sqlFile);     // smap only re-hash changed files
                             if (md5Computed == null || md5 == null || !md5Computed.equals(md5)) {
                                 // Probably someone overwrite the file on the sdcard
                                 // So re-parse it and update it's information
@@ -19,7 +19,6 @@ package org.odk.collect.android.utilities;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
 import androidx.exifinterface.media.ExifInterface;
 
 import org.javarosa.core.model.instance.TreeElement;
@@ -51,10 +50,15 @@ public class ImageConverter {
             Timber.w(e);
         }
 
-        scaleDownImageIfNeeded(imagePath, questionWidget, context);
-        
-        if (exif != null) {
+        int[] newSize = scaleDownImageIfNeeded(imagePath, questionWidget, context);
+
+        // The file only needs its exif information restored if it was rewritten
+        if (exif != null && newSize != null) {
             try {
+                exif.setAttribute(ExifInterface.TAG_IMAGE_WIDTH, String.valueOf(newSize[0]));
+                exif.setAttribute(ExifInterface.TAG_IMAGE_LENGTH, String.valueOf(newSize[1]));
+                exif.setAttribute(ExifInterface.TAG_PIXEL_X_DIMENSION, String.valueOf(newSize[0]));
+                exif.setAttribute(ExifInterface.TAG_PIXEL_Y_DIMENSION, String.valueOf(newSize[1]));
                 exif.saveAttributes();
             } catch (IOException e) {
                 Timber.w(e);
@@ -62,7 +66,7 @@ public class ImageConverter {
         }
     }
 
-    private static void scaleDownImageIfNeeded(String imagePath, QuestionWidget questionWidget, Context context) {
+    private static int[] scaleDownImageIfNeeded(String imagePath, QuestionWidget questionWidget, Context context) {
         Integer maxPixels;
 
         if (questionWidget != null) {
@@ -73,9 +77,10 @@ public class ImageConverter {
             }
 
             if (maxPixels != null && maxPixels > 0) {
-                scaleDownImage(imagePath, maxPixels);
+                return scaleDownImage(imagePath, maxPixels);
             }
         }
+        return null;
     }
 
     private static Integer getMaxPixelsFromFormIfDefined(QuestionWidget questionWidget) {
@@ -113,25 +118,64 @@ public class ImageConverter {
     /**
      * This method is used to reduce an original picture size.
      * maxPixels refers to the max pixels of the long edge, the short edge is scaled proportionately.
+     * Only the bounds of the picture are read to decide if it needs scaling. It is then decoded at
+     * the largest power of two reduction that still leaves at least maxPixels on the long edge, so
+     * the memory used depends on maxPixels rather than on the resolution of the camera.
+     *
+     * @return the new width and height, or null if the picture was not changed
      */
-    private static void scaleDownImage(String imagePath, int maxPixels) {
-        Bitmap image = FileUtils.getBitmap(imagePath, new BitmapFactory.Options());
+    private static int[] scaleDownImage(String imagePath, int maxPixels) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(imagePath, options);
+        int originalWidth = options.outWidth;
+        int originalHeight = options.outHeight;
+
+        if (originalWidth <= 0 || originalHeight <= 0 || Math.max(originalWidth, originalHeight) <= maxPixels) {
+            return null;
+        }
 
-        if (image != null) {
-            double originalWidth = image.getWidth();
-            double originalHeight = image.getHeight();
+        options = new BitmapFactory.Options();
+        options.inSampleSize = calculateInSampleSize(originalWidth, originalHeight, maxPixels);
+        Bitmap sampledImage = FileUtils.getBitmap(imagePath, options);
+        if (sampledImage == null) {
+            return null;
+        }
 
-            if (originalWidth > originalHeight && originalWidth > maxPixels) {
-                int newHeight = (int) (originalHeight / (originalWidth / maxPixels));
+        int[] newSize = getScaledSize(originalWidth, originalHeight, maxPixels);
+        Bitmap image = Bitmap.createScaledBitmap(sampledImage, newSize[0], newSize[1], true);
+        Timber.i("Scaled %dx%d image to %dx%d, decoded at 1/%d using %d KB",
+                originalWidth, originalHeight, newSize[0], newSize[1], options.inSampleSize, sampledImage.getByteCount() / 1024);
+        if (image != sampledImage) {
+            sampledImage.recycle();
+        }
 
-                image = Bitmap.createScaledBitmap(image, maxPixels, newHeight, false);
-                FileUtils.saveBitmapToFile(image, imagePath);
-            } else if (originalHeight > maxPixels) {
-                int newWidth = (int) (originalWidth / (originalHeight / maxPixels));
+        FileUtils.saveBitmapToFile(image, imagePath);
+        image.recycle();
+        return newSize;
+    }
 
-                image = Bitmap.createScaledBitmap(image, newWidth, maxPixels, false);
-                FileUtils.saveBitmapToFile(image, imagePath);
-            }
+    /**
+     * Returns the largest power of two sample size that decodes an image with at least maxPixels
+     * on its long edge.
+     */
+    static int calculateInSampleSize(int width, int height, int maxPixels) {
+        int longEdge = Math.max(width, height);
+        int sampleSize = 1;
+        while (longEdge / (sampleSize * 2) >= maxPixels) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Returns the width and height of an image scaled so that its long edge is maxPixels.
+     */
+    static int[] getScaledSize(int width, int height, int maxPixels) {
+        if (width > height) {
+            return new int[] {maxPixels, (int) (height / ((double) width / maxPixels))};
+        } else {
+            return new int[] {(int) (width / ((double) height / maxPixels)), maxPixels};
         }
     }
 
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2014 Smap Consulting Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.odk.collect.android.utilities;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import timber.log.Timber;
+
+/*
+ * Download the initial data for new tasks in parallel
+ * The number of downloads in progress or waiting is bounded so that a large sync does not queue
+ *  a download for every task at once.  Connections are shared through the http client provider
+ *  used by Utilities so requests to the same server reuse connections.
+ */
+public class InitialDataDownloader {
+
+    private final ExecutorService executor;
+    private final Semaphore slots;
+    private final Utilities utilities;
+
+    public InitialDataDownloader(int parallelism) {
+        executor = Executors.newFixedThreadPool(parallelism);
+        slots = new Semaphore(parallelism * 2);
+        utilities = new Utilities();
+    }
+
+    /*
+     * Queue a download
+     * Blocks if the maximum number of downloads are already waiting
+     * The returned future throws an ExecutionException containing the cause if the download failed
+     */
+    public Future<Void> submit(File file, String downloadUrl, String serverUrl, String formId, int version)
+            throws InterruptedException {
+
+        slots.acquire();
+        try {
+            return executor.submit(() -> {
+                try {
+                    utilities.downloadInstanceFile(file, downloadUrl, serverUrl, formId, version);
+                    return null;
+                } finally {
+                    slots.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+    }
+
+    /*
+     * Stop any downloads that have not started
+     */
+    public void shutdown() {
+        int pending = executor.shutdownNow().size();
+        if (pending > 0) {
+            Timber.i("Cancelled %d initial data downloads", pending);
+        }
+    }
+}
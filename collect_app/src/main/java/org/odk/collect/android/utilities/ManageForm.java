@@ -14,6 +14,7 @@
 
 package org.odk.collect.android.utilities;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.database.Cursor;
@@ -39,7 +40,9 @@ import timber.log.Timber;
 import static org.odk.collect.utilities.PathUtils.getAbsoluteFilePath;
 
 public class ManageForm {
-	
+
+	private final HashMap<String, ManageFormDetails> formDetailsCache = new HashMap<>();	// Latest version details keyed on form id
+
 	public class ManageFormDetails {
          public long id = 0;
 		 public String formName = null;
@@ -298,13 +301,30 @@ public class ManageForm {
 	 *    
 	 */
     public ManageFormResponse insertInstance(TaskResponseAssignment ta, long assignmentId, String source, String serverUrl, int version) {
+        return insertInstance(ta, assignmentId, source, serverUrl, version, null, null);
+    }
+
+    /*
+     * If operations is not null then the instance record is added to the list of operations to be applied
+     *  as a batch rather than being inserted immediately
+     * If a downloader is also provided then the initial data is downloaded in the background.  In this case
+     *  the insert is returned in pendingInsert and should only be applied once pendingDownload has completed
+     *  successfully.
+     * Form details are only looked up once for each form while this ManageForm object is in use
+     */
+    public ManageFormResponse insertInstance(TaskResponseAssignment ta, long assignmentId, String source, String serverUrl, int version,
+                                             ArrayList<ContentProviderOperation> operations,
+                                             InitialDataDownloader downloader) {
 
-        int formVersion = ta.task.form_version;
         String initialDataURL = ta.task.initial_data;
 
         String instancePath = null;
         ManageFormResponse mfResponse = new ManageFormResponse();
-    	ManageFormDetails fd = getFormDetails(ta.task.form_id, null, source);    // Get the form details
+    	ManageFormDetails fd = formDetailsCache.get(ta.task.form_id);
+    	if(fd == null) {
+			fd = getFormDetails(ta.task.form_id, null, source);    // Get the form details
+			formDetailsCache.put(ta.task.form_id, fd);
+		}
 		
     	if(fd.exists) {
 
@@ -315,16 +335,21 @@ public class ManageForm {
 
 	  		 // Get the instance path
 	         instancePath = getInstancePath(fd.formPath, assignmentId, ta.task.update_id);
+	         boolean downloadInBackground = false;
 	         if(instancePath != null && initialDataURL != null) {
 	        	 File f = new File(instancePath);
                  try {
-                     Utilities smapUtilities = new Utilities();
-                     smapUtilities.downloadInstanceFile(f, initialDataURL, serverUrl, ta.task.form_id, version);
+                     if(operations != null && downloader != null) {
+                         mfResponse.pendingDownload = downloader.submit(f, initialDataURL, serverUrl, ta.task.form_id, version);
+                         downloadInBackground = true;
+                     } else {
+                         Utilities smapUtilities = new Utilities();
+                         smapUtilities.downloadInstanceFile(f, initialDataURL, serverUrl, ta.task.form_id, version);
+                     }
                  } catch (Exception e) {
                      e.printStackTrace();
                      mfResponse.isError = true;
-                     mfResponse.statusMsg = TranslationHandler.getString(Collect.getInstance(), R.string.smap_media_download, initialDataURL,instancePath )
-                             + " " + e.getMessage();
+                     mfResponse.statusMsg = getDownloadErrorMessage(initialDataURL, instancePath, e);
                      return mfResponse;
                  }
 
@@ -336,10 +361,28 @@ public class ManageForm {
 			    
 	         // Write the new instance entry into the instance content provider
 	         try {
-	        	 mfResponse.mUri = writeInstanceDatabase(ta.task.form_id, fd.version, fd.formName, fd.submissionUri,
+	        	 ContentValues values = getInstanceValues(ta.task.form_id, fd.version, fd.formName, fd.submissionUri,
                          instancePath, ta, fd.formPath);
+	        	 if(operations == null) {
+					 mfResponse.mUri = Collect.getInstance().getContentResolver()
+							 .insert(InstanceColumns.CONTENT_URI, values);
+				 } else {
+					 ContentProviderOperation insert = ContentProviderOperation.newInsert(InstanceColumns.CONTENT_URI)
+							 .withValues(values)
+							 .build();
+					 if(downloadInBackground) {
+						 mfResponse.pendingInsert = insert;
+					 } else {
+						 operations.add(insert);
+					 }
+				 }
 	         } catch (Throwable e) {
 	        	 e.printStackTrace();
+	        	 if(mfResponse.pendingDownload != null) {
+	        	 	// The instance will not be created so the initial data is not needed
+	        	 	mfResponse.pendingDownload.cancel(true);
+	        	 	mfResponse.pendingDownload = null;
+				 }
 	       		 mfResponse.isError = true;
 	    		 mfResponse.statusMsg = "Unable to insert instance " + ta.task.form_id + " into instance database.";
 	        	 return mfResponse;
@@ -354,8 +397,8 @@ public class ManageForm {
          return mfResponse;
     }
     
-    private Uri writeInstanceDatabase(String jrformid, String jrVersion, String formName,
-                                      String submissionUri, String instancePath, TaskResponseAssignment ta, String formPath) throws Throwable {
+    private ContentValues getInstanceValues(String jrformid, String jrVersion, String formName,
+                                      String submissionUri, String instancePath, TaskResponseAssignment ta, String formPath) {
     
     	ContentValues values = new ContentValues();
 	 
@@ -411,10 +454,14 @@ public class ManageForm {
 
         //values.put(InstanceColumns.CAN_EDIT_WHEN_COMPLETE, Boolean.toString(false));
 	
-    	return Collect.getInstance().getContentResolver()
-    			.insert(InstanceColumns.CONTENT_URI, values);
+    	return values;
     }
     
+    public String getDownloadErrorMessage(String initialDataURL, String instancePath, Throwable e) {
+        return TranslationHandler.getString(Collect.getInstance(), R.string.smap_media_download, initialDataURL, instancePath)
+                + " " + e.getMessage();
+    }
+
     /*
      * Instance path is based on basepath, filename, timestamp and the task id
      * Paramters
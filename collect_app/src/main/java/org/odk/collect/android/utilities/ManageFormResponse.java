@@ -1,7 +1,10 @@
 package org.odk.collect.android.utilities;
 
+import android.content.ContentProviderOperation;
 import android.net.Uri;
 
+import java.util.concurrent.Future;
+
 public class ManageFormResponse {
 	public String statusMsg;
 	public boolean isError;
@@ -9,4 +12,6 @@ public class ManageFormResponse {
 	public String formPath;
 	public String instancePath;
 	public int deletedFormCount;
+	public Future<Void> pendingDownload;				// Set if the initial data is being downloaded in the background
+	public ContentProviderOperation pendingInsert;		// Insert to apply once the pending download succeeds
 }
@@ -22,6 +22,7 @@ import static org.odk.collect.android.utilities.FileUtils.STUB_XML;
 import static org.odk.collect.android.utilities.FileUtils.write;
 import static java.lang.StrictMath.abs;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
@@ -432,24 +433,8 @@ public class Utilities {
                 InstanceColumns.T_UPDATEID
         };
 
-        String selectClause;
-        if (all_non_synchronised) {
-            selectClause = "(lower(" + InstanceColumns.SOURCE + ") = ?" +
-                    " or " + InstanceColumns.SOURCE + " = 'local')" +
-                    " and (" + InstanceColumns.T_IS_SYNC + " = ? or " + InstanceColumns.T_TASK_TYPE + " = 'case' ) ";
-        } else {
-            selectClause = "(lower(" + InstanceColumns.SOURCE + ") = ?" +
-                    " or " + InstanceColumns.SOURCE + " = 'local')" +
-                    " and " + InstanceColumns.T_TASK_STATUS + " != ? ";
-        }
-        if (!getDeletedTasks) {
-            selectClause += " and (" + InstanceColumns.DELETED_DATE + " is null or "
-                    + InstanceColumns.T_TASK_STATUS + " = 'submitted')";    // Show submitted tasks even if deleted
-        }
-
-        if (serverOnly) {
-            selectClause += "and " + InstanceColumns.T_ASS_ID + " is not null ";
-        }
+        boolean hasFilter = filter.trim().length() > 0;
+        String selectClause = getTaskSelection(all_non_synchronised, getDeletedTasks, serverOnly, hasFilter);
 
         ArrayList<String> selectArgsList = new ArrayList<>();
 
@@ -460,8 +445,7 @@ public class Utilities {
             selectArgsList.add(Utilities.STATUS_T_CLOSED);
         }
 
-        if (filter.trim().length() > 0) {
-            selectClause += " and " + InstanceColumns.T_TITLE + " LIKE ?";
+        if (hasFilter) {
             selectArgsList.add("%" + filter + "%");
         }
         String[] selectArgs = new String[selectArgsList.size()];
@@ -519,15 +503,13 @@ public class Utilities {
                         taskLocation.setLatitude(entry.schedLat);
                         taskLocation.setLongitude(entry.schedLon);
 
-                        float distance = location.distanceTo(taskLocation);
-
                         /*
                          * Do a quick check on latitude before the slower check on longitude
                          */
                         GeofenceEntry gfe = new GeofenceEntry(entry.showDist, taskLocation);
                         double yDistance = abs(location.getLatitude() - gfe.location.getLatitude()) * 111111.1;     // lattitude difference in meters
                         if (yDistance < entry.showDist) {            // rough check
-                            if (distance < entry.showDist) {        // detailed check
+                            if (location.distanceTo(taskLocation) < entry.showDist) {        // detailed check
                                 tasks.add(entry);
                                 gfe.in = true;
                             }
@@ -861,6 +843,21 @@ public class Utilities {
 
     }
 
+    /*
+     * Get an operation that sets the status for the provided assignment id when applied as part of a batch
+     */
+    public static ContentProviderOperation getSetStatusOperation(long assId, String status, String source) {
+
+        ContentValues values = new ContentValues();
+        values.put(InstanceColumns.T_TASK_STATUS, status);
+
+        return ContentProviderOperation.newUpdate(InstanceColumns.CONTENT_URI)
+                .withSelection(InstanceColumns.T_ASS_ID + " = " + assId + " and " + InstanceColumns.SOURCE + " = ?",
+                        new String[] {source})
+                .withValues(values)
+                .build();
+    }
+
     /*
      * Update parameters for the provided assignment id
      */
@@ -875,6 +872,23 @@ public class Utilities {
         String[] selectArgs = {""};
         selectArgs[0] = Utilities.getSource();
 
+        Collect.getInstance().getContentResolver().update(dbUri, getAssignmentParameterValues(ta), selectClause, selectArgs);
+
+    }
+
+    /*
+     * Get an operation that updates the parameters for the provided assignment id when applied as part of a batch
+     */
+    public static ContentProviderOperation getUpdateParametersOperation(long assId, TaskResponseAssignment ta, String source) {
+        return ContentProviderOperation.newUpdate(InstanceColumns.CONTENT_URI)
+                .withSelection(InstanceColumns.T_ASS_ID + " = " + assId + " and " + InstanceColumns.SOURCE + " = ?",
+                        new String[] {source})
+                .withValues(getAssignmentParameterValues(ta))
+                .build();
+    }
+
+    private static ContentValues getAssignmentParameterValues(TaskResponseAssignment ta) {
+
         ContentValues values = new ContentValues();
         if (ta.task.scheduled_at != null) {
             values.put(InstanceColumns.T_SCHED_START, ta.task.scheduled_at.getTime());
@@ -912,8 +926,7 @@ public class Utilities {
             values.put(InstanceColumns.GEOMETRY_TYPE, ta.location.geometry.type);
         }
 
-        Collect.getInstance().getContentResolver().update(dbUri, values, selectClause, selectArgs);
-
+        return values;
     }
 
     /*
@@ -1326,7 +1339,37 @@ public class Utilities {
         return empty;
     }
 
-    private static String getTaskSortOrderExpr(int sortOrder) {
+    /*
+     * Get the where clause for the task list
+     * The source is stored in lower case so it is compared directly, allowing the instances indexes to be used
+     */
+    static String getTaskSelection(boolean all_non_synchronised, boolean getDeletedTasks, boolean serverOnly, boolean hasFilter) {
+        String selectClause;
+        if (all_non_synchronised) {
+            selectClause = "(" + InstanceColumns.SOURCE + " = ?" +
+                    " or " + InstanceColumns.SOURCE + " = 'local')" +
+                    " and (" + InstanceColumns.T_IS_SYNC + " = ? or " + InstanceColumns.T_TASK_TYPE + " = 'case' ) ";
+        } else {
+            selectClause = "(" + InstanceColumns.SOURCE + " = ?" +
+                    " or " + InstanceColumns.SOURCE + " = 'local')" +
+                    " and " + InstanceColumns.T_TASK_STATUS + " != ? ";
+        }
+        if (!getDeletedTasks) {
+            selectClause += " and (" + InstanceColumns.DELETED_DATE + " is null or "
+                    + InstanceColumns.T_TASK_STATUS + " = 'submitted')";    // Show submitted tasks even if deleted
+        }
+
+        if (serverOnly) {
+            selectClause += "and " + InstanceColumns.T_ASS_ID + " is not null ";
+        }
+
+        if (hasFilter) {
+            selectClause += " and " + InstanceColumns.T_TITLE + " LIKE ?";
+        }
+        return selectClause;
+    }
+
+    static String getTaskSortOrderExpr(int sortOrder) {
         String sortOrderExpr = InstanceColumns.T_SCHED_START + " ASC, " + InstanceColumns.T_TITLE + " COLLATE NOCASE ASC";
 
         switch (sortOrder) {
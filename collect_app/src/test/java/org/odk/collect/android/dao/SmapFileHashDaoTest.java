@@ -0,0 +1,112 @@
+package org.odk.collect.android.dao;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.application.Collect;
+import org.odk.collect.android.database.SmapFileHashDatabaseHelper;
+import org.odk.collect.android.utilities.FileUtils;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import static org.apache.commons.io.FileUtils.writeStringToFile;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+@RunWith(RobolectricTestRunner.class)
+public class SmapFileHashDaoTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private SmapFileHashDao dao;
+    private File file;
+
+    @Before
+    public void setup() throws Exception {
+        dao = new SmapFileHashDao(new InMemoryHelper());
+        file = temporaryFolder.newFile("media.csv");
+        write(file, "a,b\n1,2\n");
+        file.setLastModified(1000000L);
+    }
+
+    @Test
+    public void returnsHashOfFile() {
+        assertThat(dao.getMd5Hash(file), is(FileUtils.getMd5Hash(file)));
+    }
+
+    @Test
+    public void usesStoredHashWhenFileIsUnchanged() throws Exception {
+        String original = dao.getMd5Hash(file);
+
+        // Same size and modified time so the content is not read again
+        write(file, "a,b\n3,4\n");
+        file.setLastModified(1000000L);
+
+        assertThat(dao.getMd5Hash(file), is(original));
+    }
+
+    @Test
+    public void recalculatesHashWhenModifiedTimeChanges() throws Exception {
+        dao.getMd5Hash(file);
+
+        write(file, "a,b\n3,4\n");
+        file.setLastModified(2000000L);
+
+        assertThat(dao.getMd5Hash(file), is(FileUtils.getMd5Hash(file)));
+    }
+
+    @Test
+    public void recalculatesHashWhenSizeChanges() throws Exception {
+        dao.getMd5Hash(file);
+
+        write(file, "a,b\n1,2\n3,4\n");
+        file.setLastModified(1000000L);
+
+        assertThat(dao.getMd5Hash(file), is(FileUtils.getMd5Hash(file)));
+    }
+
+    @Test
+    public void recalculatesHashAfterRemove() throws Exception {
+        dao.getMd5Hash(file);
+        dao.remove(file);
+
+        write(file, "a,b\n3,4\n");
+        file.setLastModified(1000000L);
+
+        assertThat(dao.getMd5Hash(file), is(FileUtils.getMd5Hash(file)));
+    }
+
+    @Test
+    public void missingFileHasNoHash() {
+        assertThat(dao.getMd5Hash(new File(temporaryFolder.getRoot(), "missing.csv")), nullValue());
+    }
+
+    private void write(File f, String content) throws Exception {
+        writeStringToFile(f, content, StandardCharsets.UTF_8);
+    }
+
+    private static class InMemoryHelper extends SQLiteOpenHelper {
+
+        InMemoryHelper() {
+            super(Collect.getInstance(), null, null, 1);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            SmapFileHashDatabaseHelper.createLatestVersion(db);
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
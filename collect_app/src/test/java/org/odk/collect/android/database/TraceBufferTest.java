@@ -0,0 +1,119 @@
+package org.odk.collect.android.database;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class TraceBufferTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final List<List<TraceBuffer.TracePoint>> batches = new ArrayList<>();
+    private boolean failWrites;
+    private File journal;
+
+    private final TraceBuffer.Sink sink = points -> {
+        if (failWrites) {
+            throw new Exception("database unavailable");
+        }
+        batches.add(points);
+    };
+
+    @Before
+    public void setup() {
+        journal = new File(temporaryFolder.getRoot(), "trace_journal.txt");
+    }
+
+    @Test
+    public void pointsAreWrittenWhenBatchSizeIsReached() {
+        TraceBuffer buffer = new TraceBuffer(journal, sink, 10, 3, 60000);
+
+        buffer.add(point(1000));
+        buffer.add(point(2000));
+        assertThat(batches.size(), is(0));
+
+        buffer.add(point(3000));
+        assertThat(batches.size(), is(1));
+        assertThat(batches.get(0).size(), is(3));
+        assertThat(batches.get(0).get(0).time, is(1000L));
+        assertThat(buffer.size(), is(0));
+    }
+
+    @Test
+    public void pointsAreWrittenWhenFlushIntervalHasPassed() {
+        TraceBuffer buffer = new TraceBuffer(journal, sink, 10, 5, 60000);
+
+        buffer.add(point(1000));
+        buffer.add(point(61000));
+
+        assertThat(batches.size(), is(1));
+        assertThat(batches.get(0).size(), is(2));
+    }
+
+    @Test
+    public void explicitFlushWritesRemainingPoints() {
+        TraceBuffer buffer = new TraceBuffer(journal, sink, 10, 5, 60000);
+        buffer.add(point(1000));
+
+        assertThat(buffer.flush(), is(true));
+        assertThat(batches.get(0).size(), is(1));
+        assertThat(journal.exists(), is(false));
+    }
+
+    @Test
+    public void pointsAreKeptWhenWriteFails() {
+        TraceBuffer buffer = new TraceBuffer(journal, sink, 10, 2, 60000);
+        failWrites = true;
+        buffer.add(point(1000));
+        buffer.add(point(2000));
+
+        assertThat(buffer.size(), is(2));
+
+        failWrites = false;
+        buffer.flush();
+        assertThat(batches.get(0).size(), is(2));
+    }
+
+    @Test
+    public void oldestPointsAreDiscardedWhenBufferIsFull() {
+        TraceBuffer buffer = new TraceBuffer(journal, sink, 3, 10, 60000);
+        failWrites = true;
+        for (int i = 1; i <= 5; i++) {
+            buffer.add(point(i));
+        }
+
+        List<TraceBuffer.TracePoint> points = buffer.getBufferedPoints();
+        assertThat(points.size(), is(3));
+        assertThat(points.get(0).time, is(3L));
+        assertThat(points.get(2).time, is(5L));
+    }
+
+    @Test
+    public void unwrittenPointsAreRecoveredFromJournal() {
+        TraceBuffer buffer = new TraceBuffer(journal, sink, 10, 5, 60000);
+        buffer.add(point(1000));
+        buffer.add(point(2000));
+
+        // Simulate the app stopping before the buffer is flushed
+        new TraceBuffer(journal, sink, 10, 5, 60000);
+
+        assertThat(batches.size(), is(1));
+        assertThat(batches.get(0).size(), is(2));
+        assertThat(batches.get(0).get(1).time, is(2000L));
+        assertThat(batches.get(0).get(1).source, is("server"));
+        assertThat(batches.get(0).get(1).lat, is(-33.5));
+    }
+
+    private TraceBuffer.TracePoint point(long time) {
+        return new TraceBuffer.TracePoint("server", -33.5, 151.25, time);
+    }
+}
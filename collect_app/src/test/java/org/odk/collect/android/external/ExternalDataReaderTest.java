@@ -8,6 +8,8 @@ import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.odk.collect.android.preferences.GeneralKeys;
+import org.odk.collect.android.preferences.GeneralSharedPreferences;
 import org.odk.collect.android.storage.StorageInitializer;
 import org.odk.collect.android.storage.StoragePathProvider;
 import org.odk.collect.android.storage.StorageSubdirectory;
@@ -25,6 +27,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -215,6 +219,140 @@ public class ExternalDataReaderTest {
         assertThat("expected zero rows of data after reimporting unchanged file", cursor.getCount(), is(0));
     }
 
+    @Test
+    public void shouldUpdateDBforDataSet_doesNotHashFileWhoseSizeAndTimeAreUnchanged() throws IOException {
+        ExternalDataReader externalDataReader = new ExternalDataReaderImpl(null);
+        externalDataReader.doImport(formDefToCsvMedia);
+
+        // Change the content but keep the size and modification time
+        long lastModified = csvFile.lastModified();
+        String content = new String(Files.readAllBytes(csvFile.toPath()), StandardCharsets.UTF_8);
+        try (Writer out = new BufferedWriter(new FileWriter(csvFile))) {
+            out.write(content.replace('a', 'b'));
+        }
+        csvFile.setLastModified(lastModified);
+        assertThat(ExternalSQLiteOpenHelper.shouldUpdateDBforDataSet(dbFile, csvFile), is(false));
+
+        csvFile.setLastModified(lastModified + 2000);
+        assertThat(ExternalSQLiteOpenHelper.shouldUpdateDBforDataSet(dbFile, csvFile), is(true));
+    }
+
+    @Test
+    public void shouldUpdateDBforDataSet_recordsTimeOfRewrittenFileWithSameContent() {
+        ExternalDataReader externalDataReader = new ExternalDataReaderImpl(null);
+        externalDataReader.doImport(formDefToCsvMedia);
+        csvFile.setLastModified(csvFile.lastModified() + 2000);
+
+        assertThat(ExternalSQLiteOpenHelper.shouldUpdateDBforDataSet(dbFile, csvFile), is(false));
+
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        assertThat(ExternalSQLiteOpenHelper.isFileStampUnchanged(db, EXTERNAL_METADATA_TABLE_NAME, csvFile), is(true));
+        db.close();
+    }
+
+    @Test
+    public void importExternalData_createsDatabaseBeforeFormIsOpened() {
+        assertThat(ExternalDataUtil.isImportRequired(formDefToCsvMedia), is(true));
+
+        ExternalDataUtil.importExternalData(csvFile.getParentFile(), null);
+
+        assertThat(dbFile.exists(), is(true));
+        assertThat(ExternalDataUtil.isImportRequired(formDefToCsvMedia), is(false));
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        assertThat(db.rawQuery(SELECT_ALL_DATA_QUERY, null).getCount(), is(3));
+        db.close();
+    }
+
+    @Test
+    public void doImport_appliesChangedRowsInPlaceWhenFileHasKeyColumn() throws IOException {
+        ExternalDataReader externalDataReader = new ExternalDataReaderImpl(null);
+        externalDataReader.doImport(formDefToCsvMedia);
+
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READWRITE);
+        long mangoRowId = getRowId(db, "mango");
+        db.execSQL("INSERT INTO " + EXTERNAL_DATA_TABLE_NAME + " (c_name_key, c_name, c_sortby, _local) VALUES ('local', 'Local', -1, 1)");
+        db.close();
+
+        try (Writer out = new BufferedWriter(new FileWriter(csvFile))) {
+            out.write("name_key,name\nmango,Mango\noranges,Navel oranges\ncherimoya,Cherimoya");
+        }
+
+        externalDataReader = new ExternalDataReaderImpl(null);
+        externalDataReader.doImport(formDefToCsvMedia);
+
+        db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        assertThat(db.rawQuery(SELECT_ALL_DATA_QUERY, null).getCount(), is(4));
+        assertThat("unchanged row should not be rewritten", getRowId(db, "mango"), is(mangoRowId));
+        assertThat(getName(db, "oranges"), is("Navel oranges"));
+        assertThat(getName(db, "cherimoya"), is("Cherimoya"));
+        assertThat(getRowId(db, "strawberries"), is(-1L));
+        assertThat("local data should be retained", getRowId(db, "local"), is(not(-1L)));
+        assertThat(ExternalSQLiteOpenHelper.getLastMd5Hash(db, EXTERNAL_METADATA_TABLE_NAME, csvFile), is(FileUtils.getMd5Hash(csvFile)));
+        db.close();
+    }
+
+    @Test
+    public void doImport_reimportsCsvIfKeysAreDuplicated() throws IOException {
+        ExternalDataReader externalDataReader = new ExternalDataReaderImpl(null);
+        externalDataReader.doImport(formDefToCsvMedia);
+
+        try (Writer out = new BufferedWriter(new FileWriter(csvFile))) {
+            out.write("name_key,name\nmango,Mango\nmango,Green mango");
+        }
+
+        externalDataReader = new ExternalDataReaderImpl(null);
+        externalDataReader.doImport(formDefToCsvMedia);
+
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        assertThat(db.rawQuery(SELECT_ALL_DATA_QUERY, null).getCount(), is(2));
+        db.close();
+    }
+
+    @Test
+    public void doImport_fullTextIndexFollowsChangesAppliedInPlace() throws IOException {
+        GeneralSharedPreferences.getInstance().save(GeneralKeys.KEY_SMAP_EXTERNAL_FTS, true);
+        ExternalDataReader externalDataReader = new ExternalDataReaderImpl(null);
+        externalDataReader.doImport(formDefToCsvMedia);
+
+        try (Writer out = new BufferedWriter(new FileWriter(csvFile))) {
+            out.write("name_key,name\nmango,Mango\noranges,Navel oranges\ncherimoya,Cherimoya");
+        }
+
+        externalDataReader = new ExternalDataReaderImpl(null);
+        externalDataReader.doImport(formDefToCsvMedia);
+
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        int version = ExternalDataFts.getVersion(db);
+        assertThat(version, is(not(ExternalDataFts.NONE)));
+        assertThat(ExternalDataFts.getColumns(db).contains("c_name"), is(true));
+        assertThat(searchIndex(db, version, "navel"), is(getRowId(db, "oranges")));
+        assertThat(searchIndex(db, version, "cherim"), is(getRowId(db, "cherimoya")));
+        assertThat(searchIndex(db, version, "strawb"), is(-1L));
+        db.close();
+    }
+
+    private static long searchIndex(SQLiteDatabase db, int version, String prefix) {
+        String sql = version == ExternalDataFts.FTS5
+                ? "SELECT rowid FROM " + ExternalDataFts.FTS_TABLE_NAME + " WHERE c_name LIKE ?"
+                : "SELECT docid FROM " + ExternalDataFts.FTS_TABLE_NAME + " WHERE " + ExternalDataFts.FTS_TABLE_NAME + " MATCH ?";
+        String arg = version == ExternalDataFts.FTS5 ? prefix + "%" : "c_name:" + prefix + "*";
+        try (Cursor c = db.rawQuery(sql, new String[] {arg})) {
+            return c.moveToFirst() ? c.getLong(0) : -1L;
+        }
+    }
+
+    private static long getRowId(SQLiteDatabase db, String key) {
+        try (Cursor c = db.rawQuery("SELECT rowid FROM " + EXTERNAL_DATA_TABLE_NAME + " WHERE c_name_key = ?", new String[] {key})) {
+            return c.moveToFirst() ? c.getLong(0) : -1L;
+        }
+    }
+
+    private static String getName(SQLiteDatabase db, String key) {
+        try (Cursor c = db.rawQuery("SELECT c_name FROM " + EXTERNAL_DATA_TABLE_NAME + " WHERE c_name_key = ?", new String[] {key})) {
+            return c.moveToFirst() ? c.getString(0) : null;
+        }
+    }
+
     private static Map<String, File> makeExternalDataMap() {
         Map<String, File> externalDataMap = new HashMap<>();
         externalDataMap.put(SIMPLE_SEARCH_EXTERNAL_CSV_NAME, csvFile);
@@ -0,0 +1,82 @@
+package org.odk.collect.android.external;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ExternalDataResultCacheTest {
+
+    private File mediaFolder;
+    private ExternalDataResultCache cache;
+
+    @Before
+    public void setUp() {
+        mediaFolder = new File("result-cache-test-media");
+        cache = new ExternalDataResultCache(mediaFolder);
+    }
+
+    @Test
+    public void get_returnsCachedResultAndCountsHitsAndMisses() {
+        String key = ExternalDataResultCache.createKey("pulldata", "name", null, "name_key", "mango");
+        assertThat(cache.get("fruits", key), is(nullValue()));
+
+        cache.put("fruits", key, "Mango");
+        assertThat(cache.get("fruits", key), is("Mango"));
+        assertThat(cache.get("vegetables", key), is(nullValue()));
+
+        assertThat(cache.getHitCount(), is(1));
+        assertThat(cache.getMissCount(), is(2));
+    }
+
+    @Test
+    public void createKey_distinguishesNullFromEmptyArguments() {
+        assertThat(ExternalDataResultCache.createKey("a", null).equals(ExternalDataResultCache.createKey("a", "")), is(false));
+        assertThat(ExternalDataResultCache.createKey("a", "b").equals(ExternalDataResultCache.createKey("ab")), is(false));
+    }
+
+    @Test
+    public void get_returnsNullAfterDatabaseIsInvalidated() {
+        String key = ExternalDataResultCache.createKey("pulldata", "name");
+        cache.put("fruits", key, "Mango");
+        cache.put("vegetables", key, "Carrot");
+
+        ExternalDataResultCache.invalidate(new File(mediaFolder, "fruits.db"));
+
+        assertThat(cache.get("fruits", key), is(nullValue()));
+        assertThat(cache.get("vegetables", key), is("Carrot"));
+    }
+
+    @Test
+    public void get_returnsCopyOfCachedList() {
+        List<String> choices = new ArrayList<>();
+        choices.add("Mango");
+        String key = ExternalDataResultCache.createKey("search");
+        cache.put("fruits", key, choices);
+        choices.add("Oranges");
+
+        @SuppressWarnings("unchecked")
+        List<String> cached = (List<String>) cache.get("fruits", key);
+        assertThat(cached.size(), is(1));
+        cached.clear();
+        assertThat(((List<?>) cache.get("fruits", key)).size(), is(1));
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedResults() {
+        for (int i = 0; i < 250; i++) {
+            cache.put("fruits", ExternalDataResultCache.createKey(String.valueOf(i)), "value" + i);
+            cache.get("fruits", ExternalDataResultCache.createKey("0"));
+        }
+
+        assertThat(cache.size(), is(200));
+        assertThat(cache.get("fruits", ExternalDataResultCache.createKey("0")), is("value0"));
+        assertThat(cache.get("fruits", ExternalDataResultCache.createKey("1")), is(nullValue()));
+    }
+}
@@ -1,5 +1,7 @@
 package org.odk.collect.android.external;
 
+import org.javarosa.xpath.XPathParseTool;
+import org.javarosa.xpath.expr.XPathFuncExpr;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -26,4 +28,18 @@ public class ExternalDataUtilTest {
         Assert.assertEquals("c_new_line", ExternalDataUtil.toSafeColumnName("new\nline"));
         Assert.assertEquals("c_double_quote", ExternalDataUtil.toSafeColumnName("double\"quote"));
     }
+
+    @Test
+    public void isStaticSearch_isTrueOnlyWhenAllArgumentsAreLiterals() throws Exception {
+        Assert.assertTrue(ExternalDataUtil.isStaticSearch(search("search('fruits')")));
+        Assert.assertTrue(ExternalDataUtil.isStaticSearch(search("search('fruits', 'matches', 'name', 'mango')")));
+
+        Assert.assertFalse(ExternalDataUtil.isStaticSearch(search("search('fruits', 'matches', 'name', /data/fruit)")));
+        Assert.assertFalse(ExternalDataUtil.isStaticSearch(search("search('fruits', 'eval', 'name = /main/fruit')")));
+        Assert.assertFalse(ExternalDataUtil.isStaticSearch(null));
+    }
+
+    private static XPathFuncExpr search(String function) throws Exception {
+        return (XPathFuncExpr) XPathParseTool.parseXPath(function);
+    }
 }
@@ -0,0 +1,111 @@
+package org.odk.collect.android.external.handler;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Environment;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.external.ExternalDataFts;
+import org.odk.collect.android.external.ExternalDataManagerImpl;
+import org.odk.collect.android.external.ExternalDataReaderImpl;
+import org.odk.collect.android.external.ExternalDataUtil;
+import org.odk.collect.android.external.ExternalSQLiteOpenHelper;
+import org.odk.collect.android.storage.StorageInitializer;
+import org.odk.collect.android.storage.StoragePathProvider;
+import org.odk.collect.android.storage.StorageSubdirectory;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowEnvironment;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class ExternalDataFtsSelectionTest {
+
+    private static final String DATA_SET_NAME = "fts-fruits";
+    private static final String COLUMN = "c_name";
+
+    private ExternalDataManagerImpl externalDataManager;
+    private ExternalSQLiteOpenHelper helper;
+
+    @Before
+    public void setUp() throws IOException {
+        ShadowEnvironment.setExternalStorageState(Environment.MEDIA_MOUNTED);
+        new StorageInitializer().createOdkDirsOnStorage();
+
+        File mediaDir = new File(new StoragePathProvider().getDirPath(StorageSubdirectory.FORMS), "fts-media");
+        mediaDir.mkdir();
+        File csvFile = new File(mediaDir, DATA_SET_NAME + ".csv");
+        try (Writer out = new BufferedWriter(new FileWriter(csvFile))) {
+            out.write("name_key,name\n"
+                    + "1,Mango\n"
+                    + "2,Green mango\n"
+                    + "3,Mangosteen\n"
+                    + "4,Navel oranges\n"
+                    + "5,Blood orange\n"
+                    + "6,ORANGE juice\n"
+                    + "7,Strawberries\n"
+                    + "8,Cherimoya\n");
+        }
+
+        new ExternalDataReaderImpl(null).doImport(ExternalDataUtil.getExternalDataMap(mediaDir));
+        externalDataManager = new ExternalDataManagerImpl(mediaDir);
+        helper = externalDataManager.getDatabase(DATA_SET_NAME, true);
+    }
+
+    @After
+    public void tearDown() {
+        externalDataManager.close();
+    }
+
+    @Test
+    public void create_returnsTheSameRowsAsTheLikeExpression() {
+        assertThat(helper.getFtsVersion(), is(not(ExternalDataFts.NONE)));
+
+        ExternalDataSearchType[] types = {ExternalDataSearchType.CONTAINS, ExternalDataSearchType.STARTS,
+                ExternalDataSearchType.ENDS, ExternalDataSearchType.MATCHES};
+        String[] values = {"mango", "Mango", "orange", "orange juice", "ango", "berries", "cherimoya", "kiwi"};
+
+        SQLiteDatabase db = helper.getReadableDatabase();
+        int indexed = 0;
+        for (ExternalDataSearchType type : types) {
+            for (String value : values) {
+                List<String> queriedValues = Collections.singletonList(value);
+                ExternalDataFtsSelection fts = ExternalDataFtsSelection.create(helper,
+                        Collections.singletonList(COLUMN), queriedValues, type);
+                if (fts == null) {
+                    continue;
+                }
+                indexed++;
+
+                List<Long> expected = query(db, COLUMN + " LIKE ?", type.constructLikeArguments(queriedValues));
+                assertThat(type + " " + value, query(db, fts.selection, fts.selectionArgs), is(expected));
+            }
+        }
+        assertThat(indexed > 0, is(true));
+    }
+
+    private static List<Long> query(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        List<Long> rowIds = new ArrayList<>();
+        try (Cursor c = db.query(ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME, new String[] {"rowid"},
+                selection, selectionArgs, null, null, "rowid")) {
+            while (c.moveToNext()) {
+                rowIds.add(c.getLong(0));
+            }
+        }
+        return rowIds;
+    }
+}
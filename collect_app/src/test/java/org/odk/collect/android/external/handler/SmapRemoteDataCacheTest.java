@@ -0,0 +1,156 @@
+package org.odk.collect.android.external.handler;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.NetworkInfo;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.dao.SmapRemoteCacheDao;
+import org.odk.collect.android.database.SmapRemoteCacheDatabaseHelper;
+import org.odk.collect.android.network.NetworkStateProvider;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class SmapRemoteDataCacheTest {
+
+    private SmapRemoteCacheDao dao;
+
+    @Before
+    public void setUp() {
+        SQLiteOpenHelper helper = new SQLiteOpenHelper(ApplicationProvider.getApplicationContext(), null, null, 1) {
+            @Override
+            public void onCreate(SQLiteDatabase db) {
+                SmapRemoteCacheDatabaseHelper.createLatestVersion(db);
+            }
+
+            @Override
+            public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            }
+        };
+        dao = new SmapRemoteCacheDao(helper);
+    }
+
+    @Test
+    public void get_returnsStoredResponseInANewCache() {
+        new SmapRemoteDataCache(dao).put(item("url", "{\"name\":\"Mango\"}"));
+
+        SmapRemoteDataItem item = new SmapRemoteDataCache(dao).get("url");
+        assertThat(item.getRecord().get("name"), is("Mango"));
+    }
+
+    @Test
+    public void get_doesNotReturnExpiredResponses() {
+        SmapRemoteDataItem expired = item("url", "{}");
+        expired.storedTime = System.currentTimeMillis() - SmapRemoteDataCache.TTL - 1;
+        SmapRemoteDataCache cache = new SmapRemoteDataCache(dao);
+        cache.put(expired);
+
+        assertThat(cache.get("url"), nullValue());
+        assertThat(new SmapRemoteDataCache(dao).get("url"), nullValue());
+    }
+
+    @Test
+    public void put_doesNotStoreErrors() {
+        SmapRemoteDataItem error = item("url", "timeout");
+        error.error = true;
+        SmapRemoteDataCache cache = new SmapRemoteDataCache(dao);
+        cache.put(error);
+
+        assertThat(cache.get("url").getRecord(), nullValue());
+        assertThat(new SmapRemoteDataCache(dao).get("url"), nullValue());
+    }
+
+    @Test
+    public void startRequest_returnsFalseUntilTheResponseIsPut() {
+        SmapRemoteDataCache cache = new SmapRemoteDataCache(dao);
+        assertThat(cache.startRequest("url"), is(true));
+        assertThat(cache.startRequest("url"), is(false));
+
+        cache.put(item("url", null));
+        assertThat(cache.startRequest("url"), is(true));
+    }
+
+    @Test
+    public void removePerSubmission_removesResponsesFromBothTiers() {
+        SmapRemoteDataCache cache = new SmapRemoteDataCache(dao);
+        SmapRemoteDataItem perSubmission = item("a", "{}");
+        perSubmission.perSubmission = true;
+        cache.put(perSubmission);
+        cache.put(item("b", "{}"));
+
+        cache.removePerSubmission();
+
+        assertThat(cache.get("a"), nullValue());
+        assertThat(cache.get("b"), notNullValue());
+    }
+
+    @Test
+    public void get_onlyUsesResponsesDownloadedInAdvanceWhenOffline() {
+        SmapRemoteDataCache cache = new SmapRemoteDataCache(dao);
+        cache.putOffline(item("url", "{\"name\":\"Mango\"}"));
+
+        assertThat(cache.get("url", network(true)), nullValue());
+        assertThat(cache.get("url", network(false)).getRecord().get("name"), is("Mango"));
+
+        SmapRemoteDataItem error = item("url", "timeout");
+        error.error = true;
+        cache.put(error);
+        assertThat(cache.get("url", network(false)).getRecord().get("name"), is("Mango"));
+
+        cache.put(item("url", "{\"name\":\"Green mango\"}"));
+        assertThat(cache.get("url", network(false)).getRecord().get("name"), is("Green mango"));
+    }
+
+    @Test
+    public void hasOffline_returnsFalseForResponsesStoredBeforeTheMinimumTime() {
+        SmapRemoteDataCache cache = new SmapRemoteDataCache(dao);
+        SmapRemoteDataItem old = item("url", "{}");
+        old.storedTime = System.currentTimeMillis() - 2000;
+        cache.putOffline(old);
+
+        assertThat(cache.hasOffline("url", System.currentTimeMillis() - 5000), is(true));
+        assertThat(cache.hasOffline("url", System.currentTimeMillis() - 1000), is(false));
+        assertThat(cache.hasOffline("other", 0), is(false));
+    }
+
+    @Test
+    public void memoryTierIsBounded() {
+        SmapRemoteDataCache cache = new SmapRemoteDataCache(null);
+        for (int i = 0; i <= SmapRemoteDataCache.MAX_MEMORY_ITEMS; i++) {
+            cache.put(item("url" + i, "{}"));
+        }
+
+        assertThat(cache.getMemorySize(), is(SmapRemoteDataCache.MAX_MEMORY_ITEMS));
+        assertThat(cache.get("url0"), nullValue());
+    }
+
+    private static NetworkStateProvider network(boolean online) {
+        return new NetworkStateProvider() {
+            @Override
+            public boolean isDeviceOnline() {
+                return online;
+            }
+
+            @Override
+            public NetworkInfo getNetworkInfo() {
+                return null;
+            }
+        };
+    }
+
+    private static SmapRemoteDataItem item(String key, String data) {
+        SmapRemoteDataItem item = new SmapRemoteDataItem();
+        item.key = key;
+        item.data = data;
+        return item;
+    }
+}
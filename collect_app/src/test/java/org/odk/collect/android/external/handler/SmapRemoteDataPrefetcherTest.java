@@ -0,0 +1,67 @@
+package org.odk.collect.android.external.handler;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class SmapRemoteDataPrefetcherTest {
+
+    private static final String FORM = "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\""
+            + " xmlns:jr=\"http://openrosa.org/javarosa\">"
+            + "<h:head><model>"
+            + "<itext><translation lang=\"English\" default=\"true()\">"
+            + "<text id=\"/main/region/name:label\"><value>name</value></text>"
+            + "</translation></itext>"
+            + "<instance><main id=\"s1_1\"><id/><name/><region/></main></instance>"
+            + "<bind nodeset=\"/main/name\" calculate=\"lookup('linked_s2', 'name', 'id', /main/id)\"/>"
+            + "<bind nodeset=\"/main/count\" calculate=\"lookup('linked_s2', 'name', &quot;c_id &gt; 0&quot;)\"/>"
+            + "</model></h:head>"
+            + "<h:body>"
+            + "<select1 ref=\"/main/region\" appearance=\"minimal lookup_choices('linked_s3')\">"
+            + "<item><label ref=\"jr:itext('/main/region/name:label')\"/><value>code</value></item>"
+            + "</select1>"
+            + "</h:body></h:html>";
+
+    @Test
+    public void findCalls_findsLookupsAndLookupChoices() throws Exception {
+        List<SmapRemoteDataPrefetcher.RemoteCall> calls = SmapRemoteDataPrefetcher.findCalls(stream(FORM));
+
+        assertThat(calls.size(), is(3));
+        assertThat(calls.get(2).displayColumns, is("name"));
+        assertThat(calls.get(2).valueColumn, is("code"));
+    }
+
+    @Test
+    public void addRequests_onlyRequestsCallsWhoseArgumentsAreKnown() throws Exception {
+        List<SmapRemoteDataPrefetcher.RemoteCall> calls = SmapRemoteDataPrefetcher.findCalls(stream(FORM));
+
+        Map<String, Boolean> requests = new LinkedHashMap<>();
+        SmapRemoteDataPrefetcher.addRequests("s1_1", calls, Collections.emptyMap(), requests);
+        assertThat(requests.size(), is(2));
+
+        Map<String, String> values = SmapRemoteDataPrefetcher.getInstanceValues(
+                stream("<main id=\"s1_1\"><id>42</id><name/></main>"));
+        SmapRemoteDataPrefetcher.addRequests("s1_1", calls, values, requests);
+        assertThat(requests.size(), is(3));
+
+        String url = new SmapRemoteDataHandlerLookup("s1_1")
+                .getRequest(new Object[] {"linked_s2", "name", "id", "42"}, null).url;
+        assertThat(requests.get(url), is(false));
+    }
+
+    private static InputStream stream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
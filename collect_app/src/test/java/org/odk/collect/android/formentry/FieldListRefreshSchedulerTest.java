@@ -0,0 +1,91 @@
+package org.odk.collect.android.formentry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.widgets.QuestionWidget;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+
+@RunWith(RobolectricTestRunner.class)
+public class FieldListRefreshSchedulerTest {
+
+    private final List<QuestionWidget> refreshes = new ArrayList<>();
+    private FieldListRefreshScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new FieldListRefreshScheduler(refreshes::add);
+    }
+
+    @Test
+    public void keystrokesInATextWidgetAreMergedIntoOneRefresh() {
+        QuestionWidget text = mock(QuestionWidget.class);
+
+        for (int i = 0; i < 5; i++) {
+            scheduler.schedule(text, true);
+            ShadowLooper.idleMainLooper(FieldListRefreshScheduler.TEXT_REFRESH_DELAY_MS - 1, TimeUnit.MILLISECONDS);
+        }
+        assertThat(refreshes.isEmpty(), is(true));
+
+        ShadowLooper.idleMainLooper(1, TimeUnit.MILLISECONDS);
+        assertThat(refreshes, is(Collections.singletonList(text)));
+
+        ShadowLooper.idleMainLooper(FieldListRefreshScheduler.TEXT_REFRESH_DELAY_MS, TimeUnit.MILLISECONDS);
+        assertThat(refreshes.size(), is(1));
+    }
+
+    @Test
+    public void otherWidgetsAreRefreshedStraightAway() {
+        QuestionWidget select = mock(QuestionWidget.class);
+
+        scheduler.schedule(select, false);
+
+        assertThat(refreshes, is(Collections.singletonList(select)));
+    }
+
+    @Test
+    public void aPendingRefreshIsRunBeforeAChangeToAnotherWidget() {
+        QuestionWidget text = mock(QuestionWidget.class);
+        QuestionWidget select = mock(QuestionWidget.class);
+
+        scheduler.schedule(text, true);
+        scheduler.schedule(select, false);
+
+        assertThat(refreshes, is(Arrays.asList(text, select)));
+        ShadowLooper.idleMainLooper(FieldListRefreshScheduler.TEXT_REFRESH_DELAY_MS, TimeUnit.MILLISECONDS);
+        assertThat(refreshes.size(), is(2));
+    }
+
+    @Test
+    public void flush_runsAPendingRefreshOnce() {
+        QuestionWidget text = mock(QuestionWidget.class);
+        scheduler.schedule(text, true);
+
+        scheduler.flush();
+        scheduler.flush();
+        ShadowLooper.idleMainLooper(FieldListRefreshScheduler.TEXT_REFRESH_DELAY_MS, TimeUnit.MILLISECONDS);
+
+        assertThat(refreshes, is(Collections.singletonList(text)));
+    }
+
+    @Test
+    public void cancel_dropsAPendingRefresh() {
+        scheduler.schedule(mock(QuestionWidget.class), true);
+
+        scheduler.cancel();
+        ShadowLooper.idleMainLooper(FieldListRefreshScheduler.TEXT_REFRESH_DELAY_MS, TimeUnit.MILLISECONDS);
+
+        assertThat(refreshes.isEmpty(), is(true));
+    }
+}
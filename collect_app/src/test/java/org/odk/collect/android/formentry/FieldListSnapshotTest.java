@@ -0,0 +1,214 @@
+package org.odk.collect.android.formentry;
+
+import com.google.common.io.Files;
+
+import org.javarosa.core.model.FormDef;
+import org.javarosa.core.model.FormIndex;
+import org.javarosa.core.model.data.IAnswerData;
+import org.javarosa.core.model.data.StringData;
+import org.javarosa.core.model.instance.InstanceInitializationFactory;
+import org.javarosa.form.api.FormEntryController;
+import org.javarosa.form.api.FormEntryModel;
+import org.javarosa.form.api.FormEntryPrompt;
+import org.javarosa.xform.util.XFormUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.javarosawrapper.FormController;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class FieldListSnapshotTest {
+
+    private FormController formController;
+    private FieldListSnapshot snapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        FormDef formDef = XFormUtils.getFormFromInputStream(new ByteArrayInputStream(FIELD_LIST.getBytes(StandardCharsets.UTF_8)));
+        formDef.initialize(true, new InstanceInitializationFactory());
+        formController = new FormController(Files.createTempDir(), new FormEntryController(new FormEntryModel(formDef)), File.createTempFile("instance", ""));
+        formController.stepToNextScreenEvent();
+
+        snapshot = new FieldListSnapshot(formController, formController.getQuestionPrompts());
+    }
+
+    @Test
+    public void saveChangedAnswers_onlySavesTheChangedAnswer() throws Exception {
+        Map<FormIndex, IAnswerData> widgetAnswers = getWidgetAnswers();
+        widgetAnswers.put(index("name"), new StringData("Jo"));
+
+        assertThat(snapshot.saveChangedAnswers(widgetAnswers, index("name")), is(1));
+        assertThat(answer("name"), is("Jo"));
+    }
+
+    @Test
+    public void saveChangedAnswers_alsoSavesAnswersThatNoLongerMatchTheModel() throws Exception {
+        Map<FormIndex, IAnswerData> widgetAnswers = getWidgetAnswers();
+        widgetAnswers.put(index("name"), new StringData("Jo"));
+        widgetAnswers.put(index("other"), new StringData("x"));
+
+        assertThat(snapshot.saveChangedAnswers(widgetAnswers, index("name")), is(2));
+        assertThat(answer("other"), is("x"));
+    }
+
+    @Test
+    public void saveChangedAnswers_doesNotOverwriteARecalculatedAnswer() throws Exception {
+        Map<FormIndex, IAnswerData> widgetAnswers = getWidgetAnswers();
+        widgetAnswers.put(index("name"), new StringData("Jo"));
+
+        // The copy widget still shows the old, empty answer when the name is saved
+        assertThat(snapshot.saveChangedAnswers(widgetAnswers, index("name")), is(1));
+        assertThat(answer("copy"), is("Jo"));
+    }
+
+    @Test
+    public void update_returnsOnlyTheQuestionsThatDidNotChange() throws Exception {
+        saveName("Jo");
+
+        Set<FormIndex> unchanged = snapshot.update(formController.getQuestionPrompts());
+
+        // The greeting's text, the age's relevance, the choices and the copy's calculated answer
+        // all depend on the name
+        assertThat(names(unchanged), is(Collections.singleton("other")));
+    }
+
+    @Test
+    public void update_keepsTheNewStateOfTheQuestionsThatChanged() throws Exception {
+        saveName("Jo");
+        snapshot.update(formController.getQuestionPrompts());
+
+        Map<FormIndex, IAnswerData> widgetAnswers = getWidgetAnswers();
+        widgetAnswers.put(index("other"), new StringData("x"));
+        snapshot.saveChangedAnswers(widgetAnswers, index("other"));
+        Set<FormIndex> unchanged = snapshot.update(formController.getQuestionPrompts());
+
+        assertThat(names(unchanged), is(new HashSet<>(Arrays.asList("name", "greeting", "age", "choice", "copy"))));
+    }
+
+    @Test
+    public void update_rebuildsQuestionsWhoseChoicesChanged() throws Exception {
+        saveName("Jo");
+        snapshot.update(formController.getQuestionPrompts());
+        assertThat(prompt("choice").getSelectChoices().size(), is(1));
+
+        // Same relevance and still one choice, but a different one
+        saveName("Al");
+        Set<FormIndex> unchanged = snapshot.update(formController.getQuestionPrompts());
+
+        assertThat(unchanged.contains(index("choice")), is(false));
+        assertThat(unchanged.contains(index("age")), is(true));
+    }
+
+    private void saveName(String name) throws Exception {
+        Map<FormIndex, IAnswerData> widgetAnswers = getWidgetAnswers();
+        widgetAnswers.put(index("name"), new StringData(name));
+        snapshot.saveChangedAnswers(widgetAnswers, index("name"));
+    }
+
+    /** Returns the answers the widgets would show for the questions currently on the screen. */
+    private Map<FormIndex, IAnswerData> getWidgetAnswers() throws Exception {
+        Map<FormIndex, IAnswerData> answers = new LinkedHashMap<>();
+        for (FormEntryPrompt question : formController.getQuestionPrompts()) {
+            answers.put(question.getIndex(), question.getAnswerValue());
+        }
+        return answers;
+    }
+
+    private FormEntryPrompt prompt(String name) throws Exception {
+        for (FormEntryPrompt question : formController.getQuestionPrompts()) {
+            if (question.getIndex().getReference().getNameLast().equals(name)) {
+                return question;
+            }
+        }
+        throw new AssertionError("No question " + name + " on the screen");
+    }
+
+    private FormIndex index(String name) throws Exception {
+        return prompt(name).getIndex();
+    }
+
+    private String answer(String name) throws Exception {
+        return prompt(name).getAnswerText();
+    }
+
+    private static Set<String> names(Set<FormIndex> indexes) {
+        Set<String> names = new HashSet<>();
+        for (FormIndex index : indexes) {
+            names.add(index.getReference().getNameLast());
+        }
+        return names;
+    }
+
+    private static final String FIELD_LIST = "<?xml version=\"1.0\"?>\n" +
+            "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\" xmlns:jr=\"http://openrosa.org/javarosa\">\n" +
+            "    <h:head>\n" +
+            "        <h:title>Field List</h:title>\n" +
+            "        <model>\n" +
+            "            <instance>\n" +
+            "                <data id=\"field_list\">\n" +
+            "                    <page>\n" +
+            "                        <name/>\n" +
+            "                        <greeting/>\n" +
+            "                        <age/>\n" +
+            "                        <choice/>\n" +
+            "                        <copy/>\n" +
+            "                        <other/>\n" +
+            "                    </page>\n" +
+            "                </data>\n" +
+            "            </instance>\n" +
+            "            <instance id=\"options\">\n" +
+            "                <root>\n" +
+            "                    <item><name>a</name><label>A</label><filter>Jo</filter></item>\n" +
+            "                    <item><name>b</name><label>B</label><filter>Al</filter></item>\n" +
+            "                </root>\n" +
+            "            </instance>\n" +
+            "            <bind nodeset=\"/data/page/name\" type=\"string\"/>\n" +
+            "            <bind nodeset=\"/data/page/greeting\" type=\"string\" readonly=\"true()\"/>\n" +
+            "            <bind nodeset=\"/data/page/age\" type=\"int\" relevant=\"/data/page/name != ''\"/>\n" +
+            "            <bind nodeset=\"/data/page/choice\" type=\"string\"/>\n" +
+            "            <bind nodeset=\"/data/page/copy\" type=\"string\" readonly=\"true()\" calculate=\"/data/page/name\"/>\n" +
+            "            <bind nodeset=\"/data/page/other\" type=\"string\"/>\n" +
+            "        </model>\n" +
+            "    </h:head>\n" +
+            "    <h:body>\n" +
+            "        <group ref=\"/data/page\" appearance=\"field-list\">\n" +
+            "            <input ref=\"/data/page/name\">\n" +
+            "                <label>Name</label>\n" +
+            "            </input>\n" +
+            "            <input ref=\"/data/page/greeting\">\n" +
+            "                <label>Hello <output value=\"/data/page/name\"/></label>\n" +
+            "            </input>\n" +
+            "            <input ref=\"/data/page/age\">\n" +
+            "                <label>Age</label>\n" +
+            "            </input>\n" +
+            "            <select1 ref=\"/data/page/choice\">\n" +
+            "                <label>Choice</label>\n" +
+            "                <itemset nodeset=\"instance('options')/root/item[filter = /data/page/name]\">\n" +
+            "                    <value ref=\"name\"/>\n" +
+            "                    <label ref=\"label\"/>\n" +
+            "                </itemset>\n" +
+            "            </select1>\n" +
+            "            <input ref=\"/data/page/copy\">\n" +
+            "                <label>Copy</label>\n" +
+            "            </input>\n" +
+            "            <input ref=\"/data/page/other\">\n" +
+            "                <label>Other</label>\n" +
+            "            </input>\n" +
+            "        </group>\n" +
+            "    </h:body>\n" +
+            "</h:html>\n";
+}
@@ -0,0 +1,164 @@
+package org.odk.collect.android.formentry;
+
+import android.view.View;
+
+import org.javarosa.core.model.FormIndex;
+import org.javarosa.form.api.FormEntryPrompt;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.R;
+import org.odk.collect.android.support.MockFormEntryPromptBuilder;
+import org.odk.collect.android.support.TestScreenContextActivity;
+import org.odk.collect.android.utilities.QuestionMediaManager;
+import org.odk.collect.android.widgets.QuestionWidget;
+import org.odk.collect.android.widgets.utilities.AudioPlayer;
+import org.odk.collect.android.widgets.utilities.ExternalAppRecordingRequester;
+import org.odk.collect.android.widgets.utilities.InternalRecordingRequester;
+import org.odk.collect.android.widgets.utilities.WaitingForDataRegistry;
+import org.odk.collect.audiorecorder.recording.AudioRecorder;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.odk.collect.android.widgets.support.QuestionWidgetHelpers.widgetTestActivity;
+
+@RunWith(RobolectricTestRunner.class)
+public class ODKViewTest {
+
+    private TestScreenContextActivity activity;
+
+    @Before
+    public void setUp() {
+        activity = widgetTestActivity();
+    }
+
+    @Test
+    public void aFieldListWithUpTo20Questions_bindsAllWidgets() {
+        ODKView odkView = createView(prompts(20));
+
+        assertThat(odkView.getWidgets().size(), is(20));
+        assertThat(odkView.hasPendingQuestions(), is(false));
+    }
+
+    @Test
+    public void aFieldListWithMoreThan20Questions_bindsTenWidgetsUpFront() {
+        FormEntryPrompt[] prompts = prompts(25);
+
+        ODKView odkView = createView(prompts);
+
+        assertThat(odkView.getWidgets().size(), is(10));
+        assertThat(odkView.getWidgets().get(9).getFormEntryPrompt(), is(prompts[9]));
+        assertThat(odkView.hasPendingQuestions(), is(true));
+    }
+
+    @Test
+    public void getAnswers_includesTheQuestionsWithoutAWidget() {
+        ODKView odkView = createView(prompts(25));
+
+        assertThat(odkView.getAnswers().size(), is(25));
+    }
+
+    @Test
+    public void highlightWidget_bindsTheWidgetsUpToTheHighlightedQuestion() {
+        FormEntryPrompt[] prompts = prompts(25);
+        ODKView odkView = createView(prompts);
+
+        // A constraint violation on a question that has no widget yet
+        odkView.highlightWidget(prompts[14].getIndex());
+
+        List<QuestionWidget> widgets = odkView.getWidgets();
+        assertThat(widgets.size(), is(15));
+        assertThat(widgets.get(14).getFormEntryPrompt(), is(prompts[14]));
+        assertThat(odkView.hasPendingQuestions(), is(true));
+    }
+
+    @Test
+    public void highlightWidget_forTheLastQuestion_bindsAllWidgets() {
+        FormEntryPrompt[] prompts = prompts(25);
+        ODKView odkView = createView(prompts);
+
+        odkView.highlightWidget(prompts[24].getIndex());
+
+        assertThat(odkView.getWidgets().size(), is(25));
+        assertThat(odkView.hasPendingQuestions(), is(false));
+    }
+
+    @Test
+    public void highlightWidget_forAQuestionWithAWidget_bindsNoMoreWidgets() {
+        FormEntryPrompt[] prompts = prompts(25);
+        ODKView odkView = createView(prompts);
+
+        odkView.highlightWidget(prompts[3].getIndex());
+
+        assertThat(odkView.getWidgets().size(), is(10));
+    }
+
+    @Test
+    public void highlightWidget_forAQuestionNotOnTheScreen_bindsNoMoreWidgets() {
+        ODKView odkView = createView(prompts(25));
+
+        odkView.highlightWidget(mock(FormIndex.class));
+
+        assertThat(odkView.getWidgets().size(), is(10));
+    }
+
+    @Test
+    public void whenTheBoundWidgetsAreNearTheVisibleArea_eachLayoutPassBindsFourMoreWidgets() {
+        ODKView odkView = createView(prompts(25));
+        layOut(odkView);
+
+        odkView.getViewTreeObserver().dispatchOnGlobalLayout();
+        assertThat(odkView.getWidgets().size(), is(14));
+
+        for (int i = 0; i < 3; i++) {
+            odkView.getViewTreeObserver().dispatchOnGlobalLayout();
+        }
+        assertThat(odkView.getWidgets().size(), is(25));
+        assertThat(odkView.hasPendingQuestions(), is(false));
+    }
+
+    @Test
+    public void setPendingQuestions_replacesTheQuestionsWithoutAWidget() {
+        FormEntryPrompt[] prompts = prompts(25);
+        ODKView odkView = createView(prompts);
+
+        odkView.setPendingQuestions(Arrays.asList(prompts).subList(20, 25));
+        assertThat(odkView.getAnswers().size(), is(15));
+
+        odkView.setPendingQuestions(Collections.emptyList());
+        assertThat(odkView.hasPendingQuestions(), is(false));
+        assertThat(odkView.getAnswers().size(), is(10));
+    }
+
+    private ODKView createView(FormEntryPrompt[] prompts) {
+        return new ODKView(activity, prompts, null, false, true, mock(QuestionMediaManager.class),
+                mock(WaitingForDataRegistry.class), mock(AudioPlayer.class), mock(AudioRecorder.class),
+                mock(FormEntryViewModel.class), mock(InternalRecordingRequester.class),
+                mock(ExternalAppRecordingRequester.class));
+    }
+
+    /** Gives the view a tall screen so that the bound widgets end well inside two screen heights. */
+    private static void layOut(ODKView odkView) {
+        int width = View.MeasureSpec.makeMeasureSpec(480, View.MeasureSpec.EXACTLY);
+        int height = View.MeasureSpec.makeMeasureSpec(4000, View.MeasureSpec.EXACTLY);
+        odkView.measure(width, height);
+        odkView.layout(0, 0, 480, 4000);
+        odkView.findViewById(R.id.odk_view_container).layout(0, 0, 480, 4000);
+    }
+
+    private static FormEntryPrompt[] prompts(int count) {
+        FormEntryPrompt[] prompts = new FormEntryPrompt[count];
+        for (int i = 0; i < count; i++) {
+            prompts[i] = new MockFormEntryPromptBuilder()
+                    .withIndex(String.valueOf(i))
+                    .build();
+        }
+        return prompts;
+    }
+}
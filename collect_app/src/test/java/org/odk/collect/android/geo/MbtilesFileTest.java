@@ -0,0 +1,106 @@
+package org.odk.collect.android.geo;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class MbtilesFileTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private SQLiteDatabase db;  // a separate connection for changing the file under the MbtilesFile
+    private MbtilesFile mbtiles;
+
+    @Before
+    public void setUp() throws Exception {
+        File file = new File(tempFolder.getRoot(), "test.mbtiles");
+        db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        db.execSQL("CREATE TABLE metadata (name TEXT, value TEXT)");
+        db.execSQL("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_data BLOB)");
+        db.execSQL("INSERT INTO metadata VALUES ('name', 'Test'), ('format', 'png')");
+        insertTile(1, 0, 0, bytes("1/0/0"));
+        mbtiles = new MbtilesFile(file);
+    }
+
+    @After
+    public void tearDown() {
+        mbtiles.close();
+        db.close();
+    }
+
+    @Test
+    public void readTile_flipsYToTmsRows() {
+        insertTile(2, 1, 0, bytes("2/1/0"));
+        insertTile(2, 1, 3, bytes("2/1/3"));
+
+        assertThat(mbtiles.getTileBlob(1, 0, 0), is(bytes("1/0/0")));
+        assertThat(mbtiles.getTileBlob(2, 1, 0), is(bytes("2/1/0")));
+        assertThat(mbtiles.getTileBlob(2, 1, 3), is(bytes("2/1/3")));
+        assertThat(mbtiles.getTileBlob(2, 0, 0), nullValue());
+    }
+
+    @Test
+    public void tilesThatWereReadAreServedFromTheCache() {
+        assertThat(mbtiles.getTileBlob(1, 0, 0), is(bytes("1/0/0")));
+        db.execSQL("DELETE FROM tiles");
+
+        assertThat(mbtiles.getTileBlob(1, 0, 0), is(bytes("1/0/0")));
+    }
+
+    @Test
+    public void missingTilesAreCachedAsMissing() {
+        assertThat(mbtiles.getTileBlob(1, 1, 1), nullValue());
+        insertTile(1, 1, 1, bytes("1/1/1"));
+
+        assertThat(mbtiles.getTileBlob(1, 1, 1), nullValue());
+    }
+
+    @Test
+    public void leastRecentlyUsedTilesAreEvictedWhenTheCacheIsFull() {
+        byte[] large = new byte[1024 * 1024];
+        for (int x = 0; x < 12; x++) {
+            large[0] = (byte) x;
+            insertTile(4, x, 0, large);
+        }
+        assertThat(mbtiles.getTileBlob(4, 0, 0)[0], is((byte) 0));
+        for (int x = 1; x < 12; x++) {
+            mbtiles.getTileBlob(4, x, 0);
+            mbtiles.getTileBlob(1, 0, 0);  // keep this tile recently used
+        }
+        db.execSQL("DELETE FROM tiles");
+
+        assertThat(mbtiles.getTileBlob(4, 0, 0), nullValue());
+        assertThat(mbtiles.getTileBlob(4, 11, 0)[0], is((byte) 11));
+        assertThat(mbtiles.getTileBlob(1, 0, 0), is(bytes("1/0/0")));
+    }
+
+    private void insertTile(int zoom, int x, int y, byte[] data) {
+        ContentValues values = new ContentValues();
+        values.put("zoom_level", zoom);
+        values.put("tile_column", x);
+        values.put("tile_row", (1 << zoom) - 1 - y);
+        values.put("tile_data", Arrays.copyOf(data, data.length));
+        db.insert("tiles", null, values);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
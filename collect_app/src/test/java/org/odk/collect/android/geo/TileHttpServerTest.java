@@ -0,0 +1,143 @@
+package org.odk.collect.android.geo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TileHttpServerTest {
+
+    private TileHttpServer server;
+    private int port;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new TileHttpServer();
+        server.addSource("test layer", new TestTileSource());
+        server.start();
+        port = new URL(server.getUrlTemplate("k").replace("{z}/{x}/{y}", "")).getPort();
+    }
+
+    @After
+    public void tearDown() {
+        server.destroy();
+    }
+
+    @Test
+    public void pipelinedRequestsAreAnsweredInOrderOnOneConnection() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream output = socket.getOutputStream();
+            output.write(("GET /test%20layer/1/2/3 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                + "GET /test%20layer/4/5/6 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                + "GET /test%20layer/9/9/9 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                + "GET /test%20layer/7/8/9 HTTP/1.1\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            output.flush();
+
+            InputStream input = socket.getInputStream();
+            assertThat(readResponse(input), is("200 1/2/3"));
+            assertThat(readResponse(input), is("200 4/5/6"));
+            assertThat(readResponse(input), is("404 "));
+            assertThat(readResponse(input), is("200 7/8/9"));
+            assertThat(input.read(), is(-1));
+        }
+        assertThat(server.getMetrics().getCount(), is(3L));  // tiles that were found
+    }
+
+    @Test
+    public void http10RequestsCloseTheConnection() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.getOutputStream().write("GET /test%20layer/1/2/3 HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+
+            InputStream input = socket.getInputStream();
+            assertThat(readResponse(input), is("200 1/2/3"));
+            assertThat(input.read(), is(-1));
+        }
+    }
+
+    @Test
+    public void idleKeepAliveConnectionsDoNotHoldUpNewConnections() throws Exception {
+        List<Socket> idle = new ArrayList<>();
+        try {
+            for (int i = 0; i < 32; i++) {
+                Socket socket = new Socket("localhost", port);
+                idle.add(socket);
+                socket.getOutputStream().write(("GET /test%20layer/1/2/" + i + " HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                assertThat(readResponse(socket.getInputStream()), is("200 1/2/" + i));
+            }
+
+            try (Socket socket = new Socket("localhost", port)) {
+                socket.setSoTimeout(1000);
+                socket.getOutputStream().write("GET /test%20layer/4/5/6 HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                assertThat(readResponse(socket.getInputStream()), is("200 4/5/6"));
+            }
+
+            // An idle connection is served again when its next request arrives
+            Socket first = idle.get(0);
+            first.setSoTimeout(1000);
+            first.getOutputStream().write("GET /test%20layer/7/8/9 HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            assertThat(readResponse(first.getInputStream()), is("200 7/8/9"));
+        } finally {
+            for (Socket socket : idle) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void parseTilePath_rejectsPathsWithoutFourParts() {
+        int[] coordinates = new int[3];
+        assertThat(TileHttpServer.parseTilePath("/key/1/2/3", coordinates), is("key"));
+        assertThat(coordinates[0], is(1));
+        assertThat(coordinates[2], is(3));
+        assertThat(TileHttpServer.parseTilePath("/1/2/3", coordinates), nullValue());
+        assertThat(TileHttpServer.parseTilePath("/a/b/1/2/3", coordinates), nullValue());
+        assertThat(TileHttpServer.parseTilePath("/key/1/x/3", coordinates), nullValue());
+    }
+
+    /** Returns the status code and the body of the next response. */
+    private static String readResponse(InputStream input) throws IOException {
+        String status = TileHttpServer.readLine(input);
+        int length = 0;
+        String header;
+        while (!(header = TileHttpServer.readLine(input)).isEmpty()) {
+            if (header.startsWith("Content-Length: ")) {
+                length = Integer.parseInt(header.substring(16));
+            }
+        }
+        byte[] body = new byte[length];
+        int read = 0;
+        while (read < length) {
+            read += input.read(body, read, length - read);
+        }
+        return status.split(" ")[1] + " " + new String(body, StandardCharsets.US_ASCII);
+    }
+
+    private static class TestTileSource implements TileSource {
+        @Override
+        public byte[] getTileBlob(int zoom, int x, int y) {
+            return zoom == 9 ? null : (zoom + "/" + x + "/" + y).getBytes(StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public String getContentType() {
+            return "text/plain";
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return "identity";
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.odk.collect.android.loaders;
+
+import android.location.Location;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+@RunWith(RobolectricTestRunner.class)
+public class GeofenceIndexTest {
+
+    @Test
+    public void enteringAGeofenceIsReported() {
+        GeofenceEntry gfe = geofence(-33.8688, 151.2093, 100, false);
+        GeofenceIndex index = new GeofenceIndex(Arrays.asList(gfe, geofence(-33.9, 151.3, 100, false)));
+
+        GeofenceIndex.Changes changes = index.getChanges(-33.8689, 151.2094);
+
+        assertThat(changes.entered, contains(gfe));
+        assertThat(changes.exited.size(), is(0));
+    }
+
+    @Test
+    public void leavingAGeofenceIsReported() {
+        GeofenceEntry gfe = geofence(-33.8688, 151.2093, 100, true);
+        GeofenceIndex index = new GeofenceIndex(Arrays.asList(gfe));
+
+        GeofenceIndex.Changes changes = index.getChanges(-33.8788, 151.2093);
+
+        assertThat(changes.exited, contains(gfe));
+        assertThat(changes.entered.size(), is(0));
+    }
+
+    @Test
+    public void noChangeWhenOutsideAllGeofences() {
+        GeofenceIndex index = new GeofenceIndex(Arrays.asList(geofence(-33.8688, 151.2093, 100, false)));
+
+        assertThat(index.getChanges(-33.8788, 151.2093).isEmpty(), is(true));
+    }
+
+    @Test
+    public void geofenceOnACellBoundaryIsFoundFromTheNeighbouringCell() {
+        // The centre is just below a cell boundary and the location is just above it
+        GeofenceEntry gfe = geofence(0.00999, 10.0, 50, false);
+        GeofenceIndex index = new GeofenceIndex(Arrays.asList(gfe));
+
+        assertThat(index.getChanges(0.01001, 10.0).entered, contains(gfe));
+    }
+
+    @Test
+    public void largeGeofencesAreChecked() {
+        GeofenceEntry gfe = geofence(10.0, 10.0, 50000, false);
+        GeofenceIndex index = new GeofenceIndex(Arrays.asList(gfe));
+
+        assertThat(index.getChanges(10.3, 10.0).entered, contains(gfe));
+    }
+
+    @Test
+    public void sameResultAsLinearScan() {
+        List<GeofenceEntry> geofences = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            geofences.add(geofence(-34.0 + (i % 40) * 0.005, 151.0 + (i / 40) * 0.005, 50 + (i % 7) * 100, i % 3 == 0));
+        }
+        GeofenceIndex index = new GeofenceIndex(geofences);
+
+        double lat = -33.93;
+        double lon = 151.06;
+        GeofenceIndex.Changes changes = index.getChanges(lat, lon);
+
+        int entered = 0;
+        int exited = 0;
+        Location location = location(lat, lon);
+        for (GeofenceEntry gfe : geofences) {
+            float distance = location.distanceTo(gfe.location);
+            if (gfe.in && distance > gfe.showDist) {
+                exited++;
+            } else if (!gfe.in && distance < gfe.showDist) {
+                entered++;
+            }
+        }
+        assertThat(changes.entered.size(), is(entered));
+        assertThat(changes.exited.size(), is(exited));
+    }
+
+    private GeofenceEntry geofence(double lat, double lon, int showDist, boolean in) {
+        GeofenceEntry gfe = new GeofenceEntry(showDist, location(lat, lon));
+        gfe.in = in;
+        return gfe;
+    }
+
+    private Location location(double lat, double lon) {
+        Location location = new Location("");
+        location.setLatitude(lat);
+        location.setLongitude(lon);
+        return location;
+    }
+}
@@ -0,0 +1,130 @@
+package org.odk.collect.android.smap.local;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.external.ExternalDataReaderImpl;
+import org.odk.collect.android.taskModel.LinkedInstance;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.odk.collect.android.external.ExternalDataUtil.EXTERNAL_DATA_TABLE_NAME;
+
+@RunWith(RobolectricTestRunner.class)
+public class LocalSQLiteOpenHelperSmapTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File dbFile;
+
+    @Before
+    public void setUp() throws IOException {
+        File csvFile = tempFolder.newFile("fruits.csv");
+        try (Writer out = new BufferedWriter(new FileWriter(csvFile))) {
+            out.write("name_key,name\nmango,Mango\noranges,Oranges");
+        }
+        Map<String, File> externalDataMap = new HashMap<>();
+        externalDataMap.put("fruits", csvFile);
+        new ExternalDataReaderImpl(null).doImport(externalDataMap);
+        dbFile = new File(tempFolder.getRoot(), "fruits.db");
+    }
+
+    @Test
+    public void update_replacesDataOfChangedInstancesAndRecordsTheirVersion() throws Exception {
+        LocalSQLiteOpenHelperSmap helper = new LocalSQLiteOpenHelperSmap(dbFile);
+        assertThat(helper.getIndexedInstances().size(), is(0));
+
+        LinkedInstance li = instance("instances/a/a.xml", 1000);
+        helper.update(Collections.singletonList(li), data(li, "lime"), Collections.emptyList(), null);
+        assertThat(helper.getIndexedInstances().get(li.instanceFilePath), is(li.getVersion()));
+        assertThat(getLocalNames(), is("lime"));
+
+        li.lastModified = 2000;
+        helper.update(Collections.singletonList(li), data(li, "lemon"), Collections.emptyList(), null);
+        assertThat(helper.getIndexedInstances().get(li.instanceFilePath), is(li.getVersion()));
+        assertThat(getLocalNames(), is("lemon"));
+        assertThat(getRowCount(), is(3));
+    }
+
+    @Test
+    public void update_removesDataOfRemovedInstances() throws Exception {
+        LocalSQLiteOpenHelperSmap helper = new LocalSQLiteOpenHelperSmap(dbFile);
+        LinkedInstance a = instance("instances/a/a.xml", 1000);
+        LinkedInstance b = instance("instances/b/b.xml", 1000);
+        Map<String, ArrayList<ContentValues>> data = data(a, "lime");
+        data.putAll(data(b, "lemon"));
+        ArrayList<LinkedInstance> changed = new ArrayList<>();
+        changed.add(a);
+        changed.add(b);
+        helper.update(changed, data, Collections.emptyList(), null);
+
+        helper.update(Collections.emptyList(), Collections.emptyMap(), Collections.singletonList(a.instanceFilePath), null);
+
+        assertThat(helper.getIndexedInstances().size(), is(1));
+        assertThat(getLocalNames(), is("lemon"));
+        assertThat(getRowCount(), is(3));
+    }
+
+    private static LinkedInstance instance(String path, long lastModified) {
+        LinkedInstance li = new LinkedInstance();
+        li.instanceFilePath = path;
+        li.status = "complete";
+        li.lastModified = lastModified;
+        li.actFinish = lastModified;
+        return li;
+    }
+
+    private static Map<String, ArrayList<ContentValues>> data(LinkedInstance li, String name) {
+        ContentValues values = new ContentValues();
+        values.put("c_name_key", name);
+        values.put("c_name", name);
+        ArrayList<ContentValues> rows = new ArrayList<>();
+        rows.add(values);
+        Map<String, ArrayList<ContentValues>> data = new HashMap<>();
+        data.put(li.instanceFilePath, rows);
+        return data;
+    }
+
+    private String getLocalNames() {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        StringBuilder names = new StringBuilder();
+        try (Cursor c = db.rawQuery("SELECT c_name FROM " + EXTERNAL_DATA_TABLE_NAME + " WHERE _local = 1 ORDER BY c_sortby", null)) {
+            while (c.moveToNext()) {
+                if (names.length() > 0) {
+                    names.append(' ');
+                }
+                names.append(c.getString(0));
+            }
+        } finally {
+            db.close();
+        }
+        return names.toString();
+    }
+
+    private int getRowCount() {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        try (Cursor c = db.rawQuery("SELECT * FROM " + EXTERNAL_DATA_TABLE_NAME, null)) {
+            return c.getCount();
+        } finally {
+            db.close();
+        }
+    }
+}
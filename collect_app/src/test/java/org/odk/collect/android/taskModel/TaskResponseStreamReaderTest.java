@@ -0,0 +1,113 @@
+package org.odk.collect.android.taskModel;
+
+import com.google.gson.Gson;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.odk.collect.android.database.TaskResponseAssignment;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class TaskResponseStreamReaderTest {
+
+    private static final String RESPONSE = "{"
+            + "\"message\":\"ok\","
+            + "\"data\":["
+            + "{\"task\":{\"id\":11,\"title\":\"first\",\"form_id\":\"s1\",\"address\":\"a\"},\"assignment\":{\"assignment_id\":1,\"assignment_status\":\"accepted\"}},"
+            + "{\"task\":{\"id\":0,\"title\":\"case\",\"type\":\"case\",\"update_id\":\"uuid:2\"},\"assignment\":{\"assignment_id\":2,\"assignment_status\":\"new\"}}"
+            + "],"
+            + "\"version\":1,"
+            + "\"time_difference\":120000,"
+            + "\"unknown\":{\"a\":[1,2,3]},"
+            + "\"forms\":[{\"ident\":\"s1\",\"name\":\"Survey\",\"version\":3}],"
+            + "\"current_org\":\"org\","
+            + "\"orgs\":[\"org\",\"other\"],"
+            + "\"settings\":null"
+            + "}";
+
+    private TaskResponseStreamReader reader;
+    private File spool;
+
+    @Before
+    public void setup() throws Exception {
+        spool = File.createTempFile("tasks", ".json");
+        reader = new TaskResponseStreamReader(new Gson(), spool);
+    }
+
+    @Test
+    public void readsTopLevelAttributes() throws Exception {
+        TaskResponse tr = reader.read(stream(RESPONSE));
+
+        assertThat(tr.message, is("ok"));
+        assertThat(tr.version, is(1));
+        assertThat(tr.time_difference, is(120000L));
+        assertThat(tr.current_org, is("org"));
+        assertThat(tr.orgs.size(), is(2));
+        assertThat(tr.settings, nullValue());
+        assertThat(tr.forms.size(), is(1));
+        assertThat(tr.forms.get(0).ident, is("s1"));
+        assertThat(tr.forms.get(0).version, is(3));
+    }
+
+    @Test
+    public void keepsOnlyIdentifiersInMemory() throws Exception {
+        TaskResponse tr = reader.read(stream(RESPONSE));
+
+        assertThat(reader.getAssignmentCount(), is(2));
+        assertThat(tr.taskAssignments.size(), is(2));
+        assertThat(tr.taskAssignments.get(0).assignment.assignment_id, is(1));
+        assertThat(tr.taskAssignments.get(0).task.title, is("first"));
+        assertThat(tr.taskAssignments.get(0).task.address, nullValue());
+        assertThat(tr.taskAssignments.get(1).task.update_id, is("uuid:2"));
+    }
+
+    @Test
+    public void replaysFullAssignmentsInOrder() throws Exception {
+        reader.read(stream(RESPONSE));
+
+        List<TaskResponseAssignment> replayed = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        reader.forEachAssignment((ta, index) -> {
+            replayed.add(ta);
+            indexes.add(index);
+        });
+
+        assertThat(replayed.size(), is(2));
+        assertThat(replayed.get(0).task.address, is("a"));
+        assertThat(replayed.get(0).assignment.assignment_status, is("accepted"));
+        assertThat(replayed.get(1).task.type, is("case"));
+        assertThat(indexes.get(1), is(1));
+    }
+
+    @Test
+    public void closeRemovesSpoolFile() throws Exception {
+        reader.read(stream(RESPONSE));
+        reader.close();
+
+        assertThat(spool.exists(), is(false));
+    }
+
+    @Test
+    public void plainStringResponseThrowsWithMessage() {
+        try {
+            reader.read(stream("Unauthorized"));
+        } catch (Exception e) {
+            assertThat(e.getMessage(), equalTo("Unauthorized"));
+            return;
+        }
+        throw new AssertionError("Expected exception");
+    }
+
+    private ByteArrayInputStream stream(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+    }
+}
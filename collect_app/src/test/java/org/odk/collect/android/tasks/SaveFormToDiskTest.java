@@ -0,0 +1,212 @@
+package org.odk.collect.android.tasks;
+
+import com.google.common.io.Files;
+
+import org.javarosa.core.services.transport.payload.ByteArrayPayload;
+import org.javarosa.core.services.transport.payload.IDataPayload;
+import org.javarosa.form.api.FormEntryController;
+import org.javarosa.form.api.FormEntryModel;
+import org.javarosa.xform.util.XFormUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.javarosawrapper.FormController;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class SaveFormToDiskTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void writeFile_replacesTheFileWithoutLeavingATemporaryFile() throws Exception {
+        File file = new File(tempFolder.getRoot(), "instance.xml");
+        SaveFormToDisk.writeFile("<data>old</data>".getBytes(StandardCharsets.UTF_8), file);
+
+        byte[] data = SaveFormToDisk.getPayloadBytes(payload("<data>new</data>"));
+        SaveFormToDisk.writeFile(data, file);
+
+        assertThat(read(file), is("<data>new</data>"));
+        assertThat(tempFolder.getRoot().list().length, is(1));
+    }
+
+    @Test
+    public void writeFile_createsMissingDirectories() throws Exception {
+        File file = new File(tempFolder.getRoot(), "instances/a/a.xml");
+
+        SaveFormToDisk.writeFile(payload("<data/>"), file.getAbsolutePath());
+
+        assertThat(read(file), is("<data/>"));
+    }
+
+    @Test
+    public void getTempFile_isHiddenSoThatItIsNotUploadedAsAnAttachment() {
+        File file = new File(tempFolder.getRoot(), "instance.xml");
+
+        File temp = SaveFormToDisk.getTempFile(file);
+
+        assertThat(temp.getParentFile(), is(file.getParentFile()));
+        assertThat(temp.getName().startsWith("."), is(true));
+    }
+
+    @Test
+    public void linkFile_keepsTheOldContentWhenTheSourceIsReplaced() throws Exception {
+        File instance = new File(tempFolder.getRoot(), "instance.xml");
+        File lastSaved = new File(tempFolder.getRoot(), "last-saved/instance.xml");
+        SaveFormToDisk.writeFile(bytes("<data>first</data>"), instance);
+
+        assertThat(SaveFormToDisk.linkFile(instance, lastSaved), is(true));
+        assertThat(read(lastSaved), is("<data>first</data>"));
+
+        SaveFormToDisk.writeFile(bytes("<data>second</data>"), instance);
+
+        assertThat(read(instance), is("<data>second</data>"));
+        assertThat(read(lastSaved), is("<data>first</data>"));
+    }
+
+    @Test
+    public void linkFile_replacesAnExistingTarget() throws Exception {
+        File instance = new File(tempFolder.getRoot(), "instance.xml");
+        File lastSaved = new File(tempFolder.getRoot(), "last-saved.xml");
+        SaveFormToDisk.writeFile(bytes("<data>new</data>"), instance);
+        SaveFormToDisk.writeFile(bytes("<data>old</data>"), lastSaved);
+
+        assertThat(SaveFormToDisk.linkFile(instance, lastSaved), is(true));
+        assertThat(read(lastSaved), is("<data>new</data>"));
+    }
+
+    @Test
+    public void linkFile_failsWhenThereIsNoSource() {
+        File instance = new File(tempFolder.getRoot(), "instance.xml");
+        File lastSaved = new File(tempFolder.getRoot(), "last-saved.xml");
+
+        assertThat(SaveFormToDisk.linkFile(instance, lastSaved), is(false));
+        assertThat(lastSaved.exists(), is(false));
+    }
+
+    @Test
+    public void writeInstanceFiles_writesBothFiles() throws Exception {
+        File instance = new File(tempFolder.getRoot(), "instance.xml");
+        File lastSaved = new File(tempFolder.getRoot(), "last-saved.xml");
+
+        SaveFormToDisk.writeInstanceFiles(bytes("<data/>"), instance, lastSaved, true);
+
+        assertThat(read(instance), is("<data/>"));
+        assertThat(read(lastSaved), is("<data/>"));
+    }
+
+    @Test
+    public void writeInstanceFiles_whenTheFormCannotBeUpdated_onlyWritesTheLastSavedInstance() throws Exception {
+        File instance = new File(tempFolder.getRoot(), "instance.xml");
+        File lastSaved = new File(tempFolder.getRoot(), "last-saved.xml");
+        SaveFormToDisk.writeFile(bytes("<data>original</data>"), instance);
+
+        SaveFormToDisk.writeInstanceFiles(bytes("<data>edited</data>"), instance, lastSaved, false);
+
+        assertThat(read(instance), is("<data>original</data>"));
+        assertThat(read(lastSaved), is("<data>edited</data>"));
+    }
+
+    @Test
+    public void writeSubmissionFile_whenTheSubmissionIsTheEntireForm_doesNotWriteIt() throws Exception {
+        File submission = new File(tempFolder.getRoot(), "submission.xml");
+
+        SaveFormToDisk.writeSubmissionFile(createFormController(ENTIRE_FORM_SUBMISSION), submission, false);
+
+        assertThat(submission.exists(), is(false));
+    }
+
+    @Test
+    public void writeSubmissionFile_whenTheSubmissionIsTheEntireForm_removesOneFromAnEarlierSave() throws Exception {
+        File submission = new File(tempFolder.getRoot(), "submission.xml");
+        SaveFormToDisk.writeFile(bytes("<data>stale</data>"), submission);
+
+        SaveFormToDisk.writeSubmissionFile(createFormController(ENTIRE_FORM_SUBMISSION), submission, false);
+
+        assertThat(submission.exists(), is(false));
+    }
+
+    @Test
+    public void writeSubmissionFile_whenTheSubmissionIsPartOfTheForm_writesThatPart() throws Exception {
+        File submission = new File(tempFolder.getRoot(), "submission.xml");
+
+        SaveFormToDisk.writeSubmissionFile(createFormController(PARTIAL_SUBMISSION), submission, false);
+
+        assertThat(read(submission), containsString("<part"));
+        assertThat(read(submission), not(containsString("<name")));
+    }
+
+    @Test
+    public void writeSubmissionFile_whenEncrypted_writesIt() throws Exception {
+        File submission = new File(tempFolder.getRoot(), "submission.xml");
+
+        SaveFormToDisk.writeSubmissionFile(createFormController(ENTIRE_FORM_SUBMISSION), submission, true);
+
+        assertThat(read(submission), containsString("<name"));
+    }
+
+    private static FormController createFormController(String xform) throws IOException {
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(xform.getBytes(StandardCharsets.UTF_8));
+        FormEntryModel fem = new FormEntryModel(XFormUtils.getFormFromInputStream(inputStream));
+        return new FormController(Files.createTempDir(), new FormEntryController(fem), File.createTempFile("instance", ""));
+    }
+
+    private static ByteArrayPayload payload(String xml) {
+        return new ByteArrayPayload(bytes(xml), null, IDataPayload.PAYLOAD_TYPE_XML);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(java.nio.file.Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static final String ENTIRE_FORM_SUBMISSION = form("");
+
+    private static final String PARTIAL_SUBMISSION = form(
+            "            <submission method=\"form-data-post\" ref=\"/data/part\"/>\n");
+
+    private static String form(String submission) {
+        return "<?xml version=\"1.0\"?>\n" +
+                "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\" xmlns:jr=\"http://openrosa.org/javarosa\">\n" +
+                "    <h:head>\n" +
+                "        <h:title>Submission</h:title>\n" +
+                "        <model>\n" +
+                "            <instance>\n" +
+                "                <data id=\"submission\">\n" +
+                "                    <name/>\n" +
+                "                    <part>\n" +
+                "                        <age/>\n" +
+                "                    </part>\n" +
+                "                </data>\n" +
+                "            </instance>\n" +
+                submission +
+                "            <bind nodeset=\"/data/name\" type=\"string\"/>\n" +
+                "            <bind nodeset=\"/data/part/age\" type=\"int\"/>\n" +
+                "        </model>\n" +
+                "    </h:head>\n" +
+                "    <h:body>\n" +
+                "        <input ref=\"/data/name\">\n" +
+                "            <label>Name</label>\n" +
+                "        </input>\n" +
+                "        <input ref=\"/data/part/age\">\n" +
+                "            <label>Age</label>\n" +
+                "        </input>\n" +
+                "    </h:body>\n" +
+                "</h:html>\n";
+    }
+}
@@ -0,0 +1,219 @@
+package org.odk.collect.android.tasks;
+
+import com.google.common.io.Files;
+
+import org.javarosa.core.model.FormIndex;
+import org.javarosa.core.model.data.IAnswerData;
+import org.javarosa.core.model.data.IntegerData;
+import org.javarosa.core.model.data.StringData;
+import org.javarosa.form.api.FormEntryController;
+import org.javarosa.form.api.FormEntryModel;
+import org.javarosa.xform.util.XFormUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.odk.collect.android.javarosawrapper.FormController;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SavePointJournalTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void read_returnsLatestAnswersInTheOrderTheyWereLastChanged() throws Exception {
+        SavePointJournal journal = new SavePointJournal(new File(tempFolder.getRoot(), "a.xml.journal"));
+        journal.append(Arrays.asList(
+                new SavePointJournal.Entry("question./data/name", "Jo"),
+                new SavePointJournal.Entry("question./data/age", "3")));
+        journal.append(Arrays.asList(
+                new SavePointJournal.Entry("question./data/name", "Jo\nSmith"),
+                new SavePointJournal.Entry("question./data/age", null)));
+
+        Map<String, String> answers = journal.read();
+
+        assertThat(new ArrayList<>(answers.keySet()), is(Arrays.asList("question./data/name", "question./data/age")));
+        assertThat(answers.get("question./data/name"), is("Jo\nSmith"));
+        assertThat(answers.get("question./data/age"), is(nullValue()));
+    }
+
+    @Test
+    public void read_stopsAtAPartlyWrittenEntry() throws Exception {
+        File file = new File(tempFolder.getRoot(), "a.xml.journal");
+        SavePointJournal journal = new SavePointJournal(file);
+        journal.append(Collections.singletonList(new SavePointJournal.Entry("question./data/name", "Jo")));
+        try (Writer writer = new FileWriter(file, true)) {
+            writer.write("{\"xpath\":\"question./data/age\",\"val");
+        }
+
+        Map<String, String> answers = journal.read();
+
+        assertThat(answers.size(), is(1));
+        assertThat(answers.get("question./data/name"), is("Jo"));
+    }
+
+    @Test
+    public void delete_removesTheJournal() throws Exception {
+        File file = new File(tempFolder.getRoot(), "a.xml.journal");
+        SavePointJournal journal = new SavePointJournal(file);
+        journal.append(Collections.singletonList(new SavePointJournal.Entry("question./data/name", "Jo")));
+
+        journal.delete();
+
+        assertThat(file.exists(), is(false));
+        assertThat(journal.read().isEmpty(), is(true));
+        assertThat(journal.isFull(), is(false));
+    }
+
+    @Test
+    public void replay_appliesAnswersToPlainAndRepeatedQuestions() throws Exception {
+        FormController edited = createFormController();
+        addRepeat(edited);
+        edited.takeSavepointChanges();      // the full savepoint is written with both repeats
+        List<String> questions = new ArrayList<>(getAnswers(edited).keySet());      // name, age in person 1, age in person 2
+        answer(edited, questions.get(0), new StringData("Jo"));
+        answer(edited, questions.get(2), new IntegerData(7));
+        List<SavePointJournal.Entry> entries = SavePointJournal.getEntries(edited, edited.takeSavepointChanges());
+        assertThat(entries.size(), is(2));
+        assertThat(entries.get(1).xpath, containsString("person[2]"));
+
+        SavePointJournal journal = new SavePointJournal(new File(tempFolder.getRoot(), "a.xml.journal"));
+        journal.append(entries);
+
+        FormController recovered = createFormController();
+        addRepeat(recovered);
+        FormIndex index = recovered.getFormIndex();
+
+        assertThat(journal.replay(recovered), is(2));
+        Map<String, String> answers = getAnswers(recovered);
+        assertThat(answers, is(getAnswers(edited)));
+        assertThat(answers.get(questions.get(0)), is("Jo"));
+        assertThat(answers.get(questions.get(1)), is(nullValue()));
+        assertThat(answers.get(questions.get(2)), is("7"));
+        assertThat(recovered.getFormIndex(), is(index));
+    }
+
+    @Test
+    public void replay_skipsAnswersToQuestionsThatNoLongerExist() throws Exception {
+        FormController edited = createFormController();
+        addRepeat(edited);
+        List<String> questions = new ArrayList<>(getAnswers(edited).keySet());
+        SavePointJournal journal = new SavePointJournal(new File(tempFolder.getRoot(), "a.xml.journal"));
+        journal.append(Arrays.asList(
+                new SavePointJournal.Entry(questions.get(0), "Jo"),
+                new SavePointJournal.Entry(questions.get(2), "7")));
+
+        FormController recovered = createFormController();     // only has the first repeat
+
+        assertThat(journal.replay(recovered), is(1));
+        Map<String, String> answers = getAnswers(recovered);
+        assertThat(answers.size(), is(2));
+        assertThat(answers.get(questions.get(0)), is("Jo"));
+        assertThat(answers.get(questions.get(1)), is(nullValue()));
+    }
+
+    @Test
+    public void replay_clearsAnswers() throws Exception {
+        FormController recovered = createFormController();
+        String name = getAnswers(recovered).keySet().iterator().next();
+        answer(recovered, name, new StringData("Jo"));
+        SavePointJournal journal = new SavePointJournal(new File(tempFolder.getRoot(), "a.xml.journal"));
+        journal.append(Collections.singletonList(new SavePointJournal.Entry(name, null)));
+
+        assertThat(journal.replay(recovered), is(1));
+        assertThat(getAnswers(recovered).get(name), is(nullValue()));
+    }
+
+    private static FormController createFormController() throws IOException {
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(NAME_AND_REPEAT.getBytes());
+        final FormEntryModel fem = new FormEntryModel(XFormUtils.getFormFromInputStream(inputStream));
+        final FormEntryController formEntryController = new FormEntryController(fem);
+        return new FormController(Files.createTempDir(), formEntryController, File.createTempFile("instance", ""));
+    }
+
+    private static void addRepeat(FormController formController) {
+        formController.jumpToIndex(FormIndex.createBeginningOfFormIndex());
+        formController.stepToNextEventType(FormEntryController.EVENT_PROMPT_NEW_REPEAT);
+        formController.newRepeat();
+    }
+
+    private static void answer(FormController formController, String xpath, IAnswerData data) throws Exception {
+        formController.jumpToIndex(FormIndex.createBeginningOfFormIndex());
+        int event = formController.stepToNextEvent(true);
+        while (event != FormEntryController.EVENT_END_OF_FORM) {
+            FormIndex index = formController.getFormIndex();
+            if (event == FormEntryController.EVENT_QUESTION && formController.getXPath(index).equals(xpath)) {
+                formController.answerQuestion(index, data);
+                return;
+            }
+            event = formController.stepToNextEvent(true);
+        }
+        throw new IllegalArgumentException("No question " + xpath);
+    }
+
+    /** Returns the answer to each question, keyed by the XPath used in the journal. */
+    private static Map<String, String> getAnswers(FormController formController) {
+        Map<String, String> answers = new LinkedHashMap<>();
+        FormIndex saved = formController.getFormIndex();
+        formController.jumpToIndex(FormIndex.createBeginningOfFormIndex());
+        int event = formController.stepToNextEvent(true);
+        while (event != FormEntryController.EVENT_END_OF_FORM) {
+            if (event == FormEntryController.EVENT_QUESTION) {
+                FormIndex index = formController.getFormIndex();
+                IAnswerData answer = formController.getFormDef().getMainInstance().resolveReference(index.getReference()).getValue();
+                answers.put(formController.getXPath(index), answer == null ? null : answer.uncast().getString());
+            }
+            event = formController.stepToNextEvent(true);
+        }
+        formController.jumpToIndex(saved);
+        return answers;
+    }
+
+    private static final String NAME_AND_REPEAT = "<?xml version=\"1.0\"?>\n" +
+            "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\" xmlns:jr=\"http://openrosa.org/javarosa\">\n" +
+            "    <h:head>\n" +
+            "        <h:title>Name and Repeat</h:title>\n" +
+            "        <model>\n" +
+            "            <instance>\n" +
+            "                <data id=\"name_and_repeat\">\n" +
+            "                    <name/>\n" +
+            "                    <person>\n" +
+            "                        <age/>\n" +
+            "                    </person>\n" +
+            "                </data>\n" +
+            "            </instance>\n" +
+            "            <bind nodeset=\"/data/name\" type=\"string\"/>\n" +
+            "            <bind nodeset=\"/data/person/age\" type=\"int\"/>\n" +
+            "        </model>\n" +
+            "    </h:head>\n" +
+            "    <h:body>\n" +
+            "        <input ref=\"/data/name\">\n" +
+            "            <label>Name</label>\n" +
+            "        </input>\n" +
+            "        <group ref=\"/data/person\">\n" +
+            "            <label>Person</label>\n" +
+            "            <repeat nodeset=\"/data/person\">\n" +
+            "                <input ref=\"/data/person/age\">\n" +
+            "                    <label>Age</label>\n" +
+            "                </input>\n" +
+            "            </repeat>\n" +
+            "        </group>\n" +
+            "    </h:body>\n" +
+            "</h:html>\n";
+}
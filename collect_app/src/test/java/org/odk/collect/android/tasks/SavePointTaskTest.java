@@ -0,0 +1,220 @@
+package org.odk.collect.android.tasks;
+
+import com.google.common.io.Files;
+
+import org.javarosa.core.model.FormIndex;
+import org.javarosa.core.model.data.StringData;
+import org.javarosa.form.api.FormEntryController;
+import org.javarosa.form.api.FormEntryModel;
+import org.javarosa.xform.util.XFormUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.javarosawrapper.FormController;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class SavePointTaskTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File savepoint;
+    private SavePointJournal journal;
+    private FormController formController;
+
+    @Before
+    public void setUp() throws Exception {
+        savepoint = new File(tempFolder.getRoot(), "a.xml.save");
+        journal = new SavePointJournal(new File(tempFolder.getRoot(), "a.xml.journal"));
+        formController = createFormController();
+    }
+
+    @Test
+    public void theFirstSavepointIsFull() throws Exception {
+        assertThat(SavePointTask.appendToJournal(formController, savepoint, journal), is(false));
+    }
+
+    @Test
+    public void changedAnswersAreAppendedToTheJournalAfterTheFirstSavepoint() throws Exception {
+        writeFullSavepoint("<data>full</data>");
+
+        answerFirstQuestion("Jo");
+
+        assertThat(SavePointTask.appendToJournal(formController, savepoint, journal), is(true));
+        assertThat(journal.read().size(), is(1));
+        assertThat(read(savepoint), is("<data>full</data>"));
+    }
+
+    @Test
+    public void aFullSavepointIsRequiredIfThereIsNoSavepointFile() throws Exception {
+        writeFullSavepoint("<data>full</data>");
+        assertThat(savepoint.delete(), is(true));
+
+        answerFirstQuestion("Jo");
+
+        assertThat(SavePointTask.appendToJournal(formController, savepoint, journal), is(false));
+    }
+
+    @Test
+    public void aFullSavepointIsRequiredAfterARepeatIsAdded() throws Exception {
+        writeFullSavepoint("<data>full</data>");
+
+        formController.jumpToIndex(FormIndex.createBeginningOfFormIndex());
+        formController.stepToNextEventType(FormEntryController.EVENT_PROMPT_NEW_REPEAT);
+        formController.newRepeat();
+
+        assertThat(SavePointTask.appendToJournal(formController, savepoint, journal), is(false));
+    }
+
+    @Test
+    public void aFullSavepointIsRequiredAfterARepeatIsDeleted() throws Exception {
+        formController.jumpToIndex(FormIndex.createBeginningOfFormIndex());
+        formController.stepToNextEventType(FormEntryController.EVENT_PROMPT_NEW_REPEAT);
+        formController.newRepeat();
+        writeFullSavepoint("<data>full</data>");
+
+        formController.stepToNextEvent(true);   // the question in the new repeat
+        formController.deleteRepeat();
+
+        assertThat(SavePointTask.appendToJournal(formController, savepoint, journal), is(false));
+    }
+
+    @Test
+    public void aFullSavepointIsRequiredWhenTheJournalIsFull() throws Exception {
+        writeFullSavepoint("<data>full</data>");
+        try (FileOutputStream out = new FileOutputStream(new File(tempFolder.getRoot(), "a.xml.journal"))) {
+            out.write(new byte[(int) SavePointJournal.MAX_JOURNAL_SIZE + 1]);
+        }
+        assertThat(journal.isFull(), is(true));
+
+        answerFirstQuestion("Jo");
+
+        assertThat(SavePointTask.appendToJournal(formController, savepoint, journal), is(false));
+    }
+
+    @Test
+    public void writeSavepoint_replacesTheSavepointAndRemovesTheJournal() throws Exception {
+        writeFullSavepoint("<data>old</data>");
+        answerFirstQuestion("Jo");
+        SavePointTask.appendToJournal(formController, savepoint, journal);
+
+        SavePointTask.writeSavepoint(bytes("<data>new</data>"), savepoint, journal);
+
+        assertThat(read(savepoint), is("<data>new</data>"));
+        assertThat(journal.exists(), is(false));
+        assertThat(SaveFormToDisk.getTempFile(savepoint).exists(), is(false));
+    }
+
+    @Test
+    public void recoverSavepoint_usesANewSavepointWrittenAfterTheJournalWasRemoved() throws Exception {
+        writeFullSavepoint("<data>old</data>");
+        journal.append(Collections.singletonList(new SavePointJournal.Entry("question./data/name", "Jo")));
+
+        // Interrupted between removing the journal and replacing the savepoint
+        SaveFormToDisk.writeTempFile(bytes("<data>new</data>"), savepoint);
+        journal.delete();
+
+        SavePointTask.recoverSavepoint(savepoint, journal);
+
+        assertThat(read(savepoint), is("<data>new</data>"));
+        assertThat(SaveFormToDisk.getTempFile(savepoint).exists(), is(false));
+    }
+
+    @Test
+    public void recoverSavepoint_discardsANewSavepointWrittenBeforeTheJournalWasRemoved() throws Exception {
+        writeFullSavepoint("<data>old</data>");
+        journal.append(Collections.singletonList(new SavePointJournal.Entry("question./data/name", "Jo")));
+
+        // Interrupted while the new savepoint was being written
+        SaveFormToDisk.writeTempFile(bytes("<data>ne"), savepoint);
+
+        SavePointTask.recoverSavepoint(savepoint, journal);
+
+        assertThat(read(savepoint), is("<data>old</data>"));
+        assertThat(journal.read().get("question./data/name"), is("Jo"));
+        assertThat(SaveFormToDisk.getTempFile(savepoint).exists(), is(false));
+    }
+
+    @Test
+    public void recoverSavepoint_discardsAPartlyWrittenFirstSavepoint() throws Exception {
+        // The journal is created before the first savepoint is written
+        journal.create();
+        SaveFormToDisk.writeTempFile(bytes("<data>ne"), savepoint);
+
+        SavePointTask.recoverSavepoint(savepoint, journal);
+
+        assertThat(savepoint.exists(), is(false));
+        assertThat(SaveFormToDisk.getTempFile(savepoint).exists(), is(false));
+    }
+
+    /** Writes the full savepoint, as the task does when appendToJournal returns false. */
+    private void writeFullSavepoint(String xml) throws IOException {
+        formController.takeSavepointChanges();
+        SavePointTask.writeSavepoint(bytes(xml), savepoint, journal);
+    }
+
+    private void answerFirstQuestion(String value) throws Exception {
+        formController.jumpToIndex(FormIndex.createBeginningOfFormIndex());
+        formController.stepToNextEvent(true);
+        formController.answerQuestion(formController.getFormIndex(), new StringData(value));
+    }
+
+    private static FormController createFormController() throws IOException {
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(NAME_AND_REPEAT.getBytes(StandardCharsets.UTF_8));
+        FormEntryModel fem = new FormEntryModel(XFormUtils.getFormFromInputStream(inputStream));
+        return new FormController(Files.createTempDir(), new FormEntryController(fem), File.createTempFile("instance", ""));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(java.nio.file.Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static final String NAME_AND_REPEAT = "<?xml version=\"1.0\"?>\n" +
+            "<h:html xmlns=\"http://www.w3.org/2002/xforms\" xmlns:h=\"http://www.w3.org/1999/xhtml\" xmlns:jr=\"http://openrosa.org/javarosa\">\n" +
+            "    <h:head>\n" +
+            "        <h:title>Name and Repeat</h:title>\n" +
+            "        <model>\n" +
+            "            <instance>\n" +
+            "                <data id=\"name_and_repeat\">\n" +
+            "                    <name/>\n" +
+            "                    <person>\n" +
+            "                        <age/>\n" +
+            "                    </person>\n" +
+            "                </data>\n" +
+            "            </instance>\n" +
+            "            <bind nodeset=\"/data/name\" type=\"string\"/>\n" +
+            "            <bind nodeset=\"/data/person/age\" type=\"int\"/>\n" +
+            "        </model>\n" +
+            "    </h:head>\n" +
+            "    <h:body>\n" +
+            "        <input ref=\"/data/name\">\n" +
+            "            <label>Name</label>\n" +
+            "        </input>\n" +
+            "        <group ref=\"/data/person\">\n" +
+            "            <label>Person</label>\n" +
+            "            <repeat nodeset=\"/data/person\">\n" +
+            "                <input ref=\"/data/person/age\">\n" +
+            "                    <label>Age</label>\n" +
+            "                </input>\n" +
+            "            </repeat>\n" +
+            "        </group>\n" +
+            "    </h:body>\n" +
+            "</h:html>\n";
+}
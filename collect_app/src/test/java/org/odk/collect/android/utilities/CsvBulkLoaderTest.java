@@ -0,0 +1,90 @@
+package org.odk.collect.android.utilities;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.opencsv.CSVReader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+@RunWith(RobolectricTestRunner.class)
+public class CsvBulkLoaderTest {
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        db = SQLiteDatabase.create(null);
+        db.execSQL("CREATE TABLE data (name text, label text, sort real)");
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void insertsBoundValuesInChunks() {
+        try (CsvBulkLoader loader = new CsvBulkLoader(db, "data", Arrays.asList("name", "label", "sort"), 3)) {
+            for (int i = 0; i < 10; i++) {
+                loader.bindString(0, "name" + i);
+                loader.bindString(1, i % 2 == 0 ? null : "label" + i);
+                loader.bindDouble(2, i);
+                loader.insert();
+            }
+            loader.finish();
+            assertThat(loader.getRowCount(), is(10));
+        }
+
+        assertThat(DatabaseUtils.queryNumEntries(db, "data"), is(10L));
+        assertThat(DatabaseUtils.queryNumEntries(db, "data", "label is null"), is(5L));
+        assertThat(db.inTransaction(), is(false));
+    }
+
+    @Test
+    public void uncommittedRowsAreRolledBackOnClose() {
+        try (CsvBulkLoader loader = new CsvBulkLoader(db, "data", Arrays.asList("name"), 4)) {
+            for (int i = 0; i < 6; i++) {
+                loader.bindString(0, "name" + i);
+                loader.insert();
+            }
+        }
+
+        assertThat(DatabaseUtils.queryNumEntries(db, "data"), is(4L));
+    }
+
+    @Test
+    public void readAheadReturnsAllRowsInOrder() throws Exception {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 1234; i++) {
+            csv.append(i).append(",\"value ").append(i).append("\"\n");
+        }
+
+        List<String[]> rows = new ArrayList<>();
+        try (CsvBulkLoader.RowReader reader = new CsvBulkLoader.RowReader(new CSVReader(new StringReader(csv.toString())), true)) {
+            String[] row;
+            while ((row = reader.readNext()) != null) {
+                rows.add(row);
+            }
+            assertThat(reader.readNext() == null, is(true));
+        }
+
+        assertThat(rows.size(), is(1234));
+        for (int i = 0; i < rows.size(); i++) {
+            assertThat(rows.get(i)[0], is(String.valueOf(i)));
+            assertThat(rows.get(i)[1], is("value " + i));
+        }
+    }
+}
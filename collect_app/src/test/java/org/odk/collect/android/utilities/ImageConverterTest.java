@@ -0,0 +1,92 @@
+package org.odk.collect.android.utilities;
+
+import androidx.exifinterface.media.ExifInterface;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.support.MockFormEntryPromptBuilder;
+import org.odk.collect.android.widgets.QuestionWidget;
+import org.robolectric.RobolectricTestRunner;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertArrayEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.odk.collect.android.utilities.ApplicationConstants.Namespaces.XML_OPENROSA_NAMESPACE;
+
+@RunWith(RobolectricTestRunner.class)
+public class ImageConverterTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void calculateInSampleSize_keepsTheLongEdgeAtLeastMaxPixels() {
+        assertThat(ImageConverter.calculateInSampleSize(8000, 6000, 1024), is(4));
+        assertThat(ImageConverter.calculateInSampleSize(3000, 4000, 2000), is(2));
+        assertThat(ImageConverter.calculateInSampleSize(1500, 1000, 1024), is(1));
+        assertThat(ImageConverter.calculateInSampleSize(4096, 3072, 1024), is(4));
+    }
+
+    @Test
+    public void getScaledSize_scalesTheLongEdgeToMaxPixels() {
+        assertArrayEquals(new int[] {1024, 768}, ImageConverter.getScaledSize(4000, 3000, 1024));
+        assertArrayEquals(new int[] {768, 1024}, ImageConverter.getScaledSize(3000, 4000, 1024));
+        assertArrayEquals(new int[] {1024, 1024}, ImageConverter.getScaledSize(2000, 2000, 1024));
+    }
+
+    @Test
+    public void execute_scalesALargeImageAndKeepsItsExifOrientation() throws Exception {
+        File image = createJpeg(400, 300, ExifInterface.ORIENTATION_ROTATE_90);
+
+        ImageConverter.execute(image.getAbsolutePath(), widgetWithMaxPixels(100), ApplicationProvider.getApplicationContext());
+
+        BufferedImage scaled = ImageIO.read(image);
+        assertThat(scaled.getWidth(), is(100));
+        assertThat(scaled.getHeight(), is(75));
+
+        ExifInterface exif = new ExifInterface(image.getAbsolutePath());
+        assertThat(exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_UNDEFINED), is(ExifInterface.ORIENTATION_ROTATE_90));
+        assertThat(exif.getAttributeInt(ExifInterface.TAG_IMAGE_WIDTH, 0), is(100));
+        assertThat(exif.getAttributeInt(ExifInterface.TAG_IMAGE_LENGTH, 0), is(75));
+    }
+
+    @Test
+    public void execute_leavesAnImageWithinMaxPixelsUnchanged() throws Exception {
+        File image = createJpeg(80, 60, ExifInterface.ORIENTATION_ROTATE_90);
+        byte[] original = Files.readAllBytes(image.toPath());
+
+        ImageConverter.execute(image.getAbsolutePath(), widgetWithMaxPixels(100), ApplicationProvider.getApplicationContext());
+
+        assertThat(Files.readAllBytes(image.toPath()), is(original));
+    }
+
+    private File createJpeg(int width, int height, int orientation) throws IOException {
+        File file = tempFolder.newFile("image.jpg");
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "jpg", file);
+
+        ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+        exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(orientation));
+        exif.saveAttributes();
+        return file;
+    }
+
+    private static QuestionWidget widgetWithMaxPixels(int maxPixels) {
+        QuestionWidget widget = mock(QuestionWidget.class);
+        when(widget.getFormEntryPrompt()).thenReturn(new MockFormEntryPromptBuilder()
+                .withBindAttribute(XML_OPENROSA_NAMESPACE, "max-pixels", String.valueOf(maxPixels))
+                .build());
+        return widget;
+    }
+}
@@ -0,0 +1,124 @@
+package org.odk.collect.android.utilities;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.odk.collect.android.database.InstanceDatabaseMigrator;
+import org.odk.collect.android.provider.InstanceProviderAPI.InstanceColumns;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.TestCase.assertFalse;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.odk.collect.android.database.DatabaseConstants.INSTANCES_TABLE_NAME;
+
+/**
+ * Checks that the queries used by the task list and the task synchronisation are able to use the
+ * indexes on the instances table rather than scanning it.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class InstancesQueryPlanTest {
+
+    private SQLiteDatabase db;
+
+    @Before
+    public void setup() {
+        db = SQLiteDatabase.create(null);
+        InstanceDatabaseMigrator.createLatestVersion(db);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void taskList_usesSourceIndex() {
+        String plan = getPlan(Utilities.getTaskSelection(false, false, false, false),
+                Utilities.getTaskSortOrderExpr(ApplicationConstants.SortingOrder.BY_NAME_ASC),
+                "server", Utilities.STATUS_T_CLOSED);
+
+        assertUsesIndex(plan);
+    }
+
+    @Test
+    public void taskListWithFilter_usesSourceIndex() {
+        String plan = getPlan(Utilities.getTaskSelection(false, false, true, true), null,
+                "server", Utilities.STATUS_T_CLOSED, "%title%");
+
+        assertUsesIndex(plan);
+    }
+
+    @Test
+    public void nonSynchronisedTasks_usesSourceIndex() {
+        String plan = getPlan(Utilities.getTaskSelection(true, true, false, false), null,
+                "server", Utilities.STATUS_SYNC_NO);
+
+        assertUsesIndex(plan);
+    }
+
+    @Test
+    public void tasksByStatus_usesTaskStatusIndex() {
+        String plan = getPlan(InstanceColumns.T_TASK_STATUS + " = ? and "
+                        + InstanceColumns.SOURCE + " = ? and "
+                        + "(" + InstanceColumns.T_IS_SYNC + " = ? or "
+                        + InstanceColumns.T_ASS_ID + " is null)", null,
+                Utilities.STATUS_T_ACCEPTED, "server", Utilities.STATUS_SYNC_NO);
+
+        assertThat(plan, containsString(InstanceDatabaseMigrator.INDEX_SOURCE_TASK_STATUS));
+    }
+
+    @Test
+    public void taskByAssignment_usesAssignmentIndex() {
+        String plan = getPlan(InstanceColumns.T_ASS_ID + " = 10 and " + InstanceColumns.SOURCE + " = ?", null,
+                "server");
+
+        assertThat(plan, containsString(InstanceDatabaseMigrator.INDEX_ASS_ID));
+    }
+
+    @Test
+    public void caseByUpdateId_usesUpdateIdIndex() {
+        String plan = getPlan(InstanceColumns.T_TASK_TYPE + " = 'case' and "
+                        + InstanceColumns.T_UPDATEID + " = ? and "
+                        + InstanceColumns.SOURCE + " = ?", null,
+                "uuid:1", "server");
+
+        assertThat(plan, containsString(InstanceDatabaseMigrator.INDEX_UPDATE_ID));
+    }
+
+    @Test
+    public void finalisedCount_usesStatusIndex() {
+        String plan = getPlan(InstanceColumns.SOURCE + "=? and (" + InstanceColumns.STATUS + "=? or "
+                        + InstanceColumns.STATUS + "=?) and " + InstanceColumns.DELETED_DATE + " is null ", null,
+                "server", "complete", "submissionFailed");
+
+        assertThat(plan, containsString(InstanceDatabaseMigrator.INDEX_SOURCE_STATUS));
+    }
+
+    private void assertUsesIndex(String plan) {
+        assertThat(plan, containsString("USING INDEX instances_"));
+        for (String step : plan.split("\n")) {
+            assertFalse(step, step.matches("SCAN (TABLE )?" + INSTANCES_TABLE_NAME));
+        }
+    }
+
+    private String getPlan(String selection, String sortOrder, String... args) {
+        String sql = "EXPLAIN QUERY PLAN SELECT * FROM " + INSTANCES_TABLE_NAME + " WHERE " + selection
+                + (sortOrder != null ? " ORDER BY " + sortOrder : "");
+
+        List<String> details = new ArrayList<>();
+        try (Cursor c = db.rawQuery(sql, args)) {
+            while (c.moveToNext()) {
+                details.add(c.getString(c.getColumnIndexOrThrow("detail")));
+            }
+        }
+        return String.join("\n", details);
+    }
+}